@@ -0,0 +1,122 @@
+package com.allendowney.thinkdast;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter for Strings: a set that can answer "definitely not present"
+ * or "probably present" using a fixed number of bits.
+ *
+ * The filter is sized from the number of insertions we expect and the false
+ * positive rate we are willing to accept. Bits are set with compare-and-set,
+ * so the filter can be shared between threads without locking.
+ *
+ */
+public class BloomFilter {
+
+	private final AtomicLongArray bits;
+	private final long numBits;
+	private final int numHashes;
+
+	/**
+	 * Makes a filter for `expectedInsertions` Strings with the given false positive rate.
+	 *
+	 * @param expectedInsertions
+	 * @param falsePositiveRate  between 0 and 1, exclusive.
+	 */
+	public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+		if (expectedInsertions <= 0) {
+			throw new IllegalArgumentException("expectedInsertions must be positive");
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+		}
+		// m = -n ln(p) / ln(2)^2 bits, k = m/n ln(2) hash functions
+		long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.max(1, (m + 63) / 64);
+		this.bits = new AtomicLongArray(words);
+		this.numBits = words * 64L;
+		this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+	}
+
+	/**
+	 * Adds a String to the filter.
+	 *
+	 * @param s
+	 * @return true if any bit changed, meaning `s` was definitely not in the filter before.
+	 */
+	public boolean put(String s) {
+		long h1 = Hashing.hash(s);
+		long h2 = Hashing.mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		boolean changed = false;
+		for (int i=0; i<numHashes; i++) {
+			changed |= setBit(index(h1 + i * h2));
+		}
+		return changed;
+	}
+
+	/**
+	 * Checks whether a String might have been added.
+	 *
+	 * @param s
+	 * @return false if `s` was definitely never added.
+	 */
+	public boolean mightContain(String s) {
+		long h1 = Hashing.hash(s);
+		long h2 = Hashing.mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i=0; i<numHashes; i++) {
+			long bit = index(h1 + i * h2);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of bits in the filter.
+	 *
+	 * @return
+	 */
+	public long bitSize() {
+		return numBits;
+	}
+
+	/**
+	 * Returns the number of bits set for each String.
+	 *
+	 * @return
+	 */
+	public int numHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * Estimates the current false positive rate from the fraction of bits that are set.
+	 *
+	 * @return
+	 */
+	public double expectedFalsePositiveRate() {
+		long set = 0;
+		for (int i=0; i<bits.length(); i++) {
+			set += Long.bitCount(bits.get(i));
+		}
+		return Math.pow((double) set / numBits, numHashes);
+	}
+
+	private long index(long combined) {
+		return (combined & Long.MAX_VALUE) % numBits;
+	}
+
+	private boolean setBit(long bit) {
+		int word = (int) (bit >>> 6);
+		long mask = 1L << bit;
+		long old;
+		do {
+			old = bits.get(word);
+			if ((old & mask) != 0) {
+				return false;
+			}
+		} while (!bits.compareAndSet(word, old, old | mask));
+		return true;
+	}
+}
@@ -0,0 +1,60 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+	private BloomFilter filter;
+
+	@Before
+	public void setUp() {
+		filter = new BloomFilter(10000, 0.01);
+	}
+
+	@Test
+	public void testSizing() {
+		// about 9.6 bits and 7 hash functions per element for 1%
+		assertThat(filter.bitSize() >= 95851, is(true));
+		assertThat(filter.numHashes(), is(7));
+	}
+
+	@Test
+	public void testNoFalseNegatives() {
+		int changed = 0;
+		for (int i=0; i<10000; i++) {
+			if (filter.put("/wiki/Page_" + i)) {
+				changed++;
+			}
+		}
+		// a new element only leaves the bits unchanged if it is a false positive
+		assertThat(changed > 9800, is(true));
+		for (int i=0; i<10000; i++) {
+			assertThat(filter.mightContain("/wiki/Page_" + i), is(true));
+			assertThat(filter.put("/wiki/Page_" + i), is(false));
+		}
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		for (int i=0; i<10000; i++) {
+			filter.put("/wiki/Page_" + i);
+		}
+		int falsePositives = 0;
+		for (int i=0; i<100000; i++) {
+			if (filter.mightContain("/wiki/Other_" + i)) {
+				falsePositives++;
+			}
+		}
+		assertThat(falsePositives < 2000, is(true));
+		assertThat(filter.expectedFalsePositiveRate() < 0.02, is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadRate() {
+		new BloomFilter(100, 1.0);
+	}
+}
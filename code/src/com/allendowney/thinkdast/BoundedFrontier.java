@@ -0,0 +1,62 @@
+package com.allendowney.thinkdast;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe FIFO frontier that holds at most `capacity` URLs.
+ *
+ * When the frontier is full new URLs are dropped rather than blocking
+ * the caller, since the callers are the same workers that drain it.
+ *
+ */
+public class BoundedFrontier implements Frontier {
+
+	private final BlockingQueue<String> queue;
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Makes a frontier with no practical limit on its size.
+	 */
+	public BoundedFrontier() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Makes a frontier that holds at most `capacity` URLs.
+	 *
+	 * @param capacity
+	 */
+	public BoundedFrontier(int capacity) {
+		this.queue = new LinkedBlockingQueue<String>(capacity);
+	}
+
+	@Override
+	public boolean offer(String url) {
+		if (queue.offer(url)) {
+			return true;
+		}
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	@Override
+	public String poll() {
+		return queue.poll();
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of URLs that were dropped because the frontier was full.
+	 *
+	 * @return
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+}
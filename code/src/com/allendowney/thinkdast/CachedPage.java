@@ -0,0 +1,31 @@
+package com.allendowney.thinkdast;
+
+/**
+ * The HTML of a page together with the validators the server sent with it.
+ *
+ * The ETag and Last-Modified values are sent back on the next fetch, so the
+ * server can answer "304 Not Modified" instead of the whole page.
+ *
+ */
+public class CachedPage {
+	public final String url;
+	public final String html;
+	public final String etag;
+	public final String lastModified;
+	public final long fetchedAt;
+
+	/**
+	 * @param url
+	 * @param html
+	 * @param etag          ETag header, or null.
+	 * @param lastModified  Last-Modified header, or null.
+	 * @param fetchedAt     When the page was fetched, in milliseconds since the epoch.
+	 */
+	public CachedPage(String url, String html, String etag, String lastModified, long fetchedAt) {
+		this.url = url;
+		this.html = html;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.fetchedAt = fetchedAt;
+	}
+}
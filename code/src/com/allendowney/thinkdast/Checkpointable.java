@@ -0,0 +1,17 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+
+/**
+ * Something that can save its state so a restarted crawler can pick up where it stopped.
+ *
+ */
+public interface Checkpointable {
+
+	/**
+	 * Writes the current state to durable storage.
+	 *
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException;
+}
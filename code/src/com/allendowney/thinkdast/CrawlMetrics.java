@@ -0,0 +1,228 @@
+package com.allendowney.thinkdast;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and gauges for a running crawl.
+ *
+ * All methods are safe to call from any thread while the crawl is running.
+ *
+ */
+public class CrawlMetrics {
+
+	private final LongAdder pages = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder indexLookups = new LongAdder();
+	private final LongAdder missing = new LongAdder();
+	private final LongAdder terms = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private final LongAdder countNanos = new LongAdder();
+	private final LongAdder indexNanos = new LongAdder();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile long startTime = System.nanoTime();
+
+	/**
+	 * Resets the clock used for the rate gauges, and the peak heap usage.
+	 */
+	public void start() {
+		startTime = System.nanoTime();
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	void pageStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	void pageFinished(boolean indexed) {
+		inFlight.decrementAndGet();
+		if (indexed) {
+			pages.increment();
+		} else {
+			failures.increment();
+		}
+	}
+
+	void indexLookedUp() {
+		indexLookups.increment();
+	}
+
+	void pageMissing() {
+		missing.increment();
+	}
+
+	/**
+	 * Records where the time went for one page.
+	 *
+	 * @param parse  Nanoseconds spent getting and parsing the paragraphs.
+	 * @param count  Nanoseconds spent counting the terms.
+	 * @param index  Nanoseconds spent adding the counts to the index.
+	 * @param termCount  Number of terms on the page.
+	 */
+	void pageTimed(long parse, long count, long index, long termCount) {
+		parseNanos.add(parse);
+		countNanos.add(count);
+		indexNanos.add(index);
+		terms.add(termCount);
+	}
+
+	/**
+	 * Returns the number of pages indexed so far.
+	 *
+	 * @return
+	 */
+	public long pagesIndexed() {
+		return pages.sum();
+	}
+
+	/**
+	 * Returns the number of pages that could not be fetched.
+	 *
+	 * @return
+	 */
+	public long failures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Returns the number of times the index was asked whether a URL is indexed.
+	 *
+	 * For a JedisIndex each of these is a round trip to Redis.
+	 *
+	 * @return
+	 */
+	public long indexLookups() {
+		return indexLookups.sum();
+	}
+
+	/**
+	 * Returns the number of pages the PageSource did not have, e.g. pages outside the local corpus.
+	 *
+	 * These are included in failures().
+	 *
+	 * @return
+	 */
+	public long missing() {
+		return missing.sum();
+	}
+
+	/**
+	 * Returns the number of terms counted on the pages indexed so far.
+	 *
+	 * @return
+	 */
+	public long terms() {
+		return terms.sum();
+	}
+
+	/**
+	 * Returns the time spent getting and parsing pages, summed over all workers.
+	 *
+	 * @return
+	 */
+	public long parseNanos() {
+		return parseNanos.sum();
+	}
+
+	/**
+	 * Returns the time spent counting terms, summed over all workers.
+	 *
+	 * @return
+	 */
+	public long countNanos() {
+		return countNanos.sum();
+	}
+
+	/**
+	 * Returns the time spent adding pages to the index, summed over all workers.
+	 *
+	 * Includes time spent waiting for other workers to finish with the index.
+	 *
+	 * @return
+	 */
+	public long indexNanos() {
+		return indexNanos.sum();
+	}
+
+	/**
+	 * Returns the peak heap usage since start(), summed over the heap memory pools.
+	 *
+	 * The pools peak at different moments, so this is an upper bound.
+	 *
+	 * @return
+	 */
+	public long peakHeapBytes() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Returns the number of pages currently being fetched or indexed.
+	 *
+	 * @return
+	 */
+	public int inFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Returns the number of pages indexed per second since the crawl started.
+	 *
+	 * @return
+	 */
+	public double pagesPerSecond() {
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		return seconds == 0 ? 0 : pagesIndexed() / seconds;
+	}
+
+	/**
+	 * Returns the number of terms counted per second since the crawl started.
+	 *
+	 * @return
+	 */
+	public double termsPerSecond() {
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		return seconds == 0 ? 0 : terms() / seconds;
+	}
+
+	/**
+	 * Returns a multi-line report of throughput, where the time went, and peak heap.
+	 *
+	 * @return
+	 */
+	public String report() {
+		long total = parseNanos() + countNanos() + indexNanos();
+		return String.format("%d pages, %d terms, %d failures (%d missing)%n"
+				+ "%.1f pages/sec, %.0f terms/sec%n"
+				+ "parse %d ms (%.0f%%), count %d ms (%.0f%%), index %d ms (%.0f%%)%n"
+				+ "peak heap %.1f MB",
+				pagesIndexed(), terms(), failures(), missing(),
+				pagesPerSecond(), termsPerSecond(),
+				parseNanos() / 1000000, percent(parseNanos(), total),
+				countNanos() / 1000000, percent(countNanos(), total),
+				indexNanos() / 1000000, percent(indexNanos(), total),
+				peakHeapBytes() / 1e6);
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0 ? 0 : 100.0 * part / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d pages, %d failures, %d in flight, %d index lookups, %.1f pages/sec",
+				pagesIndexed(), failures(), inFlight(), indexLookups(), pagesPerSecond());
+	}
+}
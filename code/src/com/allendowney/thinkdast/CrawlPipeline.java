@@ -0,0 +1,337 @@
+package com.allendowney.thinkdast;
+
+import java.io.FileNotFoundException;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jsoup.select.Elements;
+
+/**
+ * Crawls in five stages, each with its own threads and bounded queue:
+ * fetch, parse, tokenize, index and link.
+ *
+ * WikiCrawler does all five in one thread per page, so whichever is slowest
+ * sets the pace and there is no telling which one that is. Here each stage
+ * reports its own throughput, queue depth and latencies (see PipelineStage),
+ * and the threads can be moved to the stage that needs them with configure().
+ * A stage that falls behind fills its queue and makes the stage before it wait.
+ *
+ */
+public class CrawlPipeline {
+
+	/**
+	 * The stages, in order.
+	 */
+	public enum Stage { FETCH, PARSE, TOKENIZE, INDEX, LINKS }
+
+	/**
+	 * A page on its way through the pipeline.
+	 */
+	static class Page {
+		final String url;
+		String html;
+		Elements paragraphs;
+		TermCounter counter;
+		// set once the page is in the index, so a later failure does not give back its claim
+		boolean indexed = false;
+
+		Page(String url) {
+			this.url = url;
+		}
+	}
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	// how long the feeder waits before looking at the queue again
+	private static final long IDLE_POLL_MILLIS = 50;
+
+	private final PageIndex index;
+	private final Frontier queue;
+	private HtmlSource htmlSource = WikiFetcher.getInstance()::readWikipediaHtml;
+	private LinkGraph linkGraph;
+	private RecrawlScheduler recrawlScheduler;
+
+	private final Map<Stage, PipelineStage<Page>> stages = new EnumMap<Stage, PipelineStage<Page>>(Stage.class);
+	private final CrawlMetrics metrics = new CrawlMetrics();
+
+	// admission and completion of pages, under `lock`
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Set<String> active = new HashSet<String>();
+	private int claimed = 0;
+
+	private CrawlPipeline(PageIndex index, Frontier frontier) {
+		this.index = index;
+		this.queue = frontier;
+	}
+
+	/**
+	 * Makes a pipeline with four fetch threads, two each for parse and
+	 * tokenize, and one each for index and links.
+	 *
+	 * As with WikiCrawler, the source is only queued if the frontier is empty.
+	 * (The stages call back into the pipeline, so they are wired here rather
+	 * than in a constructor, where `this` is not fully built yet.)
+	 *
+	 * @param source
+	 * @param index
+	 * @param frontier
+	 * @return
+	 */
+	public static CrawlPipeline create(String source, PageIndex index, Frontier frontier) {
+		CrawlPipeline pipeline = new CrawlPipeline(index, frontier);
+		if (frontier.isEmpty()) {
+			frontier.offer(source);
+		}
+		pipeline.configure(Stage.FETCH, 4, DEFAULT_CAPACITY);
+		pipeline.configure(Stage.PARSE, 2, DEFAULT_CAPACITY);
+		pipeline.configure(Stage.TOKENIZE, 2, DEFAULT_CAPACITY);
+		pipeline.configure(Stage.INDEX, 1, DEFAULT_CAPACITY);
+		pipeline.configure(Stage.LINKS, 1, DEFAULT_CAPACITY);
+		return pipeline;
+	}
+
+	/**
+	 * Sets the number of threads and the queue capacity of a stage.
+	 *
+	 * Call before run(); the stage's counters start over.
+	 *
+	 * @param stage
+	 * @param threads
+	 * @param capacity
+	 */
+	public void configure(Stage stage, int threads, int capacity) {
+		stages.put(stage, new PipelineStage<Page>(stage.name().toLowerCase(), threads, capacity,
+				workerFor(stage), this::finished));
+	}
+
+	/**
+	 * Sets where the fetch stage gets pages from.
+	 *
+	 * @param htmlSource
+	 */
+	public void setHtmlSource(HtmlSource htmlSource) {
+		this.htmlSource = htmlSource;
+	}
+
+	/**
+	 * Sets where the link stage records the links of each page.
+	 *
+	 * @param linkGraph  null to stop recording links.
+	 */
+	public void setLinkGraph(LinkGraph linkGraph) {
+		this.linkGraph = linkGraph;
+	}
+
+	/**
+	 * Sets the scheduler the index stage tells about each page it indexes.
+	 *
+	 * @param scheduler  null to stop recording pages.
+	 */
+	public void setRecrawlScheduler(RecrawlScheduler scheduler) {
+		this.recrawlScheduler = scheduler;
+	}
+
+	/**
+	 * Returns a stage, to read its counters.
+	 *
+	 * @param stage
+	 * @return
+	 */
+	public PipelineStage<?> getStage(Stage stage) {
+		return stages.get(stage);
+	}
+
+	/**
+	 * Returns the counters for the crawl as a whole.
+	 *
+	 * @return
+	 */
+	public CrawlMetrics getMetrics() {
+		return metrics;
+	}
+
+	private PipelineStage.Worker<Page> workerFor(Stage stage) {
+		switch (stage) {
+		case FETCH:
+			return page -> {
+				page.html = htmlSource.getHtml(page.url);
+				return true;
+			};
+		case PARSE:
+			return page -> {
+				page.paragraphs = WikiFetcher.parseParagraphs(page.html, page.url);
+				page.html = null;
+				return true;
+			};
+		case TOKENIZE:
+			return page -> {
+				page.counter = new TermCounter(page.url);
+				page.counter.processElements(page.paragraphs);
+				return true;
+			};
+		case INDEX:
+			return page -> {
+				synchronized (index) {
+					index.indexPage(page.counter);
+				}
+				page.indexed = true;
+				if (recrawlScheduler != null) {
+					recrawlScheduler.record(page.url, RecrawlScheduler.contentHash(page.counter), System.currentTimeMillis());
+				}
+				return true;
+			};
+		case LINKS:
+			return page -> {
+				Set<String> targets = WikiCrawler.internalLinks(page.paragraphs);
+				if (linkGraph != null) {
+					linkGraph.setLinks(page.url, targets);
+				}
+				for (String target: targets) {
+					queue.offer(target);
+				}
+				return true;
+			};
+		default:
+			throw new IllegalArgumentException(stage.toString());
+		}
+	}
+
+	/**
+	 * Crawls until `limit` new pages are indexed or the queue runs dry.
+	 *
+	 * @param limit
+	 * @return number of pages indexed.
+	 * @throws InterruptedException
+	 */
+	public long run(int limit) throws InterruptedException {
+		final long before = metrics.pagesIndexed();
+		PipelineStage<Page> previous = null;
+		for (Stage stage: Stage.values()) {
+			PipelineStage<Page> current = stages.get(stage);
+			if (previous != null) {
+				previous.setNext(current);
+			}
+			previous = current;
+		}
+		metrics.start();
+		for (PipelineStage<Page> stage: stages.values()) {
+			stage.start();
+		}
+
+		try {
+			PipelineStage<Page> fetch = stages.get(Stage.FETCH);
+			String url;
+			while ((url = admit(limit)) != null) {
+				metrics.pageStarted();
+				// waits while the fetch queue is full
+				fetch.put(new Page(url));
+			}
+		} finally {
+			for (PipelineStage<Page> stage: stages.values()) {
+				stage.stop();
+			}
+		}
+		return metrics.pagesIndexed() - before;
+	}
+
+	/**
+	 * Returns the next URL to crawl, or null when the crawl is over.
+	 *
+	 * The crawl is over when `limit` pages are indexed, or when the queue is
+	 * empty and no page is in the pipeline, since only those can add links.
+	 */
+	private String admit(int limit) throws InterruptedException {
+		lock.lock();
+		try {
+			while (true) {
+				if (claimed >= limit) {
+					if (active.isEmpty()) {
+						return null;
+					}
+					changed.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+					continue;
+				}
+				String url = queue.poll();
+				if (url == null) {
+					if (active.isEmpty()) {
+						return null;
+					}
+					changed.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+					continue;
+				}
+				if (active.contains(url) || isIndexed(url)) {
+					continue;
+				}
+				active.add(url);
+				claimed++;
+				return url;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isIndexed(String url) {
+		metrics.indexLookedUp();
+		synchronized (index) {
+			return index.isIndexed(url);
+		}
+	}
+
+	/**
+	 * Called by the stages when a page leaves the pipeline.
+	 */
+	private void finished(Page page, Throwable failure) {
+		if (failure instanceof FileNotFoundException) {
+			// not in the local store
+			metrics.pageMissing();
+		} else if (failure != null) {
+			System.err.println("Failed to crawl " + page.url + ": " + failure);
+		}
+		metrics.pageFinished(page.indexed);
+		lock.lock();
+		try {
+			active.remove(page.url);
+			// a page that failed before it was indexed leaves room for another
+			if (!page.indexed) {
+				claimed--;
+			}
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the counters of every stage.
+	 *
+	 * @return
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(metrics).append(System.lineSeparator());
+		for (PipelineStage<Page> stage: stages.values()) {
+			sb.append(stage).append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Crawls the stored pages through the pipeline and prints the counters of each stage.
+	 *
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		String source = "https://en.wikipedia.org/wiki/Programming_language";
+		CrawlPipeline pipeline = CrawlPipeline.create(source, new Index(), new DedupFrontier(new BoundedFrontier(), 1 << 20, 0.001));
+		pipeline.run(Integer.MAX_VALUE);
+		System.out.println(pipeline.report());
+	}
+}
@@ -0,0 +1,150 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CrawlPipelineTest {
+
+	private static final String SOURCE = "https://en.wikipedia.org/wiki/Programming_language";
+
+	/**
+	 * Returns the HTML of a made-up page with links to `targets`.
+	 */
+	private static String page(String... targets) {
+		StringBuilder html = new StringBuilder("<html><body><div id=\"mw-content-text\"><p>text");
+		for (String target: targets) {
+			html.append(" <a href=\"/wiki/").append(target).append("\">").append(target).append("</a>");
+		}
+		return html.append("</p></div></body></html>").toString();
+	}
+
+	/**
+	 * Three pages that link to each other, and to a fourth that is missing.
+	 */
+	private static String smallSite(String url) throws IOException {
+		switch (url.substring(url.lastIndexOf('/') + 1)) {
+		case "A":
+			return page("B", "C", "Missing");
+		case "B":
+			return page("A", "C");
+		case "C":
+			return page("B");
+		default:
+			throw new FileNotFoundException(url);
+		}
+	}
+
+	@Test
+	public void testCrawlSmallSite() throws Exception {
+		Index index = new Index();
+		CrawlPipeline pipeline = CrawlPipeline.create("https://en.wikipedia.org/wiki/A", index, new BoundedFrontier());
+		pipeline.setHtmlSource(CrawlPipelineTest::smallSite);
+		long indexed = pipeline.run(10);
+
+		assertThat(indexed, is(3L));
+		assertThat(index.isIndexed("https://en.wikipedia.org/wiki/C"), is(true));
+
+		PipelineStage<?> fetch = pipeline.getStage(CrawlPipeline.Stage.FETCH);
+		PipelineStage<?> links = pipeline.getStage(CrawlPipeline.Stage.LINKS);
+		assertThat(fetch.processed(), is(3L));
+		assertThat(fetch.failures(), is(1L));
+		assertThat(pipeline.getMetrics().missing(), is(1L));
+		assertThat(links.processed(), is(3L));
+		assertThat(links.getServiceTimes().count(), is(3L));
+		assertThat(pipeline.getMetrics().inFlight(), is(0));
+	}
+
+	@Test
+	public void testLimitHoldsWhenLinksFail() throws Exception {
+		BoundedFrontier frontier = new BoundedFrontier();
+		for (int i=0; i<10; i++) {
+			frontier.offer("https://en.wikipedia.org/wiki/P" + i);
+		}
+		Index index = new Index();
+		CrawlPipeline pipeline = CrawlPipeline.create("https://en.wikipedia.org/wiki/P0", index, frontier);
+		pipeline.setHtmlSource(url -> page());
+		// every page fails in the last stage, after it is indexed
+		pipeline.setLinkGraph(new LinkGraph() {
+			@Override
+			public synchronized void setLinks(String source, Collection<String> targets) {
+				throw new IllegalStateException("no room for links");
+			}
+		});
+
+		assertThat(pipeline.run(3), is(3L));
+		int inIndex = 0;
+		for (int i=0; i<10; i++) {
+			if (index.isIndexed("https://en.wikipedia.org/wiki/P" + i)) {
+				inIndex++;
+			}
+		}
+		assertThat(inIndex, is(3));
+	}
+
+	@Test
+	public void testRecordsLinks() throws Exception {
+		LinkGraph graph = new LinkGraph();
+		CrawlPipeline pipeline = CrawlPipeline.create(SOURCE, new Index(), new BoundedFrontier());
+		pipeline.setLinkGraph(graph);
+		pipeline.run(1);
+
+		Set<String> links = WikiCrawler.internalLinks(WikiFetcher.getInstance().readWikipedia(SOURCE));
+		int source = graph.id(SOURCE);
+		assertThat(graph.outDegree(source), is(links.size()));
+		assertThat(graph.edges(), is((long) links.size()));
+	}
+
+	@Test
+	public void testBackPressure() throws Exception {
+		final int capacity = 2;
+		final AtomicLong maxBacklog = new AtomicLong();
+		final CrawlPipeline[] holder = new CrawlPipeline[1];
+
+		// a slow index that records how far fetching has run ahead of it
+		PageIndex slowIndex = new Index() {
+			@Override
+			public void indexPage(TermCounter tc) {
+				PipelineStage<?> fetch = holder[0].getStage(CrawlPipeline.Stage.FETCH);
+				PipelineStage<?> index = holder[0].getStage(CrawlPipeline.Stage.INDEX);
+				maxBacklog.accumulateAndGet(fetch.processed() - index.processed(), Math::max);
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.indexPage(tc);
+			}
+		};
+
+		CrawlPipeline pipeline = CrawlPipeline.create("https://en.wikipedia.org/wiki/P0", slowIndex, new BoundedFrontier());
+		holder[0] = pipeline;
+		for (CrawlPipeline.Stage stage: CrawlPipeline.Stage.values()) {
+			pipeline.configure(stage, 1, capacity);
+		}
+		// every page links to two new ones, so the crawl never runs dry
+		pipeline.setHtmlSource(url -> {
+			int n = Integer.parseInt(url.substring(url.lastIndexOf('P') + 1));
+			return "<html><body><div id=\"mw-content-text\"><p>page " + n
+					+ " <a href=\"/wiki/P" + (2 * n + 1) + "\">left</a>"
+					+ " <a href=\"/wiki/P" + (2 * n + 2) + "\">right</a></p></div></body></html>";
+		});
+
+		assertThat(pipeline.run(30), is(30L));
+
+		// parse, tokenize and index can each hold a queue and one page in hand,
+		// and the fetch thread one more while it waits to hand it on
+		assertThat(maxBacklog.get() <= 3 * (capacity + 1) + 1, is(true));
+		assertThat(maxBacklog.get() > 1, is(true));
+		for (CrawlPipeline.Stage stage: CrawlPipeline.Stage.values()) {
+			assertThat(pipeline.getStage(stage).maxQueueDepth() <= capacity, is(true));
+		}
+	}
+}
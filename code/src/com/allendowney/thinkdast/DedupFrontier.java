@@ -0,0 +1,216 @@
+package com.allendowney.thinkdast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Frontier that drops URLs it has already seen, so every URL is queued at most once.
+ *
+ * A BloomFilter answers most lookups: if it has never seen a URL, the URL is
+ * new. Only when the filter says "maybe" do we look in the exact set of seen
+ * URLs; a new URL is still added to the set, so that later lookups find it.
+ * The exact set can be turned off to save memory, in which case a small
+ * fraction of new URLs (the false positive rate) is dropped.
+ *
+ * A DedupFrontier opened with a state file keeps a log of seen URLs there:
+ * checkpoint() appends the URLs seen since the last checkpoint, and open()
+ * reads them back into the filter and the seen-set. The wrapped frontier, if
+ * it is Checkpointable, is saved first. So after a crash the seen-set is never
+ * ahead of the queue: a URL may be queued a second time, but none is lost.
+ *
+ */
+public class DedupFrontier implements Frontier, Checkpointable {
+
+	private final Frontier frontier;
+	private final BloomFilter filter;
+	private final Set<String> seen;
+
+	// where checkpoint() appends seen URLs, or null
+	private Path stateFile = null;
+	// URLs added to `seen` since the last checkpoint; guarded by `seen`
+	private final List<String> unsaved = new ArrayList<String>();
+
+	private final AtomicLong duplicates = new AtomicLong();
+	private final AtomicLong exactLookups = new AtomicLong();
+
+	/**
+	 * Wraps `frontier` with a filter sized for `expectedUrls` and an exact seen-set.
+	 *
+	 * @param frontier
+	 * @param expectedUrls
+	 * @param falsePositiveRate
+	 */
+	public DedupFrontier(Frontier frontier, long expectedUrls, double falsePositiveRate) {
+		this(frontier, expectedUrls, falsePositiveRate, true);
+	}
+
+	/**
+	 * Wraps `frontier` with a filter sized for `expectedUrls`.
+	 *
+	 * @param frontier
+	 * @param expectedUrls
+	 * @param falsePositiveRate
+	 * @param exact  Whether to keep an exact set of seen URLs behind the filter.
+	 */
+	public DedupFrontier(Frontier frontier, long expectedUrls, double falsePositiveRate, boolean exact) {
+		this.frontier = frontier;
+		this.filter = new BloomFilter(expectedUrls, falsePositiveRate);
+		this.seen = exact ? new HashSet<String>() : null;
+	}
+
+	/**
+	 * Wraps `frontier` with an exact seen-set, restoring the URLs logged in `stateFile` if it exists.
+	 *
+	 * @param frontier
+	 * @param stateFile  Where checkpoint() logs the URLs seen.
+	 * @param expectedUrls
+	 * @param falsePositiveRate
+	 * @return
+	 * @throws IOException
+	 */
+	public static DedupFrontier open(Frontier frontier, Path stateFile, long expectedUrls, double falsePositiveRate) throws IOException {
+		DedupFrontier dedup = new DedupFrontier(frontier, expectedUrls, falsePositiveRate);
+		if (Files.exists(stateFile)) {
+			long valid = 0;
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+				while (true) {
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					String url = new String(bytes, StandardCharsets.UTF_8);
+					dedup.filter.put(url);
+					dedup.seen.add(url);
+					valid += 4 + bytes.length;
+				}
+			} catch (EOFException e) {
+				// the end of the log, or a record torn by a crash
+			}
+			// drop a torn record, so the next checkpoint appends after the last whole one
+			try (FileChannel channel = FileChannel.open(stateFile, StandardOpenOption.WRITE)) {
+				channel.truncate(valid);
+			}
+		}
+		dedup.stateFile = stateFile;
+		return dedup;
+	}
+
+	/**
+	 * Saves the wrapped frontier, then appends the URLs seen since the last checkpoint to the log.
+	 */
+	@Override
+	public void checkpoint() throws IOException {
+		if (frontier instanceof Checkpointable) {
+			((Checkpointable) frontier).checkpoint();
+		}
+		if (stateFile == null) {
+			return;
+		}
+		List<String> urls;
+		synchronized (seen) {
+			urls = new ArrayList<String>(unsaved);
+		}
+		try (FileChannel channel = FileChannel.open(stateFile,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			for (String url: urls) {
+				byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.flush();
+			channel.force(false);
+		}
+		synchronized (seen) {
+			unsaved.subList(0, urls.size()).clear();
+		}
+	}
+
+	@Override
+	public boolean offer(String url) {
+		if (!markSeen(url)) {
+			duplicates.incrementAndGet();
+			return false;
+		}
+		return frontier.offer(url);
+	}
+
+	/**
+	 * Records a URL as seen without queueing it, e.g. for pages indexed by an earlier crawl.
+	 *
+	 * @param url
+	 * @return true if the URL had not been seen before.
+	 */
+	public boolean markSeen(String url) {
+		// put returns true only if the filter definitely did not contain url
+		if (seen == null) {
+			return filter.put(url);
+		}
+		// the filter and the set change together, so a URL the filter has not
+		// seen is not in the set either
+		synchronized (seen) {
+			if (!filter.put(url)) {
+				exactLookups.incrementAndGet();
+				if (!seen.add(url)) {
+					return false;
+				}
+			} else {
+				seen.add(url);
+			}
+			if (stateFile != null) {
+				unsaved.add(url);
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public String poll() {
+		return frontier.poll();
+	}
+
+	@Override
+	public int size() {
+		return frontier.size();
+	}
+
+	/**
+	 * Returns the number of URLs dropped because they had been seen before.
+	 *
+	 * @return
+	 */
+	public long duplicates() {
+		return duplicates.get();
+	}
+
+	/**
+	 * Returns the number of times the filter said "maybe" and the exact set was checked.
+	 *
+	 * @return
+	 */
+	public long exactLookups() {
+		return exactLookups.get();
+	}
+
+	/**
+	 * Returns the filter in front of the seen-set.
+	 *
+	 * @return
+	 */
+	public BloomFilter getFilter() {
+		return filter;
+	}
+}
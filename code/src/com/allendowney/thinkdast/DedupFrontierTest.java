@@ -0,0 +1,53 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DedupFrontierTest {
+
+	private DedupFrontier frontier;
+
+	@Before
+	public void setUp() {
+		frontier = new DedupFrontier(new BoundedFrontier(), 1000, 0.01);
+	}
+
+	@Test
+	public void testOfferOnce() {
+		assertThat(frontier.offer("a"), is(true));
+		assertThat(frontier.offer("b"), is(true));
+		assertThat(frontier.offer("a"), is(false));
+		assertThat(frontier.size(), is(2));
+		assertThat(frontier.duplicates(), is(1L));
+		assertThat(frontier.exactLookups(), is(1L));
+	}
+
+	@Test
+	public void testSeenAfterPoll() {
+		frontier.offer("a");
+		assertThat(frontier.poll(), is("a"));
+		assertThat(frontier.offer("a"), is(false));
+		assertThat(frontier.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testMarkSeen() {
+		assertThat(frontier.markSeen("a"), is(true));
+		assertThat(frontier.offer("a"), is(false));
+	}
+
+	@Test
+	public void testWithoutExactSet() {
+		frontier = new DedupFrontier(new BoundedFrontier(), 1000, 0.01, false);
+		for (int i=0; i<1000; i++) {
+			frontier.offer("url" + i);
+			frontier.offer("url" + i);
+		}
+		assertThat(frontier.duplicates() >= 1000, is(true));
+		assertThat(frontier.size() > 980, is(true));
+		assertThat(frontier.exactLookups(), is(0L));
+	}
+}
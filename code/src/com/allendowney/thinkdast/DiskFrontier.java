@@ -0,0 +1,209 @@
+package com.allendowney.thinkdast;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A FIFO Frontier kept on disk, so it survives a restart and does not grow the heap.
+ *
+ * URLs are appended to a log split into fixed-size segment files. The segment
+ * being written and the segment being read are memory-mapped; everything else
+ * stays on disk. Each record is a length followed by the UTF-8 bytes of the URL,
+ * and a length of -1 marks the end of a segment.
+ *
+ * checkpoint() saves the read and write cursors. When a frontier is reopened it
+ * starts from the saved cursors, and also picks up any records appended after the
+ * last checkpoint (the length is written last, so a torn record looks like the end
+ * of the log). URLs polled after the last checkpoint are handed out again.
+ *
+ */
+public class DiskFrontier implements Frontier, Checkpointable, Closeable {
+
+	private static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	private static final int END_OF_SEGMENT = -1;
+	private static final String CHECKPOINT = "checkpoint";
+
+	private final Path dir;
+	private final int segmentSize;
+
+	private long readSegment = 0;
+	private int readOffset = 0;
+	private MappedByteBuffer readBuffer;
+
+	private long writeSegment = 0;
+	private int writeOffset = 0;
+	private MappedByteBuffer writeBuffer;
+
+	private long size = 0;
+
+	/**
+	 * Opens (or creates) a frontier in `dir` with 64 MB segments.
+	 *
+	 * @param dir
+	 * @throws IOException
+	 */
+	public DiskFrontier(Path dir) throws IOException {
+		this(dir, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens (or creates) a frontier in `dir`.
+	 *
+	 * @param dir
+	 * @param segmentSize  Size of each segment file in bytes.
+	 * @throws IOException
+	 */
+	public DiskFrontier(Path dir, int segmentSize) throws IOException {
+		if (segmentSize < 64) {
+			throw new IllegalArgumentException("segmentSize must be at least 64 bytes");
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(dir);
+
+		Path checkpoint = dir.resolve(CHECKPOINT);
+		if (Files.exists(checkpoint)) {
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpoint))) {
+				readSegment = in.readLong();
+				readOffset = in.readInt();
+				writeSegment = in.readLong();
+				writeOffset = in.readInt();
+				size = in.readLong();
+			}
+		}
+		writeBuffer = map(writeSegment);
+		recover();
+		readBuffer = readSegment == writeSegment ? writeBuffer : map(readSegment);
+	}
+
+	/**
+	 * Moves the write cursor past records appended after the last checkpoint.
+	 */
+	private void recover() throws IOException {
+		while (true) {
+			int length = writeOffset + 4 <= segmentSize ? writeBuffer.getInt(writeOffset) : END_OF_SEGMENT;
+			if (length == END_OF_SEGMENT) {
+				if (!Files.exists(segmentPath(writeSegment + 1))) {
+					return;
+				}
+				writeSegment++;
+				writeOffset = 0;
+				writeBuffer = map(writeSegment);
+			} else if (length > 0) {
+				writeOffset += 4 + length;
+				size++;
+			} else {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public synchronized boolean offer(String url) {
+		byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length == 0 || 8 + bytes.length > segmentSize) {
+			throw new IllegalArgumentException("URL does not fit in a segment: " + url);
+		}
+		// leave room for the end-of-segment marker
+		if (writeOffset + 8 + bytes.length > segmentSize) {
+			writeBuffer.putInt(writeOffset, END_OF_SEGMENT);
+			try {
+				writeSegment++;
+				writeOffset = 0;
+				writeBuffer = map(writeSegment);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		// write the bytes first, then the length that makes the record visible
+		writeBuffer.put(writeOffset + 4, bytes);
+		writeBuffer.putInt(writeOffset, bytes.length);
+		writeOffset += 4 + bytes.length;
+		size++;
+		return true;
+	}
+
+	@Override
+	public synchronized String poll() {
+		if (size == 0) {
+			return null;
+		}
+		while (true) {
+			int length = readBuffer.getInt(readOffset);
+			if (length == END_OF_SEGMENT) {
+				readSegment++;
+				readOffset = 0;
+				try {
+					readBuffer = readSegment == writeSegment ? writeBuffer : map(readSegment);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				continue;
+			}
+			byte[] bytes = new byte[length];
+			readBuffer.get(readOffset + 4, bytes);
+			readOffset += 4 + length;
+			size--;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	public synchronized int size() {
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Flushes the mapped segments, saves the cursors, and deletes segments that have been read.
+	 */
+	@Override
+	public synchronized void checkpoint() throws IOException {
+		writeBuffer.force();
+
+		Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+			out.writeLong(readSegment);
+			out.writeInt(readOffset);
+			out.writeLong(writeSegment);
+			out.writeInt(writeOffset);
+			out.writeLong(size);
+		}
+		Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// segments before the read cursor are no longer needed
+		for (long segment = readSegment - 1; segment >= 0; segment--) {
+			if (!Files.deleteIfExists(segmentPath(segment))) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Saves a checkpoint. The frontier should not be used after it is closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		checkpoint();
+	}
+
+	private Path segmentPath(long segment) {
+		return dir.resolve(String.format("segment-%012d.log", segment));
+	}
+
+	private MappedByteBuffer map(long segment) throws IOException {
+		try (FileChannel channel = FileChannel.open(segmentPath(segment),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskFrontierTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = folder.newFolder("frontier").toPath();
+	}
+
+	@Test
+	public void testFifoAcrossSegments() throws IOException {
+		DiskFrontier frontier = new DiskFrontier(dir, 128);
+		for (int i=0; i<100; i++) {
+			frontier.offer("https://en.wikipedia.org/wiki/Page_" + i);
+		}
+		assertThat(frontier.size(), is(100));
+		for (int i=0; i<100; i++) {
+			assertThat(frontier.poll(), is("https://en.wikipedia.org/wiki/Page_" + i));
+		}
+		assertThat(frontier.poll(), nullValue());
+		assertThat(frontier.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() throws IOException {
+		DiskFrontier frontier = new DiskFrontier(dir, 128);
+		for (int i=0; i<10; i++) {
+			frontier.offer("url" + i);
+		}
+		frontier.poll();
+		frontier.poll();
+		frontier.close();
+
+		frontier = new DiskFrontier(dir, 128);
+		assertThat(frontier.size(), is(8));
+		assertThat(frontier.poll(), is("url2"));
+	}
+
+	@Test
+	public void testRecoversRecordsAfterCheckpoint() throws IOException {
+		DiskFrontier frontier = new DiskFrontier(dir, 128);
+		frontier.offer("url0");
+		frontier.checkpoint();
+		frontier.poll();
+		for (int i=1; i<20; i++) {
+			frontier.offer("url" + i);
+		}
+
+		// no checkpoint: the poll is forgotten, the appended records are found
+		frontier = new DiskFrontier(dir, 128);
+		assertThat(frontier.size(), is(20));
+		for (int i=0; i<20; i++) {
+			assertThat(frontier.poll(), is("url" + i));
+		}
+	}
+
+	@Test
+	public void testCheckpointDeletesReadSegments() throws IOException {
+		DiskFrontier frontier = new DiskFrontier(dir, 64);
+		for (int i=0; i<50; i++) {
+			frontier.offer("url" + i);
+		}
+		while (frontier.size() > 1) {
+			frontier.poll();
+		}
+		frontier.checkpoint();
+		long segments;
+		try (var files = Files.list(dir)) {
+			segments = files.filter(p -> p.getFileName().toString().startsWith("segment")).count();
+		}
+		assertThat(segments, is(1L));
+	}
+
+	@Test
+	public void testDedupStateSurvivesRestart() throws IOException {
+		Path state = dir.resolve("seen");
+		DedupFrontier frontier = DedupFrontier.open(new DiskFrontier(dir, 128), state, 1000, 0.01);
+		frontier.offer("a");
+		frontier.offer("b");
+		frontier.poll();
+		frontier.checkpoint();
+
+		frontier = DedupFrontier.open(new DiskFrontier(dir, 128), state, 1000, 0.01);
+		assertThat(frontier.offer("a"), is(false));
+		assertThat(frontier.offer("c"), is(true));
+		assertThat(frontier.poll(), is("b"));
+		assertThat(frontier.poll(), is("c"));
+	}
+
+	@Test
+	public void testDedupLogAppendsOnlyNewUrls() throws IOException {
+		Path state = dir.resolve("seen");
+		DedupFrontier frontier = DedupFrontier.open(new DiskFrontier(dir, 128), state, 1000, 0.01);
+		frontier.offer("a");
+		frontier.offer("b");
+		frontier.checkpoint();
+		long before = Files.size(state);
+		frontier.offer("a");
+		frontier.offer("cc");
+		frontier.checkpoint();
+		assertThat(Files.size(state), is(before + 4 + 2));
+
+		// a record torn by a crash is dropped, and the log goes on after the last whole one
+		Files.write(state, new byte[] {0, 0, 0, 9, 'x'}, StandardOpenOption.APPEND);
+		frontier = DedupFrontier.open(new DiskFrontier(dir, 128), state, 1000, 0.01);
+		assertThat(frontier.offer("cc"), is(false));
+		assertThat(frontier.offer("d"), is(true));
+		frontier.checkpoint();
+		frontier = DedupFrontier.open(new DiskFrontier(dir, 128), state, 1000, 0.01);
+		assertThat(frontier.offer("d"), is(false));
+		assertThat(frontier.size(), is(4));
+	}
+}
@@ -0,0 +1,273 @@
+package com.allendowney.thinkdast;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import com.allendowney.thinkdast.constants.ResourcesConstants;
+
+/**
+ * Remembers the first valid link of every page, so each page is fetched and parsed once.
+ *
+ * The links are kept in memory and appended to a log file, one "url TAB link"
+ * line per page, with an empty link for pages that have none. Opening the cache
+ * again reads the log back; a last line without a newline was torn by a crash
+ * and is cut off. Pages that could not be fetched are not remembered.
+ *
+ * The cache is safe to share between threads. If several threads ask for the
+ * same page at once, one of them fetches it and the others wait for its answer.
+ *
+ */
+public class FirstLinkCache implements Closeable {
+
+	private static final String NONE = "";
+
+	private static FirstLinkCache instance = null;
+
+	private final LinkFinder finder;
+	private final Map<String, String> links = new ConcurrentHashMap<String, String>();
+	private final Map<String, CompletableFuture<String>> pending = new ConcurrentHashMap<String, CompletableFuture<String>>();
+	private final Writer log;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder fetches = new LongAdder();
+
+	/**
+	 * Finds the first link of a page that is not in the cache.
+	 */
+	private interface LinkFinder {
+		public String firstLink(String url) throws IOException;
+	}
+
+	/**
+	 * Opens (or creates) a cache backed by `file`.
+	 *
+	 * @param file        The log; null for a cache that is not saved.
+	 * @param pageSource  Where pages that are not in the cache come from.
+	 * @throws IOException
+	 */
+	public FirstLinkCache(Path file, PageSource pageSource) throws IOException {
+		this(url -> parseFirstLink(pageSource.getParagraphs(url)), file);
+	}
+
+	private FirstLinkCache(LinkFinder finder, Path file) throws IOException {
+		this.finder = finder;
+		if (file == null) {
+			this.log = null;
+			return;
+		}
+		if (Files.exists(file)) {
+			load(file);
+		} else if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		this.log = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Opens (or creates) a cache that takes the first links of stored pages from their sidecars.
+	 *
+	 * Pages that are not stored are fetched from Wikipedia.
+	 *
+	 * @param file  The log; null for a cache that is not saved.
+	 * @param wf
+	 * @return
+	 * @throws IOException
+	 */
+	public static FirstLinkCache withSidecars(Path file, WikiFetcher wf) throws IOException {
+		return new FirstLinkCache(url -> {
+			String link;
+			try {
+				link = wf.readSidecar(url).firstLink();
+			} catch (FileNotFoundException e) {
+				return parseFirstLink(wf.fetchWikipedia(url));
+			}
+			return link == null ? NONE : link;
+		}, file);
+	}
+
+	/**
+	 * Returns the cache shared by the whole program, kept next to the stored pages.
+	 *
+	 * Pages are read from the local store when they are there, and fetched
+	 * from Wikipedia otherwise.
+	 *
+	 * @return
+	 */
+	public static synchronized FirstLinkCache getInstance() {
+		if (instance == null) {
+			WikiFetcher wf = WikiFetcher.getInstance();
+			Path file = Path.of("src", ResourcesConstants.FIRST_LINKS_PATH);
+			try {
+				instance = new FirstLinkCache(file, url -> {
+					try {
+						return wf.readWikipedia(url);
+					} catch (FileNotFoundException e) {
+						return wf.fetchWikipedia(url);
+					}
+				});
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return instance;
+	}
+
+	private void load(Path file) throws IOException {
+		String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		int start = 0;
+		int end;
+		while ((end = text.indexOf('\n', start)) != -1) {
+			String line = text.substring(start, end);
+			int tab = line.indexOf('\t');
+			if (tab != -1) {
+				links.put(line.substring(0, tab), line.substring(tab + 1));
+			}
+			start = end + 1;
+		}
+		if (start < text.length()) {
+			// cut the torn line off, so the next line starts on its own
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(text.substring(0, start).getBytes(StandardCharsets.UTF_8).length);
+			}
+		}
+	}
+
+	/**
+	 * Returns the URL of the first valid link on a page, or null if it has none.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException if the page cannot be fetched.
+	 */
+	public String firstLink(String url) throws IOException {
+		String link = links.get(url);
+		if (link != null) {
+			hits.increment();
+			return link.isEmpty() ? null : link;
+		}
+
+		CompletableFuture<String> mine = new CompletableFuture<String>();
+		CompletableFuture<String> theirs = pending.putIfAbsent(url, mine);
+		if (theirs != null) {
+			// another thread is fetching it
+			hits.increment();
+			try {
+				link = theirs.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw e;
+			}
+			return link.isEmpty() ? null : link;
+		}
+
+		try {
+			// it may have been added since we looked
+			link = links.get(url);
+			if (link == null) {
+				fetches.increment();
+				link = finder.firstLink(url);
+				put(url, link);
+			}
+			mine.complete(link);
+			return link.isEmpty() ? null : link;
+		} catch (IOException | RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			pending.remove(url);
+		}
+	}
+
+	private static String parseFirstLink(Elements paragraphs) {
+		WikiParser parser = new WikiParser(paragraphs);
+		Element element = parser.findFirstLink();
+		return element == null ? NONE : WikiPhilosophy.parseWikiLink(element);
+	}
+
+	private void put(String url, String link) throws IOException {
+		links.put(url, link);
+		if (log != null) {
+			synchronized (log) {
+				log.write(url + '\t' + link + '\n');
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the first link of a page is known.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean contains(String url) {
+		return links.containsKey(url);
+	}
+
+	/**
+	 * Returns the number of pages whose first link is known.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return links.size();
+	}
+
+	/**
+	 * Returns the number of lookups answered without fetching.
+	 *
+	 * @return
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of pages fetched and parsed.
+	 *
+	 * @return
+	 */
+	public long fetches() {
+		return fetches.sum();
+	}
+
+	/**
+	 * Writes the links found so far to the log file.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (log != null) {
+			synchronized (log) {
+				log.flush();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (log != null) {
+			synchronized (log) {
+				log.close();
+			}
+		}
+	}
+}
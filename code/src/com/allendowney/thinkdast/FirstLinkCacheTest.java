@@ -0,0 +1,139 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jsoup.Jsoup;
+import org.jsoup.select.Elements;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FirstLinkCacheTest {
+
+	private Path dir;
+	private AtomicInteger fetched;
+	private PageSource source;
+
+	/**
+	 * Page "a" links to "b", "b" links to "c", and "c" has no links.
+	 */
+	static Elements page(String url) throws FileNotFoundException {
+		String name = url.substring(url.lastIndexOf('/') + 1);
+		switch (name) {
+		case "a":
+			return Jsoup.parse("<p>see <a href=\"/wiki/b\">b</a></p>").select("p");
+		case "b":
+			return Jsoup.parse("<p>see <a href=\"/wiki/c\">c</a></p>").select("p");
+		case "c":
+			return Jsoup.parse("<p>nothing</p>").select("p");
+		default:
+			throw new FileNotFoundException(url);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("first-links");
+		fetched = new AtomicInteger();
+		source = url -> {
+			fetched.incrementAndGet();
+			return page(url);
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(dir.resolve("links.tsv"));
+		Files.deleteIfExists(dir);
+	}
+
+	@Test
+	public void testFirstLink() throws Exception {
+		FirstLinkCache cache = new FirstLinkCache(null, source);
+		assertThat(cache.firstLink("https://en.wikipedia.org/wiki/a"), is("https://en.wikipedia.org/wiki/b"));
+		assertThat(cache.firstLink("https://en.wikipedia.org/wiki/a"), is("https://en.wikipedia.org/wiki/b"));
+		assertThat(cache.firstLink("https://en.wikipedia.org/wiki/c"), is(nullValue()));
+		assertThat(cache.firstLink("https://en.wikipedia.org/wiki/c"), is(nullValue()));
+		assertThat(fetched.get(), is(2));
+		assertThat(cache.fetches(), is(2L));
+		assertThat(cache.hits(), is(2L));
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissing() throws Exception {
+		FirstLinkCache cache = new FirstLinkCache(null, source);
+		try {
+			cache.firstLink("https://en.wikipedia.org/wiki/nowhere");
+		} finally {
+			assertThat(cache.contains("https://en.wikipedia.org/wiki/nowhere"), is(false));
+		}
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		Path file = dir.resolve("links.tsv");
+		try (FirstLinkCache cache = new FirstLinkCache(file, source)) {
+			cache.firstLink("https://en.wikipedia.org/wiki/a");
+			cache.firstLink("https://en.wikipedia.org/wiki/c");
+		}
+		// a line torn by a crash
+		Files.write(file, "https://en.wikipedia.org/wiki/b\thttps://en.wiki".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		try (FirstLinkCache cache = new FirstLinkCache(file, source)) {
+			assertThat(cache.size(), is(2));
+			assertThat(cache.firstLink("https://en.wikipedia.org/wiki/a"), is("https://en.wikipedia.org/wiki/b"));
+			assertThat(cache.firstLink("https://en.wikipedia.org/wiki/c"), is(nullValue()));
+			assertThat(cache.firstLink("https://en.wikipedia.org/wiki/b"), is("https://en.wikipedia.org/wiki/c"));
+		}
+		assertThat(fetched.get(), is(3));
+
+		try (FirstLinkCache cache = new FirstLinkCache(file, source)) {
+			assertThat(cache.size(), is(3));
+		}
+	}
+
+	@Test
+	public void testConcurrentFetchOnce() throws Exception {
+		PageSource slow = url -> {
+			fetched.incrementAndGet();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return page(url);
+		};
+		FirstLinkCache cache = new FirstLinkCache(null, slow);
+		List<Thread> threads = new ArrayList<Thread>();
+		List<String> links = Collections.synchronizedList(new ArrayList<String>());
+		for (int i=0; i<8; i++) {
+			threads.add(Thread.ofVirtual().start(() -> {
+				try {
+					links.add(cache.firstLink("https://en.wikipedia.org/wiki/a"));
+				} catch (Exception e) {
+					links.add(e.toString());
+				}
+			}));
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertThat(fetched.get(), is(1));
+		assertThat(links.size(), is(8));
+		for (String link: links) {
+			assertThat(link, is("https://en.wikipedia.org/wiki/b"));
+		}
+	}
+}
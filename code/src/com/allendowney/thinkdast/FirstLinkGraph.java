@@ -0,0 +1,367 @@
+package com.allendowney.thinkdast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.allendowney.thinkdast.WikiPhilosophy.Outcome;
+import com.allendowney.thinkdast.WikiPhilosophy.Result;
+import com.allendowney.thinkdast.constants.ResourcesConstants;
+import com.allendowney.thinkdast.constants.WikiConstants;
+
+/**
+ * Where following first links leads from every page of a corpus, worked out in one pass.
+ *
+ * Every page has at most one first link, so the first-link graph has at most
+ * one edge out of each page. Reversing it and searching breadth-first from the
+ * destination finds the distance of every page that gets there. Each of the
+ * other pages is followed until it reaches a page already settled, a page
+ * with no link, a page outside the corpus, or a page already on the walk,
+ * which closes a loop; every page is walked over once.
+ *
+ * The answers are kept in three arrays indexed by page id: the outcome, the
+ * number of hops, and the page where the chain ends, with the same meaning as
+ * the results of WikiPhilosophy.testConjectures. Looking a page up is one hash
+ * lookup and three array reads.
+ *
+ */
+public class FirstLinkGraph {
+
+	private static final int NO_LINK = -1;
+	private static final int MAGIC = 0x464c4731;
+
+	// url <-> id
+	private final LinkGraph ids = new LinkGraph();
+	private final String destination;
+
+	private byte[] outcome;
+	private int[] hops;
+	private int[] end;
+	private int loops = 0;
+
+	private FirstLinkGraph(String destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Builds the table for the given pages.
+	 *
+	 * Pages that cannot be fetched are left out; chains that lead to them end as MISSING.
+	 *
+	 * @param destination
+	 * @param urls         The pages of the corpus.
+	 * @param cache        Where first links come from.
+	 * @return
+	 * @throws IOException
+	 */
+	public static FirstLinkGraph build(String destination, Collection<String> urls, FirstLinkCache cache) throws IOException {
+		FirstLinkGraph graph = new FirstLinkGraph(destination);
+		LinkGraph ids = graph.ids;
+
+		// first link of each page, and whether the page was fetched
+		int[] next = new int[Math.max(urls.size(), 16)];
+		boolean[] fetched = new boolean[next.length];
+		Arrays.fill(next, NO_LINK);
+		for (String url: urls) {
+			String link;
+			try {
+				link = cache.firstLink(url);
+			} catch (FileNotFoundException e) {
+				continue;
+			}
+			int id = ids.addPage(url);
+			int target = link == null ? NO_LINK : ids.addPage(link);
+			if (ids.size() > next.length) {
+				int capacity = Math.max(ids.size(), next.length * 2);
+				int old = next.length;
+				next = Arrays.copyOf(next, capacity);
+				fetched = Arrays.copyOf(fetched, capacity);
+				Arrays.fill(next, old, capacity, NO_LINK);
+			}
+			next[id] = target;
+			fetched[id] = true;
+		}
+		graph.settle(next, fetched);
+		return graph;
+	}
+
+	/**
+	 * Fills in the table from the first-link graph.
+	 */
+	private void settle(int[] next, boolean[] fetched) {
+		int n = ids.size();
+		outcome = new byte[n];
+		hops = new int[n];
+		end = new int[n];
+		// -1 until the page is settled
+		Arrays.fill(hops, -1);
+
+		// reverse the graph, in CSR form
+		int[] offsets = new int[n + 1];
+		for (int u=0; u<n; u++) {
+			if (next[u] != NO_LINK) {
+				offsets[next[u] + 1]++;
+			}
+		}
+		for (int v=0; v<n; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] sources = new int[offsets[n]];
+		int[] fill = Arrays.copyOf(offsets, n);
+		for (int u=0; u<n; u++) {
+			if (next[u] != NO_LINK) {
+				sources[fill[next[u]]++] = u;
+			}
+		}
+
+		// breadth-first from the destination, along reversed links
+		int target = ids.id(destination);
+		if (target != -1) {
+			int[] queue = new int[n];
+			int head = 0;
+			int tail = 0;
+			settle(target, Outcome.REACHED, 0, target);
+			queue[tail++] = target;
+			while (head < tail) {
+				int v = queue[head++];
+				for (int i=offsets[v]; i<offsets[v + 1]; i++) {
+					int u = sources[i];
+					if (hops[u] == -1) {
+						settle(u, Outcome.REACHED, hops[v] + 1, target);
+						queue[tail++] = u;
+					}
+				}
+			}
+		}
+
+		// everything else ends in a loop, a dead end or a missing page
+		int[] walk = new int[n];
+		// position of each page on the current walk, or -1
+		int[] onWalk = new int[n];
+		Arrays.fill(onWalk, -1);
+		for (int start=0; start<n; start++) {
+			if (hops[start] != -1) {
+				continue;
+			}
+			int length = 0;
+			int u = start;
+			while (hops[u] == -1 && onWalk[u] == -1) {
+				if (!fetched[u] || next[u] == NO_LINK) {
+					settle(u, fetched[u] ? Outcome.DEAD_END : Outcome.MISSING, 0, u);
+					break;
+				}
+				onWalk[u] = length;
+				walk[length++] = u;
+				u = next[u];
+			}
+
+			if (hops[u] == -1) {
+				// u is on this walk: the pages from u on form a loop, and each
+				// of them comes back to itself after going around it
+				int first = onWalk[u];
+				int cycle = length - first;
+				for (int i=first; i<length; i++) {
+					settle(walk[i], Outcome.LOOP, cycle, walk[i]);
+				}
+				loops++;
+				// the pages before the loop end where they enter it
+				for (int i=first-1; i>=0; i--) {
+					settle(walk[i], Outcome.LOOP, cycle + (first - i), u);
+				}
+			} else {
+				// u is settled: each page on the walk is one hop further from the end
+				for (int i=length-1; i>=0; i--) {
+					int v = i + 1 < length ? walk[i + 1] : u;
+					settle(walk[i], Outcome.values()[outcome[v]], hops[v] + 1, end[v]);
+				}
+			}
+			for (int i=0; i<length; i++) {
+				onWalk[walk[i]] = -1;
+			}
+		}
+	}
+
+	private void settle(int id, Outcome result, int count, int last) {
+		outcome[id] = (byte) result.ordinal();
+		hops[id] = count;
+		end[id] = last;
+	}
+
+	/**
+	 * Returns where following first links from a page leads, or null if the page is not in the table.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Result lookup(String url) {
+		int id = ids.id(url);
+		if (id == -1) {
+			return null;
+		}
+		return new Result(Outcome.values()[outcome[id]], hops[id], ids.url(end[id]));
+	}
+
+	/**
+	 * Returns the number of hops from a page to the destination, or -1 if it does not get there.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int distance(String url) {
+		int id = ids.id(url);
+		return id == -1 || outcome[id] != Outcome.REACHED.ordinal() ? -1 : hops[id];
+	}
+
+	/**
+	 * Returns the number of pages in the table, including the ones linked to but not fetched.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return outcome.length;
+	}
+
+	/**
+	 * Returns the number of distinct loops.
+	 *
+	 * @return
+	 */
+	public int loops() {
+		return loops;
+	}
+
+	/**
+	 * Returns the number of pages with each outcome, indexed by ordinal.
+	 *
+	 * @return
+	 */
+	public int[] counts() {
+		int[] counts = new int[Outcome.values().length];
+		for (byte b: outcome) {
+			counts[b]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Writes the table to a file, replacing it atomically.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeUTF(destination);
+			out.writeInt(loops);
+			out.writeInt(size());
+			for (int id=0; id<size(); id++) {
+				out.writeUTF(ids.url(id));
+				out.writeByte(outcome[id]);
+				out.writeInt(hops[id]);
+				out.writeInt(end[id]);
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a table written by save().
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static FirstLinkGraph load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a first-link table");
+			}
+			FirstLinkGraph graph = new FirstLinkGraph(in.readUTF());
+			graph.loops = in.readInt();
+			int n = in.readInt();
+			graph.outcome = new byte[n];
+			graph.hops = new int[n];
+			graph.end = new int[n];
+			for (int id=0; id<n; id++) {
+				graph.ids.addPage(in.readUTF());
+				graph.outcome[id] = in.readByte();
+				graph.hops[id] = in.readInt();
+				graph.end[id] = in.readInt();
+			}
+			return graph;
+		}
+	}
+
+	/**
+	 * Returns the URLs of the pages in the local corpus: the resource files and the page store.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<String> corpusUrls() throws IOException {
+		Set<String> urls = new LinkedHashSet<String>();
+		Path dir = Path.of("src", ResourcesConstants.WIKI_PATH);
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+				for (Path file: files) {
+					urls.add(WikiConstants.WIKI_ORIGIN_EN + WikiConstants.WIKI_PAGE_PREFIX + file.getFileName());
+				}
+			}
+		}
+		PageStore store = WikiFetcher.getInstance().getPageStore(false);
+		if (store != null) {
+			urls.addAll(store.urls());
+		}
+		List<String> sorted = new ArrayList<String>(urls);
+		sorted.sort(null);
+		return sorted;
+	}
+
+	/**
+	 * Builds the table for the local corpus and prints what became of each page.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String destination = WikiConstants.WIKI_ORIGIN_EN + WikiConstants.WIKI_PHILOSOPHY;
+		WikiFetcher wf = WikiFetcher.getInstance();
+		List<String> urls = corpusUrls();
+
+		long start = System.nanoTime();
+		FirstLinkGraph graph = build(destination, urls, new FirstLinkCache(null, wf::readWikipedia));
+		long built = System.nanoTime();
+		System.out.printf("%d corpus pages, %d in the table, built in %.1f ms%n",
+				urls.size(), graph.size(), (built - start) / 1e6);
+		int[] counts = graph.counts();
+		for (Outcome outcome: Outcome.values()) {
+			System.out.println(outcome + ": " + counts[outcome.ordinal()]);
+		}
+		for (String url: urls) {
+			System.out.println(url + ": " + graph.lookup(url));
+		}
+
+		int rounds = 1000000;
+		long found = 0;
+		start = System.nanoTime();
+		for (int i=0; i<rounds; i++) {
+			found += graph.distance(urls.get(i % urls.size()));
+		}
+		System.out.printf("%.0f ns/lookup (%d)%n", (System.nanoTime() - start) / (double) rounds, found);
+	}
+}
@@ -0,0 +1,105 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.Jsoup;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FirstLinkGraphTest {
+
+	private static final String PREFIX = "https://en.wikipedia.org/wiki/";
+
+	// first link of each page; "" for none
+	private final Map<String, String> links = new HashMap<String, String>();
+	private FirstLinkCache cache;
+	private List<String> urls;
+
+	@Before
+	public void setUp() throws Exception {
+		// a -> b -> philosophy; c -> a; d -> e -> f -> d; g -> e; h has no link; i -> nowhere
+		String[][] edges = {{"a", "b"}, {"b", "philosophy"}, {"philosophy", "a"}, {"c", "a"},
+				{"d", "e"}, {"e", "f"}, {"f", "d"}, {"g", "e"}, {"h", ""}, {"i", "nowhere"}};
+		urls = new ArrayList<String>();
+		for (String[] edge: edges) {
+			links.put(edge[0], edge[1]);
+			urls.add(PREFIX + edge[0]);
+		}
+		cache = new FirstLinkCache(null, url -> {
+			String link = links.get(url.substring(PREFIX.length()));
+			if (link == null) {
+				throw new FileNotFoundException(url);
+			}
+			String html = link.isEmpty() ? "<p>nothing</p>" : "<p><a href=\"/wiki/" + link + "\">" + link + "</a></p>";
+			return Jsoup.parse(html).select("p");
+		});
+	}
+
+	@Test
+	public void testBuild() throws Exception {
+		FirstLinkGraph graph = FirstLinkGraph.build(PREFIX + "philosophy", urls, cache);
+
+		assertThat(graph.distance(PREFIX + "philosophy"), is(0));
+		assertThat(graph.distance(PREFIX + "b"), is(1));
+		assertThat(graph.distance(PREFIX + "a"), is(2));
+		assertThat(graph.distance(PREFIX + "c"), is(3));
+		assertThat(graph.distance(PREFIX + "d"), is(-1));
+		assertThat(graph.distance(PREFIX + "unknown"), is(-1));
+		assertThat(graph.lookup(PREFIX + "unknown"), is(nullValue()));
+
+		WikiPhilosophy.Result d = graph.lookup(PREFIX + "d");
+		assertThat(d.outcome, is(WikiPhilosophy.Outcome.LOOP));
+		assertThat(d.hops, is(3));
+		assertThat(d.end, is(PREFIX + "d"));
+		WikiPhilosophy.Result g = graph.lookup(PREFIX + "g");
+		assertThat(g.outcome, is(WikiPhilosophy.Outcome.LOOP));
+		assertThat(g.hops, is(4));
+		assertThat(g.end, is(PREFIX + "e"));
+		assertThat(graph.loops(), is(1));
+
+		assertThat(graph.lookup(PREFIX + "h").outcome, is(WikiPhilosophy.Outcome.DEAD_END));
+		WikiPhilosophy.Result i = graph.lookup(PREFIX + "i");
+		assertThat(i.outcome, is(WikiPhilosophy.Outcome.MISSING));
+		assertThat(i.hops, is(1));
+		assertThat(i.end, is(PREFIX + "nowhere"));
+		assertThat(graph.size(), is(11));
+	}
+
+	@Test
+	public void testMatchesChains() throws Exception {
+		FirstLinkGraph graph = FirstLinkGraph.build(PREFIX + "philosophy", urls, cache);
+		Map<String, WikiPhilosophy.Result> chains = WikiPhilosophy.testConjectures(PREFIX + "philosophy", urls, 100, 2, cache);
+		for (String url: urls) {
+			WikiPhilosophy.Result expected = chains.get(url);
+			WikiPhilosophy.Result actual = graph.lookup(url);
+			assertThat(url, actual.outcome, is(expected.outcome));
+			assertThat(url, actual.hops, is(expected.hops));
+		}
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		FirstLinkGraph graph = FirstLinkGraph.build(PREFIX + "philosophy", urls, cache);
+		Path file = Files.createTempFile("first-links", ".bin");
+		try {
+			graph.save(file);
+			FirstLinkGraph loaded = FirstLinkGraph.load(file);
+			assertThat(loaded.size(), is(graph.size()));
+			assertThat(loaded.loops(), is(1));
+			for (String url: urls) {
+				assertThat(loaded.lookup(url).toString(), is(graph.lookup(url).toString()));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
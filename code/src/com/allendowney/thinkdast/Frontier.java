@@ -0,0 +1,36 @@
+package com.allendowney.thinkdast;
+
+/**
+ * The URLs a crawler has found but not visited yet.
+ *
+ * Implementations must be safe to use from several crawler threads.
+ *
+ */
+public interface Frontier {
+
+	/**
+	 * Adds a URL to the frontier.
+	 *
+	 * @param url
+	 * @return false if the URL was not added.
+	 */
+	public boolean offer(String url);
+
+	/**
+	 * Removes and returns the next URL to visit, or null if there is none.
+	 *
+	 * @return
+	 */
+	public String poll();
+
+	/**
+	 * Returns the number of URLs waiting in the frontier.
+	 *
+	 * @return
+	 */
+	public int size();
+
+	public default boolean isEmpty() {
+		return size() == 0;
+	}
+}
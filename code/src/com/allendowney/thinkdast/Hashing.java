@@ -0,0 +1,44 @@
+package com.allendowney.thinkdast;
+
+/**
+ * Fast 64-bit hashes of Strings, for BloomFilter, SimHash and the like.
+ *
+ * These are not String.hashCode: all 64 bits are well mixed, so any subset of
+ * them can be used as a smaller hash.
+ *
+ */
+final class Hashing {
+
+	private Hashing() {
+	}
+
+	/**
+	 * 64-bit FNV-1a over the chars of `s`, followed by a finalizer to spread the bits.
+	 *
+	 * @param s
+	 * @return
+	 */
+	static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=0; i<s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * The MurmurHash3 64-bit finalizer.
+	 *
+	 * @param h
+	 * @return
+	 */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
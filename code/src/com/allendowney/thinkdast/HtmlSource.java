@@ -0,0 +1,22 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+
+/**
+ * Somewhere the crawl pipeline can get the HTML of a page from, unparsed.
+ *
+ * WikiFetcher::fetchWikipediaHtml downloads pages, WikiFetcher::readWikipediaHtml
+ * reads the stored copies.
+ *
+ */
+public interface HtmlSource {
+
+	/**
+	 * Returns the HTML of the page at `url`.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public String getHtml(String url) throws IOException;
+}
@@ -0,0 +1,171 @@
+package com.allendowney.thinkdast;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+
+/**
+ * Downloads pages with one shared HttpClient, so connections are kept alive
+ * and reused (and multiplexed, when the server speaks HTTP/2).
+ *
+ * Every page is stored in a PageCache along with its ETag and Last-Modified
+ * headers. When a page is fetched again, those are sent back as If-None-Match
+ * and If-Modified-Since; if the server answers 304, the stored copy is
+ * returned and nothing is transferred. Pages are stored as jsoup writes them
+ * out, like the pages under src/resources, so they are well-formed; the
+ * parsed document is handed back too, so callers need not parse it again.
+ *
+ * HttpClient is thread-safe, so one fetcher can be shared by all the crawl workers.
+ *
+ */
+public class HttpPageFetcher {
+
+	/**
+	 * A fetched page, and whether it changed since the stored copy.
+	 */
+	public static class Result {
+		public final CachedPage page;
+		public final boolean modified;
+		// the page as parsed to store it, or null if it was not modified; not shared, so callers may change it
+		public final Document doc;
+
+		Result(CachedPage page, boolean modified, Document doc) {
+			this.page = page;
+			this.modified = modified;
+			this.doc = doc;
+		}
+	}
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	private final HttpClient client;
+	private final PageCache cache;
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder notModified = new LongAdder();
+	private final LongAdder bytesTransferred = new LongAdder();
+
+	/**
+	 * @param cache  Where pages and their validators are stored.
+	 */
+	public HttpPageFetcher(PageCache cache) {
+		this.cache = cache;
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofSeconds(10))
+				.build();
+	}
+
+	/**
+	 * Fetches a page, asking the server to skip it if the stored copy is still current.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException if the request fails or the server answers with an error.
+	 */
+	public Result fetch(String url) throws IOException {
+		CachedPage cached = cache.get(url);
+
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+				.timeout(TIMEOUT)
+				.header("Accept-Encoding", "gzip");
+		if (cached != null) {
+			if (cached.etag != null) {
+				builder.header("If-None-Match", cached.etag);
+			}
+			if (cached.lastModified != null) {
+				builder.header("If-Modified-Since", cached.lastModified);
+			}
+		}
+
+		HttpResponse<byte[]> response;
+		try {
+			response = client.send(builder.GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while fetching " + url, e);
+		}
+		requests.increment();
+		bytesTransferred.add(response.body().length);
+
+		int status = response.statusCode();
+		if (status == 304 && cached != null) {
+			notModified.increment();
+			return new Result(cached, false, null);
+		}
+		if (status != 200) {
+			throw new IOException("HTTP " + status + " fetching " + url);
+		}
+
+		// store the page the way jsoup writes it out, which is what WikiContentScanner expects
+		Document doc = Jsoup.parse(new String(decode(response), StandardCharsets.UTF_8), url);
+		CachedPage page = new CachedPage(url, doc.html(),
+				response.headers().firstValue("ETag").orElse(null),
+				response.headers().firstValue("Last-Modified").orElse(null),
+				System.currentTimeMillis());
+		cache.put(page);
+		return new Result(page, true, doc);
+	}
+
+	/**
+	 * Returns the body of a response, gunzipped if the server compressed it.
+	 */
+	private static byte[] decode(HttpResponse<byte[]> response) throws IOException {
+		String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+		if (!encoding.equalsIgnoreCase("gzip")) {
+			return response.body();
+		}
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * Returns the number of requests sent.
+	 *
+	 * @return
+	 */
+	public long requests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Returns the number of requests answered with 304 Not Modified.
+	 *
+	 * @return
+	 */
+	public long notModified() {
+		return notModified.sum();
+	}
+
+	/**
+	 * Returns the number of body bytes received, before decompression.
+	 *
+	 * @return
+	 */
+	public long bytesTransferred() {
+		return bytesTransferred.sum();
+	}
+
+	/**
+	 * Returns the store the fetcher reads and writes.
+	 *
+	 * @return
+	 */
+	public PageCache getCache() {
+		return cache;
+	}
+}
@@ -0,0 +1,206 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpPageFetcherTest {
+
+	private static final String ETAG = "\"v1\"";
+	private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+	private String base;
+	private final AtomicInteger fullResponses = new AtomicInteger();
+
+	/**
+	 * Keeps pages in memory.
+	 */
+	private static class MemoryPageCache implements PageCache {
+		private final Map<String, CachedPage> pages = new ConcurrentHashMap<String, CachedPage>();
+
+		public CachedPage get(String url) {
+			return pages.get(url);
+		}
+
+		public void put(CachedPage page) {
+			pages.put(page.url, page);
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/wiki/", this::handle);
+		server.setExecutor(Executors.newFixedThreadPool(4));
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	/**
+	 * Serves "<p>Page NAME</p>", gzipped if asked, honoring both validators.
+	 *
+	 * /wiki/Sloppy serves HTML that is not well-formed.
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		if (path.endsWith("/Missing")) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+		if (ETAG.equals(ifNoneMatch) || (!path.endsWith("/Tagged") && LAST_MODIFIED.equals(ifModifiedSince))) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		String html = "<html><body><div id=\"mw-content-text\"><p>Page " + name + "</p></div></body></html>";
+		if (name.equals("Sloppy")) {
+			// a div cannot be inside a p, so a browser or jsoup closes the p before it
+			html = "<div id=\"mw-content-text\"><p>one <div>two</div> three</p></div>";
+		}
+		byte[] body = html.getBytes(StandardCharsets.UTF_8);
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+				gzip.write(body);
+			}
+			body = bytes.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		if (path.endsWith("/Tagged")) {
+			exchange.getResponseHeaders().set("ETag", ETAG);
+		} else {
+			exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+		}
+		fullResponses.incrementAndGet();
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	@Test
+	public void testConditionalGetWithETag() throws IOException {
+		HttpPageFetcher fetcher = new HttpPageFetcher(new MemoryPageCache());
+		String url = base + "/wiki/Tagged";
+
+		HttpPageFetcher.Result first = fetcher.fetch(url);
+		assertThat(first.modified, is(true));
+		assertThat(first.page.html, containsString("<p>Page Tagged</p>"));
+		assertThat(first.page.etag, is(ETAG));
+		// the document the stored page was written from
+		assertThat(first.doc.html(), is(first.page.html));
+
+		HttpPageFetcher.Result second = fetcher.fetch(url);
+		assertThat(second.modified, is(false));
+		assertThat(second.page.html, is(first.page.html));
+		assertThat(second.doc, nullValue());
+
+		assertThat(fullResponses.get(), is(1));
+		assertThat(fetcher.requests(), is(2L));
+		assertThat(fetcher.notModified(), is(1L));
+	}
+
+	@Test
+	public void testConditionalGetWithLastModified() throws IOException {
+		HttpPageFetcher fetcher = new HttpPageFetcher(new MemoryPageCache());
+		String url = base + "/wiki/Dated";
+
+		assertThat(fetcher.fetch(url).modified, is(true));
+		HttpPageFetcher.Result second = fetcher.fetch(url);
+		assertThat(second.modified, is(false));
+		assertThat(second.page.lastModified, is(LAST_MODIFIED));
+		assertThat(fullResponses.get(), is(1));
+	}
+
+	@Test
+	public void testValidatorsSurviveInResourcePageCache() throws IOException {
+		String url = base + "/wiki/Tagged";
+		HttpPageFetcher fetcher = new HttpPageFetcher(new ResourcePageCache(folder.getRoot().toPath()));
+		fetcher.fetch(url);
+
+		// a new fetcher on the same directory still sends the stored ETag
+		HttpPageFetcher again = new HttpPageFetcher(new ResourcePageCache(folder.getRoot().toPath()));
+		HttpPageFetcher.Result result = again.fetch(url);
+		assertThat(result.modified, is(false));
+		assertThat(result.page.html, containsString("<p>Page Tagged</p>"));
+		assertThat(fullResponses.get(), is(1));
+	}
+
+	@Test
+	public void testStoredPageIsNormalized() throws IOException {
+		String url = base + "/wiki/Sloppy";
+		ResourcePageCache cache = new ResourcePageCache(folder.getRoot().toPath());
+		CachedPage page = new HttpPageFetcher(cache).fetch(url).page;
+
+		// the scanner counts the same terms in the stored page as jsoup does
+		TermCounter scanned = new TermCounter(url);
+		WikiContentScanner.countTerms(new ByteArrayInputStream(
+				cache.get(url).html.getBytes(StandardCharsets.UTF_8)), scanned);
+		TermCounter parsed = new TermCounter(url);
+		parsed.processElements(WikiFetcher.parseParagraphs(page.html, url));
+		assertThat(scanned.keySet(), is(parsed.keySet()));
+		assertThat(scanned.get("two"), is(0));
+	}
+
+	@Test(expected = IOException.class)
+	public void testErrorStatus() throws IOException {
+		new HttpPageFetcher(new MemoryPageCache()).fetch(base + "/wiki/Missing");
+	}
+
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		final HttpPageFetcher fetcher = new HttpPageFetcher(new MemoryPageCache());
+		final int n = 32;
+
+		List<Future<String>> futures = new ArrayList<Future<String>>();
+		try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+			for (int i=0; i<n; i++) {
+				final String url = base + "/wiki/Page" + i;
+				futures.add(executor.submit(() -> fetcher.fetch(url).page.html));
+			}
+		}
+		for (int i=0; i<n; i++) {
+			assertThat(futures.get(i).get(), containsString("<p>Page Page" + i + "</p>"));
+		}
+		assertThat(fetcher.requests(), is((long) n));
+	}
+}
@@ -14,10 +14,13 @@ import org.jsoup.select.Elements;
  * @author downey
  *
  */
-public class Index {
+public class Index implements PageIndex {
 
     private final Map<String, Set<TermCounter>> index = new HashMap<String, Set<TermCounter>>();
 
+    // the TermCounter each indexed page was indexed with, by URL
+    private final Map<String, TermCounter> pages = new HashMap<String, TermCounter>();
+
     /**
      * Adds a TermCounter to the set associated with `term`.
      *
@@ -82,11 +85,37 @@ public class Index {
         // make a TermCounter and count the terms in the paragraphs
         final TermCounter termCounter = new TermCounter(url);
         termCounter.processElements(paragraphs);
+        indexPage(termCounter);
+    }
 
+    @Override
+    public void indexPage(TermCounter termCounter) {
         // for each term in the TermCounter, add the TermCounter to the index
         for (String term : termCounter.keySet()) {
             this.add(term, termCounter);
         }
+        pages.put(termCounter.getLabel(), termCounter);
+    }
+
+    @Override
+    public void updatePage(TermCounter termCounter) {
+        // take the old version out of the sets of all its terms
+        TermCounter old = pages.remove(termCounter.getLabel());
+        if (old != null) {
+            for (String term : old.keySet()) {
+                Set<TermCounter> set = get(term);
+                set.remove(old);
+                if (set.isEmpty()) {
+                    index.remove(term);
+                }
+            }
+        }
+        indexPage(termCounter);
+    }
+
+    @Override
+    public boolean isIndexed(String url) {
+        return pages.containsKey(url);
     }
 
     /**
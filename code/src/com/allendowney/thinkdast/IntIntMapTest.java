@@ -0,0 +1,136 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntIntMapTest {
+
+	private IntIntMap map;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		map = new IntIntMap(0, -1);
+		map.put(1, 10);
+		map.put(2, 20);
+		map.put(0, 0);
+	}
+
+	@Test
+	public void testGet() {
+		assertThat(map.get(1), is(10));
+		assertThat(map.get(0), is(0));
+		assertThat(map.get(3), is(-1));
+		assertThat(map.containsKey(0), is(true));
+		assertThat(map.containsKey(3), is(false));
+	}
+
+	@Test
+	public void testPut() {
+		assertThat(map.put(1, 11), is(10));
+		assertThat(map.put(3, 30), is(-1));
+		assertThat(map.put(0, 5), is(0));
+		assertThat(map.get(0), is(5));
+		assertThat(map.size(), is(4));
+	}
+
+	@Test
+	public void testAddTo() {
+		assertThat(map.addTo(1, 5), is(15));
+		// starts from the missing value
+		assertThat(map.addTo(7, 1), is(0));
+		map.remove(0);
+		assertThat(map.addTo(0, 3), is(2));
+		assertThat(map.size(), is(4));
+	}
+
+	@Test
+	public void testRemove() {
+		assertThat(map.remove(1), is(10));
+		assertThat(map.remove(1), is(-1));
+		assertThat(map.remove(0), is(0));
+		assertThat(map.size(), is(1));
+		map.clear();
+		assertThat(map.isEmpty(), is(true));
+		assertThat(map.get(2), is(-1));
+	}
+
+	@Test
+	public void testCursor() {
+		int keySum = 0;
+		int count = 0;
+		for (IntIntMap.Cursor c = map.cursor(); c.advance(); ) {
+			keySum += c.key();
+			c.setValue(c.value() + 1);
+			count++;
+		}
+		assertThat(count, is(3));
+		assertThat(keySum, is(3));
+		assertThat(map.get(0), is(1));
+		assertThat(map.get(2), is(21));
+	}
+
+	/**
+	 * Puts, adds to and removes random keys and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		IntIntMap mine = new IntIntMap();
+		// few distinct keys, so removes hit and runs get shifted; some are negative, one is 0
+		new MapChecker<Integer>(key -> key - 100)
+				.put(mine::put).remove(mine::remove).addTo(mine::addTo).get(mine::get).missing(0)
+				.contents(() -> {
+					Map<Integer, Integer> actual = new HashMap<Integer, Integer>();
+					for (IntIntMap.Cursor c = mine.cursor(); c.advance(); ) {
+						actual.put(c.key(), c.value());
+					}
+					return actual;
+				})
+				.run(200000, 5000, mine::size);
+	}
+
+	/**
+	 * Returns the first key after `after` whose home is slot `home` of 16.
+	 */
+	private static int keyAt(int home, int after) {
+		int key = after + 1;
+		while ((IntIntMap.hash(key) & 15) != home) {
+			key++;
+		}
+		return key;
+	}
+
+	@Test
+	public void testShiftBackWrapsAround() {
+		IntIntMap mine = new IntIntMap(0, 0);
+		assertThat(mine.capacity(), is(16));
+		// a run from the last slot round to slot 2
+		int first = keyAt(15, 0);
+		int wrapped = keyAt(15, first);
+		int second = keyAt(0, 0);
+		int atHome = keyAt(2, 0);
+		mine.put(first, 1);
+		mine.put(wrapped, 2);
+		mine.put(second, 3);
+		mine.put(atHome, 4);
+
+		// emptying slot 15 moves the next two back across the end; the last stays at home
+		assertThat(mine.remove(first), is(1));
+		assertThat(mine.containsKey(first), is(false));
+		assertThat(mine.get(wrapped), is(2));
+		assertThat(mine.get(second), is(3));
+		assertThat(mine.get(atHome), is(4));
+		assertThat(mine.remove(wrapped), is(2));
+		assertThat(mine.get(second), is(3));
+		assertThat(mine.get(atHome), is(4));
+		assertThat(mine.size(), is(2));
+	}
+}
@@ -0,0 +1,305 @@
+package com.allendowney.thinkdast;
+
+import java.util.Arrays;
+
+/**
+ * Map from int to objects that does not box its keys.
+ *
+ * Keys and values are kept in an int array and an Object array, with open addressing
+ * and linear probing. An empty slot holds the key 0, so the key 0 itself is
+ * kept in a separate field. Removing a key moves later keys in its run back,
+ * instead of leaving a tombstone.
+ *
+ * get returns null for a key that is not in the map.
+ *
+ * @param <V>
+ *
+ */
+public class IntObjectMap<V> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// largest fraction of slots in use before we resize
+	protected static final double MAX_LOAD = 0.75;
+
+	// marks an empty slot
+	private static final int FREE = 0;
+
+	private int[] keys;
+	private Object[] values;
+	private int mask;
+	private int threshold;
+	// number of keys in the arrays, not counting the zero key
+	private int assigned = 0;
+
+	private boolean hasZeroKey = false;
+	private V zeroValue;
+
+	public IntObjectMap() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param expected  Number of entries to make room for.
+	 */
+	public IntObjectMap(int expected) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity * MAX_LOAD < expected) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Mixes the bits of the key, so the low bits depend on all of them.
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the slot that holds `key`, or -1; `key` is not 0.
+	 */
+	private int find(int key) {
+		int i = hash(key) & mask;
+		int k;
+		while ((k = keys[i]) != FREE) {
+			if (k == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param key
+	 * @return the value for `key`, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == FREE) {
+			return hasZeroKey ? zeroValue : null;
+		}
+		int i = find(key);
+		return i == -1 ? null : (V) values[i];
+	}
+
+	public boolean containsKey(int key) {
+		if (key == FREE) {
+			return hasZeroKey;
+		}
+		return find(key) != -1;
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return the old value for `key`, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (key == FREE) {
+			V oldValue = hasZeroKey ? zeroValue : null;
+			hasZeroKey = true;
+			zeroValue = value;
+			return oldValue;
+		}
+		int i = slot(key);
+		if (keys[i] == key) {
+			V oldValue = (V) values[i];
+			values[i] = value;
+			return oldValue;
+		}
+		insert(i, key, value);
+		return null;
+	}
+
+	/**
+	 * Returns the slot that holds `key`, or the empty slot where it would go.
+	 */
+	private int slot(int key) {
+		int i = hash(key) & mask;
+		int k;
+		while ((k = keys[i]) != FREE && k != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Puts a new key in empty slot `i`, resizing first if the table is full.
+	 */
+	private void insert(int i, int key, V value) {
+		if (assigned >= threshold) {
+			resize(keys.length * 2);
+			i = slot(key);
+		}
+		keys[i] = key;
+		values[i] = value;
+		assigned++;
+	}
+
+	/**
+	 * Moves the entries into arrays with `capacity` slots.
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i=0; i<oldKeys.length; i++) {
+			int key = oldKeys[i];
+			if (key != FREE) {
+				int j = hash(key) & mask;
+				while (keys[j] != FREE) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = key;
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the old value for `key`, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == FREE) {
+			V oldValue = zeroValue;
+			hasZeroKey = false;
+			zeroValue = null;
+			return oldValue;
+		}
+		int i = find(key);
+		if (i == -1) {
+			return null;
+		}
+		V oldValue = (V) values[i];
+		shiftBack(i);
+		assigned--;
+		return oldValue;
+	}
+
+	/**
+	 * Empties slot `i`, moving back keys in the same run that would no longer be found.
+	 */
+	private void shiftBack(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			int key = keys[j];
+			if (key == FREE) {
+				break;
+			}
+			// a key can move back to i unless its home is after i, up to j
+			int home = hash(key) & mask;
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+				continue;
+			}
+			keys[i] = key;
+			values[i] = values[j];
+			i = j;
+		}
+		keys[i] = FREE;
+		values[i] = null;
+	}
+
+	public int size() {
+		return assigned + (hasZeroKey ? 1 : 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		Arrays.fill(values, null);
+		assigned = 0;
+		hasZeroKey = false;
+		zeroValue = null;
+	}
+
+	/**
+	 * Returns the number of slots.
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns a cursor over the entries, in no particular order.
+	 *
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Steps through the entries without making an object for each one.
+	 *
+	 * Call advance before reading the first entry; the map must not be
+	 * changed while the cursor is in use, except through setValue.
+	 */
+	public class Cursor {
+		// slot of the current entry; keys.length for the zero key
+		private int index = -1;
+
+		/**
+		 * Moves to the next entry.
+		 *
+		 * @return false if there are no more
+		 */
+		public boolean advance() {
+			while (++index < keys.length) {
+				if (keys[index] != FREE) {
+					return true;
+				}
+			}
+			return index == keys.length && hasZeroKey;
+		}
+
+		public int key() {
+			return index == keys.length ? FREE : keys[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V value() {
+			return index == keys.length ? zeroValue : (V) values[index];
+		}
+
+		public void setValue(V value) {
+			if (index == keys.length) {
+				zeroValue = value;
+			} else {
+				values[index] = value;
+			}
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		IntObjectMap<String> names = new IntObjectMap<String>();
+		for (int i=0; i<10; i++) {
+			names.put(i * 1000, Integer.toString(i));
+		}
+		for (IntObjectMap<String>.Cursor c = names.cursor(); c.advance(); ) {
+			System.out.println(c.key() + " " + c.value());
+		}
+	}
+}
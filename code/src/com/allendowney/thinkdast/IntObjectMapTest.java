@@ -0,0 +1,41 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class IntObjectMapTest {
+
+	@Test
+	public void testZeroKey() {
+		IntObjectMap<String> mine = new IntObjectMap<String>();
+		assertThat(mine.get(0), nullValue());
+		assertThat(mine.put(0, "zero"), nullValue());
+		assertThat(mine.put(0, "nil"), is("zero"));
+		assertThat(mine.size(), is(1));
+		assertThat(mine.remove(0), is("nil"));
+		assertThat(mine.containsKey(0), is(false));
+	}
+
+	/**
+	 * Puts and removes random keys and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		IntObjectMap<Integer> mine = new IntObjectMap<Integer>();
+		new MapChecker<Integer>(key -> key - 100)
+				.put(mine::put).remove(mine::remove).get(mine::get)
+				.contents(() -> {
+					Map<Integer, Integer> actual = new HashMap<Integer, Integer>();
+					for (IntObjectMap<Integer>.Cursor c = mine.cursor(); c.advance(); ) {
+						actual.put(c.key(), c.value());
+					}
+					return actual;
+				})
+				.run(200000, 5000, mine::size);
+	}
+}
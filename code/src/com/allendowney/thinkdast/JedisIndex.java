@@ -13,7 +13,7 @@ import redis.clients.jedis.Transaction;
  * Represents a Redis-backed web search index.
  *
  */
-public class JedisIndex {
+public class JedisIndex implements PageIndex {
 
 	private Jedis jedis;
 
@@ -50,6 +50,7 @@ public class JedisIndex {
 	 * @param url
 	 * @return
 	 */
+	@Override
 	public boolean isIndexed(String url) {
 		String redisKey = termCounterKey(url);
 		return jedis.exists(redisKey);
@@ -168,7 +169,16 @@ public class JedisIndex {
 		// make a TermCounter and count the terms in the paragraphs
 		final TermCounter termCounter = new TermCounter(url);
 		termCounter.processElements(paragraphs);
+		indexPage(termCounter);
+	}
 
+	/**
+	 * Adds a page whose terms have already been counted to the index.
+	 *
+	 * @param termCounter  Counts of the page, labeled with its URL.
+	 */
+	@Override
+	public void indexPage(TermCounter termCounter) {
 		// for each term in the TermCounter, add the TermCounter to the index
 		Transaction transaction = jedis.multi();
 		for (String term : termCounter.keySet()) {
@@ -178,6 +188,30 @@ public class JedisIndex {
 		transaction.exec();
 	}
 
+	/**
+	 * Replaces the counts of a page, removing it from the URL sets of terms it no longer has.
+	 *
+	 * @param termCounter
+	 */
+	@Override
+	public void updatePage(TermCounter termCounter) {
+		String url = termCounter.getLabel();
+		Set<String> oldTerms = jedis.hkeys(termCounterKey(url));
+
+		Transaction transaction = jedis.multi();
+		for (String term : oldTerms) {
+			if (termCounter.get(term) == 0) {
+				transaction.srem(urlSetKey(term), url);
+			}
+		}
+		transaction.del(termCounterKey(url));
+		for (String term : termCounter.keySet()) {
+			this.add(term, termCounter, transaction);
+			this.setTermCount(term, termCounter, transaction);
+		}
+		transaction.exec();
+	}
+
 	/**
 	 * Prints the contents of the index.
 	 *
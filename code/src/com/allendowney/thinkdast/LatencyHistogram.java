@@ -0,0 +1,139 @@
+package com.allendowney.thinkdast;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, safe to record into from many threads.
+ *
+ * Values are counted in buckets whose width grows with the value: each power
+ * of two is split into 8 equal buckets, so every value is known to within
+ * 12.5% while the whole range of a long fits in 496 buckets. Recording is
+ * one atomic increment and never allocates.
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one duration.
+	 *
+	 * @param nanos  Negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Returns the bucket a value goes in.
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest value that goes in a bucket.
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lower + width - 1;
+	}
+
+	/**
+	 * Returns the number of durations recorded.
+	 *
+	 * @return
+	 */
+	public long count() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean duration, or 0 if none were recorded.
+	 *
+	 * @return
+	 */
+	public double mean() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / (double) n;
+	}
+
+	/**
+	 * Returns the longest duration recorded.
+	 *
+	 * @return
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns a duration that at least `fraction` of the recorded ones do not exceed.
+	 *
+	 * The answer is the upper bound of a bucket, so it may overstate the real
+	 * percentile by up to 12.5%, but never by more than the maximum.
+	 *
+	 * @param fraction  Between 0 and 1, e.g. 0.99 for the 99th percentile.
+	 * @return
+	 */
+	public long percentile(double fraction) {
+		long n = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			n += counts.get(i);
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * n);
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank && seen > 0) {
+				return Math.min(upperBound(i), max());
+			}
+		}
+		return max();
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		for (int i=0; i<BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+				count(), mean() / 1e3, percentile(0.5) / 1e3, percentile(0.9) / 1e3,
+				percentile(0.99) / 1e3, max() / 1e3);
+	}
+}
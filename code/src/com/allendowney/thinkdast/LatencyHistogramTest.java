@@ -0,0 +1,46 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		for (long value: new long[] {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE}) {
+			int bucket = LatencyHistogram.bucket(value);
+			assertThat(value <= LatencyHistogram.upperBound(bucket), is(true));
+			if (bucket > 0) {
+				assertThat(value > LatencyHistogram.upperBound(bucket - 1), is(true));
+			}
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i=1; i<=1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertThat(histogram.count(), is(1000L));
+		assertThat(histogram.max(), is(1000000L));
+		assertEquals(500500.0, histogram.mean(), 0.001);
+
+		long p50 = histogram.percentile(0.5);
+		assertThat(p50 >= 500000 && p50 <= 500000 * 1.125, is(true));
+		long p99 = histogram.percentile(0.99);
+		assertThat(p99 >= 990000 && p99 <= 1000000, is(true));
+		assertThat(histogram.percentile(1.0), is(1000000L));
+	}
+
+	@Test
+	public void testReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(42);
+		histogram.reset();
+		assertThat(histogram.count(), is(0L));
+		assertThat(histogram.percentile(0.5), is(0L));
+	}
+}
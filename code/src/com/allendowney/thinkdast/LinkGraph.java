@@ -0,0 +1,450 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import com.allendowney.thinkdast.constants.WikiConstants;
+
+/**
+ * The links between crawled pages, kept compact enough for tens of millions of edges.
+ *
+ * Every URL gets an int id the first time it is seen, as a source or a target.
+ * The out-links of a page are stored in compressed sparse row form: sorted,
+ * without repeats, and written as the gaps between consecutive ids in a
+ * variable-length encoding, 7 bits per byte. Ids that are close together take
+ * one byte, so the adjacency usually costs 1 to 3 bytes per edge. A page's row
+ * is found through `start` and `degree`, which are indexed by id.
+ *
+ * Pages can be added in any order, as the crawler finds them. Setting the
+ * links of a page again appends a new row and leaves the old one as garbage
+ * until compact() is called. Nothing here boxes an int.
+ *
+ */
+public class LinkGraph {
+
+	// open-addressing table from URL to id; slots[i] is id + 1, or 0 if empty
+	private int[] slots = new int[1024];
+
+	// URL of each id
+	private String[] urls = new String[256];
+	private int size = 0;
+
+	// where the row of each page starts in `data`, and how many links it has
+	private int[] start = new int[256];
+	private int[] degree = new int[256];
+
+	// the rows, delta-encoded
+	private byte[] data = new byte[4096];
+	private int dataSize = 0;
+	private int garbage = 0;
+	private long edges = 0;
+
+	/**
+	 * Returns the id of a URL, adding it if it is new.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized int addPage(String url) {
+		int slot = find(url);
+		if (slots[slot] != 0) {
+			return slots[slot] - 1;
+		}
+		int id = size++;
+		if (id == urls.length) {
+			int capacity = urls.length * 2;
+			urls = Arrays.copyOf(urls, capacity);
+			start = Arrays.copyOf(start, capacity);
+			degree = Arrays.copyOf(degree, capacity);
+		}
+		urls[id] = url;
+		slots[slot] = id + 1;
+		// keep the table at most half full
+		if (2 * size > slots.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a URL, or -1 if it has not been seen.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized int id(String url) {
+		return slots[find(url)] - 1;
+	}
+
+	/**
+	 * Returns the URL with the given id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized String url(int id) {
+		checkId(id);
+		return urls[id];
+	}
+
+	/**
+	 * Returns the slot that holds `url`, or the empty slot where it would go.
+	 */
+	private int find(String url) {
+		int mask = slots.length - 1;
+		int slot = mix(url.hashCode()) & mask;
+		while (slots[slot] != 0 && !urls[slots[slot] - 1].equals(url)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id=0; id<size; id++) {
+			int slot = mix(urls[id].hashCode()) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Sets the out-links of a page, replacing any it had.
+	 *
+	 * Repeated targets and links from the page to itself are dropped.
+	 *
+	 * @param source
+	 * @param targets
+	 */
+	public synchronized void setLinks(String source, Collection<String> targets) {
+		int id = addPage(source);
+		int[] ids = new int[targets.size()];
+		int n = 0;
+		for (String target: targets) {
+			ids[n++] = addPage(target);
+		}
+		setLinks(id, ids);
+	}
+
+	/**
+	 * Sets the out-links of a page by id, replacing any it had.
+	 *
+	 * @param source
+	 * @param targets  Ids of the pages linked to; the array is sorted in place.
+	 */
+	public synchronized void setLinks(int source, int[] targets) {
+		checkId(source);
+		Arrays.sort(targets);
+		if (targets.length > 0) {
+			checkId(targets[0]);
+			checkId(targets[targets.length - 1]);
+		}
+		// the row can take at most 5 bytes per link
+		ensureData(dataSize + 5L * targets.length);
+
+		int rowStart = dataSize;
+		int n = 0;
+		int previous = -1;
+		for (int target: targets) {
+			if (target == previous || target == source) {
+				continue;
+			}
+			// the first gap is from -1, so it is never negative
+			writeVarInt(target - previous);
+			previous = target;
+			n++;
+		}
+		garbage += rowLength(source);
+		edges += n - degree[source];
+		start[source] = rowStart;
+		degree[source] = n;
+	}
+
+	private void checkId(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("No page with id " + id);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes in the row of a page.
+	 */
+	private int rowLength(int id) {
+		int position = start[id];
+		for (int i=0; i<degree[id]; i++) {
+			while (data[position++] < 0);
+		}
+		return position - start[id];
+	}
+
+	private void ensureData(long capacity) {
+		if (capacity > data.length) {
+			long bigger = Math.max(capacity, data.length * 2L);
+			if (bigger > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Link graph is too big: " + capacity + " bytes");
+			}
+			data = Arrays.copyOf(data, (int) bigger);
+		}
+	}
+
+	private void writeVarInt(int value) {
+		while ((value & ~0x7f) != 0) {
+			data[dataSize++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		data[dataSize++] = (byte) value;
+	}
+
+	/**
+	 * Returns the ids of the pages a page links to, in increasing order.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized int[] outLinks(int id) {
+		checkId(id);
+		int[] targets = new int[degree[id]];
+		decodeRow(id, targets, 0);
+		return targets;
+	}
+
+	/**
+	 * Decodes the row of a page into `out`, starting at `offset`.
+	 */
+	private void decodeRow(int id, int[] out, int offset) {
+		int position = start[id];
+		int target = -1;
+		for (int i=0; i<degree[id]; i++) {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[position++];
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			target += value;
+			out[offset + i] = target;
+		}
+	}
+
+	/**
+	 * Returns the number of links out of a page.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized int outDegree(int id) {
+		checkId(id);
+		return degree[id];
+	}
+
+	/**
+	 * Returns the number of pages, linked from or to.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of links.
+	 *
+	 * @return
+	 */
+	public synchronized long edges() {
+		return edges;
+	}
+
+	/**
+	 * Returns the number of bytes the rows take, not counting garbage.
+	 *
+	 * @return
+	 */
+	public synchronized long adjacencyBytes() {
+		return dataSize - garbage;
+	}
+
+	/**
+	 * Rewrites the rows without the garbage left by pages whose links were set again.
+	 */
+	public synchronized void compact() {
+		if (garbage == 0) {
+			return;
+		}
+		byte[] packed = new byte[dataSize - garbage];
+		int position = 0;
+		for (int id=0; id<size; id++) {
+			int length = rowLength(id);
+			System.arraycopy(data, start[id], packed, position, length);
+			start[id] = position;
+			position += length;
+		}
+		data = packed;
+		dataSize = position;
+		garbage = 0;
+	}
+
+	/**
+	 * Returns the links in uncompressed CSR form, with a copy of the URLs and their ids.
+	 *
+	 * The links out of page u are targets[offsets[u]] to targets[offsets[u+1] - 1].
+	 *
+	 * @return
+	 */
+	synchronized Rows rows() {
+		if (edges > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Too many links to decode: " + edges);
+		}
+		int n = size;
+		int[] offsets = new int[n + 1];
+		int[] targets = new int[(int) edges];
+		for (int id=0; id<n; id++) {
+			decodeRow(id, targets, offsets[id]);
+			offsets[id + 1] = offsets[id] + degree[id];
+		}
+		return new Rows(offsets, targets, Arrays.copyOf(urls, n), slots.clone());
+	}
+
+	/**
+	 * The links out of each page, and the URL of each id, as of one moment.
+	 *
+	 * Nothing in it changes, so it can be read without holding the graph's lock.
+	 */
+	static class Rows {
+		final int[] offsets;
+		final int[] targets;
+		private final String[] urls;
+		private final int[] slots;
+
+		Rows(int[] offsets, int[] targets, String[] urls, int[] slots) {
+			this.offsets = offsets;
+			this.targets = targets;
+			this.urls = urls;
+			this.slots = slots;
+		}
+
+		/**
+		 * Returns the id of a URL, or -1 if it was not in the graph.
+		 */
+		int id(String url) {
+			int mask = slots.length - 1;
+			int slot = mix(url.hashCode()) & mask;
+			while (slots[slot] != 0) {
+				if (urls[slots[slot] - 1].equals(url)) {
+					return slots[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		String url(int id) {
+			return urls[id];
+		}
+	}
+
+	/**
+	 * Returns the links reversed, in uncompressed CSR form.
+	 *
+	 * The links into page v are sources[offsets[v]] to sources[offsets[v+1] - 1].
+	 * The result also has the out-degree of every page, which is what PageRank needs.
+	 *
+	 * @return
+	 */
+	synchronized Transpose transpose() {
+		if (edges > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Too many links to transpose: " + edges);
+		}
+		int n = size;
+		int[] offsets = new int[n + 1];
+		int[] row = new int[16];
+		for (int id=0; id<n; id++) {
+			if (degree[id] > row.length) {
+				row = new int[Math.max(degree[id], row.length * 2)];
+			}
+			decodeRow(id, row, 0);
+			for (int i=0; i<degree[id]; i++) {
+				offsets[row[i] + 1]++;
+			}
+		}
+		for (int v=0; v<n; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		int[] next = Arrays.copyOf(offsets, n);
+		int[] sources = new int[(int) edges];
+		for (int id=0; id<n; id++) {
+			decodeRow(id, row, 0);
+			for (int i=0; i<degree[id]; i++) {
+				sources[next[row[i]]++] = id;
+			}
+		}
+		return new Transpose(offsets, sources, Arrays.copyOf(degree, n));
+	}
+
+	/**
+	 * The reversed graph, and the out-degree of each page.
+	 */
+	static class Transpose {
+		final int[] offsets;
+		final int[] sources;
+		final int[] outDegree;
+
+		Transpose(int[] offsets, int[] sources, int[] outDegree) {
+			this.offsets = offsets;
+			this.sources = sources;
+			this.outDegree = outDegree;
+		}
+	}
+
+	/**
+	 * Gives every page of a graph `linksPerPage` random links, skewed like the web:
+	 * half go to a few popular pages, half to pages with nearby ids.
+	 */
+	static void linkRandomly(LinkGraph graph, int linksPerPage, Random random) {
+		int pages = graph.size();
+		int[] targets = new int[linksPerPage];
+		for (int i=0; i<pages; i++) {
+			for (int j=0; j<linksPerPage; j++) {
+				targets[j] = random.nextBoolean()
+						? (int) (pages * Math.pow(random.nextDouble(), 3))
+						: Math.floorMod(i + (int) (random.nextGaussian() * 1000), pages);
+			}
+			graph.setLinks(i, targets);
+		}
+	}
+
+	/**
+	 * Builds the link graph of the stored pages and prints the pages with the highest PageRank.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = WikiFetcher.getInstance();
+		LinkGraph graph = new LinkGraph();
+		for (String page: WikiConstants.STORED_PAGES) {
+			String url = WikiConstants.WIKI_ORIGIN_EN + WikiConstants.WIKI_PAGE_PREFIX + page;
+			graph.setLinks(url, WikiCrawler.internalLinks(wf.readWikipedia(url)));
+		}
+		System.out.printf("%d pages, %d links, %d bytes of adjacency%n",
+				graph.size(), graph.edges(), graph.adjacencyBytes());
+
+		PageRank ranks = PageRank.compute(graph);
+		int[] top = ranks.top(10);
+		for (int id: top) {
+			System.out.printf("%.3f %s%n", ranks.score(id), graph.url(id));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinkGraphTest {
+
+	private LinkGraph graph;
+
+	@Before
+	public void setUp() {
+		graph = new LinkGraph();
+	}
+
+	@Test
+	public void testIds() {
+		assertThat(graph.addPage("a"), is(0));
+		assertThat(graph.addPage("b"), is(1));
+		assertThat(graph.addPage("a"), is(0));
+		assertThat(graph.id("b"), is(1));
+		assertThat(graph.id("c"), is(-1));
+		assertThat(graph.url(1), is("b"));
+		assertThat(graph.size(), is(2));
+
+		// enough to make the table grow
+		for (int i=0; i<10000; i++) {
+			graph.addPage("page" + i);
+		}
+		assertThat(graph.id("page1234"), is(1236));
+		assertThat(graph.id("a"), is(0));
+	}
+
+	@Test
+	public void testSetLinks() {
+		graph.setLinks("a", Arrays.asList("c", "b", "c", "a"));
+		int a = graph.id("a");
+		assertThat(graph.outDegree(a), is(2));
+		assertThat(graph.outLinks(a), is(new int[] {graph.id("c"), graph.id("b")}));
+		assertThat(graph.edges(), is(2L));
+		assertThat(graph.outDegree(graph.id("b")), is(0));
+
+		graph.setLinks("a", Arrays.asList("b"));
+		assertThat(graph.outLinks(a), is(new int[] {graph.id("b")}));
+		assertThat(graph.edges(), is(1L));
+	}
+
+	@Test
+	public void testLargeGaps() {
+		Random random = new Random(1);
+		int n = 100000;
+		for (int i=0; i<n; i++) {
+			graph.addPage("page" + i);
+		}
+		int[][] rows = new int[100][];
+		for (int source=0; source<rows.length; source++) {
+			rows[source] = new int[50];
+			for (int j=0; j<50; j++) {
+				rows[source][j] = random.nextInt(n);
+			}
+			graph.setLinks(source, rows[source].clone());
+		}
+		for (int source=0; source<rows.length; source++) {
+			final int s = source;
+			int[] expected = Arrays.stream(rows[source]).filter(t -> t != s).sorted().distinct().toArray();
+			assertThat(graph.outLinks(source), is(expected));
+		}
+	}
+
+	@Test
+	public void testCompact() {
+		graph.setLinks("a", Arrays.asList("b", "c"));
+		graph.setLinks("b", Arrays.asList("c"));
+		long bytes = graph.adjacencyBytes();
+		graph.setLinks("a", Arrays.asList("c"));
+		graph.setLinks("a", Arrays.asList("b", "c"));
+		assertThat(graph.adjacencyBytes(), is(bytes));
+
+		graph.compact();
+		assertThat(graph.adjacencyBytes(), is(bytes));
+		assertThat(graph.outLinks(graph.id("a")), is(new int[] {graph.id("b"), graph.id("c")}));
+		assertThat(graph.outLinks(graph.id("b")), is(new int[] {graph.id("c")}));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testUnknownTarget() {
+		graph.addPage("a");
+		graph.setLinks(0, new int[] {5});
+	}
+}
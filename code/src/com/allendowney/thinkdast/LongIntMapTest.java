@@ -0,0 +1,42 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LongIntMapTest {
+
+	/**
+	 * Puts, adds to and removes random keys and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		LongIntMap mine = new LongIntMap();
+		// keys that differ only in the high bits
+		Map<Long, Integer> expected = new MapChecker<Long>(key -> (long) key << 32)
+				.put(mine::put).remove(mine::remove).addTo(mine::addTo).get(mine::get).missing(0)
+				.contents(() -> {
+					Map<Long, Integer> actual = new HashMap<Long, Integer>();
+					for (LongIntMap.Cursor c = mine.cursor(); c.advance(); ) {
+						actual.put(c.key(), c.value());
+					}
+					return actual;
+				})
+				.run(200000, 5000, mine::size);
+		assertThat(mine.containsKey(0L), is(expected.containsKey(0L)));
+	}
+
+	@Test
+	public void testPresized() {
+		LongIntMap mine = new LongIntMap(1000, 0);
+		int capacity = mine.capacity();
+		for (long i=0; i<1000; i++) {
+			mine.put(i, 1);
+		}
+		assertThat(mine.capacity(), is(capacity));
+	}
+}
@@ -0,0 +1,128 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Checks a map against java.util.HashMap by doing the same random operations to both.
+ *
+ * The map under test is given as functions, so maps that do not implement
+ * Map, or whose keys are primitives, are checked the same way. Keys come from
+ * a small range, so removes hit and slots get reused. Each result is compared
+ * as it comes, and after each operation the key is looked up again.
+ *
+ * Puts, removes and addTo come in equal measure; a map without remove or
+ * addTo gets puts instead. addTo starts from 0.
+ *
+ * @param <K>
+ *
+ */
+class MapChecker<K> {
+
+	private final IntFunction<K> keys;
+	private BiFunction<K, Integer, Integer> put;
+	private Function<K, Integer> remove;
+	private BiFunction<K, Integer, Integer> addTo;
+	private Function<K, Integer> get;
+	private Supplier<Map<K, Integer>> contents;
+	// what the map returns for a key it does not have
+	private Integer missing = null;
+
+	/**
+	 * @param keys  Makes the key for each int in the range.
+	 */
+	MapChecker(IntFunction<K> keys) {
+		this.keys = keys;
+	}
+
+	/**
+	 * @param put  Returns the old value.
+	 */
+	MapChecker<K> put(BiFunction<K, Integer, Integer> put) {
+		this.put = put;
+		return this;
+	}
+
+	/**
+	 * @param remove  Returns the old value.
+	 */
+	MapChecker<K> remove(Function<K, Integer> remove) {
+		this.remove = remove;
+		return this;
+	}
+
+	/**
+	 * @param addTo  Returns the new value.
+	 */
+	MapChecker<K> addTo(BiFunction<K, Integer, Integer> addTo) {
+		this.addTo = addTo;
+		return this;
+	}
+
+	MapChecker<K> get(Function<K, Integer> get) {
+		this.get = get;
+		return this;
+	}
+
+	/**
+	 * @param contents  Copies every entry of the map, e.g. with a cursor.
+	 */
+	MapChecker<K> contents(Supplier<Map<K, Integer>> contents) {
+		this.contents = contents;
+		return this;
+	}
+
+	/**
+	 * @param missing  What put, remove and get return for a key that is not in the map.
+	 */
+	MapChecker<K> missing(Integer missing) {
+		this.missing = missing;
+		return this;
+	}
+
+	private Integer orMissing(Integer value) {
+		return value == null ? missing : value;
+	}
+
+	/**
+	 * Does `ops` random operations on keys from `distinct` ints.
+	 *
+	 * @param ops
+	 * @param distinct
+	 * @param size  Returns the size of the map.
+	 * @return the expected contents, for checks of the caller's own
+	 */
+	Map<K, Integer> run(int ops, int distinct, LongSupplier size) {
+		Random random = new Random(17);
+		Map<K, Integer> expected = new HashMap<K, Integer>();
+		for (int i=0; i<ops; i++) {
+			K key = keys.apply(random.nextInt(distinct));
+			int op = random.nextInt(3);
+			if (op == 0 && remove != null) {
+				assertThat(remove.apply(key), is(orMissing(expected.remove(key))));
+			} else if (op == 1 && addTo != null) {
+				assertThat(addTo.apply(key, i), is(expected.merge(key, i, Integer::sum)));
+			} else {
+				assertThat(put.apply(key, i), is(orMissing(expected.put(key, i))));
+			}
+			assertThat(get.apply(key), is(orMissing(expected.get(key))));
+		}
+		assertThat(size.getAsLong(), is((long) expected.size()));
+		for (Map.Entry<K, Integer> entry: expected.entrySet()) {
+			assertThat(get.apply(entry.getKey()), is(entry.getValue()));
+		}
+		if (contents != null) {
+			assertThat(contents.get(), is(expected));
+		}
+		return expected;
+	}
+}
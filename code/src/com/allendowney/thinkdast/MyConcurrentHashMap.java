@@ -0,0 +1,419 @@
+package com.allendowney.thinkdast;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Implementation of a HashMap that many threads can use at once.
+ *
+ * Like MyHashMap, each key goes in a bucket chosen by its hashCode, but the
+ * buckets are chains of nodes whose links never change once they are
+ * published; a put adds a node at the front, and a remove copies the nodes
+ * before the one it removes. So a get can walk a chain without a lock and
+ * always sees a consistent list. Buckets are read and written with acquire
+ * and release semantics through a VarHandle.
+ *
+ * Writers lock one of a fixed number of stripes, chosen by the low bits of
+ * the hash. The number of buckets is always a multiple of the number of
+ * stripes, so a key's stripe never changes when the table grows, and the two
+ * new buckets an old one splits into belong to the same stripe as the old one.
+ * That lets a resize move one stripe at a time: while it holds a stripe's lock
+ * it copies that stripe's buckets into the new table and leaves a forwarding
+ * node in each old one. Readers and writers that find a forwarding node go on
+ * to the new table; writers on other stripes carry on meanwhile.
+ *
+ * The size is kept in a LongAdder, so threads that add keys at the same time
+ * do not all write the same counter. The null key is allowed, as in the other
+ * maps in this package; keySet, values and entrySet are snapshots.
+ *
+ * @param <K>
+ * @param <V>
+ *
+ */
+public class MyConcurrentHashMap<K, V> implements Map<K, V> {
+
+	private static final VarHandle BUCKETS = MethodHandles.arrayElementVarHandle(Node[].class);
+
+	// stands in for the null key
+	private static final Object NULL_KEY = new Object();
+
+	private static final int DEFAULT_STRIPES = 64;
+
+	// largest number of entries per bucket before we resize
+	protected static final double FACTOR = 0.75;
+
+	/**
+	 * One entry; `next` is fixed when the node is made.
+	 */
+	static class Node {
+		final int hash;
+		final Object key;
+		volatile Object value;
+		final Node next;
+
+		Node(int hash, Object key, Object value, Node next) {
+			this.hash = hash;
+			this.key = key;
+			this.value = value;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Left in an old bucket once its entries have been moved to `table`.
+	 */
+	static final class Forward extends Node {
+		final Node[] table;
+
+		Forward(Node[] table) {
+			super(0, null, null, null);
+			this.table = table;
+		}
+	}
+
+	private volatile Node[] table;
+	private final ReentrantLock[] stripes;
+	private final int stripeMask;
+	// held while a resize is going on, so there is only one at a time
+	private final ReentrantLock resizeLock = new ReentrantLock();
+	private final LongAdder size = new LongAdder();
+
+	public MyConcurrentHashMap() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes  Number of locks for writers; rounded up to a power of two.
+	 */
+	public MyConcurrentHashMap(int stripes) {
+		int n = 1;
+		while (n < stripes) {
+			n *= 2;
+		}
+		this.stripes = new ReentrantLock[n];
+		for (int i=0; i<n; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.stripeMask = n - 1;
+		this.table = new Node[Math.max(n, 16)];
+	}
+
+	/**
+	 * Mixes the high bits of the hash code into the low ones.
+	 */
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static Object mask(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> K unmask(Object key) {
+		return key == NULL_KEY ? null : (K) key;
+	}
+
+	private static Node bucket(Node[] tab, int i) {
+		return (Node) BUCKETS.getAcquire(tab, i);
+	}
+
+	private static void setBucket(Node[] tab, int i, Node node) {
+		BUCKETS.setRelease(tab, i, node);
+	}
+
+	/**
+	 * Returns the node for `key` (already masked), or null; takes no lock.
+	 */
+	private Node find(Object key, int h) {
+		Node[] tab = table;
+		while (true) {
+			Node node = bucket(tab, h & (tab.length - 1));
+			if (node instanceof Forward) {
+				tab = ((Forward) node).table;
+				continue;
+			}
+			for (; node != null; node = node.next) {
+				if (node.hash == h && (node.key == key || node.key.equals(key))) {
+					return node;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object target) {
+		Object k = mask(target);
+		return find(k, hash(k)) != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Object k = mask(key);
+		Node node = find(k, hash(k));
+		return node == null ? null : (V) node.value;
+	}
+
+	/**
+	 * Returns the table that holds the bucket for `h`, following forwarding nodes.
+	 *
+	 * Called with the stripe of `h` locked, so the bucket cannot be moved meanwhile.
+	 */
+	private Node[] lockedTable(int h) {
+		Node[] tab = table;
+		Node node;
+		while ((node = bucket(tab, h & (tab.length - 1))) instanceof Forward) {
+			tab = ((Forward) node).table;
+		}
+		return tab;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V put(K key, V value) {
+		Object k = mask(key);
+		int h = hash(k);
+		ReentrantLock lock = stripes[h & stripeMask];
+		lock.lock();
+		try {
+			Node[] tab = lockedTable(h);
+			int i = h & (tab.length - 1);
+			Node head = bucket(tab, i);
+			for (Node node = head; node != null; node = node.next) {
+				if (node.hash == h && (node.key == k || node.key.equals(k))) {
+					V oldValue = (V) node.value;
+					node.value = value;
+					return oldValue;
+				}
+			}
+			setBucket(tab, i, new Node(h, k, value, head));
+			size.increment();
+		} finally {
+			lock.unlock();
+		}
+		if (size.sum() > table.length * FACTOR) {
+			resize();
+		}
+		return null;
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> map) {
+		for (Map.Entry<? extends K, ? extends V> entry: map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		Object k = mask(key);
+		int h = hash(k);
+		ReentrantLock lock = stripes[h & stripeMask];
+		lock.lock();
+		try {
+			Node[] tab = lockedTable(h);
+			int i = h & (tab.length - 1);
+			Node head = bucket(tab, i);
+			Node target = head;
+			while (target != null && !(target.hash == h && (target.key == k || target.key.equals(k)))) {
+				target = target.next;
+			}
+			if (target == null) {
+				return null;
+			}
+			// copy the nodes before the target, so readers never see a half-made chain
+			Node chain = target.next;
+			for (Node node = head; node != target; node = node.next) {
+				chain = new Node(node.hash, node.key, node.value, chain);
+			}
+			setBucket(tab, i, chain);
+			size.decrement();
+			return (V) target.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the entries into a table with twice as many buckets, one stripe at a time.
+	 *
+	 * If another thread is already resizing, returns at once.
+	 */
+	private void resize() {
+		if (!resizeLock.tryLock()) {
+			return;
+		}
+		try {
+			Node[] old = table;
+			if (size.sum() <= old.length * FACTOR) {
+				return;
+			}
+			int n = old.length;
+			Node[] tab = new Node[n * 2];
+			Forward forward = new Forward(tab);
+			for (int s=0; s<stripes.length; s++) {
+				stripes[s].lock();
+				try {
+					for (int i=s; i<n; i+=stripes.length) {
+						// split the chain between buckets i and i + n
+						Node lo = null;
+						Node hi = null;
+						for (Node node = bucket(old, i); node != null; node = node.next) {
+							if ((node.hash & n) == 0) {
+								lo = new Node(node.hash, node.key, node.value, lo);
+							} else {
+								hi = new Node(node.hash, node.key, node.value, hi);
+							}
+						}
+						setBucket(tab, i, lo);
+						setBucket(tab, i + n, hi);
+						setBucket(old, i, forward);
+					}
+				} finally {
+					stripes[s].unlock();
+				}
+			}
+			table = tab;
+		} finally {
+			resizeLock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		resizeLock.lock();
+		try {
+			for (ReentrantLock lock: stripes) {
+				lock.lock();
+			}
+			try {
+				table = new Node[table.length];
+				size.reset();
+			} finally {
+				for (ReentrantLock lock: stripes) {
+					lock.unlock();
+				}
+			}
+		} finally {
+			resizeLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the nodes in the map, as of some moment during the call.
+	 */
+	private List<Node> nodes() {
+		List<Node> nodes = new ArrayList<Node>();
+		collect(table, nodes);
+		return nodes;
+	}
+
+	private static void collect(Node[] tab, List<Node> nodes) {
+		for (int i=0; i<tab.length; i++) {
+			collect(tab, i, nodes);
+		}
+	}
+
+	/**
+	 * Adds the nodes of bucket `i`; if it has been moved, of the two new buckets it was split into.
+	 *
+	 * Each old bucket is read once, so a bucket moved during the call is seen
+	 * either before or after the move, but not both.
+	 */
+	private static void collect(Node[] tab, int i, List<Node> nodes) {
+		Node node = bucket(tab, i);
+		if (node instanceof Forward) {
+			Node[] next = ((Forward) node).table;
+			collect(next, i, nodes);
+			collect(next, i + tab.length, nodes);
+			return;
+		}
+		for (; node != null; node = node.next) {
+			nodes.add(node);
+		}
+	}
+
+	@Override
+	public boolean containsValue(Object target) {
+		for (Node node: nodes()) {
+			Object value = node.value;
+			if (target == null ? value == null : target.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.max(0, Math.min(size.sum(), Integer.MAX_VALUE));
+	}
+
+	@Override
+	public Set<K> keySet() {
+		Set<K> set = new HashSet<K>();
+		for (Node node: nodes()) {
+			set.add(unmask(node.key));
+		}
+		return set;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Collection<V> values() {
+		List<V> list = new ArrayList<V>();
+		for (Node node: nodes()) {
+			list.add((V) node.value);
+		}
+		return list;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Set<Map.Entry<K, V>> entrySet() {
+		Set<Map.Entry<K, V>> set = new HashSet<Map.Entry<K, V>>();
+		for (Node node: nodes()) {
+			set.add(new AbstractMap.SimpleImmutableEntry<K, V>(unmask(node.key), (V) node.value));
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the number of buckets.
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return table.length;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Map<String, Integer> map = new MyConcurrentHashMap<String, Integer>();
+		for (int i=0; i<10; i++) {
+			map.put(Integer.toString(i), i);
+		}
+		Integer value = map.get("3");
+		System.out.println(value);
+	}
+}
@@ -0,0 +1,153 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyConcurrentHashMapTest extends MyLinearMapTest {
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		map = new MyConcurrentHashMap<String, Integer>();
+		map.put("One", 1);
+		map.put("Two", 2);
+		map.put("Three", 3);
+		map.put(null, 0);
+	}
+
+	private static void runAll(List<Thread> threads) throws InterruptedException {
+		for (Thread thread: threads) {
+			thread.start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+	}
+
+	/**
+	 * Threads put disjoint ranges of keys, so the table resizes while they run.
+	 */
+	@Test
+	public void testConcurrentPut() throws InterruptedException {
+		MyConcurrentHashMap<Integer, Integer> mine = new MyConcurrentHashMap<Integer, Integer>(4);
+		int threads = 8;
+		int n = 20000;
+		List<Thread> list = new ArrayList<Thread>();
+		for (int t=0; t<threads; t++) {
+			int start = t * n;
+			list.add(new Thread(() -> {
+				for (int i=start; i<start+n; i++) {
+					mine.put(i, i);
+				}
+			}));
+		}
+		runAll(list);
+		assertThat(mine.size(), is(threads * n));
+		assertTrue(mine.capacity() * MyConcurrentHashMap.FACTOR >= threads * n);
+		for (int i=0; i<threads*n; i++) {
+			assertThat(mine.get(i), is(i));
+		}
+		assertThat(mine.keySet().size(), is(threads * n));
+	}
+
+	/**
+	 * Readers never miss keys that are always in the map, while writers add
+	 * and remove others and the table grows.
+	 */
+	@Test
+	public void testReadsDuringWrites() throws InterruptedException {
+		MyConcurrentHashMap<Integer, Integer> mine = new MyConcurrentHashMap<Integer, Integer>();
+		int stable = 1000;
+		for (int i=0; i<stable; i++) {
+			mine.put(i, i);
+		}
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicInteger misses = new AtomicInteger();
+		List<Thread> list = new ArrayList<Thread>();
+		for (int t=0; t<4; t++) {
+			int start = stable + t * 50000;
+			list.add(new Thread(() -> {
+				for (int i=start; i<start+50000; i++) {
+					mine.put(i, i);
+					if (i % 2 == 0) {
+						mine.remove(i);
+					}
+				}
+			}));
+		}
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int t=0; t<2; t++) {
+			readers.add(new Thread(() -> {
+				while (!done.get()) {
+					for (int i=0; i<stable; i++) {
+						Integer value = mine.get(i);
+						if (value == null || value != i) {
+							misses.incrementAndGet();
+						}
+					}
+				}
+			}));
+		}
+		for (Thread reader: readers) {
+			reader.start();
+		}
+		runAll(list);
+		done.set(true);
+		for (Thread reader: readers) {
+			reader.join();
+		}
+		assertThat(misses.get(), is(0));
+		assertThat(mine.size(), is(stable + 4 * 25000));
+		assertThat(mine.containsKey(stable + 1), is(true));
+		assertThat(mine.containsKey(stable), is(false));
+	}
+
+	/**
+	 * keySet sees every key that is always in the map, while another thread
+	 * keeps forcing the table to grow.
+	 */
+	@Test
+	public void testKeySetDuringResize() throws InterruptedException {
+		AtomicInteger misses = new AtomicInteger();
+		for (int round=0; round<20; round++) {
+			MyConcurrentHashMap<Integer, Integer> mine = new MyConcurrentHashMap<Integer, Integer>(4);
+			int stable = 2000;
+			for (int i=0; i<stable; i++) {
+				mine.put(i, i);
+			}
+			AtomicBoolean done = new AtomicBoolean();
+			Thread writer = new Thread(() -> {
+				for (int i=stable; i<stable+100000; i++) {
+					mine.put(i, i);
+				}
+				done.set(true);
+			});
+			Thread reader = new Thread(() -> {
+				while (!done.get()) {
+					Set<Integer> keys = mine.keySet();
+					for (int i=0; i<stable; i++) {
+						if (!keys.contains(i)) {
+							misses.incrementAndGet();
+						}
+					}
+				}
+			});
+			List<Thread> list = new ArrayList<Thread>();
+			list.add(writer);
+			list.add(reader);
+			runAll(list);
+		}
+		assertThat(misses.get(), is(0));
+	}
+}
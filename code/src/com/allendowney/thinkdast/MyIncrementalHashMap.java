@@ -0,0 +1,265 @@
+/**
+ *
+ */
+package com.allendowney.thinkdast;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of a HashMap that resizes a few buckets at a time.
+ *
+ * MyHashMap rehashes every entry in the put that crosses the threshold, so
+ * that one put takes time proportional to the size of the map. This map
+ * instead starts a table with twice as many buckets, keeps the old one beside
+ * it, and moves `bucketsPerOp` old buckets into the new table on each put and
+ * remove. Old
+ * buckets are moved in order, so a key is in the old table exactly when its
+ * old bucket has not been moved yet, and a lookup only looks in one place.
+ *
+ * Since the new table is twice as big, at least as many puts are needed to
+ * fill it as there are old buckets to move, so the move is always done before
+ * the next resize. The new buckets are made when a key is first put in
+ * them, so a resize only allocates the list that holds them, and looking up
+ * a missing key makes nothing.
+ *
+ * @param <K>
+ * @param <V>
+ *
+ */
+public class MyIncrementalHashMap<K, V> extends MyHashMap<K, V> implements Map<K, V> {
+
+	// number of old buckets moved by each put or remove
+	private final int bucketsPerOp;
+
+	// the buckets being moved out, or null; the ones before `moved` are gone
+	private List<MyLinearMap<K, V>> oldMaps = null;
+	private int moved = 0;
+
+	private int size = 0;
+
+	public MyIncrementalHashMap() {
+		this(1);
+	}
+
+	/**
+	 * @param bucketsPerOp  Number of old buckets to move on each put or remove; at least 1.
+	 */
+	public MyIncrementalHashMap(int bucketsPerOp) {
+		if (bucketsPerOp < 1) {
+			throw new IllegalArgumentException("bucketsPerOp must be at least 1");
+		}
+		this.bucketsPerOp = bucketsPerOp;
+	}
+
+	/**
+	 * Uses the hashCode to find the new bucket for the given key, making it if it does not exist yet.
+	 *
+	 * @param key
+	 * @return
+	 */
+	@Override
+	protected MyLinearMap<K, V> chooseMap(Object key) {
+		int index = key==null ? 0 : Math.abs(key.hashCode()) % maps.size();
+		MyLinearMap<K, V> map = maps.get(index);
+		if (map == null) {
+			map = new MyLinearMap<K, V>();
+			maps.set(index, map);
+		}
+		return map;
+	}
+
+	/**
+	 * Finds the map that holds the given key: an old bucket that has not been moved yet, or a new one.
+	 *
+	 * An old bucket that was never made holds nothing, so its keys go straight into the new table.
+	 *
+	 * @param key
+	 * @return the map, or null if the new bucket has not been made yet.
+	 */
+	private MyLinearMap<K, V> find(Object key) {
+		if (oldMaps != null) {
+			int index = key==null ? 0 : Math.abs(key.hashCode()) % oldMaps.size();
+			if (index >= moved && oldMaps.get(index) != null) {
+				return oldMaps.get(index);
+			}
+		}
+		return maps.get(key==null ? 0 : Math.abs(key.hashCode()) % maps.size());
+	}
+
+	/**
+	 * Like find, but makes the new bucket if it does not exist; only for puts.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private MyLinearMap<K, V> locate(Object key) {
+		MyLinearMap<K, V> map = find(key);
+		return map == null ? chooseMap(key) : map;
+	}
+
+	/**
+	 * Moves up to `bucketsPerOp` old buckets into the new ones.
+	 */
+	private void migrate() {
+		if (oldMaps == null) {
+			return;
+		}
+		int end = Math.min(moved + bucketsPerOp, oldMaps.size());
+		for (; moved < end; moved++) {
+			MyLinearMap<K, V> map = oldMaps.get(moved);
+			if (map == null) {
+				continue;
+			}
+			for (K key: map.keySet()) {
+				chooseMap(key).put(key, map.get(key));
+			}
+			oldMaps.set(moved, null);
+		}
+		if (moved == oldMaps.size()) {
+			oldMaps = null;
+		}
+	}
+
+	/**
+	 * Starts moving the entries into twice as many buckets.
+	 */
+	@Override
+	protected void rehash() {
+		// a resize that is still going on has to finish first
+		while (oldMaps != null) {
+			migrate();
+		}
+		oldMaps = maps;
+		moved = 0;
+		maps = new ArrayList<MyLinearMap<K, V>>(Collections.nCopies(oldMaps.size() * 2, (MyLinearMap<K, V>) null));
+	}
+
+	/**
+	 * Returns the buckets that exist, new and old.
+	 */
+	List<MyLinearMap<K, V>> buckets() {
+		List<MyLinearMap<K, V>> buckets = new ArrayList<MyLinearMap<K, V>>();
+		for (MyLinearMap<K, V> map: maps) {
+			if (map != null) {
+				buckets.add(map);
+			}
+		}
+		if (oldMaps != null) {
+			for (MyLinearMap<K, V> map: oldMaps) {
+				if (map != null) {
+					buckets.add(map);
+				}
+			}
+		}
+		return buckets;
+	}
+
+	@Override
+	public void clear() {
+		for (MyLinearMap<K, V> map: buckets()) {
+			map.clear();
+		}
+		oldMaps = null;
+		size = 0;
+	}
+
+	@Override
+	public boolean containsKey(Object target) {
+		MyLinearMap<K, V> map = find(target);
+		return map != null && map.containsKey(target);
+	}
+
+	@Override
+	public boolean containsValue(Object target) {
+		for (MyLinearMap<K, V> map: buckets()) {
+			if (map.containsValue(target)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public V get(Object key) {
+		MyLinearMap<K, V> map = find(key);
+		return map == null ? null : map.get(key);
+	}
+
+	@Override
+	public Set<K> keySet() {
+		Set<K> set = new HashSet<K>();
+		for (MyLinearMap<K, V> map: buckets()) {
+			set.addAll(map.keySet());
+		}
+		return set;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		migrate();
+		MyLinearMap<K, V> map = locate(key);
+		size -= map.size();
+		V oldValue = map.put(key, value);
+		size += map.size();
+
+		if (size > maps.size() * FACTOR) {
+			rehash();
+		}
+		return oldValue;
+	}
+
+	@Override
+	public V remove(Object key) {
+		migrate();
+		MyLinearMap<K, V> map = find(key);
+		if (map == null) {
+			return null;
+		}
+		size -= map.size();
+		V oldValue = map.remove(key);
+		size += map.size();
+		return oldValue;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Collection<V> values() {
+		// a Set, like MyBetterMap.values
+		Set<V> set = new HashSet<V>();
+		for (MyLinearMap<K, V> map: buckets()) {
+			set.addAll(map.values());
+		}
+		return set;
+	}
+
+	/**
+	 * Returns true while entries are being moved into new buckets.
+	 *
+	 * @return
+	 */
+	public boolean isResizing() {
+		return oldMaps != null;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Map<String, Integer> map = new MyIncrementalHashMap<String, Integer>();
+		for (int i=0; i<10; i++) {
+			map.put(Integer.toString(i), i);
+		}
+		Integer value = map.get("3");
+		System.out.println(value);
+	}
+}
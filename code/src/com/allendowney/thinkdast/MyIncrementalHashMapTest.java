@@ -0,0 +1,133 @@
+/**
+ * 
+ */
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the MyLinearMap tests on MyIncrementalHashMap, and checks it while it resizes.
+ *
+ */
+public class MyIncrementalHashMapTest extends MyLinearMapTest {
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		map = new MyIncrementalHashMap<String, Integer>();
+		map.put("One", 1);
+		map.put("Two", 2);
+		map.put("Three", 3);
+		map.put(null, 0);
+	}
+
+	/**
+	 * Puts and removes random keys, while resizes are going on, and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		MyIncrementalHashMap<Integer, Integer> mine = new MyIncrementalHashMap<Integer, Integer>();
+		AtomicBoolean sawResize = new AtomicBoolean();
+		// lookups after each put see keys in old and new buckets
+		new MapChecker<Integer>(key -> key)
+				.put((key, value) -> {
+					Integer old = mine.put(key, value);
+					if (mine.isResizing()) {
+						sawResize.set(true);
+					}
+					return old;
+				})
+				.remove(mine::remove).get(mine::get)
+				.contents(() -> {
+					Map<Integer, Integer> actual = new HashMap<Integer, Integer>();
+					for (Integer key: mine.keySet()) {
+						actual.put(key, mine.get(key));
+					}
+					return actual;
+				})
+				.run(50000, 20000, mine::size);
+		assertTrue(sawResize.get());
+	}
+
+	/**
+	 * With one bucket moved per put, each move finishes in the put that starts
+	 * the next resize; every key stays where a lookup finds it.
+	 */
+	@Test
+	public void testMigrationAcrossResizes() {
+		MyIncrementalHashMap<Integer, Integer> mine = new MyIncrementalHashMap<Integer, Integer>(1);
+		int resizes = 0;
+		for (int i=0; i<2000; i++) {
+			int buckets = mine.maps.size();
+			mine.put(i, i);
+			if (mine.maps.size() != buckets) {
+				resizes++;
+			}
+			for (int j=0; j<=i; j++) {
+				assertThat(mine.get(j), is(j));
+			}
+			assertThat(mine.size(), is(i + 1));
+		}
+		assertThat(mine.keySet().size(), is(2000));
+		// from 2 buckets to 2048
+		assertThat(resizes, is(10));
+	}
+
+	@Test
+	public void testResizeFinishes() {
+		MyIncrementalHashMap<Integer, Integer> mine = new MyIncrementalHashMap<Integer, Integer>(4);
+		int i = 0;
+		while (!mine.isResizing()) {
+			mine.put(i, i);
+			i++;
+		}
+		// the old table has fewer than `i` buckets, and each put moves 4 of them
+		for (int j=0; j<i / 4 + 1; j++) {
+			mine.put(i + j, i + j);
+		}
+		assertThat(mine.isResizing(), is(false));
+	}
+
+	@Test
+	public void testLookupsMakeNoBuckets() {
+		MyIncrementalHashMap<Integer, Integer> mine = new MyIncrementalHashMap<Integer, Integer>(4);
+		int i = 0;
+		while (!mine.isResizing()) {
+			mine.put(i, i);
+			i++;
+		}
+		// move a few old buckets, so some lookups go to the new table
+		for (int j=0; j<2; j++) {
+			mine.put(i, i);
+			i++;
+		}
+		assertThat(mine.isResizing(), is(true));
+		int buckets = mine.buckets().size();
+		for (int j=0; j<1000; j++) {
+			assertThat(mine.get(-j - 1), is(nullValue()));
+			assertThat(mine.containsKey(-j - 1), is(false));
+		}
+		assertThat(mine.buckets().size(), is(buckets));
+
+		// a remove moves old buckets, so finish the resize before counting
+		while (mine.isResizing()) {
+			mine.put(i, i);
+			i++;
+		}
+		buckets = mine.buckets().size();
+		for (int j=0; j<1000; j++) {
+			assertThat(mine.remove(-j - 1), is(nullValue()));
+		}
+		assertThat(mine.buckets().size(), is(buckets));
+	}
+}
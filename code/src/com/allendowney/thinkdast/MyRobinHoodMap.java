@@ -0,0 +1,340 @@
+package com.allendowney.thinkdast;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of a HashMap using open addressing with Robin Hood probing.
+ *
+ * Keys, values and hash codes are kept in three parallel arrays, so a lookup
+ * reads a few consecutive slots and allocates nothing. The capacity is a power
+ * of two and hash codes are mixed before they are masked, so keys whose hash
+ * codes differ only in the high bits still spread out.
+ *
+ * When a key being inserted has probed further from its home slot than the key
+ * sitting in a slot, it takes the slot and the other key moves on. That keeps
+ * probe lengths short and even, and lets a lookup stop as soon as it passes a
+ * key closer to home than it is. Removing a key shifts the keys after it back
+ * one slot, instead of leaving a tombstone.
+ *
+ * @param <K>
+ * @param <V>
+ *
+ */
+public class MyRobinHoodMap<K, V> implements Map<K, V> {
+
+	// stands in for the null key, so an empty slot can be null
+	private static final Object NULL_KEY = new Object();
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// largest fraction of slots in use before we resize
+	protected static final double MAX_LOAD = 0.8;
+
+	// hash code of each slot, 0 if it is empty
+	private int[] hashes;
+	private Object[] keys;
+	private Object[] values;
+	private int mask;
+	private int size = 0;
+	private int threshold;
+
+	public MyRobinHoodMap() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param expected  Number of entries to make room for.
+	 */
+	public MyRobinHoodMap(int expected) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity * MAX_LOAD < expected) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		hashes = new int[capacity];
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Mixes the bits of the hash code, so the low bits depend on all of them.
+	 *
+	 * Never returns 0, which marks an empty slot.
+	 */
+	static int hash(Object key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		h ^= h >>> 16;
+		return h == 0 ? 1 : h;
+	}
+
+	private static Object mask(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> K unmask(Object key) {
+		return key == NULL_KEY ? null : (K) key;
+	}
+
+	/**
+	 * Returns how far the key in slot `i` is from its home slot.
+	 */
+	private int distance(int i) {
+		return (i - hashes[i]) & mask;
+	}
+
+	/**
+	 * Returns the slot that holds `key`, or -1.
+	 */
+	private int find(Object key) {
+		Object k = mask(key);
+		int h = hash(k);
+		int i = h & mask;
+		for (int d=0; ; d++) {
+			int stored = hashes[i];
+			// an empty slot, or a key closer to home than we are: it would have been here
+			if (stored == 0 || distance(i) < d) {
+				return -1;
+			}
+			if (stored == h && (keys[i] == k || keys[i].equals(k))) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int i=0; i<hashes.length; i++) {
+			hashes[i] = 0;
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+	}
+
+	@Override
+	public boolean containsKey(Object target) {
+		return find(target) != -1;
+	}
+
+	@Override
+	public boolean containsValue(Object target) {
+		for (int i=0; i<hashes.length; i++) {
+			if (hashes[i] != 0 && equals(target, values[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean equals(Object target, Object obj) {
+		if (target == null) {
+			return obj == null;
+		}
+		return target.equals(obj);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		int i = find(key);
+		return i == -1 ? null : (V) values[i];
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V put(K key, V value) {
+		Object k = mask(key);
+		int h = hash(k);
+		int i = h & mask;
+		int d = 0;
+		// look for the key; where the search stops is where it goes
+		while (hashes[i] != 0 && distance(i) >= d) {
+			if (hashes[i] == h && (keys[i] == k || keys[i].equals(k))) {
+				V oldValue = (V) values[i];
+				values[i] = value;
+				return oldValue;
+			}
+			i = (i + 1) & mask;
+			d++;
+		}
+		if (size >= threshold) {
+			resize(hashes.length * 2);
+			i = h & mask;
+			d = 0;
+		}
+		place(i, d, h, k, value);
+		size++;
+		return null;
+	}
+
+	/**
+	 * Adds a key that is not in the map, starting at slot `i`, `d` slots from home.
+	 *
+	 * Takes the slot of any key that is closer to its home, and carries on with that key.
+	 */
+	private void place(int i, int d, int h, Object key, Object value) {
+		for (; ; d++) {
+			if (hashes[i] == 0) {
+				hashes[i] = h;
+				keys[i] = key;
+				values[i] = value;
+				return;
+			}
+			int other = distance(i);
+			if (other < d) {
+				int th = hashes[i];
+				Object tk = keys[i];
+				Object tv = values[i];
+				hashes[i] = h;
+				keys[i] = key;
+				values[i] = value;
+				h = th;
+				key = tk;
+				value = tv;
+				d = other;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Moves the entries into arrays with `capacity` slots.
+	 */
+	private void resize(int capacity) {
+		int[] oldHashes = hashes;
+		Object[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i=0; i<oldHashes.length; i++) {
+			int h = oldHashes[i];
+			if (h != 0) {
+				place(h & mask, 0, h, oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends V> map) {
+		for (Map.Entry<? extends K, ? extends V> entry: map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		int i = find(key);
+		if (i == -1) {
+			return null;
+		}
+		V oldValue = (V) values[i];
+
+		// shift the following keys back until one is at home or a slot is empty
+		int next = (i + 1) & mask;
+		while (hashes[next] != 0 && distance(next) > 0) {
+			hashes[i] = hashes[next];
+			keys[i] = keys[next];
+			values[i] = values[next];
+			i = next;
+			next = (next + 1) & mask;
+		}
+		hashes[i] = 0;
+		keys[i] = null;
+		values[i] = null;
+		size--;
+		return oldValue;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<K> keySet() {
+		Set<K> set = new HashSet<K>();
+		for (int i=0; i<hashes.length; i++) {
+			if (hashes[i] != 0) {
+				set.add(unmask(keys[i]));
+			}
+		}
+		return set;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Collection<V> values() {
+		Collection<V> list = new ArrayList<V>(size);
+		for (int i=0; i<hashes.length; i++) {
+			if (hashes[i] != 0) {
+				list.add((V) values[i]);
+			}
+		}
+		return list;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Set<Map.Entry<K, V>> entrySet() {
+		Set<Map.Entry<K, V>> set = new HashSet<Map.Entry<K, V>>();
+		for (int i=0; i<hashes.length; i++) {
+			if (hashes[i] != 0) {
+				set.add(new AbstractMap.SimpleImmutableEntry<K, V>(unmask(keys[i]), (V) values[i]));
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the longest distance of any key from its home slot.
+	 *
+	 * @return
+	 */
+	public int maxProbeLength() {
+		int max = 0;
+		for (int i=0; i<hashes.length; i++) {
+			if (hashes[i] != 0) {
+				max = Math.max(max, distance(i));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the number of slots.
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return hashes.length;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		MyRobinHoodMap<String, Integer> map = new MyRobinHoodMap<String, Integer>();
+		for (int i=0; i<1000000; i++) {
+			map.put(Integer.toString(i), i);
+		}
+		System.out.println(map.get("3"));
+		System.out.println(map.size() + " entries in " + map.capacity() + " slots, longest probe " + map.maxProbeLength());
+	}
+}
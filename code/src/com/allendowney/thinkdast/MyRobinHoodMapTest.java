@@ -0,0 +1,95 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MyRobinHoodMapTest extends MyLinearMapTest {
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		map = new MyRobinHoodMap<String, Integer>();
+		map.put("One", 1);
+		map.put("Two", 2);
+		map.put("Three", 3);
+		map.put(null, 0);
+	}
+
+	/**
+	 * Puts and removes random keys and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		MyRobinHoodMap<Integer, Integer> mine = new MyRobinHoodMap<Integer, Integer>();
+		// few distinct keys, so removes hit and slots get reused
+		new MapChecker<Integer>(key -> key)
+				.put(mine::put).remove(mine::remove).get(mine::get)
+				.contents(() -> new HashMap<Integer, Integer>(mine))
+				.run(200000, 5000, mine::size);
+	}
+
+	/**
+	 * Returns the first key after `after` whose home is slot `home` of 16.
+	 */
+	private static int keyAt(int home, int after) {
+		int key = after + 1;
+		while ((MyRobinHoodMap.hash(key) & 15) != home) {
+			key++;
+		}
+		return key;
+	}
+
+	@Test
+	public void testDisplacement() {
+		MyRobinHoodMap<Integer, Integer> mine = new MyRobinHoodMap<Integer, Integer>(0);
+		assertThat(mine.capacity(), is(16));
+		int a = keyAt(15, 0);
+		int b = keyAt(0, 0);
+		int c = keyAt(15, a);
+		mine.put(a, 1);
+		mine.put(b, 2);
+		// c is further from home than b at slot 0, so it takes the slot and b moves on;
+		// with plain linear probing c would end up two slots from home
+		mine.put(c, 3);
+		assertThat(mine.maxProbeLength(), is(1));
+		assertThat(mine.get(b), is(2));
+		assertThat(mine.get(c), is(3));
+
+		// removing a shifts c and b back, round the end of the table
+		assertThat(mine.remove(a), is(1));
+		assertThat(mine.maxProbeLength(), is(0));
+		assertThat(mine.get(b), is(2));
+		assertThat(mine.get(c), is(3));
+		assertThat(mine.size(), is(2));
+	}
+
+	@Test
+	public void testCollidingHashCodes() {
+		// keys whose hash codes differ only in the high bits
+		MyRobinHoodMap<Long, Integer> mine = new MyRobinHoodMap<Long, Integer>();
+		for (int i=0; i<10000; i++) {
+			mine.put((long) i << 32, i);
+		}
+		for (int i=0; i<10000; i++) {
+			assertThat(mine.get((long) i << 32), is(i));
+		}
+		assertTrue(mine.maxProbeLength() < 32);
+	}
+
+	@Test
+	public void testPresized() {
+		MyRobinHoodMap<Integer, Integer> mine = new MyRobinHoodMap<Integer, Integer>(1000);
+		int capacity = mine.capacity();
+		for (int i=0; i<1000; i++) {
+			mine.put(i, i);
+		}
+		assertThat(mine.capacity(), is(capacity));
+	}
+}
@@ -8,6 +8,13 @@ import java.util.*;
 /**
  * Implementation of a Map using a binary search tree.
  *
+ * By default it is an AVL tree: each node knows its height, and
+ * after a put or remove the nodes on the path back to the root are rotated
+ * wherever the heights of two subtrees differ by more than one, which keeps
+ * the height below 1.44 log2(n). The tree can also be left unbalanced, as
+ * in the exercise, so keys put in order make it a linked list. Both modes put
+ * and remove without recursion, remembering the path from the root as they go down.
+ *
  * @param <K>
  * @param <V>
  *
@@ -16,6 +23,10 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 
 	private int size = 0;
 	private Node root = null;
+	private final boolean balanced;
+
+	// the nodes from the root down to where the last put or remove stopped
+	private final List<Node> path = new ArrayList<Node>();
 
 	/**
 	 * Represents a node in the tree.
@@ -26,6 +37,8 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 		public V value;
 		public Node left = null;
 		public Node right = null;
+		// only kept up to date in balanced mode
+		public int height = 1;
 
 		/**
 		 * @param key
@@ -39,6 +52,17 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 		}
 	}
 
+	public MyTreeMap() {
+		this(true);
+	}
+
+	/**
+	 * @param balanced  Whether to keep the tree balanced.
+	 */
+	public MyTreeMap(boolean balanced) {
+		this.balanced = balanced;
+	}
+
 	@Override
 	public void clear() {
 		size = 0;
@@ -137,8 +161,9 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 	@Override
 	public Set<K> keySet() {
 		Set<K> set = new LinkedHashSet<K>();
-		keySetHelper(set, root);
-//		keySetHelperIterative(set);
+//		keySetHelper(set, root);
+		// iterative, since an unbalanced tree can be too deep to recurse
+		keySetHelperIterative(set);
 		return set;
 	}
 
@@ -155,13 +180,9 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 	}
 
 	private void keySetHelperIterative(Set<K> set) {
-		if (root == null) return;
-
 		Deque<Node> st = new ArrayDeque<>();
-		st.push(root);
-
-		Node curr = st.peek();
-		while (!st.isEmpty()) {
+		Node curr = root;
+		while (curr != null || !st.isEmpty()) {
 			while (curr != null) {
 				st.push(curr);
 				curr = curr.left;
@@ -179,45 +200,35 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 		if (key == null) {
 			throw new NullPointerException();
 		}
-		if (root == null) {
-			root = new Node(key, value);
-			size++;
-			return null;
-		}
-
-		return putHelper(root, key, value);
-	}
-
-	private V putHelper(Node node, K key, V value) {
-		// Traverse until expected pos is found.
-		// 1. If NULL => parent.(left | right) = new Node(key, value);
-		// 2. ELSE node.val = value;
 		@SuppressWarnings("unchecked")
-		Comparable<? super K> k = (Comparable<? super K>) node.key;
-		final int comparison = k.compareTo(key);
-
-		// Check left (lesser)
-		if (comparison > 0) {
-			if (node.left != null) return putHelper(node.left, key, value);
-
-			node.left = new Node(key, value);
-			++size;
-			return null;
+		Comparable<? super K> k = (Comparable<? super K>) key;
+
+		// go down until we find the key or fall off the tree
+		path.clear();
+		Node node = root;
+		int comparison = 0;
+		while (node != null) {
+			comparison = k.compareTo(node.key);
+			if (comparison == 0) {
+				V old = node.value;
+				node.value = value;
+				return old;
+			}
+			path.add(node);
+			node = comparison < 0 ? node.left : node.right;
 		}
 
-		// Check right (greater)
-		if (comparison < 0) {
-			if (node.right != null) return putHelper(node.right, key, value);
-
-			node.right = new Node(key, value);
-			++size;
-			return null;
+		Node added = new Node(key, value);
+		if (path.isEmpty()) {
+			root = added;
+		} else if (comparison < 0) {
+			path.get(path.size() - 1).left = added;
+		} else {
+			path.get(path.size() - 1).right = added;
 		}
-
-
-		final V old = node.value;
-		node.value = value;
-		return old;
+		size++;
+		rebalancePath();
+		return null;
 	}
 
 	@Override
@@ -230,93 +241,124 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 	@Override
 	public V remove(Object key) {
 		if (key == null) throw new IllegalArgumentException();
-		if (root == null) return null;
-
-		Node forRemoval;
-		if (equals(root.key, key)) {
-			forRemoval = root;
-			root = null;
-		} else {
-			Node parent = findParentOf(key, root);
-			if (parent == null) return null; // Key not found
-
-			@SuppressWarnings("unchecked")
-			Comparable<? super K> k = (Comparable<? super K>) key;
-			int comp = k.compareTo(parent.key);
-
-			if (comp < 0) {
-				forRemoval = parent.left;
-				parent.left = null;
-			} else {
-				forRemoval = parent.right;
-				parent.right = null;
+		@SuppressWarnings("unchecked")
+		Comparable<? super K> k = (Comparable<? super K>) key;
+
+		path.clear();
+		Node node = root;
+		while (node != null) {
+			int comparison = k.compareTo(node.key);
+			if (comparison == 0) {
+				break;
 			}
+			path.add(node);
+			node = comparison < 0 ? node.left : node.right;
+		}
+		if (node == null) return null; // Key not found
+		V old = node.value;
+
+		// a node with two children takes the entry of the next node, which has no left child
+		if (node.left != null && node.right != null) {
+			path.add(node);
+			Node next = node.right;
+			while (next.left != null) {
+				path.add(next);
+				next = next.left;
+			}
+			node.key = next.key;
+			node.value = next.value;
+			node = next;
 		}
-		--size; // Removed node
-
-		reBalanceFrom(forRemoval);
 
-		return forRemoval.value;
+		// now the node has at most one child, which takes its place
+		Node child = node.left != null ? node.left : node.right;
+		replaceChild(path.isEmpty() ? null : path.get(path.size() - 1), node, child);
+		--size; // Removed node
+		rebalancePath();
+		return old;
 	}
 
 	/**
-	 * A heuristic re-balancing where the children of {@code from} are re-inserted into the tree.
-	 *
-	 * @param from
+	 * Makes `replacement` the child of `parent` where `child` was; a null parent means the root.
 	 */
-	private void reBalanceFrom(Node from) {
-		// Persist collected children.
-		List<Node> children = collectChildren(from);
-		size -= children.size();
-		// When cleared, call add on the tree.
-		children.forEach((x) -> this.put(x.key, x.value));
+	private void replaceChild(Node parent, Node child, Node replacement) {
+		if (parent == null) {
+			root = replacement;
+		} else if (parent.left == child) {
+			parent.left = replacement;
+		} else {
+			parent.right = replacement;
+		}
 	}
 
 	/**
-	 * Collects children of parent {@code node} by traversing them using a post-order BFS, to keep the natural order.
-	 * @param parent The starting point (inclusive).
-	 * @return List of nodes that are removed.
+	 * In balanced mode, fixes the heights and balance of the nodes on `path`, from the bottom up.
 	 */
-	private List<Node> collectChildren(Node parent) {
-		List<Node> removed = new LinkedList<>();
-		if (parent == null) return removed;
-
-		Queue<Node> queue = new LinkedList<>();
-		if (parent.right != null)  queue.offer(parent.right);
-		if (parent.left != null) queue.offer(parent.left);
-
-		Node current;
-		while (!queue.isEmpty()) {
-			current = queue.poll();
-			removed.add(current);
-			// Makes sense to place the greater (right) element before the left (smaller).
-			if (current.right != null)  queue.offer(current.right);
-			if (current.left != null) queue.offer(current.left);
+	private void rebalancePath() {
+		if (!balanced) {
+			return;
+		}
+		for (int i=path.size()-1; i>=0; i--) {
+			Node node = path.get(i);
+			int before = node.height;
+			Node top = rebalance(node);
+			if (top != node) {
+				replaceChild(i == 0 ? null : path.get(i - 1), node, top);
+			}
+			// nothing above here changes
+			if (top.height == before) {
+				break;
+			}
 		}
-
-		return removed;
 	}
 
-	private Node findParentOf(Object target, Node node) {
-		if (target == null) throw new IllegalArgumentException("Aborted search because Map doesn't support null values");
-		if (node == null) return null;
+	private int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
 
-		@SuppressWarnings("unchecked")
-		Comparable<? super K> k = (Comparable<? super K>) target;
-		int comp = k.compareTo(node.key);
-		if (comp < 0) {
-			if (node.left != null && equals(node.left.key, target)) return node;
+	private void updateHeight(Node node) {
+		node.height = Math.max(height(node.left), height(node.right)) + 1;
+	}
 
-			return findParentOf(target, node.left);
+	/**
+	 * Updates the height of `node`, and rotates if its subtrees differ in height by 2.
+	 *
+	 * @return the node now at the top of the subtree
+	 */
+	private Node rebalance(Node node) {
+		updateHeight(node);
+		int balance = height(node.left) - height(node.right);
+		if (balance > 1) {
+			if (height(node.left.left) < height(node.left.right)) {
+				node.left = rotateLeft(node.left);
+			}
+			return rotateRight(node);
 		}
-		if (comp > 0) {
-			if (node.right != null && equals(node.right.key, target)) return node;
-
-			return findParentOf(target, node.right);
+		if (balance < -1) {
+			if (height(node.right.right) < height(node.right.left)) {
+				node.right = rotateRight(node.right);
+			}
+			return rotateLeft(node);
 		}
+		return node;
+	}
 
-		// in case it's root.
-		return null;
+	private Node rotateRight(Node node) {
+		Node left = node.left;
+		node.left = left.right;
+		left.right = node;
+		updateHeight(node);
+		updateHeight(left);
+		return left;
+	}
+
+	private Node rotateLeft(Node node) {
+		Node right = node.right;
+		node.right = right.left;
+		right.left = node;
+		updateHeight(node);
+		updateHeight(right);
+		return right;
 	}
 
 	@Override
@@ -371,6 +413,7 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 	 * Sets the instance variables.
 	 *
 	 * This is only here for testing purposes.  Should not be used otherwise.
+	 * In balanced mode the nodes must already have the right heights.
 	 *
 	 * @param node
 	 * @param size
@@ -388,15 +431,24 @@ public class MyTreeMap<K, V> implements Map<K, V> {
 	 * @return
 	 */
 	public int height() {
-		return heightHelper(root);
-	}
-
-	private int heightHelper(Node node) {
-		if (node == null) {
-			return 0;
+		if (balanced) {
+			return height(root);
+		}
+		// one level at a time, since an unbalanced tree can be too deep to recurse
+		int height = 0;
+		List<Node> level = new ArrayList<Node>();
+		if (root != null) {
+			level.add(root);
+		}
+		while (!level.isEmpty()) {
+			height++;
+			List<Node> next = new ArrayList<Node>();
+			for (Node node: level) {
+				if (node.left != null) next.add(node.left);
+				if (node.right != null) next.add(node.right);
+			}
+			level = next;
 		}
-		int left = heightHelper(node.left);
-		int right = heightHelper(node.right);
-		return Math.max(left, right) + 1;
+		return height;
 	}
 }
@@ -5,9 +5,15 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 public class MyTreeMapExample {
 	
@@ -19,6 +25,9 @@ public class MyTreeMapExample {
 		System.out.println("\nTesting MyTreeMap with timestamps");
 		putTimestamps(n);
 
+		System.out.println("\nComparing MyTreeMap with TreeMap");
+		compareTreeMaps(100000);
+
 	}
 
 	/**
@@ -100,4 +109,58 @@ public class MyTreeMapExample {
 		final long elapsed = System.currentTimeMillis() - startTime;
 		printResults(map, elapsed, map.height());
 	}
+
+	/**
+	 * Prints the time for three workloads, with TreeMap and MyTreeMap in both modes.
+	 *
+	 * sorted puts the keys in order, which is the worst case for an unbalanced
+	 * tree; it takes time proportional to n^2 there, so the unbalanced tree only
+	 * gets a fifth of the keys. random puts them in random order, and deletes
+	 * puts them all and then removes a random key and puts a new one, n times.
+	 * Each time includes getting every key once.
+	 *
+	 * @param n
+	 */
+	private static void compareTreeMaps(int n) {
+		Map<String, Supplier<Map<Integer, Integer>>> makers = new LinkedHashMap<String, Supplier<Map<Integer, Integer>>>();
+		makers.put("TreeMap", TreeMap::new);
+		makers.put("MyTreeMap", MyTreeMap::new);
+		makers.put("MyTreeMap(unbalanced)", () -> new MyTreeMap<Integer, Integer>(false));
+
+		List<Integer> shuffled = new ArrayList<Integer>();
+		for (int i=0; i<2*n; i++) {
+			shuffled.add(i);
+		}
+		Collections.shuffle(shuffled, new Random(1));
+
+		for (String workload: new String[] {"sorted", "random", "deletes"}) {
+			for (Map.Entry<String, Supplier<Map<Integer, Integer>>> maker: makers.entrySet()) {
+				boolean unbalanced = maker.getKey().equals("MyTreeMap(unbalanced)");
+				int m = unbalanced && workload.equals("sorted") ? n / 5 : n;
+				long best = Long.MAX_VALUE;
+				Map<Integer, Integer> map = null;
+				for (int round=0; round<5; round++) {
+					long start = System.nanoTime();
+					map = maker.getValue().get();
+					for (int i=0; i<m; i++) {
+						map.put(workload.equals("sorted") ? i : shuffled.get(i), i);
+					}
+					if (workload.equals("deletes")) {
+						// remove the keys in the order they went in, and put the other half
+						for (int i=0; i<m; i++) {
+							map.remove(shuffled.get(i));
+							map.put(shuffled.get(m + i), i);
+						}
+					}
+					for (Integer key: map.keySet()) {
+						map.get(key);
+					}
+					best = Math.min(best, System.nanoTime() - start);
+				}
+				String height = map instanceof MyTreeMap ? Integer.toString(((MyTreeMap<?, ?>) map).height()) : "-";
+				System.out.printf("    %-8s %-22s n=%-7d %8.1f ms, height %s%n",
+						workload, maker.getKey(), m, best / 1e6, height);
+			}
+		}
+	}
 }
@@ -7,11 +7,13 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -29,7 +31,8 @@ public class MyTreeMapTest {
 	 */
 	@Before
 	public void setUp() throws Exception {
-		map = new MyTreeMap<String, Integer>();
+		// the tree below is built by hand, so it is not kept balanced
+		map = new MyTreeMap<String, Integer>(false);
 		MyTreeMap<String, Integer>.Node node08 = map.makeNode("08", 8);
 		
 		MyTreeMap<String, Integer>.Node node03 = map.makeNode("03", 3);
@@ -211,4 +214,56 @@ public class MyTreeMapTest {
 		assertThat(keySet.contains(3), is(true));
 		assertThat(keySet.contains(5), is(false));
 	}
+
+	@Test
+	public void testRemoveTwoChildren() {
+		// 03 and 08 have two children each
+		assertThat(map.remove("03"), is(3));
+		assertThat(map.remove("08"), is(8));
+		assertThat(map.size(), is(7));
+		assertThat(new ArrayList<String>(map.keySet()),
+				is(Arrays.asList("01", "04", "06", "07", "10", "13", "14")));
+	}
+
+	@Test
+	public void testPutSorted() {
+		// deep enough to overflow the stack if put recursed
+		MyTreeMap<Integer, Integer> tree = new MyTreeMap<Integer, Integer>(false);
+		int n = 20000;
+		for (int i=0; i<n; i++) {
+			tree.put(i, i);
+		}
+		assertThat(tree.height(), is(n));
+		assertThat(tree.get(n - 1), is(n - 1));
+	}
+
+	@Test
+	public void testBalancedSorted() {
+		// balanced is the default
+		MyTreeMap<Integer, Integer> tree = new MyTreeMap<Integer, Integer>();
+		int n = (1 << 16) - 1;
+		for (int i=0; i<n; i++) {
+			tree.put(i, i);
+		}
+		// keys put in order fill a perfect tree
+		assertThat(tree.height(), is(16));
+		for (int i=0; i<n; i+=2) {
+			tree.remove(i);
+		}
+		assertThat(tree.size(), is(n / 2));
+		assertTrue(tree.height() <= 1.44 * Math.log(n / 2) / Math.log(2));
+	}
+
+	/**
+	 * Puts and removes random keys in balanced mode and checks the map against java.util.TreeMap.
+	 */
+	@Test
+	public void testBalancedAgainstTreeMap() {
+		MyTreeMap<Integer, Integer> tree = new MyTreeMap<Integer, Integer>(true);
+		Map<Integer, Integer> expected = new MapChecker<Integer>(key -> key)
+				.put(tree::put).remove(tree::remove).get(tree::get)
+				.run(100000, 5000, tree::size);
+		assertThat(new ArrayList<Integer>(tree.keySet()), is(new ArrayList<Integer>(new TreeMap<Integer, Integer>(expected).keySet())));
+		assertTrue(tree.height() <= 1.44 * Math.log(expected.size() + 2) / Math.log(2));
+	}
 }
@@ -0,0 +1,343 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.allendowney.thinkdast.constants.WikiConstants;
+import com.allendowney.thinkdast.utils.StopWordUtility;
+
+/**
+ * Finds pages whose terms are nearly the same as a page seen before.
+ *
+ * Each page is reduced to a 64-bit SimHash of its TermCounter: every term
+ * votes on every bit, weighted by its count, so pages with similar counts get
+ * hashes that differ in only a few bits. Two pages are near-duplicates if their
+ * hashes differ in at most `threshold` bits.
+ *
+ * To find those without comparing against every page, the hashes are split
+ * into `bands` equal bands and each band is indexed by its value. If two hashes
+ * differ in at most `threshold` bits and there are more bands than that, at
+ * least one band is identical; so only the pages that share a band with the
+ * new one need to be compared.
+ *
+ */
+public class NearDuplicateDetector {
+
+	// SPREAD[n] has the bits of the nibble n in four 16-bit lanes
+	private static final long[] SPREAD = new long[16];
+	static {
+		for (int n=0; n<16; n++) {
+			for (int j=0; j<4; j++) {
+				SPREAD[n] |= (long) ((n >>> j) & 1) << (16 * j);
+			}
+		}
+	}
+
+	// a weight is at most 31, so a 16-bit lane can take 2114 terms
+	private static final int FLUSH_INTERVAL = 2048;
+
+	private final int threshold;
+	private final int bands;
+	private final int bandBits;
+	private final long bandMask;
+
+	// one map per band, from the value of the band to the ids of the pages that have it
+	private final List<Map<Long, int[]>> buckets;
+
+	private final Set<String> stopWords;
+
+	// hash and URL of each page, by id
+	private long[] hashes = new long[16];
+	private String[] urls = new String[16];
+	private final Map<String, Integer> idsByUrl = new HashMap<String, Integer>();
+	private int size = 0;
+
+	/**
+	 * Makes a detector that treats hashes within 3 bits of each other as duplicates.
+	 *
+	 * @throws IOException if the stop words cannot be read.
+	 */
+	public NearDuplicateDetector() throws IOException {
+		this(3, 4);
+	}
+
+	/**
+	 * @param threshold  Largest number of differing bits for two pages to be near-duplicates.
+	 * @param bands      Number of bands the hash is split into; must divide 64 and exceed `threshold`.
+	 * @throws IOException if the stop words cannot be read.
+	 */
+	public NearDuplicateDetector(int threshold, int bands) throws IOException {
+		if (bands <= threshold || bands > 64 || 64 % bands != 0) {
+			throw new IllegalArgumentException("bands must divide 64 and be greater than threshold");
+		}
+		this.threshold = threshold;
+		this.bands = bands;
+		this.bandBits = 64 / bands;
+		this.bandMask = bandBits == 64 ? -1L : (1L << bandBits) - 1;
+		this.buckets = new ArrayList<Map<Long, int[]>>(bands);
+		for (int i=0; i<bands; i++) {
+			buckets.add(new HashMap<Long, int[]>());
+		}
+		this.stopWords = new StopWordUtility().getStopWords();
+	}
+
+	/**
+	 * Computes the SimHash of a page.
+	 *
+	 * Stop words are left out, since every page has them, and each term's vote
+	 * grows with the log of its count, so a few frequent terms do not outvote the rest.
+	 *
+	 * @param counter
+	 * @return
+	 */
+	public long simHash(TermCounter counter) {
+		// lanes[k] holds four 16-bit counters, for bits 4k to 4k+3; they are
+		// added up in votes[bit] before they can overflow
+		long[] lanes = new long[16];
+		long[] votes = new long[64];
+		long total = 0;
+		int sinceFlush = 0;
+		for (String term: counter.keySet()) {
+			if (stopWords.contains(term)) {
+				continue;
+			}
+			long hash = Hashing.hash(term);
+			int weight = 32 - Integer.numberOfLeadingZeros(counter.get(term));
+			total += weight;
+			for (int k=0; k<16; k++) {
+				lanes[k] += SPREAD[(int) (hash >>> (4 * k)) & 0xf] * weight;
+			}
+			if (++sinceFlush == FLUSH_INTERVAL) {
+				flush(lanes, votes);
+				sinceFlush = 0;
+			}
+		}
+		flush(lanes, votes);
+
+		// a bit is set if the terms that set it outweigh the ones that don't
+		long simHash = 0;
+		for (int bit=0; bit<64; bit++) {
+			if (2 * votes[bit] > total) {
+				simHash |= 1L << bit;
+			}
+		}
+		return simHash;
+	}
+
+	private static void flush(long[] lanes, long[] votes) {
+		for (int k=0; k<16; k++) {
+			for (int j=0; j<4; j++) {
+				votes[4 * k + j] += (lanes[k] >>> (16 * j)) & 0xffff;
+			}
+			lanes[k] = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of bits in which two hashes differ.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Returns the URL of a page seen before that is a near-duplicate of this one, or null.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	public String findDuplicate(long hash) {
+		return findDuplicate(null, hash);
+	}
+
+	/**
+	 * Returns the URL of another page seen before that is a near-duplicate of this one, or null.
+	 *
+	 * An earlier version of the page itself is not a duplicate.
+	 *
+	 * @param url
+	 * @param hash
+	 * @return
+	 */
+	public synchronized String findDuplicate(String url, long hash) {
+		String best = null;
+		int bestDistance = threshold + 1;
+		for (int band=0; band<bands; band++) {
+			int[] ids = buckets.get(band).get(bandOf(hash, band));
+			if (ids == null) {
+				continue;
+			}
+			for (int i=1; i<=ids[0]; i++) {
+				if (urls[ids[i]].equals(url)) {
+					continue;
+				}
+				int d = distance(hash, hashes[ids[i]]);
+				if (d < bestDistance) {
+					bestDistance = d;
+					best = urls[ids[i]];
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Adds a page to the detector, or replaces its hash if it was added before.
+	 *
+	 * @param url
+	 * @param hash
+	 */
+	public synchronized void add(String url, long hash) {
+		Integer known = idsByUrl.get(url);
+		if (known != null) {
+			int id = known;
+			removeFromBuckets(id);
+			hashes[id] = hash;
+			addToBuckets(id);
+			return;
+		}
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+			urls = Arrays.copyOf(urls, size * 2);
+		}
+		int id = size++;
+		hashes[id] = hash;
+		urls[id] = url;
+		idsByUrl.put(url, id);
+		addToBuckets(id);
+	}
+
+	private void addToBuckets(int id) {
+		long hash = hashes[id];
+		for (int band=0; band<bands; band++) {
+			buckets.get(band).merge(bandOf(hash, band), new int[] {1, id}, (ids, added) -> {
+				// ids[0] is the number of ids in use
+				if (ids[0] + 1 == ids.length) {
+					ids = Arrays.copyOf(ids, ids.length * 2);
+				}
+				ids[++ids[0]] = added[1];
+				return ids;
+			});
+		}
+	}
+
+	private void removeFromBuckets(int id) {
+		long hash = hashes[id];
+		for (int band=0; band<bands; band++) {
+			Map<Long, int[]> bucket = buckets.get(band);
+			long value = bandOf(hash, band);
+			int[] ids = bucket.get(value);
+			for (int i=1; i<=ids[0]; i++) {
+				if (ids[i] == id) {
+					// move the last id into the gap
+					ids[i] = ids[ids[0]--];
+					break;
+				}
+			}
+			if (ids[0] == 0) {
+				bucket.remove(value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the URL of a near-duplicate of the page, or adds the page and returns null.
+	 *
+	 * Checking a page again replaces its hash, unless it is now a duplicate of another page.
+	 *
+	 * @param counter
+	 * @return
+	 */
+	public String check(TermCounter counter) {
+		// hash outside the lock; only the lookup and insert need it
+		long hash = simHash(counter);
+		synchronized (this) {
+			String duplicate = findDuplicate(counter.getLabel(), hash);
+			if (duplicate == null) {
+				add(counter.getLabel(), hash);
+			}
+			return duplicate;
+		}
+	}
+
+	/**
+	 * Replaces the hash of a page that has changed, without checking it for duplicates.
+	 *
+	 * @param counter
+	 */
+	public void update(TermCounter counter) {
+		add(counter.getLabel(), simHash(counter));
+	}
+
+	/**
+	 * Returns the number of pages added.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	private long bandOf(long hash, int band) {
+		return (hash >>> (band * bandBits)) & bandMask;
+	}
+
+	/**
+	 * Times check() on the stored pages and on slightly edited copies of them.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = WikiFetcher.getInstance();
+		List<String> pages = WikiConstants.STORED_PAGES;
+		TermCounter[] counters = new TermCounter[pages.size()];
+		for (int i=0; i<pages.size(); i++) {
+			counters[i] = wf.readWikipediaTerms(WikiConstants.WIKI_ORIGIN_EN + WikiConstants.WIKI_PAGE_PREFIX + pages.get(i));
+		}
+
+		NearDuplicateDetector detector = new NearDuplicateDetector();
+		// fill the index with random hashes, like a large crawl
+		Random random = new Random(1);
+		for (int i=0; i<1000000; i++) {
+			detector.add("random" + i, random.nextLong());
+		}
+
+		int rounds = 1000;
+		long start = System.nanoTime();
+		long found = 0;
+		for (int round=0; round<rounds; round++) {
+			for (TermCounter counter: counters) {
+				if (detector.findDuplicate(detector.simHash(counter)) != null) {
+					found++;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("simHash + lookup: %.1f us/page (%d hits)%n",
+				elapsed / 1e3 / (rounds * counters.length), found);
+
+		for (int i=0; i<counters.length; i++) {
+			detector.add(counters[i].getLabel(), detector.simHash(counters[i]));
+		}
+		for (TermCounter counter: counters) {
+			// a copy with one extra sentence, like a mirror with a different footer
+			TermCounter copy = new TermCounter("copy of " + counter.getLabel());
+			for (String term: counter.keySet()) {
+				copy.put(term, counter.get(term));
+			}
+			copy.processText("this article was mirrored from wikipedia");
+			System.out.println(copy.getLabel() + " -> " + detector.findDuplicate(detector.simHash(copy)));
+		}
+	}
+}
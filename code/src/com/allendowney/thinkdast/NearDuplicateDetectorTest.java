@@ -0,0 +1,101 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.allendowney.thinkdast.constants.WikiConstants;
+
+public class NearDuplicateDetectorTest {
+
+	private static TermCounter read(String page) throws IOException {
+		return WikiFetcher.getInstance().readWikipediaTerms("https://en.wikipedia.org/wiki/" + page);
+	}
+
+	private static TermCounter copy(TermCounter counter, String label) {
+		TermCounter copy = new TermCounter(label);
+		for (String term: counter.keySet()) {
+			copy.put(term, counter.get(term));
+		}
+		return copy;
+	}
+
+	@Test
+	public void testDistinctPages() throws IOException {
+		NearDuplicateDetector detector = new NearDuplicateDetector();
+		for (String page: WikiConstants.STORED_PAGES) {
+			assertThat(page, detector.check(read(page)), nullValue());
+		}
+		assertThat(detector.size(), is(WikiConstants.STORED_PAGES.size()));
+	}
+
+	@Test
+	public void testNearDuplicate() throws IOException {
+		NearDuplicateDetector detector = new NearDuplicateDetector();
+		TermCounter original = read("Philosophy");
+		detector.check(original);
+
+		TermCounter mirror = copy(original, "mirror");
+		mirror.processText("This article was copied from Wikipedia.");
+		assertThat(detector.check(mirror), is(original.getLabel()));
+
+		// a different page is not a duplicate
+		assertThat(detector.check(read("Mathematics")), nullValue());
+	}
+
+	@Test
+	public void testSamePageAgain() throws IOException {
+		NearDuplicateDetector detector = new NearDuplicateDetector();
+		TermCounter original = read("Philosophy");
+		detector.check(original);
+
+		// a new version of the same page is not a duplicate of the old one
+		TermCounter edited = copy(original, original.getLabel());
+		edited.processText("A sentence added since.");
+		assertThat(detector.check(edited), nullValue());
+		assertThat(detector.size(), is(1));
+	}
+
+	@Test
+	public void testAddReplacesHash() throws IOException {
+		NearDuplicateDetector detector = new NearDuplicateDetector(3, 4);
+		detector.add("page", 0L);
+		detector.add("other", 0xffL);
+		detector.add("page", -1L);
+
+		assertThat(detector.size(), is(2));
+		assertThat(detector.findDuplicate(0L), nullValue());
+		assertThat(detector.findDuplicate(-1L), is("page"));
+		assertThat(detector.findDuplicate(0xffL), is("other"));
+	}
+
+	@Test
+	public void testBandsFindEverythingWithinThreshold() throws IOException {
+		NearDuplicateDetector detector = new NearDuplicateDetector(3, 4);
+		Random random = new Random(5);
+		long[] hashes = new long[1000];
+		for (int i=0; i<hashes.length; i++) {
+			hashes[i] = random.nextLong();
+			detector.add("page" + i, hashes[i]);
+		}
+		for (int i=0; i<hashes.length; i++) {
+			// flip three random bits
+			long hash = hashes[i];
+			for (int j=0; j<3; j++) {
+				hash ^= 1L << random.nextInt(64);
+			}
+			assertThat(detector.findDuplicate(hash), is("page" + i));
+		}
+		// four bits is too many
+		assertThat(detector.findDuplicate(hashes[0] ^ 0xf), nullValue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooFewBands() throws IOException {
+		new NearDuplicateDetector(4, 4);
+	}
+}
@@ -0,0 +1,110 @@
+package com.allendowney.thinkdast;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A PageIndex that keeps near-duplicate pages out of the index it wraps.
+ *
+ * Before a page is indexed, its SimHash is looked up in a NearDuplicateDetector.
+ * If a page within the threshold was indexed before, the new one is either
+ * skipped or merged: merging records it as an alias of the page already
+ * indexed, so isIndexed is true for it and canonical() maps it to that page.
+ * A skipped page is not remembered, so it is checked again if it is crawled again.
+ *
+ */
+public class NearDuplicateIndex implements PageIndex {
+
+	/**
+	 * What to do with a near-duplicate.
+	 */
+	public enum Policy { SKIP, MERGE }
+
+	private final PageIndex index;
+	private final NearDuplicateDetector detector;
+	private final Policy policy;
+
+	// duplicate URL -> the URL it was merged into
+	private final Map<String, String> aliases = new ConcurrentHashMap<String, String>();
+	private final LongAdder pages = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+	private final LongAdder checkNanos = new LongAdder();
+
+	/**
+	 * @param index     The index pages go to.
+	 * @param detector
+	 * @param policy
+	 */
+	public NearDuplicateIndex(PageIndex index, NearDuplicateDetector detector, Policy policy) {
+		this.index = index;
+		this.detector = detector;
+		this.policy = policy;
+	}
+
+	@Override
+	public boolean isIndexed(String url) {
+		return aliases.containsKey(url) || index.isIndexed(url);
+	}
+
+	@Override
+	public void indexPage(TermCounter termCounter) {
+		long start = System.nanoTime();
+		String duplicate = detector.check(termCounter);
+		checkNanos.add(System.nanoTime() - start);
+		pages.increment();
+
+		if (duplicate == null) {
+			index.indexPage(termCounter);
+			return;
+		}
+		duplicates.increment();
+		if (policy == Policy.MERGE) {
+			aliases.put(termCounter.getLabel(), canonical(duplicate));
+		}
+	}
+
+	/**
+	 * Updates a page without checking it for duplicates, since it is the same page.
+	 *
+	 * Its hash is replaced, so later pages are compared with the new version.
+	 *
+	 * @param termCounter
+	 */
+	@Override
+	public void updatePage(TermCounter termCounter) {
+		aliases.remove(termCounter.getLabel());
+		detector.update(termCounter);
+		index.updatePage(termCounter);
+	}
+
+	/**
+	 * Returns the URL a page was merged into, or the URL itself if it was not merged.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public String canonical(String url) {
+		String target = aliases.get(url);
+		return target == null ? url : target;
+	}
+
+	/**
+	 * Returns the number of pages that were skipped or merged.
+	 *
+	 * @return
+	 */
+	public long duplicates() {
+		return duplicates.sum();
+	}
+
+	/**
+	 * Returns the mean time spent hashing and looking up a page, in nanoseconds.
+	 *
+	 * @return
+	 */
+	public double meanCheckNanos() {
+		long n = pages.sum();
+		return n == 0 ? 0 : checkNanos.sum() / (double) n;
+	}
+}
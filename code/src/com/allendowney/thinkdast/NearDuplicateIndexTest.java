@@ -0,0 +1,80 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NearDuplicateIndexTest {
+
+	private TermCounter original;
+	private TermCounter mirror;
+
+	@Before
+	public void setUp() throws Exception {
+		original = WikiFetcher.getInstance().readWikipediaTerms("https://en.wikipedia.org/wiki/Science");
+		mirror = new TermCounter("https://mirror.example.org/Science");
+		for (String term: original.keySet()) {
+			mirror.put(term, original.get(term));
+		}
+		mirror.processText("Mirrored.");
+	}
+
+	@Test
+	public void testSkip() throws Exception {
+		Index index = new Index();
+		NearDuplicateIndex dedup = new NearDuplicateIndex(index, new NearDuplicateDetector(), NearDuplicateIndex.Policy.SKIP);
+		dedup.indexPage(original);
+		dedup.indexPage(mirror);
+
+		assertThat(index.isIndexed(original.getLabel()), is(true));
+		assertThat(index.isIndexed(mirror.getLabel()), is(false));
+		assertThat(dedup.isIndexed(mirror.getLabel()), is(false));
+		assertThat(dedup.duplicates(), is(1L));
+		assertThat(dedup.meanCheckNanos() > 0, is(true));
+	}
+
+	@Test
+	public void testMerge() throws Exception {
+		Index index = new Index();
+		NearDuplicateIndex dedup = new NearDuplicateIndex(index, new NearDuplicateDetector(), NearDuplicateIndex.Policy.MERGE);
+		dedup.indexPage(original);
+		dedup.indexPage(mirror);
+
+		assertThat(index.isIndexed(mirror.getLabel()), is(false));
+		assertThat(dedup.isIndexed(mirror.getLabel()), is(true));
+		assertThat(dedup.canonical(mirror.getLabel()), is(original.getLabel()));
+		assertThat(dedup.canonical(original.getLabel()), is(original.getLabel()));
+	}
+
+	@Test
+	public void testIndexSamePageAgain() throws Exception {
+		Index index = new Index();
+		NearDuplicateIndex dedup = new NearDuplicateIndex(index, new NearDuplicateDetector(), NearDuplicateIndex.Policy.MERGE);
+		dedup.indexPage(original);
+		dedup.indexPage(original);
+
+		assertThat(dedup.duplicates(), is(0L));
+		assertThat(dedup.canonical(original.getLabel()), is(original.getLabel()));
+	}
+
+	@Test
+	public void testUpdateReplacesHash() throws Exception {
+		Index index = new Index();
+		NearDuplicateIndex dedup = new NearDuplicateIndex(index, new NearDuplicateDetector(), NearDuplicateIndex.Policy.SKIP);
+		dedup.indexPage(original);
+
+		// the page is rewritten, so the mirror of the old version is no longer a duplicate
+		TermCounter rewritten = WikiFetcher.getInstance().readWikipediaTerms("https://en.wikipedia.org/wiki/Mathematics");
+		TermCounter updated = new TermCounter(original.getLabel());
+		for (String term: rewritten.keySet()) {
+			updated.put(term, rewritten.get(term));
+		}
+		dedup.updatePage(updated);
+		dedup.indexPage(mirror);
+
+		assertThat(dedup.duplicates(), is(0L));
+		assertThat(index.isIndexed(mirror.getLabel()), is(true));
+	}
+}
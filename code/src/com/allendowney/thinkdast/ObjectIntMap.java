@@ -0,0 +1,302 @@
+package com.allendowney.thinkdast;
+
+import java.util.Arrays;
+
+/**
+ * Map from objects to int that does not box its values.
+ *
+ * Keys and values are kept in an Object array and an int array, with open
+ * addressing and linear probing, so there is no entry object per key. An
+ * empty slot holds null, so the null key is stored as a sentinel. Removing a
+ * key moves later keys in its run back, instead of leaving a tombstone.
+ *
+ * get returns `missingValue` for a key that is not in the map; addTo starts
+ * from it, which makes counting a one-liner.
+ *
+ * @param <K>
+ *
+ */
+public class ObjectIntMap<K> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// largest fraction of slots in use before we resize
+	protected static final double MAX_LOAD = 0.75;
+
+	// stands in for the null key, so an empty slot can be null
+	private static final Object NULL_KEY = new Object();
+
+	private Object[] keys;
+	private int[] values;
+	private int mask;
+	private int threshold;
+	private int size = 0;
+
+	private final int missingValue;
+
+	public ObjectIntMap() {
+		this(INITIAL_CAPACITY, 0);
+	}
+
+	/**
+	 * @param expected  Number of entries to make room for.
+	 * @param missingValue  Value returned for keys that are not in the map.
+	 */
+	public ObjectIntMap(int expected, int missingValue) {
+		this.missingValue = missingValue;
+		int capacity = INITIAL_CAPACITY;
+		while (capacity * MAX_LOAD < expected) {
+			capacity *= 2;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		threshold = (int) (capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Mixes the bits of the hash code, so the low bits depend on all of them.
+	 */
+	private static int hash(Object key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static Object mask(Object key) {
+		return key == null ? NULL_KEY : key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> K unmask(Object key) {
+		return key == NULL_KEY ? null : (K) key;
+	}
+
+	/**
+	 * Returns the slot that holds `key` (already masked), or -1.
+	 */
+	private int find(Object key) {
+		int i = hash(key) & mask;
+		Object k;
+		while ((k = keys[i]) != null) {
+			if (k == key || k.equals(key)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param key
+	 * @return the value for `key`, or missingValue
+	 */
+	public int get(Object key) {
+		int i = find(mask(key));
+		return i == -1 ? missingValue : values[i];
+	}
+
+	public boolean containsKey(Object key) {
+		return find(mask(key)) != -1;
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return the old value for `key`, or missingValue
+	 */
+	public int put(K key, int value) {
+		Object k = mask(key);
+		int i = slot(k);
+		if (keys[i] != null) {
+			int oldValue = values[i];
+			values[i] = value;
+			return oldValue;
+		}
+		insert(i, k, value);
+		return missingValue;
+	}
+
+	/**
+	 * Adds `delta` to the value for `key`, starting from missingValue.
+	 *
+	 * @param key
+	 * @param delta
+	 * @return the new value
+	 */
+	public int addTo(K key, int delta) {
+		Object k = mask(key);
+		int i = slot(k);
+		if (keys[i] != null) {
+			return values[i] += delta;
+		}
+		insert(i, k, missingValue + delta);
+		return missingValue + delta;
+	}
+
+	/**
+	 * Returns the slot that holds `key` (already masked), or the empty slot where it would go.
+	 */
+	private int slot(Object key) {
+		int i = hash(key) & mask;
+		Object k;
+		while ((k = keys[i]) != null && k != key && !k.equals(key)) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Puts a new key in empty slot `i`, resizing first if the table is full.
+	 */
+	private void insert(int i, Object key, int value) {
+		if (size >= threshold) {
+			resize(keys.length * 2);
+			i = slot(key);
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+	/**
+	 * Moves the entries into arrays with `capacity` slots.
+	 */
+	private void resize(int capacity) {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i=0; i<oldKeys.length; i++) {
+			Object key = oldKeys[i];
+			if (key != null) {
+				int j = hash(key) & mask;
+				while (keys[j] != null) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = key;
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return the old value for `key`, or missingValue
+	 */
+	public int remove(Object key) {
+		int i = find(mask(key));
+		if (i == -1) {
+			return missingValue;
+		}
+		int oldValue = values[i];
+		shiftBack(i);
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Empties slot `i`, moving back keys in the same run that would no longer be found.
+	 */
+	private void shiftBack(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			Object key = keys[j];
+			if (key == null) {
+				break;
+			}
+			// a key can move back to i unless its home is after i, up to j
+			int home = hash(key) & mask;
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j)) {
+				continue;
+			}
+			keys[i] = key;
+			values[i] = values[j];
+			i = j;
+		}
+		keys[i] = null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of slots.
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns a cursor over the entries, in no particular order.
+	 *
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Steps through the entries without making an object for each one.
+	 *
+	 * Call advance before reading the first entry; the map must not be
+	 * changed while the cursor is in use, except through setValue.
+	 */
+	public class Cursor {
+		private int index = -1;
+
+		/**
+		 * Moves to the next entry.
+		 *
+		 * @return false if there are no more
+		 */
+		public boolean advance() {
+			while (++index < keys.length) {
+				if (keys[index] != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public K key() {
+			return unmask(keys[index]);
+		}
+
+		public int value() {
+			return values[index];
+		}
+
+		public void setValue(int value) {
+			values[index] = value;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		ObjectIntMap<String> counts = new ObjectIntMap<String>();
+		for (String word: "the quick brown fox jumps over the lazy dog".split(" ")) {
+			counts.addTo(word, 1);
+		}
+		for (ObjectIntMap<String>.Cursor c = counts.cursor(); c.advance(); ) {
+			System.out.println(c.key() + " " + c.value());
+		}
+	}
+}
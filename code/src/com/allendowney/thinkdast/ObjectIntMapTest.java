@@ -0,0 +1,40 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ObjectIntMapTest {
+
+	@Test
+	public void testNullKey() {
+		ObjectIntMap<String> mine = new ObjectIntMap<String>();
+		assertThat(mine.containsKey(null), is(false));
+		assertThat(mine.addTo(null, 3), is(3));
+		assertThat(mine.get(null), is(3));
+		assertThat(mine.remove(null), is(3));
+		assertThat(mine.isEmpty(), is(true));
+	}
+
+	/**
+	 * Puts, adds to and removes random keys and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() {
+		ObjectIntMap<String> mine = new ObjectIntMap<String>();
+		new MapChecker<String>(Integer::toString)
+				.put(mine::put).remove(mine::remove).addTo(mine::addTo).get(mine::get).missing(0)
+				.contents(() -> {
+					Map<String, Integer> actual = new HashMap<String, Integer>();
+					for (ObjectIntMap<String>.Cursor c = mine.cursor(); c.advance(); ) {
+						actual.put(c.key(), c.value());
+					}
+					return actual;
+				})
+				.run(200000, 5000, mine::size);
+	}
+}
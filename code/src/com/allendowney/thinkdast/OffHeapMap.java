@@ -0,0 +1,578 @@
+package com.allendowney.thinkdast;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Map from byte strings to longs that keeps its entries off the Java heap.
+ *
+ * A big dictionary in a HashMap is tens of millions of small objects, and
+ * every full collection has to trace them all. This map puts its entries in
+ * ByteBuffers outside the heap instead, so the heap holds a few buffers no
+ * matter how many entries there are.
+ *
+ * There are two regions. The table is an array of 16-byte slots, with open
+ * addressing and linear probing; a slot holds the hash of its key (0 for an
+ * empty slot), the length of the key and where the entry starts in the
+ * second region. The second region holds each key followed by its 8-byte
+ * value, appended in the order the keys were added. Each region is a list of
+ * chunks of up to 1 GB, since a ByteBuffer is indexed by an int.
+ *
+ * A map made with allocate lives in direct memory; one made with open is
+ * mapped from files in a directory, and can be flushed and opened again
+ * later. The memory of a closed map is given back when its buffers are
+ * collected; Java 21 has no way to free a ByteBuffer sooner. The map is not
+ * thread-safe, and keys cannot be removed: dictionaries only grow.
+ *
+ */
+public class OffHeapMap implements Closeable {
+
+	public static final String TABLE_FILE = "table.bin";
+	public static final String KEYS_FILE = "keys.bin";
+	public static final String META_FILE = "meta.bin";
+
+	// returned by get and put for keys that are not in the map
+	public static final long MISSING = Long.MIN_VALUE;
+
+	private static final int MAGIC = 0x4f484d31; // "OHM1"
+	private static final int SLOT = 16;
+	private static final int VALUE = 8;
+	private static final int MAX_CHUNK_BITS = 30;
+
+	// largest fraction of slots in use before we resize
+	protected static final double MAX_LOAD = 0.75;
+
+	/**
+	 * Bytes addressed by a long, in chunks of 2^chunkBits.
+	 */
+	static final class Region {
+		private final FileChannel channel;
+		private final int chunkBits;
+		private final long chunkMask;
+		private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+		/**
+		 * @param channel  File to map, or null for direct memory.
+		 * @param chunkBits
+		 */
+		Region(FileChannel channel, int chunkBits) {
+			this.channel = channel;
+			this.chunkBits = chunkBits;
+			this.chunkMask = (1L << chunkBits) - 1;
+		}
+
+		long chunkSize() {
+			return 1L << chunkBits;
+		}
+
+		long capacity() {
+			return (long) chunks.size() << chunkBits;
+		}
+
+		/**
+		 * Adds chunks until the region holds at least `size` bytes.
+		 */
+		void ensure(long size) throws IOException {
+			while (capacity() < size) {
+				ByteBuffer chunk;
+				if (channel == null) {
+					chunk = ByteBuffer.allocateDirect((int) chunkSize());
+				} else {
+					chunk = channel.map(MapMode.READ_WRITE, capacity(), chunkSize());
+				}
+				chunks.add(chunk.order(ByteOrder.LITTLE_ENDIAN));
+			}
+		}
+
+		ByteBuffer chunk(long address) {
+			return chunks.get((int) (address >>> chunkBits));
+		}
+
+		int offset(long address) {
+			return (int) (address & chunkMask);
+		}
+
+		int getInt(long address) {
+			return chunk(address).getInt(offset(address));
+		}
+
+		long getLong(long address) {
+			return chunk(address).getLong(offset(address));
+		}
+
+		void putInt(long address, int value) {
+			chunk(address).putInt(offset(address), value);
+		}
+
+		void putLong(long address, long value) {
+			chunk(address).putLong(offset(address), value);
+		}
+
+		void put(long address, byte[] bytes) {
+			chunk(address).put(offset(address), bytes);
+		}
+
+		void force() {
+			for (ByteBuffer chunk: chunks) {
+				if (chunk instanceof MappedByteBuffer) {
+					((MappedByteBuffer) chunk).force();
+				}
+			}
+		}
+
+		void close() throws IOException {
+			chunks.clear();
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	// null for a map in direct memory
+	private final Path dir;
+	private Region table;
+	private final Region keys;
+	private long capacity;
+	private long mask;
+	private long threshold;
+	private long size = 0;
+	// where the next entry goes in `keys`
+	private long keyEnd = 0;
+	// true once the map has changed since the meta file was written
+	private boolean dirty = false;
+	// true if the last findOrInsert added the key
+	private boolean inserted;
+	private boolean closed = false;
+
+	private OffHeapMap(Path dir, Region table, Region keys, long capacity) {
+		this.dir = dir;
+		this.table = table;
+		this.keys = keys;
+		setCapacity(capacity);
+	}
+
+	private void setCapacity(long capacity) {
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.threshold = (long) (capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Makes an empty map in direct memory.
+	 *
+	 * @param expected  Number of entries to make room for.
+	 * @return
+	 */
+	public static OffHeapMap allocate(long expected) {
+		long capacity = capacityFor(expected);
+		OffHeapMap map = new OffHeapMap(null, new Region(null, chunkBits(capacity * SLOT)),
+				new Region(null, chunkBits(Math.max(expected, 1024) * 32)), capacity);
+		try {
+			map.table.ensure(capacity * SLOT);
+		} catch (IOException e) {
+			// direct memory does not do I/O
+			throw new UncheckedIOException(e);
+		}
+		return map;
+	}
+
+	/**
+	 * Opens the map in `dir`, or makes an empty one if there is none.
+	 *
+	 * @param dir
+	 * @return
+	 * @throws IOException if the map in `dir` was not flushed after it last changed
+	 */
+	public static OffHeapMap open(Path dir) throws IOException {
+		return open(dir, 26);
+	}
+
+	/**
+	 * Like open(dir), with chunks of 2^keyChunkBits bytes for the keys of a new map.
+	 *
+	 * A map that already exists keeps the chunk size it was made with.
+	 *
+	 * @param dir
+	 * @param keyChunkBits
+	 * @return
+	 * @throws IOException
+	 */
+	static OffHeapMap open(Path dir, int keyChunkBits) throws IOException {
+		Files.createDirectories(dir);
+		Path meta = dir.resolve(META_FILE);
+		if (!Files.exists(meta)) {
+			if (Files.exists(dir.resolve(TABLE_FILE))) {
+				throw new IOException("map in " + dir + " was not flushed");
+			}
+			long capacity = capacityFor(1024);
+			OffHeapMap map = new OffHeapMap(dir, mapTable(dir.resolve(TABLE_FILE), capacity),
+					new Region(openChannel(dir.resolve(KEYS_FILE)), keyChunkBits), capacity);
+			map.dirty = true;
+			map.flush();
+			return map;
+		}
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(meta))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not an OffHeapMap: " + meta);
+			}
+			long capacity = in.readLong();
+			long size = in.readLong();
+			long keyEnd = in.readLong();
+			int savedChunkBits = in.readInt();
+			if (Files.size(dir.resolve(TABLE_FILE)) != capacity * SLOT) {
+				throw new IOException("table does not match " + meta);
+			}
+			Region keys = new Region(openChannel(dir.resolve(KEYS_FILE)), savedChunkBits);
+			keys.ensure(keyEnd);
+			OffHeapMap map = new OffHeapMap(dir, mapTable(dir.resolve(TABLE_FILE), capacity), keys, capacity);
+			map.size = size;
+			map.keyEnd = keyEnd;
+			return map;
+		}
+	}
+
+	private static FileChannel openChannel(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private static Region mapTable(Path path, long capacity) throws IOException {
+		Region region = new Region(openChannel(path), chunkBits(capacity * SLOT));
+		region.ensure(capacity * SLOT);
+		return region;
+	}
+
+	private static long capacityFor(long expected) {
+		long capacity = 1024;
+		while (capacity * MAX_LOAD < expected) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of bits in a chunk big enough for `bytes`, up to 1 GB.
+	 */
+	private static int chunkBits(long bytes) {
+		int bits = 12;
+		while (bits < MAX_CHUNK_BITS && (1L << bits) < bytes) {
+			bits++;
+		}
+		return bits;
+	}
+
+	/**
+	 * Hashes a key; never returns 0, which marks an empty slot.
+	 */
+	private static int hash(byte[] key) {
+		int h = 1;
+		for (byte b: key) {
+			h = 31 * h + b;
+		}
+		h *= 0x9E3779B9;
+		h ^= h >>> 16;
+		return h == 0 ? 1 : h;
+	}
+
+	private static byte[] bytes(String key) {
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("map is closed");
+		}
+	}
+
+	/**
+	 * Returns true if the entry that starts at `entry` has the key `key`.
+	 */
+	private boolean keyEquals(long entry, byte[] key) {
+		ByteBuffer chunk = keys.chunk(entry);
+		int offset = keys.offset(entry);
+		for (int i=0; i<key.length; i++) {
+			if (chunk.get(offset + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the slot that holds `key`, or the empty slot where it would go.
+	 */
+	private long slot(byte[] key, int h) {
+		long i = h & mask;
+		while (true) {
+			long address = i * SLOT;
+			int stored = table.getInt(address);
+			if (stored == 0) {
+				return i;
+			}
+			if (stored == h && table.getInt(address + 4) == key.length
+					&& keyEquals(table.getLong(address + 8), key)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns where the value for `key` is in `keys`, or -1.
+	 */
+	private long find(byte[] key) {
+		checkOpen();
+		long address = slot(key, hash(key)) * SLOT;
+		if (table.getInt(address) == 0) {
+			return -1;
+		}
+		return table.getLong(address + 8) + key.length;
+	}
+
+	/**
+	 * @param key
+	 * @return the value for `key`, or MISSING
+	 */
+	public long get(byte[] key) {
+		long value = find(key);
+		return value == -1 ? MISSING : keys.getLong(value);
+	}
+
+	public long get(String key) {
+		return get(bytes(key));
+	}
+
+	public boolean containsKey(byte[] key) {
+		return find(key) != -1;
+	}
+
+	public boolean containsKey(String key) {
+		return containsKey(bytes(key));
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return the old value for `key`, or MISSING
+	 */
+	public long put(byte[] key, long value) {
+		long entry = findOrInsert(key);
+		long old = inserted ? MISSING : keys.getLong(entry);
+		keys.putLong(entry, value);
+		return old;
+	}
+
+	public long put(String key, long value) {
+		return put(bytes(key), value);
+	}
+
+	/**
+	 * Adds `delta` to the value for `key`, starting from 0.
+	 *
+	 * @param key
+	 * @param delta
+	 * @return the new value
+	 */
+	public long addTo(byte[] key, long delta) {
+		long entry = findOrInsert(key);
+		long value = keys.getLong(entry) + delta;
+		keys.putLong(entry, value);
+		return value;
+	}
+
+	public long addTo(String key, long delta) {
+		return addTo(bytes(key), delta);
+	}
+
+	/**
+	 * Returns where the value for `key` is, adding the key with value 0 if it is not there.
+	 */
+	private long findOrInsert(byte[] key) {
+		checkOpen();
+		if (key.length > keys.chunkSize() - VALUE) {
+			throw new IllegalArgumentException("key is too long: " + key.length + " bytes");
+		}
+		markDirty();
+		int h = hash(key);
+		long address = slot(key, h) * SLOT;
+		if (table.getInt(address) != 0) {
+			inserted = false;
+			return table.getLong(address + 8) + key.length;
+		}
+		if (size >= threshold) {
+			resize(capacity * 2);
+			address = slot(key, h) * SLOT;
+		}
+
+		// an entry does not cross the end of a chunk
+		long entry = keyEnd;
+		if (keys.offset(entry) + key.length + VALUE > keys.chunkSize()) {
+			entry = (entry | (keys.chunkSize() - 1)) + 1;
+		}
+		try {
+			keys.ensure(entry + key.length + VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		keys.put(entry, key);
+		keys.putLong(entry + key.length, 0);
+		keyEnd = entry + key.length + VALUE;
+
+		table.putInt(address, h);
+		table.putInt(address + 4, key.length);
+		table.putLong(address + 8, entry);
+		size++;
+		inserted = true;
+		return entry + key.length;
+	}
+
+	/**
+	 * Deletes the meta file the first time the map changes after a flush,
+	 * so a map that is not flushed again cannot be opened.
+	 */
+	private void markDirty() {
+		if (dirty) {
+			return;
+		}
+		dirty = true;
+		if (dir != null) {
+			try {
+				Files.deleteIfExists(dir.resolve(META_FILE));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Moves the slots into a table with `newCapacity` slots; the entries stay where they are.
+	 */
+	private void resize(long newCapacity) {
+		try {
+			Path newPath = dir == null ? null : dir.resolve(TABLE_FILE + ".new");
+			Region newTable;
+			if (dir == null) {
+				newTable = new Region(null, chunkBits(newCapacity * SLOT));
+				newTable.ensure(newCapacity * SLOT);
+			} else {
+				Files.deleteIfExists(newPath);
+				newTable = mapTable(newPath, newCapacity);
+			}
+			long newMask = newCapacity - 1;
+			for (long i=0; i<capacity; i++) {
+				long address = i * SLOT;
+				int h = table.getInt(address);
+				if (h == 0) {
+					continue;
+				}
+				long j = h & newMask;
+				while (newTable.getInt(j * SLOT) != 0) {
+					j = (j + 1) & newMask;
+				}
+				newTable.putInt(j * SLOT, h);
+				newTable.putInt(j * SLOT + 4, table.getInt(address + 4));
+				newTable.putLong(j * SLOT + 8, table.getLong(address + 8));
+			}
+			table.close();
+			if (dir != null) {
+				Files.move(newPath, dir.resolve(TABLE_FILE), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			table = newTable;
+			setCapacity(newCapacity);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of bytes the map uses off the heap.
+	 *
+	 * @return
+	 */
+	public long offHeapBytes() {
+		return table.capacity() + keys.capacity();
+	}
+
+	/**
+	 * Writes a map opened from a directory to disk, so it can be opened again.
+	 *
+	 * Does nothing for a map in direct memory.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		checkOpen();
+		if (dir == null || !dirty) {
+			return;
+		}
+		table.force();
+		keys.force();
+		Path tmp = dir.resolve(META_FILE + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+			out.writeInt(MAGIC);
+			out.writeLong(capacity);
+			out.writeLong(size);
+			out.writeLong(keyEnd);
+			out.writeInt(keys.chunkBits);
+		}
+		Files.move(tmp, dir.resolve(META_FILE), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	/**
+	 * Flushes the map, if it came from a directory, and lets go of its buffers.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+			table.close();
+			keys.close();
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("offheap");
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			for (String word: "the quick brown fox jumps over the lazy dog".split(" ")) {
+				map.addTo(word, 1);
+			}
+		}
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			System.out.println(map.size() + " words, the=" + map.get("the"));
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPutGet() throws IOException {
+		try (OffHeapMap map = OffHeapMap.allocate(10)) {
+			assertThat(map.get("one"), is(OffHeapMap.MISSING));
+			assertThat(map.put("one", 1), is(OffHeapMap.MISSING));
+			assertThat(map.put("one", 11), is(1L));
+			assertThat(map.addTo("two", 2), is(2L));
+			assertThat(map.addTo("two", 2), is(4L));
+			assertThat(map.put("", 0), is(OffHeapMap.MISSING));
+			assertThat(map.containsKey(""), is(true));
+			assertThat(map.containsKey("three"), is(false));
+			assertThat(map.size(), is(3L));
+		}
+	}
+
+	/**
+	 * Puts and adds to random keys, enough to resize and to fill several chunks
+	 * of keys, and checks the map against java.util.HashMap.
+	 */
+	@Test
+	public void testAgainstHashMap() throws IOException {
+		try (OffHeapMap map = OffHeapMap.allocate(10)) {
+			new MapChecker<String>(key -> "https://en.wikipedia.org/wiki/" + key)
+					.put((key, value) -> value(map.put(key, value)))
+					.addTo((key, delta) -> value(map.addTo(key, delta)))
+					.get(key -> value(map.get(key)))
+					.run(100000, 50000, map::size);
+		}
+	}
+
+	private static Integer value(long value) {
+		return value == OffHeapMap.MISSING ? null : Math.toIntExact(value);
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			// enough to resize the mapped table
+			for (int i=0; i<5000; i++) {
+				map.put(Integer.toString(i), i);
+			}
+		}
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			assertThat(map.size(), is(5000L));
+			assertThat(map.get("4999"), is(4999L));
+			map.put("new", 1);
+			map.flush();
+			map.put("after flush", 2);
+		}
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			assertThat(map.size(), is(5002L));
+			assertThat(map.get("after flush"), is(2L));
+		}
+	}
+
+	/**
+	 * Returns a distinct key of `length` bytes.
+	 */
+	private static String key(int i, int length) {
+		return String.format("%05d", i) + "x".repeat(length - 5);
+	}
+
+	@Test
+	public void testChunkBoundaries() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		// 4 KB chunks; an entry is the key and an 8-byte value
+		int[] lengths = {1016, 1016, 1016, 1016, 1017, 1017, 1017, 1017, 4088, 5, 4088};
+		try (OffHeapMap map = OffHeapMap.open(dir, 12)) {
+			for (int i=0; i<lengths.length; i++) {
+				// the first four fill a chunk exactly; the next ones would cross the end
+				assertThat(map.put(key(i, lengths[i]), i), is(OffHeapMap.MISSING));
+			}
+			for (int i=0; i<lengths.length; i++) {
+				assertThat(map.get(key(i, lengths[i])), is((long) i));
+			}
+		}
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			// the chunk size comes from the map, and new entries go after the old ones
+			for (int i=0; i<lengths.length; i++) {
+				assertThat(map.addTo(key(i, lengths[i]), 100), is(i + 100L));
+			}
+			map.put(key(lengths.length, 4088), -1);
+		}
+		try (OffHeapMap map = OffHeapMap.open(dir)) {
+			assertThat(map.size(), is(lengths.length + 1L));
+			for (int i=0; i<lengths.length; i++) {
+				assertThat(map.get(key(i, lengths[i])), is(i + 100L));
+			}
+			assertThat(map.get(key(lengths.length, 4088)), is(-1L));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testKeyTooLongForChunk() throws IOException {
+		try (OffHeapMap map = OffHeapMap.open(folder.getRoot().toPath(), 12)) {
+			map.put(key(0, 4089), 1);
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testNotFlushed() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		OffHeapMap map = OffHeapMap.open(dir);
+		map.put("one", 1);
+		// never flushed or closed
+		assertFalse(Files.exists(dir.resolve(OffHeapMap.META_FILE)));
+		OffHeapMap.open(dir);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testClosed() throws IOException {
+		OffHeapMap map = OffHeapMap.allocate(10);
+		map.close();
+		map.get("one");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testKeyTooLong() throws IOException {
+		try (OffHeapMap map = OffHeapMap.allocate(10)) {
+			map.put(new byte[1 << 20], 1);
+		}
+	}
+}
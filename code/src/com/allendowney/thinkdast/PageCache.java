@@ -0,0 +1,27 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+
+/**
+ * Local copies of the pages we have fetched.
+ *
+ */
+public interface PageCache {
+
+	/**
+	 * Returns the stored copy of a page, or null if there is none.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public CachedPage get(String url) throws IOException;
+
+	/**
+	 * Stores a copy of a page, replacing any earlier copy.
+	 *
+	 * @param page
+	 * @throws IOException
+	 */
+	public void put(CachedPage page) throws IOException;
+}
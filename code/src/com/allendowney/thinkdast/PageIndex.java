@@ -0,0 +1,35 @@
+package com.allendowney.thinkdast;
+
+/**
+ * The operations a crawler needs from a search index.
+ *
+ * Implemented by the in-memory Index and the Redis-backed JedisIndex.
+ *
+ */
+public interface PageIndex {
+
+	/**
+	 * Checks whether a page has already been indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean isIndexed(String url);
+
+	/**
+	 * Adds a page whose terms have been counted to the index.
+	 *
+	 * @param termCounter  Counts of the page, labeled with its URL.
+	 */
+	public void indexPage(TermCounter termCounter);
+
+	/**
+	 * Replaces the counts of a page that may have been indexed before.
+	 *
+	 * Terms that were on the old version of the page but not on the new one are
+	 * removed, so the index does not keep finding the page under them.
+	 *
+	 * @param termCounter  Counts of the new version, labeled with its URL.
+	 */
+	public void updatePage(TermCounter termCounter);
+}
@@ -0,0 +1,307 @@
+package com.allendowney.thinkdast;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * PageRank scores of the pages in a LinkGraph.
+ *
+ * The scores are computed by power iteration on the reversed graph: each page
+ * pulls rank from the pages that link to it, so every page is written by one
+ * thread only and no locks or atomics are needed. Each iteration is split over
+ * the common fork/join pool in ranges of pages. Rank from pages with no
+ * out-links is spread evenly over all pages.
+ *
+ * Scores are scaled so that they average 1: a page with score 2 has twice the
+ * rank of the typical page.
+ *
+ */
+public class PageRank {
+
+	public static final double DAMPING = 0.85;
+	public static final double TOLERANCE = 1e-6;
+	public static final int MAX_ITERATIONS = 100;
+
+	// pages per fork/join task
+	private static final int CHUNK = 1 << 13;
+
+	private final LinkGraph graph;
+	private final double[] scores;
+	private final int iterations;
+
+	private PageRank(LinkGraph graph, double[] scores, int iterations) {
+		this.graph = graph;
+		this.scores = scores;
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Computes PageRank with the usual damping of 0.85.
+	 *
+	 * @param graph
+	 * @return
+	 */
+	public static PageRank compute(LinkGraph graph) {
+		return compute(graph, DAMPING, TOLERANCE, MAX_ITERATIONS);
+	}
+
+	/**
+	 * Computes PageRank.
+	 *
+	 * @param graph
+	 * @param damping        Probability of following a link rather than jumping to a random page.
+	 * @param tolerance      Stop when the scores change by less than this in total (L1).
+	 * @param maxIterations
+	 * @return
+	 */
+	public static PageRank compute(LinkGraph graph, double damping, double tolerance, int maxIterations) {
+		LinkGraph.Transpose transpose = graph.transpose();
+		int n = transpose.outDegree.length;
+		double[] rank = new double[n];
+		double[] next = new double[n];
+		double[] share = new double[n];
+		Arrays.fill(rank, 1.0 / n);
+
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int iteration = 0;
+		while (iteration < maxIterations && n > 0) {
+			iteration++;
+			double dangling = pool.invoke(new ShareTask(transpose, rank, share, 0, n));
+			double base = (1 - damping + damping * dangling) / n;
+			double change = pool.invoke(new PullTask(transpose, rank, share, next, base, damping, 0, n));
+			double[] tmp = rank;
+			rank = next;
+			next = tmp;
+			if (change < tolerance) {
+				break;
+			}
+		}
+
+		for (int i=0; i<n; i++) {
+			rank[i] *= n;
+		}
+		return new PageRank(graph, rank, iteration);
+	}
+
+	/**
+	 * Works out what each page passes along each of its links, and returns the
+	 * total rank of pages with no links.
+	 */
+	@SuppressWarnings("serial") // ForkJoinTask is Serializable, but these are never serialized
+	private static class ShareTask extends RecursiveTask<Double> {
+		private final LinkGraph.Transpose graph;
+		private final double[] rank;
+		private final double[] share;
+		private final int from;
+		private final int to;
+
+		ShareTask(LinkGraph.Transpose graph, double[] rank, double[] share, int from, int to) {
+			this.graph = graph;
+			this.rank = rank;
+			this.share = share;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				ShareTask left = new ShareTask(graph, rank, share, from, middle);
+				left.fork();
+				double right = new ShareTask(graph, rank, share, middle, to).compute();
+				return left.join() + right;
+			}
+			double dangling = 0;
+			for (int u=from; u<to; u++) {
+				int degree = graph.outDegree[u];
+				if (degree == 0) {
+					dangling += rank[u];
+					share[u] = 0;
+				} else {
+					share[u] = rank[u] / degree;
+				}
+			}
+			return dangling;
+		}
+	}
+
+	/**
+	 * Computes the new rank of each page from the shares of the pages that
+	 * link to it, and returns how much the ranks changed.
+	 */
+	@SuppressWarnings("serial") // ForkJoinTask is Serializable, but these are never serialized
+	private static class PullTask extends RecursiveTask<Double> {
+		private final LinkGraph.Transpose graph;
+		private final double[] rank;
+		private final double[] share;
+		private final double[] next;
+		private final double base;
+		private final double damping;
+		private final int from;
+		private final int to;
+
+		PullTask(LinkGraph.Transpose graph, double[] rank, double[] share, double[] next,
+				double base, double damping, int from, int to) {
+			this.graph = graph;
+			this.rank = rank;
+			this.share = share;
+			this.next = next;
+			this.base = base;
+			this.damping = damping;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				PullTask left = new PullTask(graph, rank, share, next, base, damping, from, middle);
+				left.fork();
+				double right = new PullTask(graph, rank, share, next, base, damping, middle, to).compute();
+				return left.join() + right;
+			}
+			int[] offsets = graph.offsets;
+			int[] sources = graph.sources;
+			double change = 0;
+			for (int v=from; v<to; v++) {
+				double sum = 0;
+				for (int i=offsets[v]; i<offsets[v + 1]; i++) {
+					sum += share[sources[i]];
+				}
+				next[v] = base + damping * sum;
+				change += Math.abs(next[v] - rank[v]);
+			}
+			return change;
+		}
+	}
+
+	/**
+	 * Returns the score of a page, or 0 if it was not in the graph when the scores were computed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public double score(String url) {
+		int id = graph.id(url);
+		return id < 0 || id >= scores.length ? 0 : scores[id];
+	}
+
+	/**
+	 * Returns the score of the page with the given id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public double score(int id) {
+		return scores[id];
+	}
+
+	/**
+	 * Returns the number of iterations it took to converge.
+	 *
+	 * @return
+	 */
+	public int iterations() {
+		return iterations;
+	}
+
+	/**
+	 * Returns the ids of the `k` pages with the highest scores, best first.
+	 *
+	 * @param k
+	 * @return
+	 */
+	public int[] top(int k) {
+		k = Math.min(k, scores.length);
+		// a min-heap of the best k, by score
+		int[] heap = new int[k];
+		int size = 0;
+		for (int id=0; id<scores.length; id++) {
+			if (size < k) {
+				heap[size] = id;
+				siftUp(heap, size++);
+			} else if (k > 0 && scores[id] > scores[heap[0]]) {
+				heap[0] = id;
+				siftDown(heap, size);
+			}
+		}
+		int[] best = new int[size];
+		for (int i=size-1; i>=0; i--) {
+			best[i] = heap[0];
+			heap[0] = heap[i];
+			siftDown(heap, i);
+		}
+		return best;
+	}
+
+	private void siftUp(int[] heap, int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (scores[heap[i]] >= scores[heap[parent]]) {
+				break;
+			}
+			swap(heap, i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int[] heap, int size) {
+		int i = 0;
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size) {
+				break;
+			}
+			int right = left + 1;
+			int child = (right < size && scores[heap[right]] < scores[heap[left]]) ? right : left;
+			if (scores[heap[child]] >= scores[heap[i]]) {
+				break;
+			}
+			swap(heap, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap(int[] heap, int i, int j) {
+		int tmp = heap[i];
+		heap[i] = heap[j];
+		heap[j] = tmp;
+	}
+
+	/**
+	 * Builds a random graph with tens of millions of links, skewed like the web,
+	 * and times building it and ranking it.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int pages = 2000000;
+		int linksPerPage = 15;
+		Random random = new Random(1);
+
+		LinkGraph graph = new LinkGraph();
+		long start = System.nanoTime();
+		for (int i=0; i<pages; i++) {
+			graph.addPage("https://en.wikipedia.org/wiki/Page" + i);
+		}
+		long named = System.nanoTime();
+		LinkGraph.linkRandomly(graph, linksPerPage, random);
+		long built = System.nanoTime();
+		System.out.printf("%d pages: %.0f ns/page to name, %d links: %.0f ns/link to add, %.2f bytes/link%n",
+				graph.size(), (named - start) / (double) pages, graph.edges(),
+				(built - named) / (double) graph.edges(), graph.adjacencyBytes() / (double) graph.edges());
+
+		for (int round=0; round<3; round++) {
+			long begin = System.nanoTime();
+			PageRank ranks = compute(graph);
+			long elapsed = System.nanoTime() - begin;
+			System.out.printf("PageRank: %d iterations in %.2f s (%.1f ns/link/iteration, %d threads), top %s %.1f%n",
+					ranks.iterations(), elapsed / 1e9, elapsed / (double) graph.edges() / ranks.iterations(),
+					ForkJoinPool.commonPool().getParallelism(), graph.url(ranks.top(1)[0]), ranks.score(ranks.top(1)[0]));
+		}
+	}
+}
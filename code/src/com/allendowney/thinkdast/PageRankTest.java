@@ -0,0 +1,82 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PageRankTest {
+
+	@Test
+	public void testCycle() {
+		LinkGraph graph = new LinkGraph();
+		graph.setLinks("a", Arrays.asList("b"));
+		graph.setLinks("b", Arrays.asList("c"));
+		graph.setLinks("c", Arrays.asList("a"));
+
+		PageRank ranks = PageRank.compute(graph);
+		assertEquals(1.0, ranks.score("a"), 1e-6);
+		assertEquals(1.0, ranks.score("b"), 1e-6);
+		assertEquals(1.0, ranks.score("c"), 1e-6);
+		assertThat(ranks.score("unknown"), is(0.0));
+	}
+
+	@Test
+	public void testStar() {
+		// every page links to the hub, which links nowhere
+		LinkGraph graph = new LinkGraph();
+		for (int i=0; i<4; i++) {
+			graph.setLinks("leaf" + i, Arrays.asList("hub"));
+		}
+		graph.setLinks("hub", Collections.<String>emptyList());
+
+		PageRank ranks = PageRank.compute(graph);
+		double hub = ranks.score("hub");
+		double leaf = ranks.score("leaf0");
+		assertEquals(5.0, hub + 4 * leaf, 1e-6);
+		// the hub gets what all the leaves pass on, plus its share of the jumps
+		assertEquals(0.15 + 0.85 * 4 * leaf + 0.85 * hub / 5, hub, 1e-4);
+		assertThat(ranks.top(1)[0], is(graph.id("hub")));
+	}
+
+	@Test
+	public void testTop() {
+		LinkGraph graph = new LinkGraph();
+		// page i is linked from pages 0 to i-1, so higher pages rank higher
+		for (int i=0; i<10; i++) {
+			String[] targets = new String[9 - i];
+			for (int j=i+1; j<10; j++) {
+				targets[j - i - 1] = "p" + j;
+			}
+			graph.setLinks("p" + i, Arrays.asList(targets));
+		}
+		PageRank ranks = PageRank.compute(graph);
+		int[] top = ranks.top(3);
+		assertThat(graph.url(top[0]), is("p9"));
+		assertThat(graph.url(top[1]), is("p8"));
+		assertThat(graph.url(top[2]), is("p7"));
+		assertThat(ranks.top(100).length, is(10));
+	}
+
+	@Test
+	public void testLargeGraph() {
+		// big enough to be split into several fork/join tasks
+		LinkGraph graph = new LinkGraph();
+		int n = 50000;
+		for (int i=0; i<n; i++) {
+			graph.addPage("p" + i);
+		}
+		for (int i=0; i<n; i++) {
+			graph.setLinks(i, new int[] {(i + 1) % n, (i * 7) % n});
+		}
+		PageRank ranks = PageRank.compute(graph);
+		double total = 0;
+		for (int i=0; i<n; i++) {
+			total += ranks.score(i);
+		}
+		assertEquals(n, total, 1e-3);
+	}
+}
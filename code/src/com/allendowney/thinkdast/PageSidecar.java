@@ -0,0 +1,198 @@
+package com.allendowney.thinkdast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+
+/**
+ * What the indexer and the crawler need from one version of a page, extracted once.
+ *
+ * A sidecar holds the text of the page's paragraphs, with sidebars and
+ * infoboxes already removed, the internal links, and the first valid link
+ * as WikiParser finds it. The text is kept as the runs a DOM traversal would
+ * see, one per TextNode, so counting terms from a sidecar gives exactly the
+ * counts TermCounter gets from the parsed paragraphs.
+ *
+ * The binary form is a magic number followed by the deflated fields; reading
+ * it back is a small fraction of the cost of parsing the HTML.
+ *
+ */
+public class PageSidecar {
+
+	private static final int MAGIC = 0x57534331; // "WSC1"
+
+	public final String url;
+	// which version of the page this came from; see WikiFetcher.readSidecar
+	public final long version;
+
+	// text runs, and the index in `runs` where each paragraph ends
+	private final String[] runs;
+	private final int[] paragraphEnds;
+	private final List<String> links;
+	private final String firstLink;
+
+	private PageSidecar(String url, long version, String[] runs, int[] paragraphEnds,
+			List<String> links, String firstLink) {
+		this.url = url;
+		this.version = version;
+		this.runs = runs;
+		this.paragraphEnds = paragraphEnds;
+		this.links = Collections.unmodifiableList(links);
+		this.firstLink = firstLink;
+	}
+
+	/**
+	 * Extracts a sidecar from the paragraphs of a page.
+	 *
+	 * @param url
+	 * @param version
+	 * @param paragraphs  As returned by WikiFetcher.parseParagraphs.
+	 * @return
+	 */
+	public static PageSidecar extract(String url, long version, Elements paragraphs) {
+		List<String> runs = new ArrayList<String>();
+		int[] paragraphEnds = new int[paragraphs.size()];
+		for (int i=0; i<paragraphs.size(); i++) {
+			for (TextNode node: WikiNodeIterable.textNodes(paragraphs.get(i))) {
+				runs.add(node.text());
+			}
+			paragraphEnds[i] = runs.size();
+		}
+		List<String> links = new ArrayList<String>(WikiCrawler.internalLinks(paragraphs));
+		Element first = new WikiParser(paragraphs).findFirstLink();
+		String firstLink = first == null ? null : WikiPhilosophy.parseWikiLink(first);
+		return new PageSidecar(url, version, runs.toArray(new String[0]), paragraphEnds, links, firstLink);
+	}
+
+	/**
+	 * Returns the text runs of all paragraphs, in order.
+	 *
+	 * @return
+	 */
+	public List<String> runs() {
+		return Collections.unmodifiableList(Arrays.asList(runs));
+	}
+
+	/**
+	 * Returns the number of paragraphs.
+	 *
+	 * @return
+	 */
+	public int paragraphCount() {
+		return paragraphEnds.length;
+	}
+
+	/**
+	 * Returns the text of one paragraph.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public String paragraphText(int i) {
+		int start = i == 0 ? 0 : paragraphEnds[i - 1];
+		StringBuilder sb = new StringBuilder();
+		for (int j=start; j<paragraphEnds[i]; j++) {
+			sb.append(runs[j]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the URLs of the pages the paragraphs link to, each once, in order.
+	 *
+	 * @return
+	 */
+	public List<String> links() {
+		return links;
+	}
+
+	/**
+	 * Returns the URL of the first valid link, or null if there is none.
+	 *
+	 * @return
+	 */
+	public String firstLink() {
+		return firstLink;
+	}
+
+	/**
+	 * Returns the binary form.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+			out.writeUTF(url);
+			out.writeLong(version);
+			out.writeInt(paragraphEnds.length);
+			for (int end: paragraphEnds) {
+				out.writeInt(end);
+			}
+			out.writeInt(runs.length);
+			for (String run: runs) {
+				// a run can be longer than writeUTF allows
+				byte[] b = run.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			out.writeInt(links.size());
+			for (String link: links) {
+				out.writeUTF(link);
+			}
+			out.writeUTF(firstLink == null ? "" : firstLink);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a sidecar written by toBytes.
+	 *
+	 * @param b
+	 * @return
+	 * @throws IOException if the bytes are not a sidecar.
+	 */
+	public static PageSidecar fromBytes(byte[] b) throws IOException {
+		ByteArrayInputStream bytes = new ByteArrayInputStream(b);
+		if (new DataInputStream(bytes).readInt() != MAGIC) {
+			throw new IOException("Not a page sidecar");
+		}
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(bytes))) {
+			String url = in.readUTF();
+			long version = in.readLong();
+			int[] paragraphEnds = new int[in.readInt()];
+			for (int i=0; i<paragraphEnds.length; i++) {
+				paragraphEnds[i] = in.readInt();
+			}
+			String[] runs = new String[in.readInt()];
+			for (int i=0; i<runs.length; i++) {
+				byte[] run = new byte[in.readInt()];
+				in.readFully(run);
+				runs[i] = new String(run, StandardCharsets.UTF_8);
+			}
+			int n = in.readInt();
+			List<String> links = new ArrayList<String>(n);
+			for (int i=0; i<n; i++) {
+				links.add(in.readUTF());
+			}
+			String firstLink = in.readUTF();
+			return new PageSidecar(url, version, runs, paragraphEnds, links, firstLink.isEmpty() ? null : firstLink);
+		}
+	}
+}
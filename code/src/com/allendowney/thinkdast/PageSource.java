@@ -0,0 +1,24 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+
+import org.jsoup.select.Elements;
+
+/**
+ * Somewhere the crawler can get the paragraphs of a page from.
+ *
+ * WikiFetcher::fetchWikipedia downloads pages, WikiFetcher::readWikipedia
+ * reads the copies stored in src/resources.
+ *
+ */
+public interface PageSource {
+
+	/**
+	 * Returns the paragraphs of the page at `url`.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public Elements getParagraphs(String url) throws IOException;
+}
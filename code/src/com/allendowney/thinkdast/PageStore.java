@@ -0,0 +1,620 @@
+package com.allendowney.thinkdast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.allendowney.thinkdast.constants.ResourcesConstants;
+import com.allendowney.thinkdast.constants.WikiConstants;
+
+/**
+ * Keeps fetched pages in one append-only container file instead of one file per page.
+ *
+ * Like a WARC file, the container is a sequence of records, one per page
+ * version, each holding the URL, the ETag and Last-Modified headers, the
+ * fetch time and the deflate-compressed HTML. A second file holds an index
+ * of URLs sorted by their UTF-8 bytes, each with the offset of its latest
+ * record; lookups binary search it. Both files are read through memory-mapped
+ * buffers, so reads share the OS page cache and need no system calls.
+ *
+ * Records added since the index was last written are kept in a small map and
+ * merged into a new index by flush(), which put calls once there are too many
+ * of them. The merge walks the old index and the new records in order, so it
+ * costs one pass over the index. When a store is reopened, records past the end
+ * of the index are found by scanning, so a store that was never flushed loses
+ * nothing, and a torn record at the end of the container is cut off.
+ *
+ * Gets may run concurrently with each other and with puts, and do not wait
+ * for a flush.
+ *
+ */
+public class PageStore implements PageCache, Closeable {
+
+	public static final String DATA_FILE = "pages.warc";
+	public static final String INDEX_FILE = "pages.idx";
+
+	private static final int RECORD_MAGIC = 0x57505231; // "WPR1"
+	private static final int INDEX_MAGIC = 0x57504931;  // "WPI1"
+	private static final int RECORD_HEADER = 8;
+	private static final int INDEX_HEADER = 16;
+
+	// rewrite the index once this many records are not in it
+	private static final int DEFAULT_FLUSH_THRESHOLD = 10000;
+
+	// the longest URL or header a record can hold
+	private static final int MAX_STRING_BYTES = 0xffff;
+
+	private final Path dir;
+	private final FileChannel channel;
+	private final int flushThreshold;
+
+	// end of the container; records are appended here
+	private volatile long dataSize;
+
+	// the container as of the last remap, or null if it was empty; replaced under mapLock
+	private volatile MappedByteBuffer data;
+	private final Object mapLock = new Object();
+
+	// the sorted index, and the records that are not in it yet
+	private volatile MappedByteBuffer index;
+	private final Map<String, Long> pending = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Opens (or creates) a store in `dir`.
+	 *
+	 * @param dir
+	 * @throws IOException
+	 */
+	public PageStore(Path dir) throws IOException {
+		this(dir, DEFAULT_FLUSH_THRESHOLD);
+	}
+
+	/**
+	 * Opens (or creates) a store in `dir`.
+	 *
+	 * @param dir
+	 * @param flushThreshold  Number of records to keep out of the index before it is rewritten.
+	 * @throws IOException
+	 */
+	public PageStore(Path dir, int flushThreshold) throws IOException {
+		this.dir = dir;
+		this.flushThreshold = flushThreshold;
+		Files.createDirectories(dir);
+		this.channel = FileChannel.open(dir.resolve(DATA_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.dataSize = channel.size();
+
+		long indexed = loadIndex();
+		remap();
+		recover(indexed);
+	}
+
+	/**
+	 * Maps the index file, returning the length of the container it covers.
+	 */
+	private long loadIndex() throws IOException {
+		Path file = dir.resolve(INDEX_FILE);
+		if (!Files.exists(file)) {
+			index = null;
+			return 0;
+		}
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if (map.getInt(0) != INDEX_MAGIC) {
+				throw new IOException("Not a page store index: " + file);
+			}
+			long covered = map.getLong(4);
+			index = map;
+			return Math.min(covered, dataSize);
+		}
+	}
+
+	/**
+	 * Scans the records after `offset`, adding them to `pending`, and cuts off a torn tail.
+	 */
+	private void recover(long offset) throws IOException {
+		while (offset + RECORD_HEADER <= dataSize) {
+			ByteBuffer header = read(offset, RECORD_HEADER);
+			int length = header.getInt(4);
+			if (header.getInt(0) != RECORD_MAGIC || length < 0 || offset + RECORD_HEADER + length > dataSize) {
+				break;
+			}
+			ByteBuffer record = read(offset + RECORD_HEADER, length);
+			pending.put(getString(record), offset);
+			offset += RECORD_HEADER + length;
+		}
+		if (offset < dataSize) {
+			channel.truncate(offset);
+			dataSize = offset;
+			remap();
+		}
+	}
+
+	@Override
+	public CachedPage get(String url) throws IOException {
+		long offset = find(url);
+		if (offset == -1) {
+			return null;
+		}
+		ByteBuffer record = record(offset);
+		String storedUrl = getString(record);
+		String etag = nullIfEmpty(getString(record));
+		String lastModified = nullIfEmpty(getString(record));
+		long fetchedAt = record.getLong();
+		int rawLength = record.getInt();
+		int compressedLength = record.getInt();
+
+		byte[] html = new byte[rawLength];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(record.slice(record.position(), compressedLength));
+			int n = 0;
+			while (n < rawLength && !inflater.finished()) {
+				n += inflater.inflate(html, n, rawLength - n);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt record for " + url, e);
+		} finally {
+			inflater.end();
+		}
+		return new CachedPage(storedUrl, new String(html, StandardCharsets.UTF_8), etag, lastModified, fetchedAt);
+	}
+
+	/**
+	 * Returns the HTML of the latest version of a page as a stream, or null if there is none.
+	 *
+	 * The stream inflates straight out of the mapped container, so the page is never
+	 * held in memory as a whole.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream openStream(String url) throws IOException {
+		long offset = find(url);
+		if (offset == -1) {
+			return null;
+		}
+		ByteBuffer record = record(offset);
+		getString(record);
+		getString(record);
+		getString(record);
+		record.getLong();
+		record.getInt();
+		int compressedLength = record.getInt();
+		ByteBuffer compressed = record.slice(record.position(), compressedLength);
+		return new InflaterInputStream(new ByteBufferInputStream(compressed));
+	}
+
+	/**
+	 * Returns when the latest version of a page was fetched, or -1 if there is none.
+	 *
+	 * Reads only the header of the record, so it is cheap enough to check before every read.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public long fetchedAt(String url) throws IOException {
+		long offset = find(url);
+		if (offset == -1) {
+			return -1;
+		}
+		ByteBuffer record = record(offset);
+		getString(record);
+		getString(record);
+		getString(record);
+		return record.getLong();
+	}
+
+	/**
+	 * Returns true if the store has a version of the page.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean contains(String url) {
+		return find(url) != -1;
+	}
+
+	/**
+	 * Appends a record for `page`.
+	 *
+	 * @throws IllegalArgumentException if the URL or a header is longer than 64 KB.
+	 */
+	@Override
+	public synchronized void put(CachedPage page) throws IOException {
+		byte[] raw = page.html.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = new Deflater();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			byte[] chunk = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(chunk);
+				compressed.write(chunk, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		byte[] url = page.url.getBytes(StandardCharsets.UTF_8);
+		byte[] etag = bytesOf(page.etag);
+		byte[] lastModified = bytesOf(page.lastModified);
+		for (byte[] bytes: List.of(url, etag, lastModified)) {
+			if (bytes.length > MAX_STRING_BYTES) {
+				throw new IllegalArgumentException("URL or header longer than 64 KB: " + page.url);
+			}
+		}
+		int length = 2 + url.length + 2 + etag.length + 2 + lastModified.length + 8 + 4 + 4 + compressed.size();
+
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + length);
+		buffer.putInt(RECORD_MAGIC).putInt(length);
+		putString(buffer, url);
+		putString(buffer, etag);
+		putString(buffer, lastModified);
+		buffer.putLong(page.fetchedAt);
+		buffer.putInt(raw.length);
+		buffer.putInt(compressed.size());
+		buffer.put(compressed.toByteArray());
+		buffer.flip();
+
+		long offset = dataSize;
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		dataSize = position;
+		pending.put(page.url, offset);
+
+		if (pending.size() >= flushThreshold) {
+			flush();
+		}
+	}
+
+	/**
+	 * Merges the records added since the last flush into a new index, and forces both files to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		channel.force(false);
+		if (pending.isEmpty() && Files.exists(dir.resolve(INDEX_FILE))) {
+			return;
+		}
+
+		// the new records, sorted the same way as the index
+		List<Map.Entry<byte[], Long>> added = new ArrayList<Map.Entry<byte[], Long>>(pending.size());
+		for (Map.Entry<String, Long> entry: pending.entrySet()) {
+			added.add(Map.entry(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+		}
+		added.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+
+		// merge them with the old index: order[k] is the position of an old
+		// entry, or ~j for added[j], which replaces an old entry with the same key
+		MappedByteBuffer oldIndex = index;
+		int oldCount = count(oldIndex);
+		int[] order = new int[oldCount + added.size()];
+		int count = 0;
+		int size = INDEX_HEADER;
+		int i = 0;
+		int j = 0;
+		while (i < oldCount || j < added.size()) {
+			int position = i < oldCount ? oldIndex.getInt(INDEX_HEADER + 4 * i) : -1;
+			int cmp = i == oldCount ? 1 : j == added.size() ? -1 : compare(oldIndex, position, added.get(j).getKey());
+			if (cmp < 0) {
+				order[count++] = position;
+				size += 4 + 2 + (oldIndex.getShort(position) & 0xffff) + 8;
+				i++;
+			} else {
+				if (cmp == 0) {
+					i++;
+				}
+				order[count++] = ~j;
+				size += 4 + 2 + added.get(j).getKey().length + 8;
+				j++;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(INDEX_MAGIC).putLong(dataSize).putInt(count);
+		int position = INDEX_HEADER + 4 * count;
+		for (int k=0; k<count; k++) {
+			buffer.putInt(position);
+			int keyLength = order[k] >= 0 ? oldIndex.getShort(order[k]) & 0xffff : added.get(~order[k]).getKey().length;
+			position += 2 + keyLength + 8;
+		}
+		for (int k=0; k<count; k++) {
+			if (order[k] >= 0) {
+				// copy the key and offset as they are
+				int length = 2 + (oldIndex.getShort(order[k]) & 0xffff) + 8;
+				buffer.put(oldIndex.slice(order[k], length));
+			} else {
+				Map.Entry<byte[], Long> entry = added.get(~order[k]);
+				putString(buffer, entry.getKey());
+				buffer.putLong(entry.getValue());
+			}
+		}
+		buffer.flip();
+
+		Path tmp = dir.resolve(INDEX_FILE + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(false);
+		}
+		Files.move(tmp, dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		// readers see either the old index plus pending, or the new index plus pending
+		loadIndex();
+		pending.clear();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	/**
+	 * Returns the number of distinct URLs in the store.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return urls().size();
+	}
+
+	/**
+	 * Returns the URLs in the store, sorted.
+	 *
+	 * @return
+	 */
+	public List<String> urls() {
+		TreeMap<byte[], String> sorted = new TreeMap<byte[], String>(Arrays::compareUnsigned);
+		MappedByteBuffer idx = index;
+		int count = count(idx);
+		for (int i=0; i<count; i++) {
+			int position = idx.getInt(INDEX_HEADER + 4 * i);
+			byte[] key = new byte[idx.getShort(position) & 0xffff];
+			idx.get(position + 2, key);
+			sorted.put(key, new String(key, StandardCharsets.UTF_8));
+		}
+		for (String url: pending.keySet()) {
+			sorted.put(url.getBytes(StandardCharsets.UTF_8), url);
+		}
+		return new ArrayList<String>(sorted.values());
+	}
+
+	/**
+	 * Returns the number of bytes in the container.
+	 *
+	 * @return
+	 */
+	public long dataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * Returns the offset of the latest record for `url`, or -1.
+	 */
+	private long find(String url) {
+		Long offset = pending.get(url);
+		if (offset != null) {
+			return offset;
+		}
+		MappedByteBuffer idx = index;
+		if (idx == null) {
+			return -1;
+		}
+		int count = count(idx);
+		byte[] key = url.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int position = idx.getInt(INDEX_HEADER + 4 * mid);
+			int cmp = compare(idx, position, key);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				int length = idx.getShort(position) & 0xffff;
+				return idx.getLong(position + 2 + length);
+			}
+		}
+		return -1;
+	}
+
+	private static int count(ByteBuffer idx) {
+		return idx == null ? 0 : idx.getInt(12);
+	}
+
+	/**
+	 * Compares the index key at `position` with `key`, as unsigned bytes.
+	 */
+	private static int compare(ByteBuffer idx, int position, byte[] key) {
+		int length = idx.getShort(position) & 0xffff;
+		int n = Math.min(length, key.length);
+		for (int i=0; i<n; i++) {
+			int a = idx.get(position + 2 + i) & 0xff;
+			int b = key[i] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Returns the body of the record at `offset`, positioned at the URL.
+	 */
+	private ByteBuffer record(long offset) throws IOException {
+		int length = read(offset, RECORD_HEADER).getInt(4);
+		return read(offset + RECORD_HEADER, length);
+	}
+
+	/**
+	 * Returns `length` bytes of the container starting at `offset`.
+	 */
+	private ByteBuffer read(long offset, int length) throws IOException {
+		MappedByteBuffer map = data;
+		if (map == null || offset + length > map.capacity()) {
+			map = remap();
+		}
+		if (map != null && offset + length <= map.capacity()) {
+			return map.slice((int) offset, length);
+		}
+		// past what one mapping can hold: read it the slow way
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of " + DATA_FILE);
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * Maps the container as it is now, up to the 2 GB a single mapping can hold.
+	 *
+	 * Takes its own lock rather than the store's, so a get that needs a new
+	 * mapping does not wait for a put or a flush to finish.
+	 */
+	private MappedByteBuffer remap() throws IOException {
+		synchronized (mapLock) {
+			long size = Math.min(dataSize, Integer.MAX_VALUE);
+			if (data == null || data.capacity() < size) {
+				data = size == 0 ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			return data;
+		}
+	}
+
+	private static byte[] bytesOf(String s) {
+		return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String nullIfEmpty(String s) {
+		return s.isEmpty() ? null : s;
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * An InputStream over the remaining bytes of a ByteBuffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+	}
+
+	/**
+	 * Copies pages stored one per file into a store.
+	 *
+	 * @param pages  Directory holding one file per page, named after the page.
+	 * @return number of pages copied.
+	 * @throws IOException
+	 */
+	public int importFiles(Path pages) throws IOException {
+		int count = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(pages, Files::isRegularFile)) {
+			for (Path file: files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(".meta")) {
+					continue;
+				}
+				String url = WikiConstants.WIKI_ORIGIN_EN + WikiConstants.WIKI_PAGE_PREFIX + name;
+				String html = Files.readString(file, StandardCharsets.UTF_8);
+				put(new CachedPage(url, html, null, null, Files.getLastModifiedTime(file).toMillis()));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Imports the pages in src/resources into a store and compares the sizes and read times.
+	 *
+	 * @param args  Optionally, the directory of the store.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Path pages = Path.of("src", ResourcesConstants.WIKI_PATH);
+		Path dir = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("pagestore");
+
+		long fileBytes = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(pages, Files::isRegularFile)) {
+			for (Path file: files) {
+				fileBytes += Files.size(file);
+			}
+		}
+
+		try (PageStore store = new PageStore(dir)) {
+			int n = store.importFiles(pages);
+			store.flush();
+			System.out.println(n + " pages: " + fileBytes + " bytes as files, " + store.dataSize() + " bytes in the store");
+
+			List<String> urls = store.urls();
+			for (int round=0; round<3; round++) {
+				long start = System.nanoTime();
+				for (String url: urls) {
+					store.get(url);
+				}
+				long elapsed = System.nanoTime() - start;
+				System.out.println("read " + urls.size() + " pages in " + elapsed / 1000 + " us");
+			}
+		}
+	}
+}
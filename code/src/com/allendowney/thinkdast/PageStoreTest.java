@@ -0,0 +1,211 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PageStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path dir;
+
+	@Before
+	public void setUp() {
+		dir = folder.getRoot().toPath();
+	}
+
+	private static CachedPage page(String name, String html) {
+		return new CachedPage("https://en.wikipedia.org/wiki/" + name, html, "\"" + name + "\"", null, 42);
+	}
+
+	private static String html(String name) {
+		StringBuilder sb = new StringBuilder("<html><body><div id=\"mw-content-text\">");
+		for (int i=0; i<100; i++) {
+			sb.append("<p>").append(name).append(" paragraph ").append(i).append("</p>");
+		}
+		return sb.append("</div></body></html>").toString();
+	}
+
+	@Test
+	public void testPutGet() throws IOException {
+		try (PageStore store = new PageStore(dir)) {
+			assertThat(store.get("https://en.wikipedia.org/wiki/Nothing"), nullValue());
+
+			store.put(page("Java", html("Java")));
+			CachedPage page = store.get("https://en.wikipedia.org/wiki/Java");
+			assertThat(page.html, is(html("Java")));
+			assertThat(page.etag, is("\"Java\""));
+			assertThat(page.lastModified, nullValue());
+			assertThat(page.fetchedAt, is(42L));
+			assertThat(store.fetchedAt("https://en.wikipedia.org/wiki/Java"), is(42L));
+			assertThat(store.fetchedAt("https://en.wikipedia.org/wiki/Nothing"), is(-1L));
+
+			// compressed
+			assertTrue(store.dataSize() < html("Java").length() / 2);
+		}
+	}
+
+	@Test
+	public void testLatestVersionWins() throws IOException {
+		try (PageStore store = new PageStore(dir)) {
+			store.put(page("Java", "old"));
+			store.flush();
+			store.put(page("Java", "new"));
+			assertThat(store.get("https://en.wikipedia.org/wiki/Java").html, is("new"));
+			store.flush();
+			assertThat(store.get("https://en.wikipedia.org/wiki/Java").html, is("new"));
+			assertThat(store.size(), is(1));
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		// a small threshold, so some pages are in the index and some are not
+		try (PageStore store = new PageStore(dir, 64)) {
+			for (int i=0; i<500; i++) {
+				store.put(page("Page" + i, html("Page" + i)));
+			}
+		}
+		try (PageStore store = new PageStore(dir)) {
+			assertThat(store.size(), is(500));
+			for (int i=0; i<500; i++) {
+				assertThat(store.get("https://en.wikipedia.org/wiki/Page" + i).html, is(html("Page" + i)));
+			}
+			List<String> urls = store.urls();
+			assertThat(urls.get(0), is("https://en.wikipedia.org/wiki/Page0"));
+			assertThat(urls.get(1), is("https://en.wikipedia.org/wiki/Page1"));
+		}
+	}
+
+	@Test
+	public void testRecoverWithoutIndex() throws IOException {
+		PageStore store = new PageStore(dir);
+		store.put(page("A", "alpha"));
+		store.put(page("B", "beta"));
+
+		// not closed, so the index was never written; also tear the last record
+		try (FileChannel channel = FileChannel.open(dir.resolve(PageStore.DATA_FILE), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		try (PageStore reopened = new PageStore(dir)) {
+			assertThat(reopened.get("https://en.wikipedia.org/wiki/A").html, is("alpha"));
+			assertThat(reopened.get("https://en.wikipedia.org/wiki/B"), nullValue());
+
+			reopened.put(page("C", "gamma"));
+			assertThat(reopened.get("https://en.wikipedia.org/wiki/C").html, is("gamma"));
+		}
+	}
+
+	@Test
+	public void testOpenStream() throws IOException {
+		try (PageStore store = new PageStore(dir)) {
+			store.put(page("Java", html("Java")));
+			assertThat(store.openStream("https://en.wikipedia.org/wiki/Missing"), nullValue());
+			try (InputStream in = store.openStream("https://en.wikipedia.org/wiki/Java")) {
+				assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is(html("Java")));
+			}
+		}
+	}
+
+	@Test
+	public void testScanFromStore() throws IOException {
+		String name = "Programming_language";
+		Path pages = Path.of("src", "resources", "en", "wikipedia", "org", "wiki");
+		try (PageStore store = new PageStore(dir)) {
+			store.importFiles(pages);
+			String url = "https://en.wikipedia.org/wiki/" + name;
+
+			TermCounter fromStore = new TermCounter(url);
+			try (InputStream in = store.openStream(url)) {
+				WikiContentScanner.countTerms(in, fromStore);
+			}
+			TermCounter fromFile = WikiFetcher.getInstance().readWikipediaTerms(url);
+			assertThat(fromStore.size(), is(fromFile.size()));
+		}
+	}
+
+	@Test
+	public void testFlushMerges() throws IOException {
+		try (PageStore store = new PageStore(dir)) {
+			store.put(page("B", "b1"));
+			store.put(page("D", "d1"));
+			store.flush();
+			// before, between and after the keys in the index, and one of them again
+			store.put(page("E", "e1"));
+			store.put(page("A", "a1"));
+			store.put(page("D", "d2"));
+			store.put(page("C", "c1"));
+			store.flush();
+		}
+		// read the index alone, without the records past its end
+		try (PageStore store = new PageStore(dir)) {
+			assertThat(store.urls(), is(List.of("https://en.wikipedia.org/wiki/A", "https://en.wikipedia.org/wiki/B",
+					"https://en.wikipedia.org/wiki/C", "https://en.wikipedia.org/wiki/D", "https://en.wikipedia.org/wiki/E")));
+			assertThat(store.get("https://en.wikipedia.org/wiki/B").html, is("b1"));
+			assertThat(store.get("https://en.wikipedia.org/wiki/D").html, is("d2"));
+			assertThat(store.contains("https://en.wikipedia.org/wiki/F"), is(false));
+		}
+	}
+
+	@Test
+	public void testGetDoesNotWaitForPut() throws Exception {
+		try (PageStore store = new PageStore(dir)) {
+			// a record past the end of the current mapping, so the get has to remap
+			store.put(page("Java", html("Java")));
+
+			// hold the store's lock, as a put or a flush does
+			CountDownLatch locked = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			Thread writer = new Thread(() -> {
+				synchronized (store) {
+					locked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			writer.start();
+			locked.await();
+
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<String> html = executor.submit(() -> store.get("https://en.wikipedia.org/wiki/Java").html);
+				assertThat(html.get(10, TimeUnit.SECONDS), is(html("Java")));
+			} finally {
+				release.countDown();
+				writer.join();
+				executor.shutdown();
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHeaderTooLong() throws IOException {
+		try (PageStore store = new PageStore(dir)) {
+			store.put(new CachedPage("https://en.wikipedia.org/wiki/Java", html("Java"), "x".repeat(1 << 16), null, 42));
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.allendowney.thinkdast;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One stage of a pipeline: a bounded queue of items and a pool of threads working on them.
+ *
+ * Each thread takes an item, works on it, and puts it on the queue of the next
+ * stage. When that queue is full the thread waits, so a slow stage holds back
+ * the ones before it instead of letting work pile up in memory.
+ *
+ * The stage keeps its own counters: items processed and failed, how full the
+ * queue is, and histograms of how long items wait in the queue and how long
+ * they take to process.
+ *
+ */
+public class PipelineStage<T> {
+
+	/**
+	 * The work a stage does on each item.
+	 */
+	public interface Worker<T> {
+		/**
+		 * Processes an item; returns false if the item should leave the pipeline here.
+		 */
+		public boolean process(T item) throws Exception;
+	}
+
+	/**
+	 * Told when an item leaves the pipeline, at the last stage or earlier.
+	 */
+	public interface Listener<T> {
+		/**
+		 * `failure` is null if the item went through every stage or was dropped by a Worker.
+		 */
+		public void finished(T item, Throwable failure);
+	}
+
+	/**
+	 * An item and when it was queued.
+	 */
+	private static class Queued<T> {
+		final T item;
+		final long queuedAt;
+
+		Queued(T item) {
+			this.item = item;
+			this.queuedAt = System.nanoTime();
+		}
+	}
+
+	private final String name;
+	private final int threads;
+	private final BlockingQueue<Queued<T>> queue;
+	private final Worker<T> worker;
+	private final Listener<T> listener;
+	private PipelineStage<T> next;
+	private ExecutorService executor;
+
+	private final LongAdder processed = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final AtomicInteger busy = new AtomicInteger();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+	private final LatencyHistogram waitTimes = new LatencyHistogram();
+	private final LatencyHistogram serviceTimes = new LatencyHistogram();
+	private volatile long startTime = System.nanoTime();
+
+	/**
+	 * @param name
+	 * @param threads   Number of threads working on the stage.
+	 * @param capacity  Number of items the queue holds before put() waits.
+	 * @param worker
+	 * @param listener
+	 */
+	public PipelineStage(String name, int threads, int capacity, Worker<T> worker, Listener<T> listener) {
+		if (threads < 1 || capacity < 1) {
+			throw new IllegalArgumentException("A stage needs at least one thread and a queue of at least one item");
+		}
+		this.name = name;
+		this.threads = threads;
+		this.queue = new ArrayBlockingQueue<Queued<T>>(capacity);
+		this.worker = worker;
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the stage items go to after this one; if there is none, they leave the pipeline.
+	 *
+	 * @param next
+	 */
+	public void setNext(PipelineStage<T> next) {
+		this.next = next;
+	}
+
+	/**
+	 * Starts the threads.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			throw new IllegalStateException(name + " is already running");
+		}
+		startTime = System.nanoTime();
+		AtomicInteger count = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i=0; i<threads; i++) {
+			executor.execute(this::work);
+		}
+	}
+
+	/**
+	 * Stops the threads, abandoning whatever is still queued.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Adds an item to the queue, waiting while it is full.
+	 *
+	 * @param item
+	 * @throws InterruptedException
+	 */
+	public void put(T item) throws InterruptedException {
+		queue.put(new Queued<T>(item));
+		maxDepth.accumulateAndGet(queue.size(), Math::max);
+	}
+
+	private void work() {
+		try {
+			while (true) {
+				Queued<T> queued = queue.take();
+				long start = System.nanoTime();
+				waitTimes.record(start - queued.queuedAt);
+				busy.incrementAndGet();
+
+				boolean passOn;
+				try {
+					passOn = worker.process(queued.item);
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					failures.increment();
+					listener.finished(queued.item, e);
+					continue;
+				} finally {
+					serviceTimes.record(System.nanoTime() - start);
+					busy.decrementAndGet();
+				}
+
+				processed.increment();
+				if (passOn && next != null) {
+					next.put(queued.item);
+				} else {
+					listener.finished(queued.item, null);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the number of items processed successfully.
+	 *
+	 * @return
+	 */
+	public long processed() {
+		return processed.sum();
+	}
+
+	/**
+	 * Returns the number of items whose processing threw an exception.
+	 *
+	 * @return
+	 */
+	public long failures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Returns the number of items processed per second since the stage started.
+	 *
+	 * @return
+	 */
+	public double throughput() {
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		return seconds == 0 ? 0 : processed() / seconds;
+	}
+
+	/**
+	 * Returns the number of items waiting in the queue.
+	 *
+	 * @return
+	 */
+	public int queueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the most items the queue has held.
+	 *
+	 * @return
+	 */
+	public int maxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * Returns the number of items the queue holds before put() waits.
+	 *
+	 * @return
+	 */
+	public int queueCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	/**
+	 * Returns the number of threads working on an item right now.
+	 *
+	 * @return
+	 */
+	public int busyThreads() {
+		return busy.get();
+	}
+
+	/**
+	 * Returns the histogram of how long items waited in the queue.
+	 *
+	 * @return
+	 */
+	public LatencyHistogram getWaitTimes() {
+		return waitTimes;
+	}
+
+	/**
+	 * Returns the histogram of how long items took to process.
+	 *
+	 * @return
+	 */
+	public LatencyHistogram getServiceTimes() {
+		return serviceTimes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-8s %2d threads  %8.1f/sec  %d failed  queue %d/%d (max %d)%n"
+				+ "         service %s%n"
+				+ "         wait    %s",
+				name, threads, throughput(), failures(), queueDepth(), queueCapacity(), maxQueueDepth(),
+				serviceTimes, waitTimes);
+	}
+}
@@ -0,0 +1,126 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Releases requests to each host no faster than that host's rate.
+ *
+ * Every host gets its own TokenBucket, created on first use with the default
+ * rate and burst unless setRate was called for it. schedule() reserves a token and
+ * hands the task to a delay queue, which starts it on a virtual thread when the
+ * token becomes usable; no thread waits in the meantime. acquire() is the
+ * blocking version, for callers that are already on their own thread.
+ *
+ */
+public class PolitenessScheduler {
+
+	private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final double defaultRate;
+	private final double defaultBurst;
+
+	private final ScheduledExecutorService delayQueue;
+	private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+	/**
+	 * Makes a scheduler that allows `rate` requests per second to each host,
+	 * with bursts of up to `burst` requests.
+	 *
+	 * @param rate
+	 * @param burst
+	 */
+	public PolitenessScheduler(double rate, double burst) {
+		this.defaultRate = rate;
+		this.defaultBurst = burst;
+		this.delayQueue = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "politeness-delay-queue");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Sets the rate and burst for one host.
+	 *
+	 * @param host
+	 * @param rate
+	 * @param burst
+	 */
+	public void setRate(String host, double rate, double burst) {
+		buckets.put(host.toLowerCase(), new TokenBucket(rate, burst));
+	}
+
+	/**
+	 * Runs `task` once the host of `url` has budget, without blocking the caller.
+	 *
+	 * @param url
+	 * @param task
+	 * @return a future that completes with the result of the task.
+	 */
+	public <T> CompletableFuture<T> schedule(String url, Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		Runnable run = () -> workers.execute(() -> {
+			try {
+				future.complete(task.call());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+
+		long delay = bucketFor(url).reserve();
+		if (delay == 0) {
+			run.run();
+		} else {
+			delayQueue.schedule(run, delay, TimeUnit.NANOSECONDS);
+		}
+		return future;
+	}
+
+	/**
+	 * Waits until the host of `url` has budget for one more request.
+	 *
+	 * @param url
+	 * @throws IOException if the wait is interrupted.
+	 */
+	public void acquire(String url) throws IOException {
+		long delay = bucketFor(url).reserve();
+		if (delay > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting to fetch " + url, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of hosts seen so far.
+	 *
+	 * @return
+	 */
+	public int hostCount() {
+		return buckets.size();
+	}
+
+	private TokenBucket bucketFor(String url) {
+		return buckets.computeIfAbsent(hostOf(url), host -> new TokenBucket(defaultRate, defaultBurst));
+	}
+
+	static String hostOf(String url) {
+		try {
+			String host = URI.create(url).getHost();
+			return host == null ? "" : host.toLowerCase();
+		} catch (IllegalArgumentException e) {
+			return "";
+		}
+	}
+}
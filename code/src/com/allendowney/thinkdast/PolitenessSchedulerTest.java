@@ -0,0 +1,81 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PolitenessSchedulerTest {
+
+	private PolitenessScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = new PolitenessScheduler(20, 1);
+	}
+
+	@Test
+	public void testSameHostIsSpacedOut() throws Exception {
+		List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		long start = System.nanoTime();
+		for (int i=0; i<5; i++) {
+			futures.add(scheduler.schedule("https://en.wikipedia.org/wiki/Page_" + i, System::nanoTime));
+		}
+		long last = 0;
+		for (CompletableFuture<Long> future: futures) {
+			last = Math.max(last, future.get());
+		}
+		// 5 requests at 20 per second with no burst: the last one starts at least 200ms in
+		assertThat((last - start) / 1000000 >= 195, is(true));
+	}
+
+	@Test
+	public void testHostsAreIndependent() throws Exception {
+		// at 2 per second, the second request to host0 waits half a second
+		scheduler = new PolitenessScheduler(2, 1);
+		List<CompletableFuture<Long>> futures = new ArrayList<CompletableFuture<Long>>();
+		for (int i=0; i<5; i++) {
+			futures.add(scheduler.schedule("https://host" + i + ".example.org/page", System::nanoTime));
+		}
+		CompletableFuture<Long> again = scheduler.schedule("https://host0.example.org/other", System::nanoTime);
+
+		// none of the other hosts waits for it
+		for (CompletableFuture<Long> future: futures) {
+			assertThat(future.get() < again.get(), is(true));
+		}
+		assertThat(scheduler.hostCount(), is(5));
+	}
+
+	@Test
+	public void testSetRate() throws Exception {
+		scheduler = new PolitenessScheduler(2, 1);
+		scheduler.setRate("en.wikipedia.org", 1000, 10);
+		scheduler.schedule("https://slow.example.org/first", System::nanoTime);
+		CompletableFuture<Long> second = scheduler.schedule("https://slow.example.org/second", System::nanoTime);
+
+		// ten requests at the faster rate are done before a host at the default rate gets its second
+		for (int i=0; i<10; i++) {
+			scheduler.acquire("https://en.wikipedia.org/wiki/Page_" + i);
+		}
+		assertThat(System.nanoTime() < second.get(), is(true));
+	}
+
+	@Test
+	public void testFailuresComplete() throws Exception {
+		CompletableFuture<Object> future = scheduler.schedule("https://en.wikipedia.org/", () -> {
+			throw new IllegalStateException("boom");
+		});
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof IllegalStateException, is(true));
+		}
+	}
+}
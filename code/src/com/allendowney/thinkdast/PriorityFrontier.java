@@ -0,0 +1,184 @@
+package com.allendowney.thinkdast;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A Frontier that hands out the URL with the most in-links first.
+ *
+ * Every offer is counted as one link to the URL. A URL that is already
+ * waiting moves up in the queue instead of being added again, and a URL
+ * that has been polled keeps counting in-links but is never queued again.
+ * URLs with the same number of in-links come out in the order they were found.
+ *
+ * The queue is a binary max-heap of entries that know their own position,
+ * so moving an entry up when it gets a new link is O(log n), like offer
+ * and poll. The entries also serve as the in-link counts of the link graph
+ * seen so far.
+ *
+ */
+public class PriorityFrontier implements Frontier {
+
+	/**
+	 * A URL, its in-link count, and where it is in the heap.
+	 */
+	private static class Entry {
+		final String url;
+		final long order;
+		int links;
+		// index in `heap`, or -1 once the URL has been polled
+		int position;
+
+		Entry(String url, long order) {
+			this.url = url;
+			this.order = order;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private Entry[] heap = new Entry[16];
+	private int size = 0;
+	private long found = 0;
+
+	@Override
+	public synchronized boolean offer(String url) {
+		Entry entry = entries.get(url);
+		if (entry == null) {
+			entry = new Entry(url, found++);
+			entry.links = 1;
+			entries.put(url, entry);
+			if (size == heap.length) {
+				Entry[] bigger = new Entry[heap.length * 2];
+				System.arraycopy(heap, 0, bigger, 0, size);
+				heap = bigger;
+			}
+			entry.position = size;
+			heap[size++] = entry;
+			siftUp(entry.position);
+			return true;
+		}
+		entry.links++;
+		if (entry.position != -1) {
+			siftUp(entry.position);
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized String poll() {
+		if (size == 0) {
+			return null;
+		}
+		Entry top = heap[0];
+		top.position = -1;
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			heap[0].position = 0;
+			siftDown(0);
+		}
+		heap[size] = null;
+		return top.url;
+	}
+
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of links to `url` seen so far, whether or not it has been polled.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized int inLinks(String url) {
+		Entry entry = entries.get(url);
+		return entry == null ? 0 : entry.links;
+	}
+
+	/**
+	 * Returns the number of distinct URLs seen, waiting or polled.
+	 *
+	 * @return
+	 */
+	public synchronized int urlsSeen() {
+		return entries.size();
+	}
+
+	/**
+	 * Times offers and polls on a frontier with millions of URLs.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int urls = 2000000;
+		int links = 10000000;
+		Random random = new Random(1);
+
+		for (int round=0; round<3; round++) {
+			PriorityFrontier frontier = new PriorityFrontier();
+			long start = System.nanoTime();
+			for (int i=0; i<links; i++) {
+				// skewed, like real in-link counts
+				int page = (int) (urls * Math.pow(random.nextDouble(), 3));
+				frontier.offer("https://en.wikipedia.org/wiki/Page" + page);
+			}
+			long offered = System.nanoTime();
+			int n = frontier.size();
+			while (frontier.poll() != null);
+			long polled = System.nanoTime();
+
+			System.out.printf("%d links to %d urls: %.0f ns/offer, %.0f ns/poll%n",
+					links, n, (offered - start) / (double) links, (polled - offered) / (double) n);
+		}
+	}
+
+	/**
+	 * True if the entry at `i` should come out before the one at `j`.
+	 */
+	private boolean before(int i, int j) {
+		Entry a = heap[i];
+		Entry b = heap[j];
+		if (a.links != b.links) {
+			return a.links > b.links;
+		}
+		return a.order < b.order;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(i, parent)) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size) {
+				break;
+			}
+			int right = left + 1;
+			int child = (right < size && before(right, left)) ? right : left;
+			if (!before(child, i)) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		Entry tmp = heap[i];
+		heap[i] = heap[j];
+		heap[j] = tmp;
+		heap[i].position = i;
+		heap[j].position = j;
+	}
+}
@@ -0,0 +1,81 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PriorityFrontierTest {
+
+	private PriorityFrontier frontier;
+
+	@Before
+	public void setUp() {
+		frontier = new PriorityFrontier();
+	}
+
+	@Test
+	public void testMostLinkedFirst() {
+		assertThat(frontier.offer("a"), is(true));
+		assertThat(frontier.offer("b"), is(true));
+		assertThat(frontier.offer("b"), is(false));
+		frontier.offer("c");
+		frontier.offer("c");
+		frontier.offer("c");
+
+		assertThat(frontier.size(), is(3));
+		assertThat(frontier.inLinks("c"), is(3));
+		assertThat(frontier.poll(), is("c"));
+		assertThat(frontier.poll(), is("b"));
+		assertThat(frontier.poll(), is("a"));
+		assertThat(frontier.poll(), nullValue());
+	}
+
+	@Test
+	public void testTiesInOrderFound() {
+		for (String url: new String[] {"d", "a", "c", "b"}) {
+			frontier.offer(url);
+		}
+		assertThat(frontier.poll(), is("d"));
+		assertThat(frontier.poll(), is("a"));
+		assertThat(frontier.poll(), is("c"));
+		assertThat(frontier.poll(), is("b"));
+	}
+
+	@Test
+	public void testPolledNotQueuedAgain() {
+		frontier.offer("a");
+		assertThat(frontier.poll(), is("a"));
+		assertThat(frontier.offer("a"), is(false));
+		assertThat(frontier.isEmpty(), is(true));
+		assertThat(frontier.inLinks("a"), is(2));
+		assertThat(frontier.urlsSeen(), is(1));
+	}
+
+	@Test
+	public void testRandomLinks() {
+		Random random = new Random(17);
+		Map<String, Integer> links = new HashMap<String, Integer>();
+		for (int i=0; i<100000; i++) {
+			// skewed, so some pages get many links
+			String url = "page" + (int) Math.abs(random.nextGaussian() * 2000);
+			frontier.offer(url);
+			links.merge(url, 1, Integer::sum);
+		}
+		assertThat(frontier.size(), is(links.size()));
+
+		int previous = Integer.MAX_VALUE;
+		String url;
+		while ((url = frontier.poll()) != null) {
+			int count = links.remove(url);
+			assertThat(count <= previous, is(true));
+			previous = count;
+		}
+		assertThat(links.isEmpty(), is(true));
+	}
+}
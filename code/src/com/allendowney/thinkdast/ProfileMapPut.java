@@ -1,7 +1,21 @@
 package com.allendowney.thinkdast;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import org.jfree.data.xy.XYSeries;
 
@@ -15,6 +29,12 @@ public class ProfileMapPut {
 	public static void main(String[] args) {
 //		profileHashMapPut();
 //		profileMyHashMapPut();
+//		profileMyRobinHoodMapPut();
+//		compareMaps();
+//		comparePutLatency();
+//		compareConcurrentMaps();
+//		comparePrimitiveMaps();
+//		compareGcPauses(50000000);
 		profileMyFixedHashMapPut();
 	}
 
@@ -85,6 +105,385 @@ public class ProfileMapPut {
 		runProfiler("MyFixedHashMap put", timeable, startN, endMillis);
 	}
 	
+	/**
+	 * Characterize the run time of putting a key in MyRobinHoodMap
+	 */
+	public static void profileMyRobinHoodMapPut() {
+		Timeable timeable = new Timeable() {
+			Map<String, Integer> map;
+
+			public void setup(int n) {
+				map = new MyRobinHoodMap<String, Integer>();
+			}
+
+			public void timeMe(int n) {
+				for (int i=0; i<n; i++) {
+					map.put(String.format("%10d", i), i);
+				}
+			}
+		};
+		int startN = 8000;
+		int endMillis = 1000;
+		runProfiler("MyRobinHoodMap put", timeable, startN, endMillis);
+	}
+
+	/**
+	 * Prints the time per put and per get for each map, without plotting.
+	 *
+	 * Each measurement is repeated until the JIT has settled, and the best
+	 * round is reported. Keys are looked up in a shuffled order: consecutive
+	 * keys have consecutive String hash codes, which land in consecutive
+	 * buckets of a HashMap, and looking them up in order would mostly measure
+	 * the cache. MyHashMap adds up the sizes of all its buckets on every put,
+	 * so it only gets the small size.
+	 */
+	public static void compareMaps() {
+		Map<String, Supplier<Map<String, Integer>>> makers = new LinkedHashMap<String, Supplier<Map<String, Integer>>>();
+		makers.put("HashMap", HashMap::new);
+		makers.put("MyHashMap", MyHashMap::new);
+		makers.put("MyFixedHashMap", MyFixedHashMap::new);
+		makers.put("MyRobinHoodMap", MyRobinHoodMap::new);
+
+		for (int n: new int[] {10000, 1000000}) {
+			String[] keys = new String[n];
+			for (int i=0; i<n; i++) {
+				keys[i] = String.format("%10d", i);
+			}
+			String[] lookups = keys.clone();
+			Collections.shuffle(Arrays.asList(lookups), new Random(1));
+			for (Map.Entry<String, Supplier<Map<String, Integer>>> maker: makers.entrySet()) {
+				if (n > 10000 && maker.getKey().equals("MyHashMap")) {
+					continue;
+				}
+				double bestPut = Double.MAX_VALUE;
+				double bestGet = Double.MAX_VALUE;
+				long found = 0;
+				for (int round=0; round<7; round++) {
+					Map<String, Integer> map = maker.getValue().get();
+					long start = System.nanoTime();
+					for (int i=0; i<n; i++) {
+						map.put(keys[i], i);
+					}
+					long put = System.nanoTime() - start;
+
+					start = System.nanoTime();
+					for (int i=0; i<n; i++) {
+						found += map.get(lookups[i]);
+					}
+					long get = System.nanoTime() - start;
+					bestPut = Math.min(bestPut, put / (double) n);
+					bestGet = Math.min(bestGet, get / (double) n);
+				}
+				System.out.printf("%-15s n=%-8d put %6.1f ns, get %6.1f ns (%d)%n",
+						maker.getKey(), n, bestPut, bestGet, found);
+			}
+		}
+	}
+
+	/**
+	 * Prints the distribution of the time each put takes, with rehashing all
+	 * at once (MyFixedHashMap) and a few buckets at a time (MyIncrementalHashMap).
+	 *
+	 * The mean is about the same either way; what changes is the tail. Each
+	 * run starts after a full GC, but collections during the run still show
+	 * up in the maximum, so give it a young generation big enough to hold a
+	 * whole run, e.g. -Xms3g -Xmx3g -Xmn2g.
+	 */
+	public static void comparePutLatency() {
+		int n = 1000000;
+		String[] keys = new String[n];
+		for (int i=0; i<n; i++) {
+			keys[i] = String.format("%10d", i);
+		}
+		Map<String, Supplier<Map<String, Integer>>> makers = new LinkedHashMap<String, Supplier<Map<String, Integer>>>();
+		makers.put("MyFixedHashMap", MyFixedHashMap::new);
+		makers.put("MyIncrementalHashMap(1)", () -> new MyIncrementalHashMap<String, Integer>(1));
+		makers.put("MyIncrementalHashMap(4)", () -> new MyIncrementalHashMap<String, Integer>(4));
+
+		LatencyHistogram latency = new LatencyHistogram();
+		for (int round=0; round<2; round++) {
+			for (Map.Entry<String, Supplier<Map<String, Integer>>> maker: makers.entrySet()) {
+				Map<String, Integer> map = maker.getValue().get();
+				latency.reset();
+				System.gc();
+				for (int i=0; i<n; i++) {
+					long start = System.nanoTime();
+					map.put(keys[i], i);
+					latency.record(System.nanoTime() - start);
+				}
+				System.out.printf("%-24s %s p99.9=%.1fus%n", maker.getKey(), latency,
+						latency.percentile(0.999) / 1e3);
+			}
+		}
+	}
+
+	/**
+	 * Prints the time per put and get, and the heap used per entry, for
+	 * IntIntMap and for maps from Integer to Integer.
+	 *
+	 * The boxed maps pay for an Integer per key and value as well as their
+	 * entries or buckets. Memory is the growth of the heap after a full GC,
+	 * so run it with a fixed heap, e.g. -Xms2g -Xmx2g. MyHashMap adds up the
+	 * sizes of all its buckets on every put, so it only gets the small size.
+	 */
+	public static void comparePrimitiveMaps() {
+		Map<String, Supplier<Map<Integer, Integer>>> makers = new LinkedHashMap<String, Supplier<Map<Integer, Integer>>>();
+		makers.put("HashMap", HashMap::new);
+		makers.put("MyHashMap", MyHashMap::new);
+		makers.put("MyFixedHashMap", MyFixedHashMap::new);
+
+		for (int n: new int[] {10000, 1000000}) {
+			Random random = new Random(1);
+			int[] keys = new int[n];
+			for (int i=0; i<n; i++) {
+				keys[i] = random.nextInt();
+			}
+			int[] lookups = keys.clone();
+			for (int i=n-1; i>0; i--) {
+				int j = random.nextInt(i + 1);
+				int t = lookups[i];
+				lookups[i] = lookups[j];
+				lookups[j] = t;
+			}
+
+			double bestPut = Double.MAX_VALUE;
+			double bestGet = Double.MAX_VALUE;
+			long found = 0;
+			for (int round=0; round<7; round++) {
+				long start = System.nanoTime();
+				IntIntMap map = new IntIntMap();
+				for (int i=0; i<n; i++) {
+					map.put(keys[i], i);
+				}
+				long put = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i=0; i<n; i++) {
+					found += map.get(lookups[i]);
+				}
+				long get = System.nanoTime() - start;
+				bestPut = Math.min(bestPut, put / (double) n);
+				bestGet = Math.min(bestGet, get / (double) n);
+			}
+			long before = usedMemory();
+			IntIntMap kept = new IntIntMap();
+			for (int i=0; i<n; i++) {
+				kept.put(keys[i], i);
+			}
+			double bytes = (usedMemory() - before) / (double) kept.size();
+			System.out.printf("%-15s n=%-8d put %6.1f ns, get %6.1f ns, %5.1f bytes/entry (%d)%n",
+					"IntIntMap", n, bestPut, bestGet, bytes, found + kept.size());
+			kept = null;
+
+			for (Map.Entry<String, Supplier<Map<Integer, Integer>>> maker: makers.entrySet()) {
+				if (n > 10000 && maker.getKey().equals("MyHashMap")) {
+					continue;
+				}
+				bestPut = Double.MAX_VALUE;
+				bestGet = Double.MAX_VALUE;
+				found = 0;
+				for (int round=0; round<7; round++) {
+					long start = System.nanoTime();
+					Map<Integer, Integer> map = maker.getValue().get();
+					for (int i=0; i<n; i++) {
+						map.put(keys[i], i);
+					}
+					long put = System.nanoTime() - start;
+
+					start = System.nanoTime();
+					for (int i=0; i<n; i++) {
+						found += map.get(lookups[i]);
+					}
+					long get = System.nanoTime() - start;
+					bestPut = Math.min(bestPut, put / (double) n);
+					bestGet = Math.min(bestGet, get / (double) n);
+				}
+				before = usedMemory();
+				Map<Integer, Integer> boxed = maker.getValue().get();
+				for (int i=0; i<n; i++) {
+					boxed.put(keys[i], i);
+				}
+				bytes = (usedMemory() - before) / (double) boxed.size();
+				System.out.printf("%-15s n=%-8d put %6.1f ns, get %6.1f ns, %5.1f bytes/entry (%d)%n",
+						maker.getKey(), n, bestPut, bestGet, bytes, found + boxed.size());
+			}
+		}
+	}
+
+	/**
+	 * Prints the GC time spent building a dictionary of `n` URL-like keys,
+	 * and how long a full GC takes while it is live, for on-heap maps and
+	 * OffHeapMap.
+	 *
+	 * A full GC has to trace every live object, so with the on-heap maps it
+	 * takes time in proportion to n; the off-heap map leaves only a few
+	 * buffers on the heap. The on-heap maps need about 150 bytes of heap per
+	 * entry, and OffHeapMap needs direct memory for its table and keys, so
+	 * size -Xmx and -XX:MaxDirectMemorySize to fit n.
+	 */
+	public static void compareGcPauses(int n) {
+		Map<String, Supplier<Map<String, Long>>> makers = new LinkedHashMap<String, Supplier<Map<String, Long>>>();
+		makers.put("HashMap", HashMap::new);
+		makers.put("MyRobinHoodMap", MyRobinHoodMap::new);
+
+		for (Map.Entry<String, Supplier<Map<String, Long>>> maker: makers.entrySet()) {
+			usedMemory();
+			long[] before = gcTotals();
+			long start = System.nanoTime();
+			Map<String, Long> map = maker.getValue().get();
+			for (int i=0; i<n; i++) {
+				map.put("https://en.wikipedia.org/wiki/Term_" + i, (long) i);
+			}
+			printGcPauses(maker.getKey(), n, start, before, map.size());
+			// keep the map live through the full GCs
+			Reference.reachabilityFence(map);
+			map = null;
+		}
+
+		usedMemory();
+		long[] before = gcTotals();
+		long start = System.nanoTime();
+		try (OffHeapMap map = OffHeapMap.allocate(n)) {
+			for (int i=0; i<n; i++) {
+				map.put("https://en.wikipedia.org/wiki/Term_" + i, i);
+			}
+			printGcPauses("OffHeapMap", n, start, before, map.size());
+			System.out.printf("%-15s %.1f MB off the heap%n", "", map.offHeapBytes() / 1e6);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void printGcPauses(String name, int n, long start, long[] before, long size) {
+		long build = System.nanoTime() - start;
+		long[] after = gcTotals();
+		// the average of three full GCs with the map still live
+		long fullStart = System.nanoTime();
+		long used = usedMemory();
+		double fullPause = (System.nanoTime() - fullStart) / 3e6;
+		System.out.printf("%-15s n=%-9d build %6.1f s, %4d GCs %7.1f s, full GC %7.1f ms, heap %7.1f MB (%d)%n",
+				name, n, build / 1e9, after[0] - before[0], (after[1] - before[1]) / 1e3,
+				fullPause, used / 1e6, size);
+	}
+
+	/**
+	 * Returns the number of collections so far, and the ms they took.
+	 */
+	private static long[] gcTotals() {
+		long[] totals = new long[2];
+		for (GarbageCollectorMXBean bean: ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(0, bean.getCollectionCount());
+			totals[1] += Math.max(0, bean.getCollectionTime());
+		}
+		return totals;
+	}
+
+	/**
+	 * Returns the bytes in use on the heap, after a full GC.
+	 */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Prints the throughput of maps shared by 1 to 32 threads, for a few
+	 * fractions of reads.
+	 *
+	 * Each thread picks random keys from twice as many as the map starts
+	 * with; a write is a put or a remove, with equal odds, so the size stays
+	 * about the same. With fewer cores than threads, the numbers show the
+	 * cost of locking and contention, not how well a map scales.
+	 */
+	public static void compareConcurrentMaps() {
+		Map<String, Supplier<Map<String, Integer>>> makers = new LinkedHashMap<String, Supplier<Map<String, Integer>>>();
+		makers.put("synchronized MyFixedHashMap", () -> Collections.synchronizedMap(new MyFixedHashMap<String, Integer>()));
+		makers.put("ConcurrentHashMap", ConcurrentHashMap::new);
+		makers.put("MyConcurrentHashMap", MyConcurrentHashMap::new);
+
+		int n = 100000;
+		String[] keys = new String[2 * n];
+		for (int i=0; i<keys.length; i++) {
+			keys[i] = String.format("%10d", i);
+		}
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+		for (double reads: new double[] {0.5, 0.9, 0.99}) {
+			for (Map.Entry<String, Supplier<Map<String, Integer>>> maker: makers.entrySet()) {
+				StringBuilder line = new StringBuilder(String.format("%-28s reads=%2.0f%%", maker.getKey(), reads * 100));
+				for (int threads: new int[] {1, 2, 4, 8, 16, 32}) {
+					Map<String, Integer> map = maker.getValue().get();
+					for (int i=0; i<n; i++) {
+						map.put(keys[i], i);
+					}
+					// once to warm up, then the one we keep
+					runConcurrent(map, keys, threads, reads, 100);
+					double opsPerSecond = runConcurrent(map, keys, threads, reads, 300);
+					line.append(String.format(" %2d:%6.2fM", threads, opsPerSecond / 1e6));
+				}
+				System.out.println(line);
+			}
+		}
+	}
+
+	/**
+	 * Runs `threads` threads against `map` for `millis` ms; returns operations per second.
+	 */
+	private static double runConcurrent(Map<String, Integer> map, String[] keys, int threads,
+			double reads, long millis) {
+		long[] counts = new long[threads];
+		AtomicBoolean stop = new AtomicBoolean();
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t=0; t<threads; t++) {
+			int id = t;
+			workers[t] = new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(id);
+				long count = 0;
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (!stop.get()) {
+					for (int i=0; i<100; i++) {
+						String key = keys[random.nextInt(keys.length)];
+						double r = random.nextDouble();
+						if (r < reads) {
+							map.get(key);
+						} else if (r < (1 + reads) / 2) {
+							map.put(key, i);
+						} else {
+							map.remove(key);
+						}
+					}
+					count += 100;
+				}
+				counts[id] = count;
+			});
+			workers[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		try {
+			Thread.sleep(millis);
+			stop.set(true);
+			for (Thread worker: workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long elapsed = System.nanoTime() - begin;
+		long total = 0;
+		for (long count: counts) {
+			total += count;
+		}
+		return total * 1e9 / elapsed;
+	}
+
 	/**
 	 * Runs the profiles and displays results.
 	 * 
@@ -0,0 +1,33 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+
+/**
+ * Replays a crawl over the local corpus as an end-to-end benchmark of
+ * fetch, parse and index, without the network or the rate limit.
+ *
+ * Usage: ProfileReplayCrawl [workers] [pages] [source URL]
+ *
+ */
+public class ProfileReplayCrawl {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+		int limit = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+		String source = args.length > 2 ? args[2] : "https://en.wikipedia.org/wiki/Programming_language";
+
+		// the first rounds warm up the JIT; the last one is the measurement
+		for (int round=0; round<3; round++) {
+			WikiCrawler crawler = WikiCrawler.replay(source, new Index());
+			crawler.crawlConcurrently(workers, limit);
+			System.out.println("round " + round + ", " + workers + " workers:");
+			System.out.println(crawler.getMetrics().report());
+			System.out.println();
+		}
+	}
+}
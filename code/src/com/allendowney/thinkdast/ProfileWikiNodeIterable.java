@@ -0,0 +1,87 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+
+/**
+ * Compares the throughput of WikiNodeIterable with the stack-based traversal
+ * that copies and reverses the children of every node.
+ *
+ */
+public class ProfileWikiNodeIterable {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = WikiFetcher.getInstance();
+		Elements paragraphs = wf.readWikipedia("https://en.wikipedia.org/wiki/Philosophy");
+		int rounds = 2000;
+
+		for (int warmup=0; warmup<3; warmup++) {
+			long start = System.nanoTime();
+			long nodes = 0;
+			for (int i=0; i<rounds; i++) {
+				for (Element para: paragraphs) {
+					nodes += copyingDFS(para);
+				}
+			}
+			report("copying stack", nodes, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			nodes = 0;
+			for (int i=0; i<rounds; i++) {
+				for (Element para: paragraphs) {
+					for (Node node: new WikiNodeIterable(para)) {
+						nodes++;
+					}
+				}
+			}
+			report("WikiNodeIterable", nodes, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			nodes = 0;
+			for (int i=0; i<rounds; i++) {
+				for (Element para: paragraphs) {
+					for (TextNode node: WikiNodeIterable.textNodes(para)) {
+						nodes++;
+					}
+				}
+			}
+			report("textNodes", nodes, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * The traversal WikiNodeIterable used to do: returns the number of nodes visited.
+	 */
+	private static long copyingDFS(Node root) {
+		long count = 0;
+		Deque<Node> stack = new ArrayDeque<Node>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			count++;
+			List<Node> nodes = new ArrayList<Node>(node.childNodes());
+			Collections.reverse(nodes);
+			for (Node child: nodes) {
+				stack.push(child);
+			}
+		}
+		return count;
+	}
+
+	private static void report(String label, long nodes, long nanos) {
+		System.out.printf("%-18s %10d nodes %8.1f M nodes/sec%n", label, nodes, nodes * 1000.0 / nanos);
+	}
+}
@@ -0,0 +1,394 @@
+package com.allendowney.thinkdast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.jsoup.select.Elements;
+
+import com.allendowney.thinkdast.constants.WikiConstants;
+
+/**
+ * Decides which indexed pages to fetch again, given a budget of fetches.
+ *
+ * For every page it remembers a hash of the content and when it was fetched,
+ * along with how many times it has been fetched and how many of those times it
+ * had changed. From that it estimates how often the page changes, assuming
+ * changes arrive at random (a Poisson process). A fetch only shows whether the
+ * page changed at least once since the last one, so the rate is estimated from
+ * the fraction of fetches that saw a change: with n intervals of mean length I,
+ * X of which saw a change, the rate is -ln((n - X + 0.5) / (n + 0.5)) / I
+ * (Cho and Garcia-Molina's estimator). A prior of half a change in 30 days
+ * counts as one more interval, so that a page fetched once or twice is not
+ * judged on one observation.
+ *
+ * The probability that a page has changed since it was last fetched is then
+ * p = 1 - exp(-rate * elapsed). Fetching the page makes it fresh for a while,
+ * but a page that changes several times a day is stale again almost at once,
+ * so the pages most likely to have changed are not the best use of a fetch.
+ * Instead each batch goes to the pages where a fetch adds the most expected
+ * fresh time over the horizon until they are looked at again, which is
+ * p * (1 - exp(-rate * horizon)) / rate.
+ *
+ * WikiCrawler and CrawlPipeline record every page they index in the scheduler
+ * they are given (see setRecrawlScheduler), and save() and load() keep what it
+ * has learned between runs.
+ *
+ */
+public class RecrawlScheduler {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	// the prior: an interval of PRIOR_MILLIS in which the page changed PRIOR_CHANGES times
+	private static final double PRIOR_CHANGES = 0.5;
+	private static final long PRIOR_MILLIS = 30 * DAY;
+
+	/**
+	 * What we know about one page.
+	 */
+	private static class PageState {
+		long hash;
+		long firstFetch;
+		long lastFetch;
+		int fetches;
+		int changes;
+	}
+
+	private final Map<String, PageState> pages = new HashMap<String, PageState>();
+
+	// how long until the next fetch of a page, roughly
+	private long horizonMillis = DAY;
+
+	/**
+	 * Sets how far ahead the value of a fetch is counted.
+	 *
+	 * A good value is the time it takes the budget to cover every page once.
+	 *
+	 * @param millis
+	 */
+	public synchronized void setHorizon(long millis) {
+		this.horizonMillis = millis;
+	}
+
+	/**
+	 * Records a fetch of a page.
+	 *
+	 * @param url
+	 * @param contentHash  Hash of the content, e.g. from contentHash().
+	 * @param fetchTime    Milliseconds since the epoch.
+	 * @return true if the content is new or differs from the last fetch.
+	 */
+	public synchronized boolean record(String url, long contentHash, long fetchTime) {
+		PageState state = pages.get(url);
+		if (state == null) {
+			state = new PageState();
+			state.firstFetch = fetchTime;
+			state.lastFetch = fetchTime;
+			state.hash = contentHash;
+			state.fetches = 1;
+			pages.put(url, state);
+			return true;
+		}
+		boolean changed = state.hash != contentHash;
+		if (changed) {
+			state.changes++;
+		}
+		state.hash = contentHash;
+		state.lastFetch = Math.max(state.lastFetch, fetchTime);
+		state.fetches++;
+		return changed;
+	}
+
+	/**
+	 * Returns the estimated number of changes per day of a page, or NaN if it was never fetched.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public synchronized double changesPerDay(String url) {
+		PageState state = pages.get(url);
+		return state == null ? Double.NaN : rate(state) * DAY;
+	}
+
+	/**
+	 * Returns the probability that a page has changed since it was last fetched.
+	 *
+	 * @param url
+	 * @param now
+	 * @return
+	 */
+	public synchronized double probabilityChanged(String url, long now) {
+		PageState state = pages.get(url);
+		return state == null ? 1.0 : probabilityChanged(state, now);
+	}
+
+	/**
+	 * Returns the estimated changes per millisecond.
+	 */
+	private static double rate(PageState state) {
+		// the prior counts as one more interval
+		int intervals = state.fetches;
+		double changes = state.changes + PRIOR_CHANGES;
+		double meanInterval = (state.lastFetch - state.firstFetch + PRIOR_MILLIS) / intervals;
+		return -Math.log((intervals - changes + 0.5) / (intervals + 0.5)) / meanInterval;
+	}
+
+	private static double probabilityChanged(PageState state, long now) {
+		return -Math.expm1(-rate(state) * (now - state.lastFetch));
+	}
+
+	/**
+	 * Returns the fresh time, in milliseconds, that fetching a page now is expected to add over the horizon.
+	 */
+	private double value(PageState state, long now) {
+		double rate = rate(state);
+		return probabilityChanged(state, now) * -Math.expm1(-rate * horizonMillis) / rate;
+	}
+
+	/**
+	 * Returns the `budget` pages where a fetch adds the most expected freshness, best first.
+	 *
+	 * @param budget
+	 * @param now
+	 * @return
+	 */
+	public synchronized List<String> nextBatch(int budget, long now) {
+		// keep the best `budget` pages in a min-heap
+		PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<Map.Entry<String, Double>>(
+				Math.max(budget, 1), Map.Entry.comparingByValue());
+		for (Map.Entry<String, PageState> entry: pages.entrySet()) {
+			double p = value(entry.getValue(), now);
+			if (best.size() < budget) {
+				best.add(Map.entry(entry.getKey(), p));
+			} else if (budget > 0 && p > best.peek().getValue()) {
+				best.poll();
+				best.add(Map.entry(entry.getKey(), p));
+			}
+		}
+		List<String> batch = new ArrayList<String>(best.size());
+		while (!best.isEmpty()) {
+			batch.add(best.poll().getKey());
+		}
+		Collections.reverse(batch);
+		return batch;
+	}
+
+	/**
+	 * Writes what the scheduler knows about every page to `file`, replacing it atomically.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public synchronized void save(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeLong(horizonMillis);
+			out.writeInt(pages.size());
+			for (Map.Entry<String, PageState> entry: pages.entrySet()) {
+				PageState state = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(state.hash);
+				out.writeLong(state.firstFetch);
+				out.writeLong(state.lastFetch);
+				out.writeInt(state.fetches);
+				out.writeInt(state.changes);
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a scheduler written by save(), or makes an empty one if `file` does not exist.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static RecrawlScheduler load(Path file) throws IOException {
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		if (!Files.exists(file)) {
+			return scheduler;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			scheduler.horizonMillis = in.readLong();
+			int n = in.readInt();
+			for (int i=0; i<n; i++) {
+				String url = in.readUTF();
+				PageState state = new PageState();
+				state.hash = in.readLong();
+				state.firstFetch = in.readLong();
+				state.lastFetch = in.readLong();
+				state.fetches = in.readInt();
+				state.changes = in.readInt();
+				scheduler.pages.put(url, state);
+			}
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Returns the number of pages the scheduler knows about.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return pages.size();
+	}
+
+	/**
+	 * Hashes the counts of a page; the order of the terms does not matter.
+	 *
+	 * @param counter
+	 * @return
+	 */
+	public static long contentHash(TermCounter counter) {
+		long hash = 0;
+		for (String term: counter.keySet()) {
+			hash += Hashing.hash(term + '\u0000' + counter.get(term));
+		}
+		return hash;
+	}
+
+	/**
+	 * Fetches the next batch and updates the index with the pages that changed.
+	 *
+	 * @param budget  Number of pages to fetch.
+	 * @param source  Where to fetch pages from.
+	 * @param index   The index to update.
+	 * @return number of pages that had changed.
+	 */
+	public int recrawl(int budget, PageSource source, PageIndex index) {
+		int changed = 0;
+		for (String url: nextBatch(budget, System.currentTimeMillis())) {
+			Elements paragraphs;
+			try {
+				paragraphs = source.getParagraphs(url);
+			} catch (IOException e) {
+				System.err.println("Failed to recrawl " + url + ": " + e.getMessage());
+				continue;
+			}
+			TermCounter counter = new TermCounter(url);
+			counter.processElements(paragraphs);
+			if (record(url, contentHash(counter), System.currentTimeMillis())) {
+				synchronized (index) {
+					index.updatePage(counter);
+				}
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Simulates a year of daily re-crawls and returns the mean freshness.
+	 *
+	 * Each page changes at its own hidden rate. Every day `budget` pages are
+	 * fetched, either the ones this scheduler picks or, if `adaptive` is false,
+	 * the next ones in round-robin order. At the end of each day the freshness is
+	 * the fraction of pages whose indexed copy is current.
+	 *
+	 * @param urls       The pages; the first fetch of each is on day 0.
+	 * @param dailyRate  Hidden changes per day of each page.
+	 * @param budget     Fetches per day.
+	 * @param adaptive
+	 * @param seed
+	 * @return mean freshness over the year.
+	 */
+	public static double simulate(List<String> urls, double[] dailyRate, int budget, boolean adaptive, long seed) {
+		Random random = new Random(seed);
+		int n = urls.size();
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		int[] version = new int[n];
+		int[] indexed = new int[n];
+
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		scheduler.setHorizon(DAY * n / budget);
+		for (int i=0; i<n; i++) {
+			ids.put(urls.get(i), i);
+			scheduler.record(urls.get(i), versionHash(i, 0), 0);
+		}
+
+		int days = 365;
+		int next = 0;
+		double freshness = 0;
+		for (int day=1; day<=days; day++) {
+			long now = day * DAY;
+			for (int i=0; i<n; i++) {
+				// the chance of at least one change in a day
+				if (random.nextDouble() < -Math.expm1(-dailyRate[i])) {
+					version[i]++;
+				}
+			}
+			List<String> batch;
+			if (adaptive) {
+				batch = scheduler.nextBatch(budget, now);
+			} else {
+				batch = new ArrayList<String>(budget);
+				for (int j=0; j<budget; j++) {
+					batch.add(urls.get(next));
+					next = (next + 1) % n;
+				}
+			}
+			for (String url: batch) {
+				int i = ids.get(url);
+				scheduler.record(url, versionHash(i, version[i]), now);
+				indexed[i] = version[i];
+			}
+			int fresh = 0;
+			for (int i=0; i<n; i++) {
+				if (indexed[i] == version[i]) {
+					fresh++;
+				}
+			}
+			freshness += fresh / (double) n;
+		}
+		return freshness / days;
+	}
+
+	private static long versionHash(int page, int version) {
+		return Hashing.hash(page + "/" + version);
+	}
+
+	/**
+	 * Compares adaptive and round-robin re-crawling of the stored pages plus
+	 * synthetic ones, with change rates from once a year to twice a day.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int n = 2000;
+		List<String> urls = new ArrayList<String>();
+		for (String page: WikiConstants.STORED_PAGES) {
+			urls.add(WikiConstants.WIKI_ORIGIN_EN + WikiConstants.WIKI_PAGE_PREFIX + page);
+		}
+		while (urls.size() < n) {
+			urls.add("https://en.wikipedia.org/wiki/Synthetic_" + urls.size());
+		}
+		Random random = new Random(3);
+		double[] rates = new double[n];
+		for (int i=0; i<n; i++) {
+			// log-uniform between once a year and twice a day
+			rates[i] = Math.exp(Math.log(1 / 365.0) + random.nextDouble() * Math.log(2 * 365.0));
+		}
+
+		for (int budget: new int[] {20, 100, 400}) {
+			double uniform = simulate(urls, rates, budget, false, 7);
+			double adaptive = simulate(urls, rates, budget, true, 7);
+			System.out.printf("%4d fetches/day: round-robin freshness %.3f, adaptive %.3f "
+					+ "(%.2f vs %.2f fresh pages per fetch)%n",
+					budget, uniform, adaptive, uniform * n / budget, adaptive * n / budget);
+		}
+	}
+}
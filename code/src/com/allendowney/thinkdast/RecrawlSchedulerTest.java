@@ -0,0 +1,146 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecrawlSchedulerTest {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRecord() {
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		assertThat(scheduler.record("a", 1, 0), is(true));
+		assertThat(scheduler.record("a", 1, DAY), is(false));
+		assertThat(scheduler.record("a", 2, 2 * DAY), is(true));
+		assertThat(scheduler.size(), is(1));
+	}
+
+	@Test
+	public void testChangesPerDay() {
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		scheduler.record("fast", 0, 0);
+		scheduler.record("slow", 0, 0);
+		for (int day=1; day<=10; day++) {
+			scheduler.record("fast", day, day * DAY);
+			scheduler.record("slow", 0, day * DAY);
+		}
+		assertThat(scheduler.changesPerDay("fast") > 0.5, is(true));
+		assertThat(scheduler.changesPerDay("slow") < 0.05, is(true));
+		assertThat(Double.isNaN(scheduler.changesPerDay("unknown")), is(true));
+		assertThat(scheduler.probabilityChanged("fast", 11 * DAY) > scheduler.probabilityChanged("slow", 11 * DAY), is(true));
+	}
+
+	@Test
+	public void testNextBatch() {
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		scheduler.setHorizon(10 * DAY);
+		// one page changes between every weekly fetch, the other never
+		scheduler.record("weekly", 0, 0);
+		scheduler.record("static", 0, 0);
+		for (int week=1; week<=10; week++) {
+			scheduler.record("weekly", week, week * 7 * DAY);
+			scheduler.record("static", 0, week * 7 * DAY);
+		}
+		List<String> batch = scheduler.nextBatch(1, 80 * DAY);
+		assertThat(batch, is(Arrays.asList("weekly")));
+		assertThat(scheduler.nextBatch(5, 80 * DAY).size(), is(2));
+		assertThat(scheduler.nextBatch(0, 80 * DAY).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testSimulate() {
+		int n = 200;
+		List<String> urls = new ArrayList<String>();
+		double[] rates = new double[n];
+		for (int i=0; i<n; i++) {
+			urls.add("page" + i);
+			// half the pages never change
+			rates[i] = i % 2 == 0 ? 0.5 : 0.0;
+		}
+		double uniform = RecrawlScheduler.simulate(urls, rates, 20, false, 1);
+		double adaptive = RecrawlScheduler.simulate(urls, rates, 20, true, 1);
+		assertThat(adaptive > uniform, is(true));
+	}
+
+	@Test
+	public void testRecrawl() throws Exception {
+		final String url = "https://en.wikipedia.org/wiki/Example";
+		final String[] text = {"old words here"};
+		PageSource source = new PageSource() {
+			@Override
+			public Elements getParagraphs(String u) {
+				Element p = new Document(u).appendElement("p");
+				p.text(text[0]);
+				return new Elements(p);
+			}
+		};
+
+		Index index = new Index();
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		assertThat(scheduler.recrawl(1, source, index), is(0));
+
+		TermCounter counter = new TermCounter(url);
+		counter.processElements(source.getParagraphs(url));
+		index.indexPage(counter);
+		scheduler.record(url, RecrawlScheduler.contentHash(counter), 0);
+
+		text[0] = "new words here";
+		assertThat(scheduler.recrawl(1, source, index), is(1));
+		assertThat(index.get("new").size(), is(1));
+		assertThat(index.get("old"), is(nullValue()));
+		assertThat(index.get("words").size(), is(1));
+
+		assertThat(scheduler.recrawl(1, source, index), is(0));
+	}
+
+	@Test
+	public void testSaveLoad() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("recrawl");
+		assertThat(RecrawlScheduler.load(file).size(), is(0));
+
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		scheduler.setHorizon(10 * DAY);
+		scheduler.record("a", 0, 0);
+		scheduler.record("a", 1, 7 * DAY);
+		scheduler.record("b", 0, 0);
+		scheduler.save(file);
+
+		RecrawlScheduler loaded = RecrawlScheduler.load(file);
+		assertThat(loaded.size(), is(2));
+		assertThat(loaded.changesPerDay("a"), is(scheduler.changesPerDay("a")));
+		assertThat(loaded.nextBatch(2, 20 * DAY), is(scheduler.nextBatch(2, 20 * DAY)));
+		assertThat(loaded.record("a", 1, 14 * DAY), is(false));
+	}
+
+	@Test
+	public void testFedByCrawler() throws Exception {
+		RecrawlScheduler scheduler = new RecrawlScheduler();
+		WikiCrawler wc = new WikiCrawler("https://en.wikipedia.org/wiki/Programming_language", new Index());
+		wc.setRecrawlScheduler(scheduler);
+		long indexed = wc.crawlConcurrently(2, 10);
+		assertThat(scheduler.size(), is((int) indexed));
+
+		scheduler = new RecrawlScheduler();
+		CrawlPipeline pipeline = CrawlPipeline.create("https://en.wikipedia.org/wiki/Programming_language", new Index(), new BoundedFrontier());
+		pipeline.setRecrawlScheduler(scheduler);
+		indexed = pipeline.run(10);
+		assertThat(scheduler.size(), is((int) indexed));
+		assertThat(scheduler.probabilityChanged("https://en.wikipedia.org/wiki/Programming_language", System.currentTimeMillis()) < 0.01, is(true));
+	}
+}
@@ -0,0 +1,79 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import com.allendowney.thinkdast.constants.ResourcesConstants;
+import com.allendowney.thinkdast.utils.ResourcesUtility;
+
+/**
+ * A PageCache that keeps each page as a file under src/resources, the way
+ * ResourcesUtility.downloadWikiPage does, with its validators in a ".meta" file next to it.
+ *
+ */
+public class ResourcePageCache implements PageCache {
+
+	private static final String META_SUFFIX = ".meta";
+
+	private final ResourcesUtility resourcesUtility = new ResourcesUtility();
+	private final Path dir;
+
+	public ResourcePageCache() {
+		this(Path.of("src", ResourcesConstants.WIKI_PATH));
+	}
+
+	/**
+	 * @param dir  Directory the pages are stored in.
+	 */
+	public ResourcePageCache(Path dir) {
+		this.dir = dir;
+	}
+
+	@Override
+	public CachedPage get(String url) throws IOException {
+		Path file = pathFor(url);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		String html = Files.readString(file, StandardCharsets.UTF_8);
+
+		Properties meta = new Properties();
+		Path metaFile = metaPathFor(file);
+		if (Files.exists(metaFile)) {
+			try (Reader reader = Files.newBufferedReader(metaFile, StandardCharsets.UTF_8)) {
+				meta.load(reader);
+			}
+		}
+		long fetchedAt = Long.parseLong(meta.getProperty("fetchedAt", "0"));
+		return new CachedPage(url, html, meta.getProperty("etag"), meta.getProperty("lastModified"), fetchedAt);
+	}
+
+	@Override
+	public synchronized void put(CachedPage page) throws IOException {
+		Path file = pathFor(page.url);
+		Files.createDirectories(dir);
+		Files.writeString(file, page.html, StandardCharsets.UTF_8);
+
+		Properties meta = new Properties();
+		if (page.etag != null) meta.setProperty("etag", page.etag);
+		if (page.lastModified != null) meta.setProperty("lastModified", page.lastModified);
+		meta.setProperty("fetchedAt", Long.toString(page.fetchedAt));
+		try (Writer writer = Files.newBufferedWriter(metaPathFor(file), StandardCharsets.UTF_8)) {
+			meta.store(writer, page.url);
+		}
+	}
+
+	private Path pathFor(String url) throws IOException {
+		return dir.resolve(resourcesUtility.getWikiPageFileNameFromURL(URI.create(url).toURL()));
+	}
+
+	private static Path metaPathFor(Path file) {
+		return file.resolveSibling(file.getFileName() + META_SUFFIX);
+	}
+}
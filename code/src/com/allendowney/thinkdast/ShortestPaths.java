@@ -0,0 +1,319 @@
+package com.allendowney.thinkdast;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Answers "what is the shortest chain of links from page A to page B".
+ *
+ * The links are copied out of a LinkGraph into two plain int arrays in CSR
+ * form, forward and reversed, together with the URL of each id; none of them
+ * change afterwards, so any number of threads can query at once without locks. A query searches breadth-first from
+ * both ends, a level at a time, always growing the side whose frontier is
+ * smaller, and stops when the two searches meet. On graphs like the web that
+ * visits a tiny fraction of the pages a one-sided search would.
+ *
+ * Each search needs two visited bitsets, parent and distance arrays, and a
+ * queue per side, all as large as the graph. Allocating those per query would
+ * cost more than the search, so they are kept in a pool and each query borrows
+ * one set; a thread that queries again gets one back that is already the right
+ * size. Only the entries a query touched are cleared when it is done.
+ *
+ */
+public class ShortestPaths {
+
+	// URLs and ids, as of the snapshot
+	private final LinkGraph.Rows rows;
+	private final int n;
+
+	// links out of each page, and into each page
+	private final int[] outOffsets;
+	private final int[] outTargets;
+	private final int[] inOffsets;
+	private final int[] inSources;
+
+	private final ConcurrentLinkedDeque<Scratch> scratches = new ConcurrentLinkedDeque<Scratch>();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Takes a snapshot of the graph; links added to it later are not seen.
+	 *
+	 * @param graph
+	 */
+	public ShortestPaths(LinkGraph graph) {
+		this.rows = graph.rows();
+		this.n = rows.offsets.length - 1;
+		this.outOffsets = rows.offsets;
+		this.outTargets = rows.targets;
+
+		// reverse with a counting sort on the targets
+		inOffsets = new int[n + 1];
+		for (int target: outTargets) {
+			inOffsets[target + 1]++;
+		}
+		for (int v=0; v<n; v++) {
+			inOffsets[v + 1] += inOffsets[v];
+		}
+		inSources = new int[outTargets.length];
+		int[] fill = new int[n];
+		System.arraycopy(inOffsets, 0, fill, 0, n);
+		for (int u=0; u<n; u++) {
+			for (int i=outOffsets[u]; i<outOffsets[u + 1]; i++) {
+				inSources[fill[outTargets[i]]++] = u;
+			}
+		}
+	}
+
+	/**
+	 * The working memory of one search from one end.
+	 */
+	private static class Side {
+		final long[] visited;
+		final int[] parent;
+		final int[] distance;
+		// every page visited, in order; the current level is queue[levelStart..size)
+		final int[] queue;
+		int size;
+		int levelStart;
+		int depth;
+
+		Side(int n) {
+			visited = new long[(n + 63) >>> 6];
+			parent = new int[n];
+			distance = new int[n];
+			queue = new int[n];
+		}
+
+		boolean isVisited(int v) {
+			return (visited[v >>> 6] & (1L << v)) != 0;
+		}
+
+		void visit(int v, int from, int d) {
+			visited[v >>> 6] |= 1L << v;
+			parent[v] = from;
+			distance[v] = d;
+			queue[size++] = v;
+		}
+
+		int levelSize() {
+			return size - levelStart;
+		}
+
+		void start(int source) {
+			visit(source, -1, 0);
+			levelStart = 0;
+			depth = 0;
+		}
+
+		/**
+		 * Clears only the bits this search set.
+		 */
+		void clear() {
+			for (int i=0; i<size; i++) {
+				visited[queue[i] >>> 6] = 0;
+			}
+			size = 0;
+		}
+	}
+
+	private static class Scratch {
+		final Side forward;
+		final Side backward;
+
+		Scratch(int n) {
+			forward = new Side(n);
+			backward = new Side(n);
+		}
+	}
+
+	/**
+	 * Returns the URLs on a shortest path from `from` to `to`, both included,
+	 * or null if there is none or either page is unknown.
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public List<String> path(String from, String to) {
+		int source = rows.id(from);
+		int target = rows.id(to);
+		if (source < 0 || target < 0) {
+			return null;
+		}
+		int[] ids = path(source, target);
+		if (ids == null) {
+			return null;
+		}
+		List<String> urls = new ArrayList<String>(ids.length);
+		for (int id: ids) {
+			urls.add(rows.url(id));
+		}
+		return urls;
+	}
+
+	/**
+	 * Returns the ids on a shortest path from `source` to `target`, both included, or null if there is none.
+	 *
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public int[] path(int source, int target) {
+		if (source < 0 || source >= n || target < 0 || target >= n) {
+			throw new IndexOutOfBoundsException("No page with id " + (source < 0 || source >= n ? source : target));
+		}
+		long start = System.nanoTime();
+		Scratch scratch = scratches.pollFirst();
+		if (scratch == null) {
+			scratch = new Scratch(n);
+		}
+		try {
+			return search(scratch.forward, scratch.backward, source, target);
+		} finally {
+			scratch.forward.clear();
+			scratch.backward.clear();
+			scratches.offerFirst(scratch);
+			latency.record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Returns the number of links on a shortest path, or -1 if there is none.
+	 *
+	 * @param source
+	 * @param target
+	 * @return
+	 */
+	public int distance(int source, int target) {
+		int[] path = path(source, target);
+		return path == null ? -1 : path.length - 1;
+	}
+
+	private int[] search(Side forward, Side backward, int source, int target) {
+		forward.start(source);
+		backward.start(target);
+		if (source == target) {
+			return new int[] {source};
+		}
+
+		while (forward.levelSize() > 0 && backward.levelSize() > 0) {
+			// grow the side with the smaller frontier by one level
+			int meet = forward.levelSize() <= backward.levelSize()
+					? expand(forward, backward, outOffsets, outTargets)
+					: expand(backward, forward, inOffsets, inSources);
+			if (meet != -1) {
+				return join(forward, backward, meet);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Visits the next level of `side` and returns the page where it best meets `other`, or -1.
+	 *
+	 * The whole level is expanded, since the first page to meet the other side
+	 * is not necessarily on the shortest path: the other side's distances vary.
+	 */
+	private static int expand(Side side, Side other, int[] offsets, int[] links) {
+		int end = side.size;
+		int depth = side.depth + 1;
+		int meet = -1;
+		int best = Integer.MAX_VALUE;
+		for (int i=side.levelStart; i<end; i++) {
+			int u = side.queue[i];
+			for (int j=offsets[u]; j<offsets[u + 1]; j++) {
+				int v = links[j];
+				if (side.isVisited(v)) {
+					continue;
+				}
+				side.visit(v, u, depth);
+				if (other.isVisited(v) && depth + other.distance[v] < best) {
+					best = depth + other.distance[v];
+					meet = v;
+				}
+			}
+		}
+		side.levelStart = end;
+		side.depth = depth;
+		return meet;
+	}
+
+	/**
+	 * Puts the path together from the two halves that meet at `meet`.
+	 */
+	private static int[] join(Side forward, Side backward, int meet) {
+		int[] path = new int[forward.distance[meet] + backward.distance[meet] + 1];
+		int i = forward.distance[meet];
+		for (int v=meet; v != -1; v=forward.parent[v]) {
+			path[i--] = v;
+		}
+		i = forward.distance[meet];
+		for (int v=backward.parent[meet]; v != -1; v=backward.parent[v]) {
+			path[++i] = v;
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the number of pages in the snapshot.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the time each query took.
+	 *
+	 * @return
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Times random queries from several threads on a graph with millions of pages.
+	 *
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int pages = 2000000;
+		Random random = new Random(1);
+		LinkGraph graph = new LinkGraph();
+		for (int i=0; i<pages; i++) {
+			graph.addPage("https://en.wikipedia.org/wiki/Page" + i);
+		}
+		LinkGraph.linkRandomly(graph, 15, random);
+
+		long start = System.nanoTime();
+		ShortestPaths paths = new ShortestPaths(graph);
+		System.out.printf("%d pages, %d links: snapshot in %.0f ms%n",
+				pages, graph.edges(), (System.nanoTime() - start) / 1e6);
+		System.out.println(paths.path("https://en.wikipedia.org/wiki/Page1234567", "https://en.wikipedia.org/wiki/Page42"));
+
+		for (int threads: new int[] {1, 4}) {
+			paths.getLatency().reset();
+			int queries = 2000;
+			start = System.nanoTime();
+			try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+				for (int t=0; t<threads; t++) {
+					long seed = t;
+					executor.submit(() -> {
+						Random r = new Random(seed);
+						for (int q=0; q<queries / threads; q++) {
+							paths.path(r.nextInt(pages), r.nextInt(pages));
+						}
+					});
+				}
+			}
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d threads: %.0f queries/s, %s%n", threads, queries / elapsed, paths.getLatency());
+		}
+	}
+}
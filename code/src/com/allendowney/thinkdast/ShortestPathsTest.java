@@ -0,0 +1,152 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ShortestPathsTest {
+
+	@Test
+	public void testPath() {
+		// a -> b -> c -> d, and a shortcut a -> x -> d; e links to a but nothing links to e
+		LinkGraph graph = new LinkGraph();
+		graph.setLinks("a", Arrays.asList("b", "x"));
+		graph.setLinks("b", Arrays.asList("c"));
+		graph.setLinks("c", Arrays.asList("d"));
+		graph.setLinks("x", Arrays.asList("d"));
+		graph.setLinks("e", Arrays.asList("a"));
+
+		ShortestPaths paths = new ShortestPaths(graph);
+		assertThat(paths.path("a", "d"), is(Arrays.asList("a", "x", "d")));
+		assertThat(paths.path("b", "d"), is(Arrays.asList("b", "c", "d")));
+		assertThat(paths.path("e", "c"), is(Arrays.asList("e", "a", "b", "c")));
+		assertThat(paths.path("a", "a"), is(Arrays.asList("a")));
+		assertThat(paths.path("d", "a"), is(nullValue()));
+		assertThat(paths.path("a", "e"), is(nullValue()));
+		assertThat(paths.path("a", "unknown"), is(nullValue()));
+		assertThat(paths.getLatency().count(), is(6L));
+	}
+
+	@Test
+	public void testSnapshot() throws InterruptedException {
+		LinkGraph graph = new LinkGraph();
+		graph.setLinks("a", Arrays.asList("b"));
+		graph.setLinks("b", Arrays.asList("c"));
+		ShortestPaths paths = new ShortestPaths(graph);
+
+		// pages and links added later are not seen
+		graph.setLinks("a", Arrays.asList("c", "d"));
+		assertThat(paths.path("a", "c"), is(Arrays.asList("a", "b", "c")));
+		assertThat(paths.path("a", "d"), is(nullValue()));
+
+		// a query does not wait for the graph's lock
+		List<List<String>> found = new ArrayList<List<String>>();
+		Thread query = new Thread(() -> found.add(paths.path("b", "c")));
+		synchronized (graph) {
+			query.start();
+			query.join(10000);
+			assertThat(query.isAlive(), is(false));
+		}
+		assertThat(found.get(0), is(Arrays.asList("b", "c")));
+	}
+
+	/**
+	 * Plain breadth-first search, to check against.
+	 */
+	private static int distance(LinkGraph graph, int source, int target) {
+		int[] distance = new int[graph.size()];
+		Arrays.fill(distance, -1);
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		distance[source] = 0;
+		queue.add(source);
+		while (!queue.isEmpty()) {
+			int u = queue.poll();
+			if (u == target) {
+				return distance[u];
+			}
+			for (int v: graph.outLinks(u)) {
+				if (distance[v] == -1) {
+					distance[v] = distance[u] + 1;
+					queue.add(v);
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static LinkGraph randomGraph(int n, int links, long seed) {
+		Random random = new Random(seed);
+		LinkGraph graph = new LinkGraph();
+		for (int i=0; i<n; i++) {
+			graph.addPage("p" + i);
+		}
+		for (int i=0; i<n; i++) {
+			int[] targets = new int[random.nextInt(links + 1)];
+			for (int j=0; j<targets.length; j++) {
+				targets[j] = random.nextInt(n);
+			}
+			graph.setLinks(i, targets);
+		}
+		return graph;
+	}
+
+	@Test
+	public void testMatchesBreadthFirst() {
+		LinkGraph graph = randomGraph(2000, 3, 1);
+		ShortestPaths paths = new ShortestPaths(graph);
+		Random random = new Random(2);
+		for (int q=0; q<300; q++) {
+			int source = random.nextInt(2000);
+			int target = random.nextInt(2000);
+			int[] path = paths.path(source, target);
+			int expected = distance(graph, source, target);
+			assertThat(paths.distance(source, target), is(expected));
+			if (path != null) {
+				assertThat(path[0], is(source));
+				assertThat(path[path.length - 1], is(target));
+				for (int i=0; i+1<path.length; i++) {
+					assertThat(Arrays.binarySearch(graph.outLinks(path[i]), path[i + 1]) >= 0, is(true));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentQueries() throws Exception {
+		LinkGraph graph = randomGraph(3000, 2, 3);
+		ShortestPaths paths = new ShortestPaths(graph);
+		List<Thread> threads = new ArrayList<Thread>();
+		List<AssertionError> errors = new ArrayList<AssertionError>();
+		for (int t=0; t<4; t++) {
+			long seed = t;
+			threads.add(new Thread(() -> {
+				Random random = new Random(seed);
+				for (int q=0; q<100; q++) {
+					int source = random.nextInt(3000);
+					int target = random.nextInt(3000);
+					try {
+						assertThat(paths.distance(source, target), is(distance(graph, source, target)));
+					} catch (AssertionError e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread: threads) {
+			thread.start();
+		}
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		assertThat(errors.isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,234 @@
+package com.allendowney.thinkdast;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jsoup.select.Elements;
+
+/**
+ * Keeps the sidecars of stored pages in one append-only file.
+ *
+ * Each record holds the URL and version of a page in a small header, followed
+ * by the sidecar in binary form. The offset of the latest record for each URL
+ * is kept in memory; it is rebuilt by scanning the headers when the store is
+ * opened, and a torn record at the end is cut off, as in PageStore. Checking
+ * whether a sidecar is current reads only the header.
+ *
+ * Gets may run concurrently with each other and with puts.
+ *
+ */
+public class SidecarStore implements Closeable {
+
+	public static final String FILE = "sidecars.bin";
+
+	private static final int RECORD_MAGIC = 0x57534352; // "WSCR"
+	private static final int RECORD_HEADER = 8;
+
+	private final FileChannel channel;
+	private volatile long size;
+
+	// offset of the latest record for each URL
+	private final Map<String, Long> offsets = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Opens (or creates) a store in `dir`.
+	 *
+	 * @param dir
+	 * @throws IOException
+	 */
+	public SidecarStore(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		this.channel = FileChannel.open(dir.resolve(FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.size = channel.size();
+		recover();
+	}
+
+	/**
+	 * Scans the record headers, and cuts off a torn tail.
+	 */
+	private void recover() throws IOException {
+		long offset = 0;
+		while (offset + RECORD_HEADER <= size) {
+			ByteBuffer header = read(offset, RECORD_HEADER);
+			int length = header.getInt(4);
+			if (header.getInt(0) != RECORD_MAGIC || length < 2 || offset + RECORD_HEADER + length > size) {
+				break;
+			}
+			int urlLength = read(offset + RECORD_HEADER, 2).getShort(0) & 0xffff;
+			ByteBuffer url = read(offset + RECORD_HEADER + 2, urlLength);
+			offsets.put(StandardCharsets.UTF_8.decode(url).toString(), offset);
+			offset += RECORD_HEADER + length;
+		}
+		if (offset < size) {
+			channel.truncate(offset);
+			size = offset;
+		}
+	}
+
+	/**
+	 * Returns the version of the latest sidecar for a page, or -1 if there is none.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public long version(String url) throws IOException {
+		Long offset = offsets.get(url);
+		if (offset == null) {
+			return -1;
+		}
+		int urlLength = read(offset + RECORD_HEADER, 2).getShort(0) & 0xffff;
+		return read(offset + RECORD_HEADER + 2 + urlLength, 8).getLong(0);
+	}
+
+	/**
+	 * Returns the latest sidecar for a page, or null if there is none.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public PageSidecar get(String url) throws IOException {
+		Long offset = offsets.get(url);
+		if (offset == null) {
+			return null;
+		}
+		int length = read(offset, RECORD_HEADER).getInt(4);
+		ByteBuffer record = read(offset + RECORD_HEADER, length);
+		int urlLength = record.getShort() & 0xffff;
+		record.position(record.position() + urlLength + 8);
+		byte[] sidecar = new byte[record.remaining()];
+		record.get(sidecar);
+		return PageSidecar.fromBytes(sidecar);
+	}
+
+	/**
+	 * Appends a sidecar, replacing any earlier one for the same page.
+	 *
+	 * @param sidecar
+	 * @throws IOException
+	 */
+	public synchronized void put(PageSidecar sidecar) throws IOException {
+		byte[] url = sidecar.url.getBytes(StandardCharsets.UTF_8);
+		byte[] body = sidecar.toBytes();
+		int length = 2 + url.length + 8 + body.length;
+
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + length);
+		buffer.putInt(RECORD_MAGIC).putInt(length);
+		buffer.putShort((short) url.length).put(url);
+		buffer.putLong(sidecar.version);
+		buffer.put(body);
+		buffer.flip();
+
+		long offset = size;
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		size = position;
+		offsets.put(sidecar.url, offset);
+	}
+
+	/**
+	 * Returns the number of pages with a sidecar.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return offsets.size();
+	}
+
+	/**
+	 * Returns the number of bytes in the file, old versions included.
+	 *
+	 * @return
+	 */
+	public long dataSize() {
+		return size;
+	}
+
+	/**
+	 * Forces the file to disk.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	private ByteBuffer read(long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of " + FILE);
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * Re-indexes the local corpus from the HTML and from sidecars, and compares the times.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		WikiFetcher wf = WikiFetcher.getInstance();
+		List<String> urls = FirstLinkGraph.corpusUrls();
+		Path dir = Files.createTempDirectory("sidecars");
+		try (SidecarStore store = new SidecarStore(dir)) {
+			wf.setSidecarStore(store);
+
+			long start = System.nanoTime();
+			int pages = 0;
+			for (String url: urls) {
+				try {
+					wf.readSidecar(url);
+					pages++;
+				} catch (FileNotFoundException e) {
+					// linked to, but not stored
+				}
+			}
+			System.out.printf("extracted %d sidecars in %.1f ms: %d bytes%n",
+					pages, (System.nanoTime() - start) / 1e6, store.dataSize());
+
+			for (int round=0; round<3; round++) {
+				start = System.nanoTime();
+				for (String url: store.offsets.keySet()) {
+					Elements paragraphs = WikiFetcher.parseParagraphs(wf.readWikipediaHtml(url), url);
+					new TermCounter(url).processElements(paragraphs);
+					WikiCrawler.internalLinks(paragraphs);
+				}
+				long html = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (String url: store.offsets.keySet()) {
+					PageSidecar sidecar = wf.readSidecar(url);
+					new TermCounter(url).processSidecar(sidecar);
+					sidecar.links();
+				}
+				long sidecars = System.nanoTime() - start;
+				System.out.printf("re-index %d pages: from HTML %.1f ms, from sidecars %.1f ms%n",
+						pages, html / 1e6, sidecars / 1e6);
+			}
+		} finally {
+			wf.setSidecarStore(null);
+		}
+	}
+}
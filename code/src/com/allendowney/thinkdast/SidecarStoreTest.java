@@ -0,0 +1,175 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import org.jsoup.select.Elements;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SidecarStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String URL = "https://en.wikipedia.org/wiki/Java";
+	private static final String HTML = "<div id=\"mw-content-text\">"
+			+ "<table class=\"infobox\"><tr><td><p>Boxed <a href=\"/wiki/Box\">box</a></p></td></tr></table>"
+			+ "<p>Java is a <i><a href=\"/wiki/Island\">island</a></i> (see <a href=\"/wiki/Paren\">paren</a>)"
+			+ " and a <b>programming</b> <a href=\"/wiki/language\">language</a>.</p>"
+			+ "<p>Second <a href=\"/wiki/language\">again</a> and <a href=\"http://example.com/\">out</a>.</p>"
+			+ "</div>";
+
+	private Path dir;
+	private WikiFetcher wf;
+
+	@Before
+	public void setUp() {
+		dir = folder.getRoot().toPath();
+		wf = WikiFetcher.getInstance();
+	}
+
+	@After
+	public void tearDown() {
+		wf.setSidecarStore(null);
+		wf.setPageStore(null);
+	}
+
+	private static PageSidecar sidecar(long version) {
+		return PageSidecar.extract(URL, version, WikiFetcher.parseParagraphs(HTML, URL));
+	}
+
+	@Test
+	public void testExtract() throws IOException {
+		PageSidecar sidecar = PageSidecar.fromBytes(sidecar(7).toBytes());
+		assertThat(sidecar.url, is(URL));
+		assertThat(sidecar.version, is(7L));
+		assertThat(sidecar.paragraphCount(), is(2));
+		assertThat(sidecar.paragraphText(1), is("Second again and out."));
+		// the infobox is left out
+		assertThat(sidecar.links().size(), is(3));
+		assertThat(sidecar.links().get(0), is("https://en.wikipedia.org/wiki/Island"));
+		// not in italics or parentheses
+		assertThat(sidecar.firstLink(), is("https://en.wikipedia.org/wiki/language"));
+	}
+
+	@Test
+	public void testSameCounts() throws IOException {
+		Elements paragraphs = WikiFetcher.parseParagraphs(HTML, URL);
+		TermCounter fromHtml = new TermCounter(URL);
+		fromHtml.processElements(paragraphs);
+
+		TermCounter fromSidecar = new TermCounter(URL);
+		fromSidecar.processSidecar(PageSidecar.fromBytes(sidecar(0).toBytes()));
+		assertThat(fromSidecar.keySet(), is(fromHtml.keySet()));
+		for (String term: fromHtml.keySet()) {
+			assertThat(fromSidecar.get(term), is(fromHtml.get(term)));
+		}
+	}
+
+	@Test
+	public void testPutGet() throws IOException {
+		try (SidecarStore store = new SidecarStore(dir)) {
+			assertThat(store.get(URL), nullValue());
+			assertThat(store.version(URL), is(-1L));
+			store.put(sidecar(1));
+			store.put(sidecar(2));
+			assertThat(store.version(URL), is(2L));
+			assertThat(store.get(URL).version, is(2L));
+			assertThat(store.size(), is(1));
+		}
+	}
+
+	@Test
+	public void testRecover() throws IOException {
+		try (SidecarStore store = new SidecarStore(dir)) {
+			store.put(sidecar(1));
+			store.put(sidecar(2));
+		}
+		// tear the last record
+		try (FileChannel channel = FileChannel.open(dir.resolve(SidecarStore.FILE), StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (SidecarStore store = new SidecarStore(dir)) {
+			assertThat(store.version(URL), is(1L));
+			assertThat(store.get(URL).firstLink(), is("https://en.wikipedia.org/wiki/language"));
+			store.put(sidecar(3));
+			assertThat(store.get(URL).version, is(3L));
+		}
+	}
+
+	@Test
+	public void testReadSidecar() throws IOException {
+		try (SidecarStore store = new SidecarStore(dir)) {
+			wf.setSidecarStore(store);
+			String url = "https://en.wikipedia.org/wiki/Programming_language";
+			PageSidecar sidecar = wf.readSidecar(url);
+			long size = store.dataSize();
+
+			// extracted once, then read back
+			assertThat(wf.readSidecar(url).runs(), is(sidecar.runs()));
+			assertThat(store.dataSize(), is(size));
+
+			Elements paragraphs = wf.readWikipedia(url);
+			assertThat(sidecar.links(), is(new ArrayList<String>(WikiCrawler.internalLinks(paragraphs))));
+			TermCounter fromHtml = new TermCounter(url);
+			fromHtml.processElements(paragraphs);
+			TermCounter fromSidecar = new TermCounter(url);
+			fromSidecar.processSidecar(sidecar);
+			assertThat(fromSidecar.size(), is(fromHtml.size()));
+		}
+	}
+
+	@Test
+	public void testReadSidecarSkipsBoxes() throws IOException {
+		try (PageStore pages = new PageStore(folder.newFolder("pages").toPath());
+				SidecarStore store = new SidecarStore(dir)) {
+			pages.put(new CachedPage(URL, "<html><body>" + HTML + "</body></html>", null, null, 42));
+			wf.setPageStore(pages);
+			wf.setSidecarStore(store);
+
+			assertThat(wf.readWikipedia(URL).size(), is(2));
+			PageSidecar sidecar = wf.readSidecar(URL);
+			assertThat(sidecar.version, is(42L));
+			assertThat(sidecar.paragraphCount(), is(2));
+			assertThat(sidecar.links().contains("https://en.wikipedia.org/wiki/Box"), is(false));
+
+			// the same counts as scanning the stored page
+			TermCounter fromSidecar = new TermCounter(URL);
+			fromSidecar.processSidecar(sidecar);
+			TermCounter scanned = wf.readWikipediaTerms(URL);
+			assertThat(fromSidecar.keySet(), is(scanned.keySet()));
+			for (String term: scanned.keySet()) {
+				assertThat(fromSidecar.get(term), is(scanned.get(term)));
+			}
+		}
+	}
+
+	@Test
+	public void testCrawlWithSidecars() throws IOException {
+		try (SidecarStore store = new SidecarStore(dir)) {
+			wf.setSidecarStore(store);
+			String url = "https://en.wikipedia.org/wiki/Programming_language";
+			Index index = new Index();
+			WikiCrawler wc = new WikiCrawler(url, index);
+			wc.setUseSidecars(true);
+			assertThat(wc.crawl(false), is(url));
+			assertTrue(index.isIndexed(url));
+			assertThat(wc.queueSize(), is(wf.readSidecar(url).links().size()));
+
+			// the same links as a crawl that parses the page
+			WikiCrawler parsing = new WikiCrawler(url, new Index());
+			parsing.crawl(false);
+			assertThat(wc.queueSize(), is(parsing.queueSize()));
+		}
+	}
+}
@@ -58,10 +58,21 @@ public class TermCounter {
 	public void processTree(Node root) {
 		// NOTE: we could use select to find the TextNodes, but since
 		// we already have a tree iterator, let's use it.
-		for (Node node: new WikiNodeIterable(root)) {
-			if (node instanceof TextNode) {
-				processText(((TextNode) node).text());
-			}
+		for (TextNode node: WikiNodeIterable.textNodes(root)) {
+			processText(node.text());
+		}
+	}
+
+	/**
+	 * Counts the words of a page from its sidecar, without parsing it.
+	 *
+	 * Gives the same counts as processElements on the paragraphs it was extracted from.
+	 *
+	 * @param sidecar
+	 */
+	public void processSidecar(PageSidecar sidecar) {
+		for (String run: sidecar.runs()) {
+			processText(run);
 		}
 	}
 
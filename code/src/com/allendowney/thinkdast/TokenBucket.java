@@ -0,0 +1,86 @@
+package com.allendowney.thinkdast;
+
+/**
+ * A token bucket rate limiter: tokens accumulate at `rate` per second up to
+ * `burst`, and each request takes one.
+ *
+ * Requests never wait inside the bucket. reserve() takes a token even if the
+ * bucket is empty (the count goes negative) and returns how long the caller has
+ * to wait before using it, so callers can schedule the work instead of sleeping.
+ *
+ */
+public class TokenBucket {
+
+	private final double rate;
+	private final double burst;
+
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * Makes a full bucket.
+	 *
+	 * @param rate   Tokens added per second.
+	 * @param burst  Maximum number of tokens the bucket holds.
+	 */
+	public TokenBucket(double rate, double burst) {
+		if (rate <= 0 || burst < 1) {
+			throw new IllegalArgumentException("rate must be positive and burst at least 1");
+		}
+		this.rate = rate;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token and returns the number of nanoseconds until it may be used.
+	 *
+	 * @return 0 if a token was available.
+	 */
+	public long reserve() {
+		return reserve(System.nanoTime());
+	}
+
+	synchronized long reserve(long now) {
+		refill(now);
+		tokens -= 1;
+		if (tokens >= 0) {
+			return 0;
+		}
+		return (long) Math.ceil(-tokens * 1e9 / rate);
+	}
+
+	/**
+	 * Takes a token only if one is available now.
+	 *
+	 * @return
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(System.nanoTime());
+	}
+
+	synchronized boolean tryAcquire(long now) {
+		refill(now);
+		if (tokens >= 1) {
+			tokens -= 1;
+			return true;
+		}
+		return false;
+	}
+
+	private void refill(long now) {
+		if (now > lastRefill) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+			lastRefill = now;
+		}
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public double getBurst() {
+		return burst;
+	}
+}
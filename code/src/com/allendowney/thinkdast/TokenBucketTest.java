@@ -0,0 +1,49 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	private static final long SECOND = 1000000000L;
+
+	private TokenBucket bucket;
+	private long start;
+
+	@Before
+	public void setUp() {
+		bucket = new TokenBucket(2, 3);
+		start = System.nanoTime();
+	}
+
+	@Test
+	public void testBurst() {
+		assertThat(bucket.reserve(start), is(0L));
+		assertThat(bucket.reserve(start), is(0L));
+		assertThat(bucket.reserve(start), is(0L));
+		// the fourth request waits for one token at 2 per second
+		assertThat(bucket.reserve(start), is(SECOND / 2));
+		// and the fifth for two
+		assertThat(bucket.reserve(start), is(SECOND));
+	}
+
+	@Test
+	public void testRefill() {
+		for (int i=0; i<3; i++) {
+			bucket.reserve(start);
+		}
+		assertThat(bucket.tryAcquire(start), is(false));
+		assertThat(bucket.tryAcquire(start + SECOND / 2), is(true));
+		assertThat(bucket.tryAcquire(start + SECOND / 2), is(false));
+
+		// never more than `burst` tokens, however long we wait
+		long later = start + 100 * SECOND;
+		for (int i=0; i<3; i++) {
+			assertThat(bucket.tryAcquire(later), is(true));
+		}
+		assertThat(bucket.tryAcquire(later), is(false));
+	}
+}
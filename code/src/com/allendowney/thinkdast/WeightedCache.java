@@ -0,0 +1,253 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used cache bounded by the total weight of its values, not their number.
+ *
+ * Each value is weighed once, when it is added, with a function that estimates
+ * how many bytes it takes. When the total goes over the limit, the least
+ * recently used entries are evicted until it fits again. A value heavier than
+ * the whole limit is returned but not kept.
+ *
+ * The cache is safe to share between threads. Values are loaded outside the
+ * lock, so a slow load does not hold up hits on other keys; two threads that
+ * miss the same key at once may both load it, and the last one to start wins.
+ * A load that was under way when its key was invalidated is returned to its
+ * caller but not kept, since it may have read the old value.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class WeightedCache<K, V> {
+
+	/**
+	 * Makes the value for a key that is not in the cache.
+	 */
+	public interface Loader<K, V> {
+		public V load(K key) throws IOException;
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long weight;
+
+		Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	private final ToLongFunction<V> weigher;
+	private long maxWeight;
+
+	// in access order, least recently used first
+	private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	private long weight = 0;
+
+	// the latest load of each key being loaded; invalidate() drops it so the load is not kept
+	private final Map<K, Object> loading = new HashMap<K, Object>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxWeight  Largest total weight, e.g. in bytes.
+	 * @param weigher    Estimates the weight of a value.
+	 */
+	public WeightedCache(long maxWeight, ToLongFunction<V> weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Returns the value for `key`, loading and adding it if it is not in the cache.
+	 *
+	 * @param key
+	 * @param loader
+	 * @return
+	 * @throws IOException if the loader does.
+	 */
+	public V get(K key, Loader<K, V> loader) throws IOException {
+		V value = getIfPresent(key);
+		if (value != null) {
+			return value;
+		}
+		misses.increment();
+		Object token = new Object();
+		synchronized (this) {
+			loading.put(key, token);
+		}
+		try {
+			value = loader.load(key);
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				loading.remove(key, token);
+			}
+			throw e;
+		}
+		long w = weigher.applyAsLong(value);
+		synchronized (this) {
+			if (loading.remove(key, token)) {
+				store(key, value, w);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the value for `key`, or null if it is not in the cache.
+	 *
+	 * Misses are counted by get(), not here.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public V getIfPresent(K key) {
+		Entry<V> entry;
+		synchronized (this) {
+			entry = map.get(key);
+		}
+		if (entry == null) {
+			return null;
+		}
+		hits.increment();
+		return entry.value;
+	}
+
+	/**
+	 * Adds or replaces the value for `key`.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, V value) {
+		long w = weigher.applyAsLong(value);
+		synchronized (this) {
+			store(key, value, w);
+		}
+	}
+
+	private void store(K key, V value, long w) {
+		Entry<V> old = map.remove(key);
+		if (old != null) {
+			weight -= old.weight;
+		}
+		if (w > maxWeight) {
+			return;
+		}
+		map.put(key, new Entry<V>(value, w));
+		weight += w;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+		while (weight > maxWeight && it.hasNext()) {
+			weight -= it.next().getValue().weight;
+			it.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Removes the value for `key`, e.g. because the page has changed.
+	 *
+	 * @param key
+	 */
+	public synchronized void invalidate(K key) {
+		loading.remove(key);
+		Entry<V> old = map.remove(key);
+		if (old != null) {
+			weight -= old.weight;
+		}
+	}
+
+	/**
+	 * Removes everything.
+	 */
+	public synchronized void clear() {
+		loading.clear();
+		map.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Changes the largest total weight, evicting entries if the cache is over it.
+	 *
+	 * @param maxWeight
+	 */
+	public synchronized void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		evict();
+	}
+
+	/**
+	 * Returns the number of entries.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 * Returns the total weight of the entries.
+	 *
+	 * @return
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 *
+	 * @return
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of values loaded.
+	 *
+	 * @return
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries dropped to make room.
+	 *
+	 * @return
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the fraction of lookups that were hits, or 0 if there were none.
+	 *
+	 * @return
+	 */
+	public double hitRate() {
+		long h = hits();
+		long total = h + misses();
+		return total == 0 ? 0 : h / (double) total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %.1f KB, %d hits, %d misses (%.0f%% hits), %d evictions",
+				size(), weight() / 1024.0, hits(), misses(), 100 * hitRate(), evictions());
+	}
+}
@@ -0,0 +1,139 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jsoup.select.Elements;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedCacheTest {
+
+	private WeightedCache<String, String> cache;
+	private AtomicInteger loads;
+	private WeightedCache.Loader<String, String> loader;
+
+	/**
+	 * A cache of up to 10 characters, where each value is its key repeated.
+	 */
+	@Before
+	public void setUp() {
+		cache = new WeightedCache<String, String>(10, String::length);
+		loads = new AtomicInteger();
+		loader = key -> {
+			loads.incrementAndGet();
+			return key + key;
+		};
+	}
+
+	@Test
+	public void testGet() throws IOException {
+		assertThat(cache.get("ab", loader), is("abab"));
+		assertThat(cache.get("ab", loader), is("abab"));
+		assertThat(loads.get(), is(1));
+		assertThat(cache.hits(), is(1L));
+		assertThat(cache.misses(), is(1L));
+		assertThat(cache.size(), is(1));
+		assertThat(cache.weight(), is(4L));
+	}
+
+	@Test
+	public void testEvictsByWeight() throws IOException {
+		cache.get("aa", loader);
+		cache.get("bb", loader);
+		assertThat(cache.weight(), is(8L));
+
+		// 14 characters do not fit, so the oldest value goes
+		cache.get("ccc", loader);
+		assertThat(cache.weight(), is(10L));
+		assertThat(cache.getIfPresent("aa"), is(nullValue()));
+		assertThat(cache.getIfPresent("bb"), is("bbbb"));
+		assertThat(cache.evictions(), is(1L));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() throws IOException {
+		cache.get("aa", loader);
+		cache.get("bb", loader);
+		// using "aa" makes "bb" the oldest
+		cache.get("aa", loader);
+		cache.get("cc", loader);
+		assertThat(cache.getIfPresent("aa"), is("aaaa"));
+		assertThat(cache.getIfPresent("bb"), is(nullValue()));
+	}
+
+	@Test
+	public void testTooHeavy() throws IOException {
+		assertThat(cache.get("abcdef", loader), is("abcdefabcdef"));
+		assertThat(cache.size(), is(0));
+		assertThat(cache.weight(), is(0L));
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		cache.get("aa", loader);
+		cache.invalidate("aa");
+		assertThat(cache.weight(), is(0L));
+		cache.get("aa", loader);
+		assertThat(loads.get(), is(2));
+	}
+
+	@Test
+	public void testInvalidateDuringLoad() throws IOException {
+		// the page changes while the old copy is being read
+		WeightedCache.Loader<String, String> stale = key -> {
+			loads.incrementAndGet();
+			cache.invalidate(key);
+			return "old";
+		};
+		assertThat(cache.get("aa", stale), is("old"));
+		assertThat(cache.getIfPresent("aa"), is(nullValue()));
+		assertThat(cache.weight(), is(0L));
+
+		// the next load is kept
+		assertThat(cache.get("aa", loader), is("aaaa"));
+		assertThat(cache.getIfPresent("aa"), is("aaaa"));
+	}
+
+	@Test
+	public void testLaterLoadWins() throws IOException {
+		// another thread starts loading the same key and finishes first
+		WeightedCache.Loader<String, String> overtaken = key -> {
+			cache.get(key, loader);
+			return "first";
+		};
+		assertThat(cache.get("aa", overtaken), is("first"));
+		assertThat(cache.getIfPresent("aa"), is("aaaa"));
+		assertThat(cache.weight(), is(4L));
+	}
+
+	@Test
+	public void testSetMaxWeight() throws IOException {
+		cache.get("aa", loader);
+		cache.get("bb", loader);
+		cache.setMaxWeight(5);
+		assertThat(cache.size(), is(1));
+		assertThat(cache.getIfPresent("bb"), is("bbbb"));
+	}
+
+	@Test
+	public void testWikiFetcher() throws IOException {
+		WikiFetcher wf = WikiFetcher.getInstance();
+		String url = "https://en.wikipedia.org/wiki/Mathematics";
+		WeightedCache<String, Elements> parsed = wf.getParsedCache();
+		parsed.invalidate(url);
+
+		long misses = parsed.misses();
+		Elements first = wf.readWikipedia(url);
+		Elements second = wf.readWikipedia(url);
+		assertThat(second, sameInstance(first));
+		assertThat(parsed.misses(), is(misses + 1));
+
+		// the paragraphs are copied out of the document
+		assertThat(first.get(0).parent(), is(nullValue()));
+		assertTrue(WikiFetcher.estimateSize(first) > first.text().length());
+	}
+}
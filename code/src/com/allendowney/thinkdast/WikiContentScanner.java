@@ -0,0 +1,411 @@
+package com.allendowney.thinkdast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.parser.Parser;
+
+
+/**
+ * Streams the paragraphs out of a Wikipedia page without building a DOM.
+ *
+ * The scanner walks the raw HTML once, keeping a stack of open elements so it
+ * knows when it is inside the {@code mw-content-text} div, inside a {@code <p>},
+ * or inside a {@code .sidebar} / {@code .infobox} subtree that should be skipped.
+ *
+ * It relies on the input being well-formed (which is what jsoup writes out when
+ * we store pages), so it does none of the tree-building fix-ups a real parser does.
+ *
+ */
+public class WikiContentScanner {
+
+	/**
+	 * Receives the content found by the scanner.
+	 *
+	 */
+	public interface Handler {
+		/**
+		 * Called with each run of text inside a paragraph, entities decoded.
+		 * The runs are the same as the TextNodes a DOM traversal would find.
+		 */
+		public void paragraphText(String text);
+
+		/**
+		 * Called with the href of each link inside a paragraph.
+		 */
+		public default void paragraphLink(String href) {}
+	}
+
+	private static final String CONTENT_ID = "mw-content-text";
+	private static final String[] SKIPPED_CLASSES = {"sidebar", "infobox"};
+	private static final String[] VOID_TAGS = {
+			"area", "base", "br", "col", "embed", "hr", "img", "input",
+			"link", "meta", "param", "source", "track", "wbr"
+	};
+
+	private final Handler handler;
+
+	// stack of open tag names
+	private final List<String> stack = new ArrayList<String>();
+
+	// depth of the content div, the skipped subtree and the paragraph, or -1
+	private int contentDepth = -1;
+	private int skipDepth = -1;
+	private int paragraphDepth = -1;
+
+	private final char[] buffer = new char[8192];
+	private int pos = 0;
+	private int limit = 0;
+	private Reader reader;
+
+	private final StringBuilder text = new StringBuilder();
+	private final StringBuilder name = new StringBuilder();
+	private final StringBuilder value = new StringBuilder();
+
+	/**
+	 * Creates a scanner that reports to the given handler.
+	 *
+	 * @param handler
+	 */
+	public WikiContentScanner(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Scans a UTF-8 encoded page.
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void scan(InputStream in) throws IOException {
+		scan(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Scans a page, reporting paragraph text and links to the handler.
+	 *
+	 * @param in
+	 * @throws IOException
+	 */
+	public void scan(Reader in) throws IOException {
+		reader = in;
+		pos = limit = 0;
+		stack.clear();
+		contentDepth = skipDepth = paragraphDepth = -1;
+		text.setLength(0);
+
+		int c;
+		while ((c = read()) != -1) {
+			if (c != '<') {
+				text.append((char) c);
+				continue;
+			}
+			int next = peek();
+			if (next == '/' || next == '!' || next == '?' || isLetter(next)) {
+				flushText();
+				readMarkup();
+			} else {
+				text.append('<');
+			}
+		}
+		flushText();
+	}
+
+	/**
+	 * Convenience method that counts the paragraph terms of a page.
+	 *
+	 * @param in
+	 * @param counter
+	 * @throws IOException
+	 */
+	public static void countTerms(InputStream in, TermCounter counter) throws IOException {
+		new WikiContentScanner(counter::processText).scan(in);
+	}
+
+	/**
+	 * Compares the time it takes to count the terms of a page with jsoup and with the scanner.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String url = "https://en.wikipedia.org/wiki/Philosophy";
+		WikiFetcher wf = WikiFetcher.getInstance();
+		int n = 50;
+
+		for (int round=0; round<2; round++) {
+			long start = System.nanoTime();
+			for (int i=0; i<n; i++) {
+				// parse the page every time, not just the first
+				wf.getParsedCache().invalidate(url);
+				TermCounter counter = new TermCounter(url);
+				counter.processElements(wf.readWikipedia(url));
+			}
+			long dom = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i=0; i<n; i++) {
+				wf.readWikipediaTerms(url);
+			}
+			long streaming = System.nanoTime() - start;
+
+			System.out.println("DOM: " + dom / n / 1000 + " us/page, streaming: " + streaming / n / 1000 + " us/page");
+		}
+	}
+
+	private boolean isCollecting() {
+		return paragraphDepth != -1 && skipDepth == -1;
+	}
+
+	private void flushText() {
+		if (text.length() == 0) {
+			return;
+		}
+		if (isCollecting()) {
+			handler.paragraphText(Parser.unescapeEntities(text.toString(), false));
+		}
+		text.setLength(0);
+	}
+
+	/**
+	 * Reads whatever follows a '<': a comment, a declaration, or a tag.
+	 */
+	private void readMarkup() throws IOException {
+		int c = read();
+		if (c == '!') {
+			if (peek() == '-') {
+				skipPast("-->");
+			} else {
+				skipPast(">");
+			}
+			return;
+		}
+		if (c == '?') {
+			skipPast(">");
+			return;
+		}
+		if (c == '/') {
+			readName(read());
+			skipPast(">");
+			endTag(name.toString());
+			return;
+		}
+		readName(c);
+		startTag(name.toString());
+	}
+
+	/**
+	 * Reads a tag name starting with `c` into `name`, lower-cased.
+	 */
+	private void readName(int c) throws IOException {
+		name.setLength(0);
+		while (c != -1 && !isSpace(c) && c != '>' && c != '/') {
+			name.append(Character.toLowerCase((char) c));
+			c = read();
+		}
+		if (c != -1) {
+			pos--;
+		}
+	}
+
+	/**
+	 * Reads the attributes of a start tag and pushes it onto the stack.
+	 */
+	private void startTag(String tag) throws IOException {
+		String id = null;
+		String cls = null;
+		String href = null;
+		boolean selfClosing = false;
+
+		int c;
+		while ((c = read()) != -1 && c != '>') {
+			if (isSpace(c)) {
+				continue;
+			}
+			if (c == '/') {
+				selfClosing = true;
+				continue;
+			}
+			selfClosing = false;
+
+			// attribute name
+			name.setLength(0);
+			while (c != -1 && !isSpace(c) && c != '=' && c != '>' && c != '/') {
+				name.append(Character.toLowerCase((char) c));
+				c = read();
+			}
+			while (isSpace(c)) {
+				c = read();
+			}
+			if (c != '=') {
+				if (c != -1) pos--;
+				continue;
+			}
+
+			// attribute value
+			c = read();
+			while (isSpace(c)) {
+				c = read();
+			}
+			value.setLength(0);
+			if (c == '"' || c == '\'') {
+				int quote = c;
+				while ((c = read()) != -1 && c != quote) {
+					value.append((char) c);
+				}
+			} else {
+				while (c != -1 && !isSpace(c) && c != '>') {
+					value.append((char) c);
+					c = read();
+				}
+				if (c == '>') pos--;
+			}
+
+			String attr = name.toString();
+			if (attr.equals("id")) {
+				id = value.toString();
+			} else if (attr.equals("class")) {
+				cls = value.toString();
+			} else if (attr.equals("href") && tag.equals("a")) {
+				href = value.toString();
+			}
+		}
+
+		if (tag.equals("script") || tag.equals("style")) {
+			// raw text elements: their content is never a TextNode
+			skipPast("</" + tag);
+			skipPast(">");
+			return;
+		}
+		if (selfClosing || isVoid(tag)) {
+			return;
+		}
+
+		stack.add(tag);
+		int depth = stack.size();
+		if (contentDepth == -1 && CONTENT_ID.equals(id)) {
+			contentDepth = depth;
+		}
+		if (contentDepth != -1 && skipDepth == -1 && hasSkippedClass(cls)) {
+			skipDepth = depth;
+		}
+		if (contentDepth != -1 && paragraphDepth == -1 && tag.equals("p")) {
+			paragraphDepth = depth;
+		}
+		if (href != null && isCollecting()) {
+			handler.paragraphLink(Parser.unescapeEntities(href, true));
+		}
+	}
+
+	/**
+	 * Pops the stack down to the matching start tag, ignoring stray end tags.
+	 */
+	private void endTag(String tag) {
+		int i = stack.lastIndexOf(tag);
+		if (i == -1) {
+			return;
+		}
+		while (stack.size() > i) {
+			stack.remove(stack.size() - 1);
+		}
+		int depth = stack.size();
+		if (paragraphDepth > depth) paragraphDepth = -1;
+		if (skipDepth > depth) skipDepth = -1;
+		if (contentDepth > depth) contentDepth = -1;
+	}
+
+	private static boolean hasSkippedClass(String cls) {
+		if (cls == null) {
+			return false;
+		}
+		for (String name: cls.trim().split("\\s+")) {
+			for (String skipped: SKIPPED_CLASSES) {
+				if (name.equalsIgnoreCase(skipped)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isVoid(String tag) {
+		for (String v: VOID_TAGS) {
+			if (v.equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Skips input up to and including the given (case-insensitive) marker.
+	 */
+	private void skipPast(String marker) throws IOException {
+		int n = marker.length();
+		char[] tail = new char[n];
+		int seen = 0;
+		int c;
+		while ((c = read()) != -1) {
+			tail[seen % n] = Character.toLowerCase((char) c);
+			seen++;
+			if (seen >= n && endsWith(tail, seen, marker)) {
+				return;
+			}
+		}
+	}
+
+	private static boolean endsWith(char[] tail, int seen, String marker) {
+		int n = marker.length();
+		for (int i=0; i<n; i++) {
+			if (tail[(seen - n + i) % n] != marker.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos++];
+	}
+
+	private int peek() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buffer[pos];
+	}
+
+	/**
+	 * Refills the buffer, keeping the last character so it can be pushed back.
+	 */
+	private boolean fill() throws IOException {
+		int keep = 0;
+		if (limit > 0) {
+			buffer[0] = buffer[limit - 1];
+			keep = 1;
+		}
+		int n = reader.read(buffer, keep, buffer.length - keep);
+		if (n <= 0) {
+			return false;
+		}
+		pos = keep;
+		limit = keep + n;
+		return true;
+	}
+}
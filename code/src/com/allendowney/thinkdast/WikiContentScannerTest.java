@@ -0,0 +1,73 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Test;
+
+import com.allendowney.thinkdast.constants.ResourcesConstants;
+import com.allendowney.thinkdast.constants.WikiConstants;
+
+public class WikiContentScannerTest {
+
+	@Test
+	public void testSameCountsAsDOM() throws IOException {
+		for (String page: WikiConstants.STORED_PAGES) {
+			String filename = ResourcesConstants.WIKI_PATH + "/" + page;
+
+			TermCounter expected = new TermCounter(page);
+			try (InputStream stream = getClass().getClassLoader().getResourceAsStream(filename)) {
+				Document doc = Jsoup.parse(stream, "UTF-8", filename);
+				Element content = doc.getElementById("mw-content-text");
+				content.select(".sidebar, .infobox").remove();
+				expected.processElements(content.select("p"));
+			}
+
+			TermCounter actual = new TermCounter(page);
+			try (InputStream stream = getClass().getClassLoader().getResourceAsStream(filename)) {
+				WikiContentScanner.countTerms(stream, actual);
+			}
+
+			assertThat(page, actual.keySet(), is(expected.keySet()));
+			for (String term: expected.keySet()) {
+				assertThat(page + " " + term, actual.get(term), is(expected.get(term)));
+			}
+		}
+	}
+
+	@Test
+	public void testSkipsSidebarsAndOutsideContent() throws IOException {
+		String html = "<html><body><p>outside</p>"
+				+ "<div id=\"mw-content-text\">"
+				+ "<table class=\"vertical-navbox infobox\"><tr><td><p>boxed</p></td></tr></table>"
+				+ "<p>one <b>two</b><br/>three &amp; <a href=\"/wiki/Four\">four</a></p>"
+				+ "<!-- <p>comment</p> --><script>var p = '<p>';</script>"
+				+ "</div><p>after</p></body></html>";
+
+		final List<String> texts = new ArrayList<String>();
+		final List<String> links = new ArrayList<String>();
+		WikiContentScanner scanner = new WikiContentScanner(new WikiContentScanner.Handler() {
+			public void paragraphText(String text) {
+				texts.add(text);
+			}
+
+			public void paragraphLink(String href) {
+				links.add(href);
+			}
+		});
+		scanner.scan(new StringReader(html));
+
+		assertThat(String.join("|", texts), is("one |two|three & |four"));
+		assertThat(links.size(), is(1));
+		assertThat(links.get(0), is("/wiki/Four"));
+	}
+}
@@ -1,11 +1,22 @@
 package com.allendowney.thinkdast;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.allendowney.thinkdast.constants.WikiConstants;
 import org.jsoup.nodes.Element;
@@ -20,24 +31,170 @@ public class WikiCrawler {
 	private final String source;
 
 	// the index where the results go
-	private JedisIndex index;
+	private PageIndex index;
 
 	// queue of URLs to be indexed
-	private Queue<String> queue = new LinkedList<String>();
+	private final Frontier queue;
 
 	// fetcher used to get pages from Wikipedia
 	final static WikiFetcher wf = WikiFetcher.getInstance();
 
+	// where the crawler gets pages from; the stored copies by default
+	private PageSource pageSource = wf::readWikipedia;
+
+	// whether to read sidecars instead of parsing pages
+	private boolean useSidecars = false;
+
+	// counters for the concurrent crawl
+	private final CrawlMetrics metrics = new CrawlMetrics();
+
+	// where the links between crawled pages are recorded, if anywhere
+	private LinkGraph linkGraph;
+
+	// told about every page indexed, so it learns how often pages change; may be null
+	private RecrawlScheduler recrawlScheduler;
+
+	// checkpoint the queue every `checkpointInterval` pages; 0 means never
+	private int checkpointInterval = 0;
+	private final AtomicLong pagesCrawled = new AtomicLong();
+
+	// how long an idle worker waits before looking at the queue again
+	private static final long IDLE_POLL_MILLIS = 50;
+
 	/**
 	 * Constructor.
 	 *
 	 * @param source
 	 * @param index
 	 */
-	public WikiCrawler(String source, JedisIndex index) {
+	public WikiCrawler(String source, PageIndex index) {
+		this(source, index, new BoundedFrontier());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * The source is only queued if the frontier is empty, so a crawler given a
+	 * frontier restored from disk resumes where the last one stopped.
+	 *
+	 * @param source
+	 * @param index
+	 * @param frontier  Holds the URLs waiting to be crawled.
+	 */
+	public WikiCrawler(String source, PageIndex index, Frontier frontier) {
 		this.source = source;
 		this.index = index;
-		queue.offer(source);
+		this.queue = frontier;
+		if (queue.isEmpty()) {
+			queue.offer(source);
+		}
+	}
+
+	/**
+	 * Makes a crawler that queues each URL at most once.
+	 *
+	 * @param source
+	 * @param index
+	 * @param expectedUrls       How many distinct URLs the crawl is expected to find.
+	 * @param falsePositiveRate  False positive rate of the Bloom filter in front of the seen-set.
+	 * @return
+	 */
+	public static WikiCrawler withDedup(String source, PageIndex index, long expectedUrls, double falsePositiveRate) {
+		Frontier frontier = new DedupFrontier(new BoundedFrontier(), expectedUrls, falsePositiveRate);
+		return new WikiCrawler(source, index, frontier);
+	}
+
+	/**
+	 * Makes a crawler that always visits the waiting URL with the most in-links.
+	 *
+	 * @param source
+	 * @param index
+	 * @return
+	 */
+	public static WikiCrawler withLinkPriority(String source, PageIndex index) {
+		return new WikiCrawler(source, index, new PriorityFrontier());
+	}
+
+	/**
+	 * Makes a crawler that replays a crawl from the local page store, at full speed.
+	 *
+	 * Every URL is read and parsed from the store, skipping the cache of parsed
+	 * pages so that every replay parses every page, and links are followed the
+	 * same way as in a live crawl. URLs that are not stored are counted as
+	 * missing and skipped quietly. The metrics then give a repeatable benchmark
+	 * of parsing and indexing, with no network or rate limit in the way.
+	 *
+	 * @param source
+	 * @param index
+	 * @return
+	 */
+	public static WikiCrawler replay(String source, PageIndex index) {
+		WikiCrawler crawler = withDedup(source, index, 1 << 20, 0.001);
+		crawler.setPageSource(wf::parseStored);
+		return crawler;
+	}
+
+	/**
+	 * Sets how often the queue is checkpointed, if it is Checkpointable.
+	 *
+	 * A concurrent crawl checkpoints when no worker holds a URL, so no URL is
+	 * polled but not yet crawled at the time, and once more when it stops.
+	 *
+	 * @param pages  Number of pages between checkpoints; 0 turns them off.
+	 */
+	public void setCheckpointInterval(int pages) {
+		this.checkpointInterval = pages;
+	}
+
+	/**
+	 * Checkpoints the queue, if it is Checkpointable.
+	 *
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		if (queue instanceof Checkpointable) {
+			((Checkpointable) queue).checkpoint();
+		}
+	}
+
+	/**
+	 * Sets where the crawler gets pages from.
+	 *
+	 * @param pageSource
+	 */
+	public void setPageSource(PageSource pageSource) {
+		this.pageSource = pageSource;
+	}
+
+	/**
+	 * Makes the crawler read the sidecars of stored pages instead of parsing them.
+	 *
+	 * The page source is not used while this is on. Sidecars hold the
+	 * paragraphs readWikipedia returns, so the pages are indexed the same way
+	 * as with the default page source.
+	 *
+	 * @param useSidecars
+	 */
+	public void setUseSidecars(boolean useSidecars) {
+		this.useSidecars = useSidecars;
+	}
+
+	/**
+	 * Sets where the links of each crawled page are recorded, e.g. for PageRank.
+	 *
+	 * @param linkGraph  null to stop recording links.
+	 */
+	public void setLinkGraph(LinkGraph linkGraph) {
+		this.linkGraph = linkGraph;
+	}
+
+	/**
+	 * Sets the scheduler that records each page indexed, with a hash of its content.
+	 *
+	 * @param scheduler  null to stop recording pages.
+	 */
+	public void setRecrawlScheduler(RecrawlScheduler scheduler) {
+		this.recrawlScheduler = scheduler;
 	}
 
 	/**
@@ -49,6 +206,15 @@ public class WikiCrawler {
 		return queue.size();
 	}
 
+	/**
+	 * Returns the counters of the concurrent crawl.
+	 *
+	 * @return
+	 */
+	public CrawlMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Gets a URL from the queue and indexes it.
 	 * @param testing
@@ -60,28 +226,266 @@ public class WikiCrawler {
 		if (queue.isEmpty()) return null;
 
 		final String url = queue.poll();
-		if (index.isIndexed(url) && !testing) return null;
+		if (!testing && isIndexed(url)) return null;
 
-		final var el = wf.readWikipedia(url);
-		index.indexPage(url, el);
+		crawlPage(url);
+		if (countPage()) {
+			checkpoint();
+		}
+        return url;
+	}
 
-		queueInternalLinks(el);
+	/**
+	 * Counts a crawled page.
+	 *
+	 * @return true if it is time for a checkpoint.
+	 */
+	private boolean countPage() {
+		long crawled = pagesCrawled.incrementAndGet();
+		return checkpointInterval > 0 && crawled % checkpointInterval == 0;
+	}
 
-        return url;
+	/**
+	 * Crawls with `workers` virtual threads until `limit` new pages are indexed
+	 * or the queue runs dry.
+	 *
+	 * Each worker takes a URL from the queue, fetches it, indexes it and queues
+	 * its links. Calls to the index are serialized, since a Jedis connection
+	 * cannot be shared between threads; fetching is where the time goes anyway.
+	 * To be polite to Wikipedia, use a PageSource that rate limits, like
+	 * WikiFetcher::fetchWikipedia.
+	 *
+	 * @param workers  Number of worker threads.
+	 * @param limit    Number of new pages to index.
+	 * @return number of pages indexed.
+	 * @throws IOException if a worker fails unexpectedly.
+	 * @throws InterruptedException
+	 */
+	public long crawlConcurrently(int workers, int limit) throws IOException, InterruptedException {
+		final CrawlState state = new CrawlState(limit);
+		final long before = metrics.pagesIndexed();
+		metrics.start();
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i=0; i<workers; i++) {
+				futures.add(executor.submit(() -> {
+					work(state);
+					return null;
+				}));
+			}
+		}
+		for (Future<Void> future: futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw new IOException("Crawl worker failed", e.getCause());
+			}
+		}
+		if (checkpointInterval > 0) {
+			checkpoint();
+		}
+		return metrics.pagesIndexed() - before;
+	}
+
+	/**
+	 * Coordinates the workers of one call to crawlConcurrently.
+	 *
+	 * Taking a URL and deciding that the crawl is over happen under the same
+	 * lock: if no worker holds a URL and the queue is empty, no more links can
+	 * arrive. A URL is only taken from the queue together with one of the
+	 * `limit` pages, so a worker never holds a URL it is not allowed to crawl;
+	 * putting it back would not work, since a DedupFrontier or PriorityFrontier
+	 * does not take a URL it has already handed out.
+	 *
+	 * When a checkpoint is due, no more URLs are handed out until the workers
+	 * have finished the ones they hold; the last one to finish takes the
+	 * checkpoint. (A ReentrantLock rather than synchronized, so waiting does
+	 * not pin the virtual thread.)
+	 */
+	private class CrawlState {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+		private final int limit;
+
+		// pages indexed or being indexed, and workers holding a URL
+		private int claimed = 0;
+		private int busy = 0;
+		private boolean checkpointDue = false;
+
+		// URLs held by workers; a copy of one of them still in the queue is skipped,
+		// so two workers never index the same page at once
+		private final Set<String> active = new HashSet<String>();
+
+		CrawlState(int limit) {
+			this.limit = limit;
+		}
+
+		/**
+		 * Returns the next URL to crawl, with one of the `limit` pages claimed
+		 * for it, or null when the crawl is over.
+		 */
+		String take() throws InterruptedException {
+			lock.lock();
+			try {
+				while (claimed < limit) {
+					if (checkpointDue) {
+						changed.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+						continue;
+					}
+					String url = queue.poll();
+					if (url != null && active.add(url)) {
+						busy++;
+						claimed++;
+						return url;
+					}
+					if (url != null) {
+						continue;
+					}
+					if (busy == 0) {
+						return null;
+					}
+					changed.await(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				return null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Releases the URL returned by take, and the page claimed for it if it was not indexed.
+		 *
+		 * @throws IOException if a checkpoint was due and failed.
+		 */
+		void done(String url, boolean indexed) throws IOException {
+			lock.lock();
+			try {
+				active.remove(url);
+				busy--;
+				if (!indexed) {
+					claimed--;
+				} else if (countPage()) {
+					checkpointDue = true;
+				}
+				if (checkpointDue && busy == 0) {
+					checkpointDue = false;
+					checkpoint();
+				}
+			} finally {
+				changed.signalAll();
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * The loop run by each worker of crawlConcurrently.
+	 */
+	private void work(CrawlState state) throws IOException, InterruptedException {
+		String url;
+		while ((url = state.take()) != null) {
+			// if the page does not get indexed, the page claimed for it goes back to the other workers
+			boolean indexed = false;
+			try {
+				if (isIndexed(url)) {
+					continue;
+				}
+				metrics.pageStarted();
+				try {
+					crawlPage(url);
+					indexed = true;
+				} catch (FileNotFoundException e) {
+					// not in the local store
+					metrics.pageMissing();
+				} catch (IOException e) {
+					System.err.println("Failed to crawl " + url + ": " + e.getMessage());
+				} finally {
+					metrics.pageFinished(indexed);
+				}
+			} finally {
+				state.done(url, indexed);
+			}
+		}
+	}
+
+	private boolean isIndexed(String url) {
+		metrics.indexLookedUp();
+		synchronized (index) {
+			return index.isIndexed(url);
+		}
+	}
+
+	/**
+	 * Fetches a page, indexes it, records its links and queues them.
+	 *
+	 * @param url
+	 * @throws IOException
+	 */
+	private void crawlPage(String url) throws IOException {
+		long start = System.nanoTime();
+		final TermCounter termCounter = new TermCounter(url);
+		Set<String> targets;
+		long parsed;
+		if (useSidecars) {
+			PageSidecar sidecar = wf.readSidecar(url);
+			parsed = System.nanoTime();
+			termCounter.processSidecar(sidecar);
+			targets = new LinkedHashSet<String>(sidecar.links());
+		} else {
+			final Elements paragraphs = pageSource.getParagraphs(url);
+			parsed = System.nanoTime();
+			termCounter.processElements(paragraphs);
+			targets = internalLinks(paragraphs);
+		}
+		long counted = System.nanoTime();
+
+		synchronized (index) {
+			index.indexPage(termCounter);
+		}
+		long indexed = System.nanoTime();
+		metrics.pageTimed(parsed - start, counted - parsed, indexed - counted, termCounter.size());
+
+		if (linkGraph != null) {
+			linkGraph.setLinks(url, targets);
+		}
+		if (recrawlScheduler != null) {
+			recrawlScheduler.record(url, RecrawlScheduler.contentHash(termCounter), System.currentTimeMillis());
+		}
+		for (String target: targets) {
+			queue.offer(target);
+		}
 	}
 
 	/**
 	 * Parses paragraphs and adds internal links to the queue.
-	 * 
+	 *
+	 * Each page linked to is queued once, however many times the page links to
+	 * it, so a PriorityFrontier counts in-links rather than anchors.
+	 *
 	 * @param paragraphs
 	 */
 	// NOTE: absence of access level modifier means package-level
 	void queueInternalLinks(Elements paragraphs) {
+		for (String target: internalLinks(paragraphs)) {
+			this.queue.offer(target);
+		}
+	}
+
+	/**
+	 * Returns the URLs of the pages the paragraphs link to, each once, in order.
+	 *
+	 * @param paragraphs
+	 * @return
+	 */
+	static Set<String> internalLinks(Elements paragraphs) {
         final WikiParser parser = new WikiParser(paragraphs);
 
+		Set<String> targets = new LinkedHashSet<String>();
 		for (Element link : parser.findAllInternalLinks()) {
-			this.queue.offer(WikiConstants.WIKI_ORIGIN_EN + link.attr("href"));
+			targets.add(WikiConstants.WIKI_ORIGIN_EN + link.attr("href"));
 		}
+		return targets;
 	}
 
 	public static void main(String[] args) throws IOException {
@@ -90,7 +494,7 @@ public class WikiCrawler {
 		JedisIndex index = new JedisIndex(jedis);
 		String source = "https://en.wikipedia.org/wiki/Java_(programming_language)";
 		WikiCrawler wc = new WikiCrawler(source, index);
-		
+
 		// for testing purposes, load up the queue
 		Elements paragraphs = wf.fetchWikipedia(source);
 		wc.queueInternalLinks(paragraphs);
@@ -103,7 +507,7 @@ public class WikiCrawler {
             // REMOVE THIS BREAK STATEMENT WHEN crawl() IS WORKING
 //            break;
 		} while (res == null);
-		
+
 		Map<String, Integer> map = index.getCounts("the");
 		for (Entry<String, Integer> entry: map.entrySet()) {
 			System.out.println(entry);
@@ -0,0 +1,246 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Crawls the pages stored in src/resources into an in-memory Index.
+ *
+ */
+public class WikiCrawlerConcurrentTest {
+
+	private static final String SOURCE = "https://en.wikipedia.org/wiki/Programming_language";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Index index;
+	private WikiCrawler wc;
+
+	@Before
+	public void setUp() {
+		index = new Index();
+		wc = new WikiCrawler(SOURCE, index);
+	}
+
+	@Test
+	public void testCrawlUntilLimit() throws Exception {
+		long indexed = wc.crawlConcurrently(4, 1);
+
+		assertThat(indexed, is(1L));
+		assertThat(index.isIndexed(SOURCE), is(true));
+		assertThat(wc.getMetrics().pagesIndexed(), is(1L));
+		assertThat(wc.getMetrics().inFlight(), is(0));
+		assertThat(wc.queueSize() > 0, is(true));
+	}
+
+	/**
+	 * Returns the paragraphs of a made-up page n, out of 20, that links to pages n+1 to n+5.
+	 */
+	private static Elements ringPage(String url) {
+		int n = Integer.parseInt(url.substring(url.lastIndexOf('_') + 1));
+		StringBuilder html = new StringBuilder("<div id=\"mw-content-text\"><p>");
+		for (int j=1; j<=5; j++) {
+			html.append("<a href=\"/wiki/Ring_").append((n + j) % 20).append("\">link</a> ");
+		}
+		html.append("</p></div>");
+		return WikiFetcher.parseParagraphs(html.toString(), url);
+	}
+
+	@Test
+	public void testEachPageIndexedOnce() throws Exception {
+		// every page is linked from five others, so workers keep finding the same ones
+		wc = new WikiCrawler("https://en.wikipedia.org/wiki/Ring_0", index);
+		wc.setPageSource(WikiCrawlerConcurrentTest::ringPage);
+		long indexed = wc.crawlConcurrently(8, 30);
+
+		assertThat(indexed, is(20L));
+		assertThat(wc.queueSize(), is(0));
+	}
+
+	@Test
+	public void testLinkPriority() throws Exception {
+		PriorityFrontier frontier = new PriorityFrontier();
+		wc = new WikiCrawler(SOURCE, index, frontier);
+		wc.crawlConcurrently(1, 1);
+
+		// every link found is counted once per page; the source is not queued again
+		assertThat(frontier.size(), is(frontier.urlsSeen() - 1));
+		String next = frontier.poll();
+		assertThat(frontier.inLinks(next), is(1));
+	}
+
+	@Test
+	public void testBoundedFrontier() throws Exception {
+		BoundedFrontier frontier = new BoundedFrontier(10);
+		wc = new WikiCrawler(SOURCE, index, frontier);
+		wc.crawlConcurrently(1, 1);
+
+		assertThat(wc.queueSize(), is(10));
+		assertThat(frontier.dropped() > 0, is(true));
+	}
+
+	@Test
+	public void testStopsWhenQueueRunsDry() throws Exception {
+		wc = new WikiCrawler("https://en.wikipedia.org/wiki/No_such_page", index);
+		long indexed = wc.crawlConcurrently(4, 10);
+
+		assertThat(indexed, is(0L));
+		assertThat(wc.getMetrics().failures(), is(1L));
+	}
+
+	@Test
+	public void testDedup() throws Exception {
+		String source = "https://en.wikipedia.org/wiki/Ring_0";
+		wc = new WikiCrawler(source, index);
+		wc.setPageSource(WikiCrawlerConcurrentTest::ringPage);
+		DedupFrontier frontier = new DedupFrontier(new BoundedFrontier(), 10000, 0.01);
+		WikiCrawler dedup = new WikiCrawler(source, new Index(), frontier);
+		dedup.setPageSource(WikiCrawlerConcurrentTest::ringPage);
+
+		// Ring_0 links to 1-5 and Ring_1 to 2-6, so four links are queued twice without dedup
+		wc.crawlConcurrently(1, 2);
+		dedup.crawlConcurrently(1, 2);
+		assertThat(wc.queueSize(), is(9));
+		assertThat(dedup.queueSize(), is(5));
+		assertThat(frontier.duplicates(), is(4L));
+
+		// crawled to the end, the duplicates cost index lookups only without dedup
+		assertThat(wc.crawlConcurrently(1, 100), is(18L));
+		assertThat(dedup.crawlConcurrently(1, 100), is(18L));
+		assertTrue(dedup.getMetrics().indexLookups() < wc.getMetrics().indexLookups());
+		assertThat(dedup.getMetrics().indexLookups(), is(20L));
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		WeightedCache<String, Elements> parsed = WikiFetcher.getInstance().getParsedCache();
+		long hits = parsed.hits();
+		long misses = parsed.misses();
+		wc = WikiCrawler.replay(SOURCE, index);
+		long indexed = wc.crawlConcurrently(2, Integer.MAX_VALUE);
+
+		// every page is parsed, none is taken from the cache
+		assertThat(parsed.hits(), is(hits));
+		assertThat(parsed.misses(), is(misses));
+
+		CrawlMetrics metrics = wc.getMetrics();
+		assertThat(indexed > 0, is(true));
+		assertThat(wc.queueSize(), is(0));
+		assertThat(metrics.missing(), is(metrics.failures()));
+		assertThat(metrics.terms() > 0, is(true));
+		assertThat(metrics.parseNanos() > 0, is(true));
+		assertThat(metrics.peakHeapBytes() > 0, is(true));
+	}
+
+	@Test
+	public void testResumeFromDisk() throws Exception {
+		Path dir = folder.newFolder("frontier").toPath();
+		wc = new WikiCrawler(SOURCE, index, new DiskFrontier(dir, 1 << 16));
+		wc.setCheckpointInterval(1);
+		wc.crawlConcurrently(1, 1);
+		int remaining = wc.queueSize();
+
+		// a new crawler over the same directory continues with the saved queue
+		WikiCrawler resumed = new WikiCrawler(SOURCE, new Index(), new DiskFrontier(dir, 1 << 16));
+		assertThat(resumed.queueSize(), is(remaining));
+		assertThat(index.isIndexed(SOURCE), is(true));
+	}
+
+	/**
+	 * Returns the paragraphs of a made-up page that links to ten others, out of 200.
+	 */
+	private static Elements syntheticPage(String url) throws IOException {
+		int n = Integer.parseInt(url.substring(url.lastIndexOf('_') + 1));
+		StringBuilder html = new StringBuilder("<div id=\"mw-content-text\"><p>");
+		for (int j=1; j<=10; j++) {
+			html.append("<a href=\"/wiki/Page_").append((n * 7 + j) % 200).append("\">link</a> ");
+		}
+		html.append("</p></div>");
+		return WikiFetcher.parseParagraphs(html.toString(), url);
+	}
+
+	@Test
+	public void testNoUrlLostAtLimit() throws Exception {
+		String source = "https://en.wikipedia.org/wiki/Page_0";
+		index = new Index() {
+			@Override
+			public boolean isIndexed(String url) {
+				// a slow lookup, so other workers take URLs meanwhile
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.isIndexed(url);
+			}
+		};
+		DedupFrontier frontier = new DedupFrontier(new BoundedFrontier(), 10000, 0.001);
+		wc = new WikiCrawler(source, index, frontier);
+		wc.setPageSource(WikiCrawlerConcurrentTest::syntheticPage);
+		for (int round=0; round<5; round++) {
+			assertThat(wc.crawlConcurrently(8, 7), is(7L));
+		}
+
+		// every URL found is either indexed or still waiting
+		Set<String> found = new HashSet<String>();
+		found.add(source);
+		Set<String> waiting = new HashSet<String>();
+		for (int n=0; n<200; n++) {
+			String page = "https://en.wikipedia.org/wiki/Page_" + n;
+			if (index.isIndexed(page)) {
+				found.add(page);
+				for (Element link: syntheticPage(page).select("a")) {
+					found.add(link.absUrl("href"));
+				}
+			}
+		}
+		String url;
+		while ((url = frontier.poll()) != null) {
+			waiting.add(url);
+		}
+		for (String target: found) {
+			assertTrue(target, index.isIndexed(target) || waiting.contains(target));
+		}
+	}
+
+	@Test
+	public void testNoUrlLostOnResume() throws Exception {
+		String source = "https://en.wikipedia.org/wiki/Page_0";
+		Path dir = folder.newFolder("resume").toPath();
+		Path state = dir.resolve("seen");
+		wc = new WikiCrawler(source, index, DedupFrontier.open(new DiskFrontier(dir, 1 << 16), state, 10000, 0.001));
+		wc.setPageSource(WikiCrawlerConcurrentTest::syntheticPage);
+		wc.setCheckpointInterval(3);
+		wc.crawlConcurrently(8, 20);
+
+		// a crawler reopened from disk still has every URL found but not indexed
+		DedupFrontier frontier = DedupFrontier.open(new DiskFrontier(dir, 1 << 16), state, 10000, 0.001);
+		Set<String> waiting = new HashSet<String>();
+		String url;
+		while ((url = frontier.poll()) != null) {
+			waiting.add(url);
+		}
+		for (int n=0; n<200; n++) {
+			String page = "https://en.wikipedia.org/wiki/Page_" + n;
+			if (index.isIndexed(page)) {
+				for (Element link: syntheticPage(page).select("a")) {
+					String target = link.absUrl("href");
+					assertTrue(target, index.isIndexed(target) || waiting.contains(target));
+				}
+			}
+		}
+	}
+}
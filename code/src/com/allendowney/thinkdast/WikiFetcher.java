@@ -1,27 +1,43 @@
 package com.allendowney.thinkdast;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 import com.allendowney.thinkdast.constants.ResourcesConstants;
 import com.allendowney.thinkdast.utils.ResourcesUtility;
-import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 import org.jsoup.select.Elements;
 
 
 public class WikiFetcher {
 	private static WikiFetcher instance;
+	private static final long PARSED_CACHE_BYTES = 64L << 20;
 	private final ResourcesUtility resourcesUtility;
-	private long lastRequestTime = -1;
-	private static final long minInterval = 1000;
-	public static WikiFetcher getInstance() {
+	// at most one request per second to each host, as before
+	private final PolitenessScheduler scheduler = new PolitenessScheduler(1, 1);
+	// shared by all threads; stores pages with their ETag and Last-Modified
+	private final HttpPageFetcher httpFetcher;
+	// the pages we have fetched, opened when first needed
+	private PageStore pageStore;
+	// paragraphs of stored pages recently read, bounded by their estimated size in bytes
+	private final WeightedCache<String, Elements> parsedCache =
+			new WeightedCache<String, Elements>(PARSED_CACHE_BYTES, WikiFetcher::estimateSize);
+	// text and links extracted from each page version, opened when first needed
+	private SidecarStore sidecarStore;
+
+	public static synchronized WikiFetcher getInstance() {
 		if (instance == null) {
 			instance = new WikiFetcher();
 		}
@@ -29,6 +45,89 @@ public class WikiFetcher {
 	}
 	private WikiFetcher() {
 		this.resourcesUtility = new ResourcesUtility();
+		this.httpFetcher = new HttpPageFetcher(new StoreCache());
+	}
+
+	/**
+	 * Returns the store fetched pages are kept in, under src/resources.
+	 *
+	 * The store flushes its index from time to time as pages are added, and
+	 * once more when the program exits.
+	 *
+	 * @param create  Whether to create the store if it does not exist yet.
+	 * @return the store, or null if it does not exist and `create` is false.
+	 * @throws IOException
+	 */
+	public synchronized PageStore getPageStore(boolean create) throws IOException {
+		if (pageStore == null) {
+			Path dir = Path.of("src", ResourcesConstants.PAGE_STORE_PATH);
+			if (!create && !Files.exists(dir.resolve(PageStore.DATA_FILE))) {
+				return null;
+			}
+			final PageStore store = new PageStore(dir);
+			// the fetcher is never closed, so write the index when the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					store.flush();
+				} catch (IOException e) {
+					System.err.println("Failed to flush the page store: " + e.getMessage());
+				}
+			}));
+			pageStore = store;
+		}
+		return pageStore;
+	}
+
+	/**
+	 * Keeps fetched pages somewhere else, e.g. in a temporary directory.
+	 *
+	 * Pages already parsed from the old store are dropped. The caller is
+	 * responsible for flushing and closing the store.
+	 *
+	 * @param store  null to go back to the store under src/resources.
+	 */
+	public synchronized void setPageStore(PageStore store) {
+		this.pageStore = store;
+		parsedCache.clear();
+	}
+
+	/**
+	 * Returns the store sidecars are kept in, next to the page store.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized SidecarStore getSidecarStore() throws IOException {
+		if (sidecarStore == null) {
+			sidecarStore = new SidecarStore(Path.of("src", ResourcesConstants.PAGE_STORE_PATH));
+		}
+		return sidecarStore;
+	}
+
+	/**
+	 * Keeps sidecars somewhere else, e.g. in a temporary directory.
+	 *
+	 * @param store  null to go back to the store next to the page store.
+	 */
+	public synchronized void setSidecarStore(SidecarStore store) {
+		this.sidecarStore = store;
+	}
+
+	/**
+	 * Lets the HTTP fetcher use the page store without creating it just to look something up.
+	 */
+	private class StoreCache implements PageCache {
+		@Override
+		public CachedPage get(String url) throws IOException {
+			PageStore store = getPageStore(false);
+			return store == null ? null : store.get(url);
+		}
+
+		@Override
+		public void put(CachedPage page) throws IOException {
+			getPageStore(true).put(page);
+			parsedCache.invalidate(page.url);
+		}
 	}
 
 	/**
@@ -39,66 +138,286 @@ public class WikiFetcher {
 	 * @throws IOException
 	 */
 	public Elements fetchWikipedia(String url) throws IOException {
-		sleepIfNeeded();
+		scheduler.acquire(url);
+		return download(url);
+	}
+
+	/**
+	 * Fetches a page, unless the stored copy is still current.
+	 *
+	 * Uses a conditional GET, so a page that has not changed is neither
+	 * transferred nor parsed again.
+	 *
+	 * @param url
+	 * @return the paragraphs of the page, or null if it has not changed.
+	 * @throws IOException
+	 */
+	public Elements fetchWikipediaIfModified(String url) throws IOException {
+		scheduler.acquire(url);
+		HttpPageFetcher.Result result = httpFetcher.fetch(url);
+		if (!result.modified) {
+			return null;
+		}
+		return selectParagraphs(result.doc);
+	}
 
-		// download and parse the document
-		Connection conn = Jsoup.connect(url);
-		Document doc = conn.get();
-		this.resourcesUtility.downloadWikiPage(doc);
+	/**
+	 * Fetches the HTML of a page without parsing it.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public String fetchWikipediaHtml(String url) throws IOException {
+		scheduler.acquire(url);
+		return httpFetcher.fetch(url).page.html;
+	}
+
+	private Elements download(String url) throws IOException {
+		HttpPageFetcher.Result result = httpFetcher.fetch(url);
+		if (result.doc != null) {
+			return selectParagraphs(result.doc);
+		}
+		// not modified, so only the stored copy is at hand
+		return parseParagraphs(result.page.html, result.page.url);
+	}
+
+	/**
+	 * Parses a page and returns its paragraphs, leaving out sidebars and boxouts.
+	 *
+	 * @param html
+	 * @param url
+	 * @return
+	 */
+	public static Elements parseParagraphs(String html, String url) {
+		// parse the document
+		return selectParagraphs(Jsoup.parse(html, url));
+	}
 
+	private static Elements selectParagraphs(Document doc) {
 		// select the content text and pull out the paragraphs.
 		Element content = doc.getElementById("mw-content-text");
 
 		// avoid selecting paragraphs from sidebars and boxouts
-		this.clearSidebarsAndBoxouts(content);
+		clearSidebarsAndBoxouts(content);
 
 		return content.select("p"); // Remove sidebars
 	}
 
-	private void clearSidebarsAndBoxouts(Element DOM) {
+	private static void clearSidebarsAndBoxouts(Element DOM) {
 		DOM.select(".sidebar, .infobox").remove();
 	}
+
 	/**
-	 * Reads the contents of a Wikipedia page from src/resources.
+	 * Reads the HTML of a stored page without parsing it.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public String readWikipediaHtml(String url) throws IOException {
+		try (InputStream stream = openStored(url)) {
+			return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+	/**
+	 * Reads the contents of a Wikipedia page from the page store, or from src/resources.
+	 *
+	 * Sidebars and boxouts are left out, as in fetchWikipedia.
+	 *
+	 * Pages read recently are kept parsed, so reading one again does not parse
+	 * it again. The Elements returned are shared: callers must not modify them.
 	 *
 	 * @param url
 	 * @return
 	 * @throws IOException
 	 */
 	public Elements readWikipedia(String url) throws IOException {
-		URL realURL = new URL(url);
+		return parsedCache.get(url, this::parseStored);
+	}
+
+	/**
+	 * Reads and parses a stored page, without looking in or adding to the cache readWikipedia keeps.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	Elements parseStored(String url) throws IOException {
+		// read the stored copy
+		Document doc;
+		try (InputStream stream = openStored(url)) {
+			doc = Jsoup.parse(stream, "UTF-8", url);
+		}
+
+		// parse the contents of the file, and copy the paragraphs out of the
+		// document so the cache does not keep the rest of it alive
+		Element content = doc.getElementById("mw-content-text");
+		clearSidebarsAndBoxouts(content);
+		Elements paragraphs = new Elements();
+		for (Element p: content.select("p")) {
+			paragraphs.add(p.clone());
+		}
+		return paragraphs;
+	}
+
+	/**
+	 * Estimates how many bytes a list of parsed elements takes on the heap.
+	 *
+	 * About 64 bytes for each node and its child list, plus two bytes per character of text.
+	 *
+	 * @param elements
+	 * @return
+	 */
+	static long estimateSize(Elements elements) {
+		long size = 0;
+		for (Element element: elements) {
+			for (Node node: new WikiNodeIterable(element)) {
+				size += 64;
+				if (node instanceof TextNode) {
+					size += 2 * ((TextNode) node).getWholeText().length();
+				} else {
+					size += 2 * node.attributes().html().length();
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the sidecar of the stored version of a page, extracting it if it is missing or stale.
+	 *
+	 * The version of a page in the page store is the time it was fetched; pages
+	 * that are only in src/resources have version 0. So each version is parsed
+	 * once, and after that reading the page costs one read from the sidecar store.
+	 * Sidecars are only written here, so fetching pages leaves the sidecar store alone.
+	 *
+	 * The sidecar is extracted from the paragraphs readWikipedia returns, so it
+	 * has the same text and links the crawler indexes by default.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public PageSidecar readSidecar(String url) throws IOException {
+		PageStore store = getPageStore(false);
+		long version = store == null ? -1 : store.fetchedAt(url);
+		if (version == -1) {
+			version = 0;
+		}
+		SidecarStore sidecars = getSidecarStore();
+		if (sidecars.version(url) == version) {
+			PageSidecar sidecar = sidecars.get(url);
+			if (sidecar != null) {
+				return sidecar;
+			}
+		}
+		PageSidecar sidecar = PageSidecar.extract(url, version, readWikipedia(url));
+		sidecars.put(sidecar);
+		return sidecar;
+	}
+
+	/**
+	 * Counts the paragraph terms of a stored page without building a DOM.
+	 *
+	 * Sidebars and boxouts are skipped, the same way fetchWikipedia removes them.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public TermCounter readWikipediaTerms(String url) throws IOException {
+		TermCounter counter = new TermCounter(url);
+		try (InputStream stream = openStored(url)) {
+			WikiContentScanner.countTerms(stream, counter);
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the classpath resource name of the stored copy of a page.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	private String getResourceName(String url) throws IOException {
+		URL realURL;
+		try {
+			realURL = URI.create(url).toURL();
+		} catch (IllegalArgumentException e) {
+			// not a URL any page could have been stored under
+			throw new FileNotFoundException("No stored copy of " + url);
+		}
 		this.resourcesUtility.ensureWikiDir();
 
 		// assemble the file name
 		String slash = File.separator;
-		String filename = ResourcesConstants.WIKI_PATH + slash + this.resourcesUtility.getWikiPageFileNameFromURL(realURL);
+		return ResourcesConstants.WIKI_PATH + slash + this.resourcesUtility.getWikiPageFileNameFromURL(realURL);
+	}
 
-		// read the file
+	/**
+	 * Opens the stored copy of a page: from the page store if it is there,
+	 * otherwise from the one-file-per-page resources.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	private InputStream openStored(String url) throws IOException {
+		PageStore store = getPageStore(false);
+		if (store != null) {
+			InputStream stream = store.openStream(url);
+			if (stream != null) {
+				return stream;
+			}
+		}
+		return openResource(getResourceName(url));
+	}
+
+	private InputStream openResource(String filename) throws FileNotFoundException {
 		InputStream stream = WikiFetcher.class.getClassLoader().getResourceAsStream(filename);
-		Document doc = Jsoup.parse(stream, "UTF-8", filename);
+		if (stream == null) {
+			throw new FileNotFoundException("Failed to find " + filename);
+		}
+		return stream;
+	}
 
-		// parse the contents of the file
-		Element content = doc.getElementById("mw-content-text");
-		return content.select("p");
+	/**
+	 * Fetches a page once its host has budget, without blocking the caller.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public CompletableFuture<Elements> fetchWikipediaAsync(String url) {
+		return scheduler.schedule(url, () -> download(url));
 	}
 
 	/**
-	 * Rate limits by waiting at least the minimum interval between requests.
+	 * Returns the HTTP fetcher, e.g. to read its counters.
+	 *
+	 * @return
 	 */
-	private void sleepIfNeeded() {
-		if (lastRequestTime != -1) {
-			long currentTime = System.currentTimeMillis();
-			long nextRequestTime = lastRequestTime + minInterval;
-			if (currentTime < nextRequestTime) {
-				try {
-					//System.out.println("Sleeping until " + nextRequestTime);
-					Thread.sleep(nextRequestTime - currentTime);
-				} catch (InterruptedException e) {
-					System.err.println("Warning: sleep interrupted in fetchWikipedia.");
-				}
-			}
-		}
-		lastRequestTime = System.currentTimeMillis();
+	public HttpPageFetcher getHttpFetcher() {
+		return httpFetcher;
+	}
+
+	/**
+	 * Returns the cache of parsed stored pages, e.g. to read its counters.
+	 *
+	 * @return
+	 */
+	public WeightedCache<String, Elements> getParsedCache() {
+		return parsedCache;
+	}
+
+	/**
+	 * Returns the scheduler that rate limits requests, e.g. to set the rate for a host.
+	 *
+	 * @return
+	 */
+	public PolitenessScheduler getScheduler() {
+		return scheduler;
 	}
 
 	/**
@@ -1,22 +1,22 @@
 /**
- * 
+ *
  */
 package com.allendowney.thinkdast;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Deque;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
 
 
 /**
  * Performs a depth-first traversal of a jsoup Node.
  *
+ * The traversal follows parent and sibling links instead of keeping a stack,
+ * so visiting a node does not allocate anything.
+ *
  * @author downey
  *
  */
@@ -35,53 +35,134 @@ public class WikiNodeIterable implements Iterable<Node> {
 
 	@Override
 	public Iterator<Node> iterator() {
-		return new WikiNodeIterator(root);
+		return new WikiNodeIterator<Node>(root, Node.class, null);
+	}
+
+	/**
+	 * Returns the TextNodes under `root`, in depth-first order.
+	 *
+	 * @param root
+	 * @return
+	 */
+	public static Iterable<TextNode> textNodes(final Node root) {
+		return () -> new WikiNodeIterator<TextNode>(root, TextNode.class, null);
+	}
+
+	/**
+	 * Returns the Elements under `root` with the given tag name, in depth-first order.
+	 *
+	 * @param root
+	 * @param tagName
+	 * @return
+	 */
+	public static Iterable<Element> elements(final Node root, final String tagName) {
+		return () -> new WikiNodeIterator<Element>(root, Element.class, tagName);
+	}
+
+	/**
+	 * Returns the {@code <a>} Elements under `root`, in depth-first order.
+	 *
+	 * @param root
+	 * @return
+	 */
+	public static Iterable<Element> links(Node root) {
+		return elements(root, "a");
 	}
 
 	/**
 	 * Inner class that implements the Iterator.
 	 *
+	 * Only the nodes that are instances of `type` (and, for Elements, have
+	 * the given tag name) are returned; the others are walked over.
+	 *
 	 * @author downey
 	 *
 	 */
-	private class WikiNodeIterator implements Iterator<Node> {
+	private static class WikiNodeIterator<T extends Node> implements Iterator<T> {
+
+		private final Node root;
+		private final Class<T> type;
+		private final String tagName;
 
-		// this stack keeps track of the Nodes waiting to be visited
-		Deque<Node> stack;
+		// the next Node to return, or null when the traversal is done
+		private T next;
+
+		// the last Node visited by the traversal, matching or not
+		private Node current;
 
 		/**
-		 * Initializes the Iterator with the root Node on the stack.
+		 * Initializes the Iterator at the root Node.
 		 *
-		 * @param node
+		 * @param root
+		 * @param type
+		 * @param tagName
 		 */
-		public WikiNodeIterator(Node node) {
-			stack = new ArrayDeque<Node>();
-		    stack.push(root);
+		public WikiNodeIterator(Node root, Class<T> type, String tagName) {
+			this.root = root;
+			this.type = type;
+			this.tagName = tagName;
+			this.current = root;
+			if (!matches(root)) {
+				advance();
+			} else {
+				next = type.cast(root);
+			}
 		}
 
 		@Override
 		public boolean hasNext() {
-			return !stack.isEmpty();
+			return next != null;
 		}
 
 		@Override
-		public Node next() {
-			// if the stack is empty, we're done
-			if (stack.isEmpty()) {
+		public T next() {
+			// if there is no next node, we're done
+			if (next == null) {
 				throw new NoSuchElementException();
 			}
+			T node = next;
+			advance();
+			return node;
+		}
+
+		/**
+		 * Moves `current` forward in pre-order until it finds a match or runs out of nodes.
+		 */
+		private void advance() {
+			next = null;
+			while (current != null) {
+				current = successor(current);
+				if (current != null && matches(current)) {
+					next = type.cast(current);
+					return;
+				}
+			}
+		}
 
-			// otherwise pop the next Node off the stack
-			Node node = stack.pop();
-			//System.out.println(node);
+		/**
+		 * Returns the Node after `node` in pre-order, staying inside the subtree of `root`.
+		 */
+		private Node successor(Node node) {
+			// go down to the first child, if there is one
+			if (node.childNodeSize() > 0) {
+				return node.childNode(0);
+			}
+			// otherwise go up until we find a Node with a next sibling
+			while (node != root) {
+				Node sibling = node.nextSibling();
+				if (sibling != null) {
+					return sibling;
+				}
+				node = node.parent();
+			}
+			return null;
+		}
 
-			// push the children onto the stack in reverse order
-			List<Node> nodes = new ArrayList<Node>(node.childNodes());
-			Collections.reverse(nodes);
-			for (Node child: nodes) {
-				stack.push(child);
+		private boolean matches(Node node) {
+			if (!type.isInstance(node)) {
+				return false;
 			}
-			return node;
+			return tagName == null || ((Element) node).tagName().equals(tagName);
 		}
 
 		@Override
@@ -0,0 +1,82 @@
+package com.allendowney.thinkdast;
+
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WikiNodeIterableTest {
+
+	private Element root;
+
+	@Before
+	public void setUp() throws IOException {
+		WikiFetcher wf = WikiFetcher.getInstance();
+		Elements paragraphs = wf.readWikipedia("https://en.wikipedia.org/wiki/Mathematics");
+		root = paragraphs.get(1);
+	}
+
+	@Test
+	public void testPreOrder() {
+		List<Node> expected = new ArrayList<Node>();
+		recursiveDFS(root, expected);
+
+		List<Node> actual = new ArrayList<Node>();
+		for (Node node: new WikiNodeIterable(root)) {
+			actual.add(node);
+		}
+		assertThat(actual.size(), is(expected.size()));
+		for (int i=0; i<expected.size(); i++) {
+			assertSame(expected.get(i), actual.get(i));
+		}
+	}
+
+	@Test
+	public void testTextNodes() {
+		List<Node> expected = new ArrayList<Node>();
+		recursiveDFS(root, expected);
+		expected.removeIf(node -> !(node instanceof TextNode));
+
+		List<Node> actual = new ArrayList<Node>();
+		for (TextNode node: WikiNodeIterable.textNodes(root)) {
+			actual.add(node);
+		}
+		assertThat(actual, is(expected));
+	}
+
+	@Test
+	public void testLinks() {
+		List<Element> actual = new ArrayList<Element>();
+		for (Element link: WikiNodeIterable.links(root)) {
+			actual.add(link);
+		}
+		assertThat(actual, is((List<Element>) root.select("a")));
+	}
+
+	@Test
+	public void testLeaf() {
+		Node leaf = WikiNodeIterable.textNodes(root).iterator().next();
+		List<Node> actual = new ArrayList<Node>();
+		for (Node node: new WikiNodeIterable(leaf)) {
+			actual.add(node);
+		}
+		assertThat(actual.size(), is(1));
+		assertFalse(WikiNodeIterable.links(leaf).iterator().hasNext());
+	}
+
+	private static void recursiveDFS(Node node, List<Node> nodes) {
+		nodes.add(node);
+		for (Node child: node.childNodes()) {
+			recursiveDFS(child, nodes);
+		}
+	}
+}
@@ -37,13 +37,9 @@ public class WikiParser {
 		List<Element> internalLinks = new ArrayList<>();
 
 		for (Element elt : this.paragraphs) {
-			Iterable<Node> wikiNode = new WikiNodeIterable(elt);
-
-			for (Node n : wikiNode) {
-				if (n instanceof TextNode) continue;
-
-				if (this.validInternal((Element) n)) {
-					internalLinks.add((Element) n);
+			for (Element link : WikiNodeIterable.links(elt)) {
+				if (this.validInternal(link)) {
+					internalLinks.add(link);
 				}
 			}
 		}
@@ -57,9 +53,6 @@ public class WikiParser {
 	}
 
 	private boolean validInternal(Element elt) {
-		if (!elt.tagName().equals("a")) {
-			return false;
-		}
 		// is external origin
 		if (!startsWith(elt, "/wiki/")) {
 			return false;
@@ -1,19 +1,66 @@
 package com.allendowney.thinkdast;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import static com.allendowney.thinkdast.constants.WikiConstants.*;
 
 public class WikiPhilosophy {
     private final static String WIKI_PHILOSOPHY_URL = WIKI_ORIGIN_EN + WIKI_PHILOSOPHY;
-    final static List<String> visited = new ArrayList<String>();
-    final static WikiFetcher wf = WikiFetcher.getInstance();
+
+    /**
+     * How a chain of first links ended.
+     */
+    public enum Outcome {
+        // reached the destination
+        REACHED,
+        // came back to a page it had already visited
+        LOOP,
+        // reached a page with no valid link
+        DEAD_END,
+        // reached a page that could not be fetched
+        MISSING,
+        // gave up after `limit` pages
+        LIMIT,
+        // following the chain failed with an unexpected exception
+        FAILED
+    }
+
+    /**
+     * Where following first links from a page led.
+     */
+    public static class Result {
+        public final Outcome outcome;
+        // number of links followed
+        public final int hops;
+        // the destination, the first page visited twice, or the page where the chain stopped
+        public final String end;
+
+        Result(Outcome outcome, int hops, String end) {
+            this.outcome = outcome;
+            this.hops = hops;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return outcome + " after " + hops + " hops at " + end;
+        }
+    }
 
     /**
      * Tests a conjecture about Wikipedia and Philosophy.
@@ -32,53 +79,219 @@ public class WikiPhilosophy {
         String destination = "https://en.wikipedia.org/wiki/Philosophy";
         String source = "https://en.wikipedia.org/wiki/Java_(programming_language)";
 
-        testConjecture(destination, source, 10);
+        // every stored page and every page they link to, with the stored pages only
+        WikiFetcher wf = WikiFetcher.getInstance();
+        Set<String> sources = new LinkedHashSet<String>();
+        for (String page: STORED_PAGES) {
+            String url = WIKI_ORIGIN_EN + WIKI_PAGE_PREFIX + page;
+            sources.add(url);
+            sources.addAll(WikiCrawler.internalLinks(wf.readWikipedia(url)));
+        }
+        FirstLinkCache cache = new FirstLinkCache(null, wf::readWikipedia);
+        for (int round=0; round<2; round++) {
+            long start = System.nanoTime();
+            Map<String, Result> results = testConjectures(destination, sources, 100, 8, cache);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(summarize(results));
+            System.out.printf("%.1f ms, %d pages fetched so far, %d cache hits%n",
+                    elapsed / 1e6, cache.fetches(), cache.hits());
+        }
+        for (String page: STORED_PAGES) {
+            String url = WIKI_ORIGIN_EN + WIKI_PAGE_PREFIX + page;
+            System.out.println(page + ": " + testConjectures(destination, List.of(url), 100, 1, cache).get(url));
+        }
+
+        testConjecture(destination, source, 10, cache);
     }
 
     /**
      * Starts from given URL and follows first link until it finds the destination or exceeds the limit.
      *
+     * First links come from the shared FirstLinkCache, so pages seen before are not fetched again.
+     *
      * @param destination
      * @param source
      * @throws IOException
      */
     public static void testConjecture(String destination, String source, int limit) throws IOException {
-        WikiParser parser;
-        Elements content;
-        Element linkElement;
-        String parsedLink;
-
-        int pageHops = 0;
-        while (!destination.equals(source) && limit >= pageHops) {
-            ++pageHops;
-
-            System.out.println(source + " #" + pageHops);
-            content = wf.fetchWikipedia(source);
-            parser = new WikiParser(content);
-
-            linkElement = parser.findFirstLink();
-            if (linkElement == null) {
-                throw new RuntimeException("No links were found on " + source);
+        testConjecture(destination, source, limit, FirstLinkCache.getInstance());
+    }
+
+    /**
+     * Like testConjecture(destination, source, limit), with first links from `cache`.
+     *
+     * The cache is flushed however the chain ends, so the links found are kept.
+     *
+     * @param destination
+     * @param source
+     * @param limit
+     * @param cache
+     * @throws IOException
+     */
+    public static void testConjecture(String destination, String source, int limit, FirstLinkCache cache) throws IOException {
+        try {
+            Set<String> visited = new LinkedHashSet<String>();
+            String parsedLink;
+
+            int pageHops = 0;
+            while (!destination.equals(source) && limit >= pageHops) {
+                ++pageHops;
+
+                System.out.println(source + " #" + pageHops);
+                parsedLink = cache.firstLink(source);
+                if (parsedLink == null) {
+                    throw new RuntimeException("No links were found on " + source);
+                }
+
+                if (parsedLink.equals(WIKI_PHILOSOPHY_URL)) {
+                    System.out.println("Reached " + WIKI_PHILOSOPHY_URL + " after " + pageHops + " tries." );
+                    return;
+                }
+
+                if (!visited.add(parsedLink)) {
+                    throw new RuntimeException(parsedLink + " is already visited.");
+                }
+
+                source = parsedLink;
             }
 
-            parsedLink = parseWikiLink(linkElement);
-            if (parsedLink.equals(WIKI_PHILOSOPHY_URL)) {
-                System.out.println("Reached " + WIKI_PHILOSOPHY_URL + " after " + pageHops + " tries." );
-                return;
+            System.out.println("Failed to reach " + WIKI_PHILOSOPHY_URL);
+        } finally {
+            cache.flush();
+        }
+    }
+
+    /**
+     * Tests the conjecture for many sources at once, with `threads` virtual threads.
+     *
+     * Chains that run into a page whose outcome is already known stop there and
+     * add up the hops, so the pages shared by many chains (like the last few
+     * before Philosophy) are followed once per batch, and fetched once per cache.
+     *
+     * @param destination
+     * @param sources
+     * @param limit    Most pages to follow from one source before giving up.
+     * @param threads
+     * @param cache
+     * @return The result for each source, in the order given.
+     */
+    public static Map<String, Result> testConjectures(String destination, Collection<String> sources, int limit,
+                                                      int threads, FirstLinkCache cache) {
+        // outcome of every page on a finished chain
+        Map<String, Result> known = new ConcurrentHashMap<String, Result>();
+        Map<String, Result> results = new ConcurrentHashMap<String, Result>();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofVirtual().factory())) {
+            for (String source: sources) {
+                executor.submit(() -> {
+                    Result result;
+                    try {
+                        result = follow(destination, source, limit, cache, known);
+                    } catch (RuntimeException e) {
+                        // one bad page should not cost the results of the others
+                        System.err.println("Failed to follow " + source + ": " + e);
+                        result = new Result(Outcome.FAILED, 0, source);
+                    }
+                    results.put(source, result);
+                });
             }
+        }
+
+        Map<String, Result> ordered = new LinkedHashMap<String, Result>();
+        for (String source: sources) {
+            ordered.put(source, results.get(source));
+        }
+        return ordered;
+    }
+
+    /**
+     * Follows first links from `source` and records the outcome of every page on the way in `known`.
+     */
+    private static Result follow(String destination, String source, int limit,
+                                 FirstLinkCache cache, Map<String, Result> known) {
+        // the pages followed so far, and where each is in `path`
+        List<String> path = new ArrayList<String>();
+        Map<String, Integer> positions = new HashMap<String, Integer>();
 
-            if (visited.contains(parsedLink)) {
-                throw new RuntimeException(parsedLink + " is already visited.");
+        // how the chain ends, counted from `url`
+        Result end;
+        // where on `path` the chain looped back to, if it did
+        int loopStart = -1;
+        String url = source;
+        while (true) {
+            if (url.equals(destination)) {
+                end = new Result(Outcome.REACHED, 0, url);
+                break;
+            }
+            Result result = known.get(url);
+            if (result != null) {
+                end = result;
+                break;
+            }
+            if (positions.containsKey(url)) {
+                end = new Result(Outcome.LOOP, 0, url);
+                loopStart = positions.get(url);
+                break;
             }
+            if (path.size() >= limit) {
+                end = new Result(Outcome.LIMIT, 0, url);
+                break;
+            }
+            String link;
+            try {
+                link = cache.firstLink(url);
+            } catch (FileNotFoundException e) {
+                end = new Result(Outcome.MISSING, 0, url);
+                break;
+            } catch (IOException e) {
+                System.err.println("Failed to fetch " + url + ": " + e.getMessage());
+                end = new Result(Outcome.MISSING, 0, url);
+                break;
+            }
+            if (link == null) {
+                end = new Result(Outcome.DEAD_END, 0, url);
+                break;
+            }
+            positions.put(url, path.size());
+            path.add(url);
+            url = link;
+        }
 
-            visited.add(parsedLink);
-            source = parsedLink;
+        // a chain cut short by the limit says nothing about where its pages lead
+        if (end.outcome != Outcome.LIMIT) {
+            for (int i=0; i<path.size(); i++) {
+                if (i >= loopStart && loopStart != -1) {
+                    // a page on the loop comes back to itself
+                    known.putIfAbsent(path.get(i), new Result(Outcome.LOOP, path.size() - loopStart, path.get(i)));
+                } else {
+                    known.putIfAbsent(path.get(i), new Result(end.outcome, path.size() - i + end.hops, end.end));
+                }
+            }
         }
+        return new Result(end.outcome, path.size() + end.hops, end.end);
+    }
 
-        System.out.println("Failed to reach " + WIKI_PHILOSOPHY_URL);
+    /**
+     * Counts the results by outcome and finds the mean number of hops to the destination.
+     *
+     * @param results
+     * @return
+     */
+    public static String summarize(Map<String, Result> results) {
+        Map<Outcome, Integer> counts = new EnumMap<Outcome, Integer>(Outcome.class);
+        long hops = 0;
+        for (Result result: results.values()) {
+            counts.merge(result.outcome, 1, Integer::sum);
+            if (result.outcome == Outcome.REACHED) {
+                hops += result.hops;
+            }
+        }
+        int reached = counts.getOrDefault(Outcome.REACHED, 0);
+        return String.format("%d sources: %s, mean hops to destination %.1f",
+                results.size(), counts, reached == 0 ? 0.0 : hops / (double) reached);
     }
 
-    private static String parseWikiLink(Element el) {
+    static String parseWikiLink(Element el) {
         String link = el.attr("href");
         if (!link.startsWith(WIKI_ORIGIN_EN)) {
             link = WIKI_ORIGIN_EN + link;
@@ -4,9 +4,15 @@
 package com.allendowney.thinkdast;
 
 import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
+import org.jsoup.Jsoup;
 import org.junit.Test;
 
 /**
@@ -33,4 +39,52 @@ public class WikiPhilosophyTest {
 		}
 	}
 
+	@Test
+	public void testConjectures() throws Exception {
+		// a -> b -> c, which has no links; d -> e -> d; f -> b
+		PageSource source = url -> {
+			String name = url.substring(url.lastIndexOf('/') + 1);
+			switch (name) {
+			case "d":
+				return Jsoup.parse("<p><a href=\"/wiki/e\">e</a></p>").select("p");
+			case "e":
+				return Jsoup.parse("<p><a href=\"/wiki/d\">d</a></p>").select("p");
+			case "f":
+				return Jsoup.parse("<p><a href=\"/wiki/b\">b</a></p>").select("p");
+			case "g":
+				throw new IllegalStateException("cannot parse g");
+			default:
+				return FirstLinkCacheTest.page(url);
+			}
+		};
+		FirstLinkCache cache = new FirstLinkCache(null, source);
+		String prefix = "https://en.wikipedia.org/wiki/";
+		List<String> sources = new ArrayList<String>();
+		for (String name: new String[] {"a", "d", "f", "x", "b", "e", "g"}) {
+			sources.add(prefix + name);
+		}
+
+		Map<String, WikiPhilosophy.Result> results = WikiPhilosophy.testConjectures(prefix + "c", sources, 10, 4, cache);
+		assertThat(results.keySet(), is(new LinkedHashSet<String>(sources)));
+		assertThat(results.get(prefix + "a").outcome, is(WikiPhilosophy.Outcome.REACHED));
+		assertThat(results.get(prefix + "a").hops, is(2));
+		assertThat(results.get(prefix + "f").hops, is(2));
+		assertThat(results.get(prefix + "b").hops, is(1));
+		assertThat(results.get(prefix + "d").outcome, is(WikiPhilosophy.Outcome.LOOP));
+		assertThat(results.get(prefix + "d").hops, is(2));
+		// a page on the loop goes around it back to itself
+		assertThat(results.get(prefix + "e").outcome, is(WikiPhilosophy.Outcome.LOOP));
+		assertThat(results.get(prefix + "e").hops, is(2));
+		assertThat(results.get(prefix + "e").end, is(prefix + "e"));
+		assertThat(results.get(prefix + "x").outcome, is(WikiPhilosophy.Outcome.MISSING));
+		assertThat(results.get(prefix + "g").outcome, is(WikiPhilosophy.Outcome.FAILED));
+
+		// each page was parsed once
+		assertThat(cache.fetches(), is(7L));
+
+		results = WikiPhilosophy.testConjectures(prefix + "z", sources, 1, 4, cache);
+		assertThat(results.get(prefix + "a").outcome, is(WikiPhilosophy.Outcome.LIMIT));
+		assertThat(results.get(prefix + "b").outcome, is(WikiPhilosophy.Outcome.LIMIT));
+		assertThat(WikiPhilosophy.summarize(results), containsString("7 sources"));
+	}
 }
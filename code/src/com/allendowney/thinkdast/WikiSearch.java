@@ -147,6 +147,28 @@ public class WikiSearch {
 		return new WikiSearch(difference);
 	}
 
+	/**
+	 * Blends PageRank into the relevance of each result.
+	 *
+	 * Each relevance is multiplied by (1 - weight) + weight * score, where the
+	 * score averages 1 over all pages; so with weight 0 nothing changes, and with
+	 * weight 1 a page with twice the typical rank gets twice the relevance.
+	 *
+	 * @param ranks
+	 * @param weight  Between 0 and 1.
+	 * @return New WikiSearch object.
+	 */
+	public WikiSearch weightBy(PageRank ranks, double weight) {
+		final Map<String, Integer> weighted = new HashMap<>();
+
+		for (Entry<String, Integer> entry : map.entrySet()) {
+			double factor = (1 - weight) + weight * ranks.score(entry.getKey());
+			weighted.put(entry.getKey(), (int) Math.round(entry.getValue() * factor));
+		}
+
+		return new WikiSearch(weighted);
+	}
+
 	/**
 	 * Computes the relevance of a search with multiple terms.
 	 *
@@ -6,6 +6,7 @@ package com.allendowney.thinkdast;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -90,4 +91,22 @@ public class WikiSearchTest {
 		assertThat(list.get(1).getValue(), is(5));
 		assertThat(list.get(2).getValue(), is(7));
 	}
+
+	/**
+	 * Test method for {@link WikiSearch#weightBy(PageRank, double)}.
+	 */
+	@Test
+	public void testWeightBy() {
+		// Page2 and Page3 link to Page1
+		LinkGraph graph = new LinkGraph();
+		graph.setLinks("Page2", Arrays.asList("Page1"));
+		graph.setLinks("Page3", Arrays.asList("Page1"));
+		PageRank ranks = PageRank.compute(graph);
+
+		assertThat(search1.weightBy(ranks, 0).getRelevance("Page1"), is(1));
+		assertThat(search1.weightBy(ranks, 0).getRelevance("Page3"), is(3));
+		WikiSearch search = search1.weightBy(ranks, 1);
+		assertThat(search.getRelevance("Page1"), is((int) Math.round(ranks.score("Page1"))));
+		assertThat(search.getRelevance("Page3"), is((int) Math.round(3 * ranks.score("Page3"))));
+	}
 }
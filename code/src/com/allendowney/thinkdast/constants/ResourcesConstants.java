@@ -5,5 +5,9 @@ import java.io.File;
 public interface ResourcesConstants {
     String WIKI_PATH = String.join(File.separator, "resources", "en", "wikipedia", "org", "wiki");
 
+    String PAGE_STORE_PATH = String.join(File.separator, "resources", "en", "wikipedia", "org", "pages");
+
+    String FIRST_LINKS_PATH = String.join(File.separator, "resources", "en", "wikipedia", "org", "first-links.tsv");
+
     String STOP_WORD_PATH = String.join(File.separator, "resources", "stop-words.txt");
 }
@@ -1,9 +1,15 @@
 package com.allendowney.thinkdast.constants;
 
+import java.util.List;
+
 public interface WikiConstants {
     public static final String WIKI_ORIGIN_EN = "https://en.wikipedia.org";
     public static final String WIKI_PAGE_PREFIX = "/wiki/";
     public static final String WIKI_PHILOSOPHY = WIKI_PAGE_PREFIX + "Philosophy";
 
-
+    // titles of the pages stored under src/resources, except the Java page, whose file name is not its title
+    public static final List<String> STORED_PAGES = List.of(
+            "Awareness", "Computer_science", "Concurrent_computing", "Consciousness",
+            "Knowledge", "Mathematics", "Modern_philosophy", "Philosophy",
+            "Programming_language", "Property_(philosophy)", "Quality_(philosophy)", "Science");
 }